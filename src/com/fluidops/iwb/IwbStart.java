@@ -46,6 +46,7 @@ import com.fluidops.iwb.api.solution.SolutionService;
 import com.fluidops.iwb.api.valueresolver.ValueResolverUtil;
 import com.fluidops.iwb.extensions.PrinterExtensionsImpl;
 import com.fluidops.iwb.keywordsearch.KeywordIndexAPI;
+import com.fluidops.iwb.monitoring.RepositoryHealthMonitor;
 import com.fluidops.iwb.server.IwbServletContextListener;
 import com.fluidops.iwb.server.SparqlServlet;
 import com.fluidops.iwb.user.UserManagementAdministration;
@@ -240,6 +241,7 @@ public class IwbStart
 		IWBFileUtil.createFolderIfNotExists(IWBFileUtil.getBackupFolder());
 		IWBFileUtil.createFileIfNotExists(IWBFileUtil.getFileInConfigFolder("namespaces.prop"));
 		IWBFileUtil.createFileIfNotExists(IWBFileUtil.getFileInConfigFolder("widgets.prop"));
+		IWBFileUtil.createFileIfNotExists(IWBFileUtil.getFileInConfigFolder("layout.prop"));
 		IWBFileUtil.createFolderIfNotExists(IWBFileUtil.getWikiFolder());
 
 		
@@ -288,6 +290,8 @@ public class IwbStart
 		// register custom value resolvers
 		ValueResolverUtil.initializeValueResolverExtensions();
 		
+		// background health check of the repository, page requests fail fast if it is unavailable
+		RepositoryHealthMonitor.getInstance().start();
 	}
 	
 	
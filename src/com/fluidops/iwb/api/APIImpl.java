@@ -573,6 +573,8 @@ public class APIImpl extends DynamicServiceImpl implements API, InternalAPI
             }    
         }
         con.close();
+        if (!whatif)
+            CacheManager.getInstance().invalidateAllCaches(Global.repository);
         }
         catch(RepositoryException e) {
             logger.error(e.getMessage(), e);
@@ -54,6 +54,12 @@ public abstract class AbstractWidgetSelector implements WidgetSelector {
             new WidgetPersistence(WIDGET_SER_PATH);
     static ObjectPersistance<WidgetConfig> userWidgetsPersistence = new WidgetPersistence(WIDGET_USER_PATH);
     protected static List<WidgetConfig> widgetConfigs = new CopyOnWriteArrayList<WidgetConfig>();
+    
+    /**
+     * Index of the non-deleted widget configurations, rebuilt on {@link #save()} and {@link #load()}
+     */
+    private static volatile WidgetConfigIndex index;
+    
     private static final Predicate<WidgetConfig> IS_USER_CONFIG = new Predicate<WidgetConfig>()
     {
         @Override
@@ -170,8 +176,28 @@ public abstract class AbstractWidgetSelector implements WidgetSelector {
 	
 	private static void save() throws IOException
     {
+        rebuildIndex();
         userWidgetsPersistence.save(newArrayList(filter(widgetConfigs, IS_USER_CONFIG)));
     }
+	
+	private static void rebuildIndex()
+	{
+		index = new WidgetConfigIndex(newArrayList(filter(widgetConfigs, IS_NOT_DELETED)));
+	}
+	
+	/**
+	 * @return the index of the current widget configurations
+	 */
+	static WidgetConfigIndex getIndex()
+	{
+		WidgetConfigIndex res = index;
+		if (res==null)
+		{
+			rebuildIndex();
+			res = index;
+		}
+		return res;
+	}
     
     public static void load()
     {
@@ -185,7 +211,10 @@ public abstract class AbstractWidgetSelector implements WidgetSelector {
     		throw new RuntimeException("The file '"+WIDGET_SER_PATH+"' was not found", e);
     	}
 
-    	if(!userWidgetsPersistence.fileExists()) return;
+    	if(!userWidgetsPersistence.fileExists()) {
+    		rebuildIndex();
+    		return;
+    	}
 
     	try
     	{
@@ -202,6 +231,7 @@ public abstract class AbstractWidgetSelector implements WidgetSelector {
     	{
     		throw new RuntimeException("The file '"+WIDGET_USER_PATH+"' could not be loaded.", e);
     	}
+    	rebuildIndex();
     }
     
     public List<WidgetConfig> getWidgets()
@@ -23,18 +23,26 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
 import org.openrdf.repository.Repository;
 
+import com.fluidops.iwb.Global;
+import com.fluidops.iwb.api.query.ParsedQueryCache;
 import com.fluidops.iwb.cache.AutoSuggestionCache;
+import com.fluidops.iwb.cache.CacheStatistics;
 import com.fluidops.iwb.cache.ContextCache;
 import com.fluidops.iwb.cache.ImageFileCache;
 import com.fluidops.iwb.cache.InstanceCache;
 import com.fluidops.iwb.cache.InversePropertyCache;
 import com.fluidops.iwb.cache.LabelCache;
 import com.fluidops.iwb.cache.PropertyCache;
+import com.fluidops.iwb.cache.QueryResultCache;
 import com.fluidops.iwb.cache.RepositoryCache;
 import com.fluidops.iwb.cache.TypeCache;
 import com.fluidops.iwb.cache.URIAutoSuggestionCache;
+import com.fluidops.iwb.facets.FacetIndexCache;
+import com.fluidops.iwb.wiki.RenderedPageCache;
+import com.fluidops.iwb.wiki.TemplateCache;
 
 /**
  * Singletong global cache management class.
@@ -143,6 +151,9 @@ public class CacheManager
                 throw new RuntimeException(e);
             } 
         }
+        QueryResultCache.getInstance().invalidate();
+        RenderedPageCache.getInstance().clear();
+        FacetIndexCache.invalidateAll();
         
         // store date of last cache change
         lastupdate = System.currentTimeMillis();
@@ -181,6 +192,13 @@ public class CacheManager
             Long after = System.currentTimeMillis();
             logger.trace("Cleared " + cache.getClass().getSimpleName() + " in " + (after-before) + "ms");
         }
+        // also covers writes which bypass the context tracking of ReadWriteDataManagerImpl
+        QueryResultCache.getInstance().invalidate(rep);
+        if (rep==Global.repository)
+        {
+        	RenderedPageCache.getInstance().clear();
+        	FacetIndexCache.invalidateAll();
+        }
 
         // store date of last cache change
         lastupdate = System.currentTimeMillis();
@@ -206,6 +224,13 @@ public class CacheManager
             logger.trace("Updated " + cache.getClass().getSimpleName()
                     + " for resource " + res + " in " + (after - before) + "ms");
         }
+        // cached query results are invalidated per context on commit, see ReadWriteDataManagerImpl
+        if (rep==Global.repository)
+        {
+        	if (res instanceof URI)
+        		RenderedPageCache.getInstance().invalidate((URI)res);
+        	FacetIndexCache.invalidateAll();
+        }
 
         // store date of last cache change
         lastupdate = System.currentTimeMillis();
@@ -242,6 +267,40 @@ public class CacheManager
 	}
 	
 
+	/**
+	 * Returns the hit, miss and eviction statistics of all
+	 * repository caches, the {@link QueryResultCache}, the
+	 * {@link ParsedQueryCache}, the {@link RenderedPageCache} and
+	 * the {@link TemplateCache}.
+	 * 
+	 * @return
+	 */
+	public List<CacheStatistics> getCacheStatistics()
+	{
+		List<CacheStatistics> res = new ArrayList<CacheStatistics>();
+		for (RepositoryCache<?,?> cache : caches)
+			res.add(cache.getStatistics());
+		res.add(QueryResultCache.getInstance().getStatistics());
+		res.add(ParsedQueryCache.getInstance().getStatistics());
+		res.add(RenderedPageCache.getInstance().getStatistics());
+		res.add(TemplateCache.getInstance().getStatistics());
+		return res;
+	}
+	
+	/**
+	 * Resets the statistics counters of all repository caches.
+	 */
+	public void resetCacheStatistics()
+	{
+		for (RepositoryCache<?,?> cache : caches)
+			cache.resetStatistics();
+		QueryResultCache.getInstance().resetStatistics();
+		ParsedQueryCache.getInstance().resetStatistics();
+		RenderedPageCache.getInstance().resetStatistics();
+		TemplateCache.getInstance().resetStatistics();
+	}
+	
+
 	/**
 	 * Returns the date (as timestamp) of the last cache update
 	 * 
@@ -468,6 +468,18 @@ public class Context implements Comparable<Object>
 	    return timestamp;
 	}
 
+	/**
+	 * Sets the context's timestamp, e.g. when the data of the context is
+	 * refreshed in place. Method is package private, the meta information
+	 * must be persisted by the data manager.
+	 * 
+	 * @param timestamp the new timestamp
+	 */
+	void setTimestamp(Long timestamp)
+	{
+	    this.timestamp = timestamp;
+	}
+
 	/**
 	 * @return the context's source
 	 */
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.rio.ntriples.NTriplesUtil;
+
+import com.fluidops.iwb.util.IWBFileUtil;
+
+/**
+ * Sorted 64 bit hashes of the statements of a context, which are stored
+ * along with the context meta information and allow to compute the
+ * difference between two versions of the context without comparing the
+ * statements themselves, see
+ * {@link ReadWriteDataManager#updateDataForSrcDelta(URI, URI, Context.ContextType, Context.ContextLabel, Collection, Long)}.
+ *
+ * The hashes are stored in a binary file per context in the folder
+ * data/contexthashes. Note that the context of a statement is not part
+ * of its hash.
+ */
+public class ContextStatementHashes
+{
+	private static final Logger logger = Logger.getLogger(ContextStatementHashes.class.getName());
+
+	private static final String HASH_SUBDIR = "contexthashes";
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * @param stmt
+	 * @return the 64 bit FNV-1a hash of the N-Triples serialization of the statement
+	 */
+	public static long hash(Statement stmt)
+	{
+		long h = FNV_OFFSET;
+		h = hash(h, NTriplesUtil.toNTriplesString(stmt.getSubject()));
+		h = hash(h, NTriplesUtil.toNTriplesString(stmt.getPredicate()));
+		h = hash(h, NTriplesUtil.toNTriplesString(stmt.getObject()));
+		return h;
+	}
+
+	private static long hash(long h, String s)
+	{
+		for (int i=0; i<s.length(); i++)
+		{
+			h ^= s.charAt(i);
+			h *= FNV_PRIME;
+		}
+		// separator
+		h ^= ' ';
+		h *= FNV_PRIME;
+		return h;
+	}
+
+	/**
+	 * @param stmts
+	 * @return the sorted, duplicate free hashes of the statements
+	 */
+	public static long[] compute(Collection<Statement> stmts)
+	{
+		long[] res = new long[stmts.size()];
+		int i = 0;
+		for (Statement stmt : stmts)
+			res[i++] = hash(stmt);
+		Arrays.sort(res);
+
+		// remove duplicates
+		int size = 0;
+		for (i=0; i<res.length; i++)
+			if (size==0 || res[size-1]!=res[i])
+				res[size++] = res[i];
+		return size==res.length ? res : Arrays.copyOf(res, size);
+	}
+
+	/**
+	 * @param hashes sorted hashes
+	 * @param other sorted hashes
+	 * @return the sorted hashes contained in the first but not in the second array
+	 */
+	public static long[] difference(long[] hashes, long[] other)
+	{
+		long[] res = new long[hashes.length];
+		int size = 0;
+		int j = 0;
+		for (int i=0; i<hashes.length; i++)
+		{
+			while (j<other.length && other[j]<hashes[i])
+				j++;
+			if (j==other.length || other[j]!=hashes[i])
+				res[size++] = hashes[i];
+		}
+		return Arrays.copyOf(res, size);
+	}
+
+	/**
+	 * @param sortedHashes
+	 * @param stmt
+	 * @return true if the hash of the statement is contained in the sorted hashes
+	 */
+	public static boolean contains(long[] sortedHashes, Statement stmt)
+	{
+		return Arrays.binarySearch(sortedHashes, hash(stmt))>=0;
+	}
+
+	/**
+	 * Loads the stored hashes of the given context.
+	 *
+	 * @param context
+	 * @return the sorted hashes, or null if none are stored
+	 */
+	public static long[] load(URI context)
+	{
+		File f = fileFor(context);
+		if (!f.exists())
+			return null;
+
+		DataInputStream in = null;
+		try
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+			// the file name is a hash, hence the context is stored for verification
+			if (!in.readUTF().equals(context.stringValue()))
+				return null;
+			long[] res = new long[in.readInt()];
+			for (int i=0; i<res.length; i++)
+				res[i] = in.readLong();
+			return res;
+		}
+		catch (IOException e)
+		{
+			logger.warn("Statement hashes of context " + context + " could not be read: " + e.getMessage());
+			return null;
+		}
+		finally
+		{
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Stores the hashes of the given context, replacing previously stored hashes.
+	 *
+	 * @param context
+	 * @param sortedHashes
+	 */
+	public static void store(URI context, long[] sortedHashes)
+	{
+		File f = fileFor(context);
+		f.getParentFile().mkdirs();
+
+		DataOutputStream out = null;
+		try
+		{
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+			out.writeUTF(context.stringValue());
+			out.writeInt(sortedHashes.length);
+			for (long h : sortedHashes)
+				out.writeLong(h);
+			out.close();
+		}
+		catch (IOException e)
+		{
+			logger.warn("Statement hashes of context " + context + " could not be written: " + e.getMessage());
+			IOUtils.closeQuietly(out);
+			f.delete();
+		}
+	}
+
+	/**
+	 * Deletes the stored hashes of the given context, if any.
+	 *
+	 * @param context
+	 */
+	public static void delete(URI context)
+	{
+		File f = fileFor(context);
+		if (f.exists() && !f.delete())
+			logger.warn("Statement hashes of context " + context + " could not be deleted.");
+	}
+
+	private static File fileFor(URI context)
+	{
+		long h = hash(FNV_OFFSET, context.stringValue());
+		return new File(IWBFileUtil.getFileInDataFolder(HASH_SUBDIR), Long.toHexString(h) + ".bin");
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openrdf.model.Statement;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+
+import com.fluidops.iwb.provider.AbstractFlexProvider;
+
+/**
+ * {@link org.openrdf.rio.RDFHandler} writing the handled statements to the
+ * given context in batches, i.e. at most batchSize statements are held in
+ * memory. Used as sink for the streaming provider API, see
+ * {@link AbstractFlexProvider#gather(org.openrdf.rio.RDFHandler)}: the
+ * provider is blocked while a batch is written.
+ *
+ * The context meta information is not written, such that the batches can
+ * be written within a single transaction and the meta information is
+ * persisted once by the caller, see
+ * {@link ReadWriteDataManager#persistContextMetaInformation(Context)}.
+ */
+public class ContextStatementWriter extends RDFHandlerBase
+{
+	private final ReadWriteDataManager dm;
+
+	private final Context context;
+
+	private final int batchSize;
+
+	private final List<Statement> batch;
+
+	private int count = 0;
+
+	/**
+	 * @param dm
+	 * @param context the context to write to
+	 * @param batchSize the maximum number of statements per write
+	 */
+	public ContextStatementWriter(ReadWriteDataManager dm, Context context, int batchSize)
+	{
+		this.dm = dm;
+		this.context = context;
+		this.batchSize = Math.max(batchSize, 1);
+		this.batch = new ArrayList<Statement>(this.batchSize);
+	}
+
+	@Override
+	public void handleStatement(Statement st) throws RDFHandlerException
+	{
+		batch.add(st);
+		count++;
+		if (batch.size()>=batchSize)
+			flush();
+	}
+
+	@Override
+	public void endRDF() throws RDFHandlerException
+	{
+		flush();
+	}
+
+	private void flush() throws RDFHandlerException
+	{
+		if (batch.isEmpty())
+			return;
+		try
+		{
+			dm.addToContextWithoutPersist(batch, context);
+		}
+		catch (RuntimeException e)
+		{
+			throw new RDFHandlerException(e);
+		}
+		batch.clear();
+	}
+
+	/**
+	 * @return the number of handled statements
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+
+	public Context getContext()
+	{
+		return context;
+	}
+}
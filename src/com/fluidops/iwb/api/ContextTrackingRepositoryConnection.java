@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api;
+
+import info.aduna.iteration.Iteration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.Update;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.base.RepositoryConnectionWrapper;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFParseException;
+
+import com.fluidops.iwb.cache.QueryResultCache;
+
+/**
+ * RepositoryConnection delegate which records the contexts written since
+ * the last call of {@link #resetWrittenContexts()}, such that cached query
+ * results can be invalidated per context, see
+ * {@link QueryResultCache#invalidate(org.openrdf.repository.Repository, Set)}.
+ *
+ * Writes whose contexts are not known up front (e.g. removals without a
+ * context, parsed input without a target context or SPARQL updates) are
+ * recorded as writes to all contexts. The default context is represented
+ * by null.
+ */
+class ContextTrackingRepositoryConnection extends RepositoryConnectionWrapper
+{
+	/**
+	 * The contexts written, null if all contexts may have been written
+	 */
+	private Set<Resource> written = new HashSet<Resource>();
+
+	private final RepositoryConnection wrapped;
+
+	ContextTrackingRepositoryConnection(RepositoryConnection delegate)
+	{
+		super(delegate.getRepository(), delegate);
+		this.wrapped = delegate;
+	}
+
+	/**
+	 * @return the wrapped connection
+	 */
+	RepositoryConnection getWrappedConnection()
+	{
+		return wrapped;
+	}
+
+	/**
+	 * @return the contexts written since the last reset, null if all
+	 * 			contexts may have been written
+	 */
+	Set<Resource> getWrittenContexts()
+	{
+		return written;
+	}
+
+	void resetWrittenContexts()
+	{
+		written = new HashSet<Resource>();
+	}
+
+	@Override
+	public void add(Statement st, Resource... contexts) throws RepositoryException
+	{
+		if (contexts.length==0)
+			written(st.getContext());
+		else
+			written(contexts);
+		super.add(st, contexts);
+	}
+
+	@Override
+	public void add(Resource subject, URI predicate, Value object, Resource... contexts) throws RepositoryException
+	{
+		if (contexts.length==0)
+			written((Resource)null);
+		else
+			written(contexts);
+		super.add(subject, predicate, object, contexts);
+	}
+
+	@Override
+	public void add(Iterable<? extends Statement> statements, Resource... contexts) throws RepositoryException
+	{
+		if (contexts.length==0)
+		{
+			for (Statement st : statements)
+				written(st.getContext());
+		}
+		else
+			written(contexts);
+		super.add(statements, contexts);
+	}
+
+	@Override
+	public <E extends Exception> void add(Iteration<? extends Statement, E> statements, Resource... contexts)
+			throws RepositoryException, E
+	{
+		writtenUnlessGiven(contexts);
+		super.add(statements, contexts);
+	}
+
+	@Override
+	public void add(File file, String baseURI, RDFFormat dataFormat, Resource... contexts)
+			throws IOException, RDFParseException, RepositoryException
+	{
+		writtenUnlessGiven(contexts);
+		super.add(file, baseURI, dataFormat, contexts);
+	}
+
+	@Override
+	public void add(InputStream in, String baseURI, RDFFormat dataFormat, Resource... contexts)
+			throws IOException, RDFParseException, RepositoryException
+	{
+		writtenUnlessGiven(contexts);
+		super.add(in, baseURI, dataFormat, contexts);
+	}
+
+	@Override
+	public void add(Reader reader, String baseURI, RDFFormat dataFormat, Resource... contexts)
+			throws IOException, RDFParseException, RepositoryException
+	{
+		writtenUnlessGiven(contexts);
+		super.add(reader, baseURI, dataFormat, contexts);
+	}
+
+	@Override
+	public void add(URL url, String baseURI, RDFFormat dataFormat, Resource... contexts)
+			throws IOException, RDFParseException, RepositoryException
+	{
+		writtenUnlessGiven(contexts);
+		super.add(url, baseURI, dataFormat, contexts);
+	}
+
+	@Override
+	public void remove(Statement st, Resource... contexts) throws RepositoryException
+	{
+		// a statement without context is removed from all contexts
+		if (contexts.length==0)
+			writtenUnlessGiven(st.getContext()==null ? new Resource[0] : new Resource[] { st.getContext() });
+		else
+			written(contexts);
+		super.remove(st, contexts);
+	}
+
+	@Override
+	public void remove(Resource subject, URI predicate, Value object, Resource... contexts) throws RepositoryException
+	{
+		writtenUnlessGiven(contexts);
+		super.remove(subject, predicate, object, contexts);
+	}
+
+	@Override
+	public void remove(Iterable<? extends Statement> statements, Resource... contexts) throws RepositoryException
+	{
+		if (contexts.length==0)
+		{
+			for (Statement st : statements)
+				writtenUnlessGiven(st.getContext()==null ? new Resource[0] : new Resource[] { st.getContext() });
+		}
+		else
+			written(contexts);
+		super.remove(statements, contexts);
+	}
+
+	@Override
+	public <E extends Exception> void remove(Iteration<? extends Statement, E> statements, Resource... contexts)
+			throws RepositoryException, E
+	{
+		writtenUnlessGiven(contexts);
+		super.remove(statements, contexts);
+	}
+
+	@Override
+	public void clear(Resource... contexts) throws RepositoryException
+	{
+		writtenUnlessGiven(contexts);
+		super.clear(contexts);
+	}
+
+	@Override
+	public Update prepareUpdate(QueryLanguage ql, String update, String baseURI)
+			throws MalformedQueryException, RepositoryException
+	{
+		written = null;
+		return super.prepareUpdate(ql, update, baseURI);
+	}
+
+	private void written(Resource... contexts)
+	{
+		if (written==null)
+			return;
+		for (Resource context : contexts)
+			written.add(context);
+	}
+
+	/**
+	 * Records the given contexts, or all contexts if none is given
+	 */
+	private void writtenUnlessGiven(Resource... contexts)
+	{
+		if (contexts.length==0)
+			written = null;
+		else
+			written(contexts);
+	}
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.URI;
+
+import com.fluidops.iwb.provider.LookupProvider;
+import com.fluidops.iwb.util.Config;
+
+/**
+ * Bounded background queue for refreshing the data of {@link LookupProvider}s
+ * for a given URI, such that page requests can serve the cached data instead
+ * of waiting for the provider.
+ *
+ * Refreshes are de-duplicated by provider and URI, i.e. a refresh requested
+ * while the same refresh is pending shares its result. At most
+ * {@link Config#getLookupRefreshMaxPerProvider()} refreshes of a provider run
+ * at the same time, further refreshes of the provider wait until one of them
+ * is finished. By default this is a single refresh, as a provider run records
+ * its state (e.g. the error) on the shared provider instance, see
+ * {@link ProviderServiceImpl#runProvider(URI, String)}. Refreshes are dropped (and retried with the next page view) if
+ * {@link Config#getLookupRefreshQueueSize()} refreshes are already waiting.
+ *
+ * After a failed refresh, further refreshes of the provider are dropped for
+ * {@link Config#getLookupRefreshFailureBackoff()} milliseconds, doubled with
+ * every consecutive failure, such that an unavailable source is not queried
+ * with every page view.
+ */
+public class LookupRefreshQueue
+{
+	private static final Logger logger = Logger.getLogger(LookupRefreshQueue.class.getName());
+
+	/**
+	 * The backoff is doubled at most 4 times, i.e. up to 16 times the configured backoff
+	 */
+	private static final int MAX_BACKOFF_DOUBLINGS = 4;
+
+	private static LookupRefreshQueue instance;
+
+	private final ThreadPoolExecutor executor;
+
+	private final int queueSize;
+
+	/**
+	 * Pending refreshes keyed by provider and URI
+	 */
+	private final ConcurrentMap<String, Future<Void>> pending = new ConcurrentHashMap<String, Future<Void>>();
+
+	/**
+	 * Running and waiting refreshes and failure backoff per provider
+	 */
+	private final ConcurrentMap<URI, ProviderState> providers = new ConcurrentHashMap<URI, ProviderState>();
+
+	/**
+	 * Number of refreshes waiting for a running refresh of the same provider
+	 */
+	private final AtomicInteger waitingCount = new AtomicInteger();
+
+	/**
+	 * State of the refreshes of a provider, guarded by its monitor
+	 */
+	private static class ProviderState
+	{
+		private int running = 0;
+		private final Queue<RefreshTask> waiting = new LinkedList<RefreshTask>();
+		private int consecutiveFailures = 0;
+		private long backoffUntil = 0;
+	}
+
+	/**
+	 * Refresh of the data of a provider for a URI, on completion the next
+	 * waiting refresh of the provider is started
+	 */
+	private class RefreshTask extends FutureTask<Void>
+	{
+		private final String key;
+		private final ProviderState state;
+
+		private RefreshTask(final URI provider, final URI uri, String key, ProviderState state)
+		{
+			super(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception
+				{
+					EndpointImpl.api().getProviderService().runProvider(provider, uri.stringValue());
+					return null;
+				}
+			});
+			this.key = key;
+			this.state = state;
+		}
+
+		@Override
+		protected void done()
+		{
+			pending.remove(key, this);
+			finished(this);
+		}
+
+		private boolean succeeded()
+		{
+			try
+			{
+				get();
+				return true;
+			}
+			catch (Exception e)
+			{
+				return false;
+			}
+		}
+	}
+
+	public static synchronized LookupRefreshQueue getInstance()
+	{
+		if (instance==null)
+			instance = new LookupRefreshQueue(Config.getConfig().getLookupRefreshThreads(), Config.getConfig().getLookupRefreshQueueSize());
+		return instance;
+	}
+
+	private LookupRefreshQueue(int threads, int queueSize)
+	{
+		this.queueSize = queueSize;
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+					@Override
+					public Thread newThread(Runnable r)
+					{
+						Thread t = new Thread(r, "LookupRefresh-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Enqueues the refresh of the data of the given provider for the given URI.
+	 * The returned future fails if the provider run fails.
+	 *
+	 * @param provider the provider id
+	 * @param uri
+	 * @return the future of the refresh, which may be shared with an already
+	 * 			pending refresh, or null if the refresh was dropped because the
+	 * 			queue is full or the provider failed recently
+	 */
+	public Future<Void> refresh(URI provider, URI uri)
+	{
+		String key = provider.stringValue() + " " + uri.stringValue();
+		Future<Void> res = pending.get(key);
+		if (res!=null)
+			return res;
+
+		ProviderState state = stateOf(provider);
+		synchronized (state)
+		{
+			if (System.currentTimeMillis()<state.backoffUntil)
+			{
+				logger.debug("Provider " + provider + " failed recently, dropping refresh of " + uri);
+				return null;
+			}
+		}
+
+		RefreshTask task = new RefreshTask(provider, uri, key, state);
+		res = pending.putIfAbsent(key, task);
+		if (res!=null)
+			return res;
+
+		boolean start;
+		synchronized (state)
+		{
+			start = state.running<Config.getConfig().getLookupRefreshMaxPerProvider();
+			if (start)
+				state.running++;
+			else if (waitingCount.get()<queueSize)
+			{
+				state.waiting.add(task);
+				waitingCount.incrementAndGet();
+			}
+			else
+			{
+				pending.remove(key, task);
+				logger.debug("Lookup refresh queue is full, dropping refresh of " + uri);
+				return null;
+			}
+		}
+		if (start && !execute(task))
+			return null;
+		return task;
+	}
+
+	/**
+	 * @return the number of pending refreshes
+	 */
+	public int size()
+	{
+		return pending.size();
+	}
+
+	/**
+	 * Submits the task to the executor, the task is cancelled if the
+	 * executor queue is full
+	 *
+	 * @return false if the task was cancelled
+	 */
+	private boolean execute(RefreshTask task)
+	{
+		try
+		{
+			executor.execute(task);
+			return true;
+		}
+		catch (RejectedExecutionException e)
+		{
+			logger.debug("Lookup refresh queue is full, dropping refresh " + task.key);
+			task.cancel(false);
+			return false;
+		}
+	}
+
+	/**
+	 * Updates the backoff of the provider and starts its next waiting refresh
+	 */
+	private void finished(RefreshTask task)
+	{
+		ProviderState state = task.state;
+		RefreshTask next;
+		synchronized (state)
+		{
+			// cancelled before it was started
+			if (state.waiting.remove(task))
+			{
+				waitingCount.decrementAndGet();
+				return;
+			}
+			state.running--;
+			if (!task.isCancelled())
+			{
+				if (task.succeeded())
+				{
+					state.consecutiveFailures = 0;
+					state.backoffUntil = 0;
+				}
+				else
+				{
+					state.consecutiveFailures++;
+					long factor = 1L << Math.min(state.consecutiveFailures-1, MAX_BACKOFF_DOUBLINGS);
+					state.backoffUntil = System.currentTimeMillis() + factor * Config.getConfig().getLookupRefreshFailureBackoff();
+				}
+			}
+			next = state.waiting.poll();
+			if (next!=null)
+			{
+				waitingCount.decrementAndGet();
+				state.running++;
+			}
+		}
+		if (next!=null)
+			execute(next);
+	}
+
+	private ProviderState stateOf(URI provider)
+	{
+		ProviderState res = providers.get(provider);
+		if (res==null)
+		{
+			ProviderState newState = new ProviderState();
+			res = providers.putIfAbsent(provider, newState);
+			if (res==null)
+				res = newState;
+		}
+		return res;
+	}
+}
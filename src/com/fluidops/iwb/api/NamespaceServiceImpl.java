@@ -22,14 +22,10 @@ import static java.lang.Character.toChars;
 import static java.lang.String.format;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
@@ -65,14 +61,14 @@ public class NamespaceServiceImpl implements NamespaceService
     Properties store;
 
     /**
-     * The store, ordered by the namespace name length in descending length,
-     * because sometimes we want to resolve longer prefixes first, e.g. if we have
+     * Trie over the namespaces of the store, because we want to resolve
+     * longest prefixes first, e.g. if we have
      *   ns1 -> http://www.fluidops.com
      *   ns2 -> http://www.fluidops.com/help
      * and resolve http://www.fluidops.com/help/help
      * we actually want to resolve it to ns:help rather than ns1:help/help.
      */
-    private SortedSet<Entry<Object,Object>> namespacesByDescSize;
+    private volatile NamespaceTrie namespaceTrie;
     
     /**
      * Predefined namespaces
@@ -83,11 +79,6 @@ public class NamespaceServiceImpl implements NamespaceService
      */
     private static final ValueFactory valueFactory = new ValueFactoryImpl();
 
-    /**
-     * Regex pattern for a valid SPARQL local name.
-     */
-    private Pattern sparqlLocalNamePattern;
-
 	private Pattern sparqlNamespacePrefixPattern;
     
     /**
@@ -219,8 +210,6 @@ public class NamespaceServiceImpl implements NamespaceService
         String PN_CHARS_U = union(PN_CHARS_BASE, "[_]");
         String PN_CHARS = union(PN_CHARS_U, "[\\-0-9\u00B7\u0300-\u036F\u203F-\u2040]");
 
-        sparqlLocalNamePattern =
-                Pattern.compile(format("%s(%s*%s)?", PN_CHARS_U, union(PN_CHARS, "[.]"), PN_CHARS));
         sparqlNamespacePrefixPattern = 
         		Pattern.compile(format("%s(%s*%s)?", PN_CHARS_U, union(PN_CHARS, "[.]"), PN_CHARS));
 	}
@@ -302,10 +291,7 @@ public class NamespaceServiceImpl implements NamespaceService
      */
     protected boolean validateLocalName(String localName)
     {
-        Matcher sparqlLocalNameMatcher =
-                sparqlLocalNamePattern.matcher(localName);
-
-        return sparqlLocalNameMatcher.matches();
+        return NamespaceTrie.isValidLocalName(localName, 0);
     }
 
     @Override
@@ -328,30 +314,26 @@ public class NamespaceServiceImpl implements NamespaceService
             return uri.stringValue();
         }
         
-        for ( Entry<Object, Object> s : namespacesByDescSize )
-        {
-            String namespace = (String)s.getValue();
-            if ( uri.stringValue().startsWith(namespace) )
-            {
-                String localname =
-                        uri.stringValue().substring(namespace.length());
-
-                // return null, if the local name does not conform to standard
-                // specifications:
-                // [XML] http://www.w3.org/TR/2006/REC-xml-names11-20060816/#NT-LocalPart
-                // [SPARQL] http://www.w3.org/TR/rdf-sparql-query/#rPN_LOCAL
-                // Note that technically both apply to us, but we follow SPARQL:
-                if (! validateLocalName(localname))
-                    return null; // no abbreviated version exists
-
-                // for the default namespace, we omit the namespace prefix
-                String prefix =
-                        (((String) s.getValue()).equals(defaultNamespace())) ? ""
-                                : (String) s.getKey() + ":";
-                return prefix + localname;
-            }
-        }
-        return null;
+        String uriString = uri.stringValue();
+        NamespaceTrie.Node match = namespaceTrie.longestMatch(uriString);
+        if (match==null)
+            return null;
+        
+        String namespace = match.getNamespace();
+
+        // return null, if the local name does not conform to standard
+        // specifications:
+        // [XML] http://www.w3.org/TR/2006/REC-xml-names11-20060816/#NT-LocalPart
+        // [SPARQL] http://www.w3.org/TR/rdf-sparql-query/#rPN_LOCAL
+        // Note that technically both apply to us, but we follow SPARQL:
+        if (! NamespaceTrie.isValidLocalName(uriString, namespace.length()))
+            return null; // no abbreviated version exists
+
+        // for the default namespace, we omit the namespace prefix
+        String localname = uriString.substring(namespace.length());
+        if (namespace.equals(defaultNamespace()))
+            return localname;
+        return match.getPrefix() + ":" + localname;
     }
     
     @Override
@@ -360,13 +342,7 @@ public class NamespaceServiceImpl implements NamespaceService
         if (uri==null)
             return null;
         
-        for ( Entry<Object, Object> s : namespacesByDescSize )
-        {
-            String namespace = (String)s.getValue();
-            if ( uri.stringValue().startsWith(namespace) )
-                return namespace;
-        }
-        return null;
+        return namespaceTrie.getNamespace(uri.stringValue());
     }
     
     @Override
@@ -844,40 +820,15 @@ public class NamespaceServiceImpl implements NamespaceService
 
 
     /**
-     * This is of course not the most elegant way and error prone (we need to 
-     * take care the sorted store is synchronized at all times): we keep
-     * a set of namespace key-value mappings sorted by length of the value.
-     * The problem is that SortedMap allows sorting only by keys, not by
-     * values. And sorted set with an inner pair is not what we want. Using
-     * a bidirectional map is also invalid, because we may have duplicates
-     * (different namespace prefixes mapping to the same namespace).
+     * Rebuilds the namespace trie from the store. Needs to be called
+     * whenever the store changes. The trie is immutable and replaced
+     * as a whole, such that lookups do not need to be synchronized.
      */
     private synchronized void synchronizeSortedStore()
     {
-        namespacesByDescSize = new TreeSet<Entry<Object,Object>>(
-                new Comparator<Entry<Object,Object>>()
-                {
-                    @Override
-                    public int compare(Entry<Object,Object> o1, Entry<Object,Object> o2)
-                    {
-                        Object o1val = o1.getValue();
-                        Object o2val = o2.getValue();
-                        
-                        if (o1val instanceof String && o2val instanceof String)
-                        {
-                            int o1l = ((String)o1val).length();
-                            int o2l = ((String)o2val).length();
-
-                            if (o1l!=o2l)
-                                return o2l-o1l;
-                        }
-                        
-                        // fallback or equal-size
-                        return o1.toString().compareTo(o2.toString());
-                    }
-                });
-        namespacesByDescSize.addAll(store.entrySet());
-        
+        synchronized(store) {
+            namespaceTrie = new NamespaceTrie(store);
+        }
     }
 
 }
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Immutable trie over namespace strings, supporting longest prefix
+ * match lookups of URIs without allocating objects. Used by
+ * {@link NamespaceServiceImpl} to resolve the namespace of a URI.
+ *
+ * If several prefixes are registered for the same namespace, the
+ * prefix that is smallest in its "prefix=namespace" string
+ * representation is used.
+ */
+class NamespaceTrie
+{
+	/**
+	 * A trie node, the children are sorted by their character
+	 */
+	static class Node
+	{
+		private char[] chars = new char[0];
+		private Node[] children = new Node[0];
+
+		/**
+		 * The prefix of the namespace ending at this node, or null
+		 */
+		private String prefix;
+
+		/**
+		 * The namespace ending at this node, or null
+		 */
+		private String namespace;
+
+		String getPrefix()
+		{
+			return prefix;
+		}
+
+		String getNamespace()
+		{
+			return namespace;
+		}
+
+		private Node child(char c)
+		{
+			int idx = Arrays.binarySearch(chars, c);
+			return idx<0 ? null : children[idx];
+		}
+
+		private Node getOrAddChild(char c)
+		{
+			int idx = Arrays.binarySearch(chars, c);
+			if (idx>=0)
+				return children[idx];
+
+			int ins = -idx-1;
+			char[] newChars = new char[chars.length+1];
+			Node[] newChildren = new Node[children.length+1];
+			System.arraycopy(chars, 0, newChars, 0, ins);
+			System.arraycopy(children, 0, newChildren, 0, ins);
+			System.arraycopy(chars, ins, newChars, ins+1, chars.length-ins);
+			System.arraycopy(children, ins, newChildren, ins+1, children.length-ins);
+			newChars[ins] = c;
+			newChildren[ins] = new Node();
+			chars = newChars;
+			children = newChildren;
+			return newChildren[ins];
+		}
+	}
+
+	private final Node root = new Node();
+
+	/**
+	 * @param namespaces mapping from prefix to namespace
+	 */
+	NamespaceTrie(Map<Object,Object> namespaces)
+	{
+		for (Map.Entry<Object,Object> e : namespaces.entrySet())
+		{
+			if (!(e.getKey() instanceof String) || !(e.getValue() instanceof String))
+				continue;
+			String prefix = (String)e.getKey();
+			String namespace = (String)e.getValue();
+
+			Node node = root;
+			for (int i=0; i<namespace.length(); i++)
+				node = node.getOrAddChild(namespace.charAt(i));
+
+			if (node.prefix==null || (prefix + "=" + namespace).compareTo(node.prefix + "=" + namespace)<0)
+			{
+				node.prefix = prefix;
+				node.namespace = namespace;
+			}
+		}
+	}
+
+	/**
+	 * Returns the node of the longest namespace that is a prefix of
+	 * the given URI, or null if there is no such namespace.
+	 */
+	Node longestMatch(String uri)
+	{
+		Node node = root;
+		Node res = null;
+		for (int i=0; i<uri.length() && node!=null; i++)
+		{
+			node = node.child(uri.charAt(i));
+			if (node!=null && node.namespace!=null)
+				res = node;
+		}
+		return res;
+	}
+
+	/**
+	 * @return the longest registered namespace that is a prefix of uri, or null
+	 */
+	String getNamespace(String uri)
+	{
+		Node node = longestMatch(uri);
+		return node==null ? null : node.namespace;
+	}
+
+	/**
+	 * Checks if the substring of s starting at the given index is a valid
+	 * SPARQL local name (see http://www.w3.org/TR/rdf-sparql-query/#rPN_LOCAL),
+	 * i.e. matches PN_CHARS_U ((PN_CHARS|'.')* PN_CHARS)?
+	 *
+	 * @param s
+	 * @param start
+	 * @return
+	 */
+	static boolean isValidLocalName(String s, int start)
+	{
+		int len = s.length();
+		if (start>=len)
+			return false;
+
+		int cp = s.codePointAt(start);
+		if (!isPnCharU(cp))
+			return false;
+
+		int last = cp;
+		for (int i=start+Character.charCount(cp); i<len; i+=Character.charCount(cp))
+		{
+			cp = s.codePointAt(i);
+			if (cp!='.' && !isPnChar(cp))
+				return false;
+			last = cp;
+		}
+		// the local name must not end with '.'
+		return last!='.';
+	}
+
+	private static boolean isPnCharsBase(int cp)
+	{
+		return (cp>='A' && cp<='Z') || (cp>='a' && cp<='z')
+				|| (cp>=0x00C0 && cp<=0x00D6) || (cp>=0x00D8 && cp<=0x00F6)
+				|| (cp>=0x00F8 && cp<=0x02FF) || (cp>=0x0370 && cp<=0x037D)
+				|| (cp>=0x037F && cp<=0x1FFF) || (cp>=0x200C && cp<=0x200D)
+				|| (cp>=0x2070 && cp<=0x218F) || (cp>=0x2C00 && cp<=0x2FEF)
+				|| (cp>=0x3001 && cp<=0xD7FF) || (cp>=0xF900 && cp<=0xFDCF)
+				|| (cp>=0xFDF0 && cp<=0xFFFD) || (cp>=0x10000 && cp<=0xEFFFF);
+	}
+
+	private static boolean isPnCharU(int cp)
+	{
+		return cp=='_' || isPnCharsBase(cp);
+	}
+
+	private static boolean isPnChar(int cp)
+	{
+		return isPnCharU(cp) || cp=='-' || (cp>='0' && cp<='9') || cp==0x00B7
+				|| (cp>=0x0300 && cp<=0x036F) || (cp>=0x203F && cp<=0x2040);
+	}
+}
@@ -0,0 +1,880 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api;
+
+import info.aduna.iteration.Iteration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+
+import org.openrdf.model.Namespace;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BooleanQuery;
+import org.openrdf.query.GraphQuery;
+import org.openrdf.query.GraphQueryResult;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.Operation;
+import org.openrdf.query.Query;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQuery;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.TupleQueryResultHandler;
+import org.openrdf.query.TupleQueryResultHandlerException;
+import org.openrdf.query.Update;
+import org.openrdf.query.UpdateExecutionException;
+import org.openrdf.query.impl.AbstractOperation;
+import org.openrdf.query.impl.AbstractQuery;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
+import org.openrdf.rio.ParserConfig;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+
+/**
+ * Connection of the shared {@link ReadDataManagerImpl} of a pooled repository,
+ * see {@link RepositoryConnectionPool#operationConnection()}. Each operation
+ * borrows a connection from the pool and returns it when the operation is
+ * done, such that concurrent request threads use different connections.
+ *
+ * Queries are prepared lazily: a connection is borrowed for evaluating the
+ * query only. Results of remote repositories are read from the HTTP response
+ * and do not depend on the connection, hence the connection is returned
+ * before the result is consumed.
+ *
+ * The connection is in autocommit mode, transactions are not supported.
+ * Closing the connection is a no-op, as it is shared.
+ */
+class PooledOperationConnection implements RepositoryConnection
+{
+	private final RepositoryConnectionPool pool;
+
+	private final Repository r;
+
+	private volatile ParserConfig parserConfig;
+
+	PooledOperationConnection(RepositoryConnectionPool pool, Repository r)
+	{
+		this.pool = pool;
+		this.r = r;
+	}
+
+	private RepositoryConnection borrow() throws RepositoryException
+	{
+		RepositoryConnection conn = pool.borrow();
+		if (parserConfig!=null)
+			conn.setParserConfig(parserConfig);
+		return conn;
+	}
+
+	@Override
+	public Repository getRepository()
+	{
+		return r;
+	}
+
+	@Override
+	public void setParserConfig(ParserConfig config)
+	{
+		parserConfig = config;
+	}
+
+	@Override
+	public ParserConfig getParserConfig()
+	{
+		return parserConfig;
+	}
+
+	@Override
+	public ValueFactory getValueFactory()
+	{
+		return r.getValueFactory();
+	}
+
+	@Override
+	public boolean isOpen() throws RepositoryException
+	{
+		return !pool.isClosed();
+	}
+
+	@Override
+	public void close() throws RepositoryException
+	{
+		// shared, the borrowed connections are returned after each operation
+	}
+
+	@Override
+	public Query prepareQuery(QueryLanguage ql, String query) throws RepositoryException, MalformedQueryException
+	{
+		return prepareQuery(ql, query, null);
+	}
+
+	@Override
+	public Query prepareQuery(QueryLanguage ql, String query, String baseURI) throws RepositoryException, MalformedQueryException
+	{
+		// the type of the query is determined by the connection
+		Query q;
+		RepositoryConnection conn = borrow();
+		try
+		{
+			q = conn.prepareQuery(ql, query, baseURI);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+		if (q instanceof TupleQuery)
+			return new PooledTupleQuery(ql, query, baseURI);
+		if (q instanceof GraphQuery)
+			return new PooledGraphQuery(ql, query, baseURI);
+		if (q instanceof BooleanQuery)
+			return new PooledBooleanQuery(ql, query, baseURI);
+		throw new MalformedQueryException("Unsupported query type: " + q.getClass().getName());
+	}
+
+	@Override
+	public TupleQuery prepareTupleQuery(QueryLanguage ql, String query) throws RepositoryException, MalformedQueryException
+	{
+		return new PooledTupleQuery(ql, query, null);
+	}
+
+	@Override
+	public TupleQuery prepareTupleQuery(QueryLanguage ql, String query, String baseURI) throws RepositoryException, MalformedQueryException
+	{
+		return new PooledTupleQuery(ql, query, baseURI);
+	}
+
+	@Override
+	public GraphQuery prepareGraphQuery(QueryLanguage ql, String query) throws RepositoryException, MalformedQueryException
+	{
+		return new PooledGraphQuery(ql, query, null);
+	}
+
+	@Override
+	public GraphQuery prepareGraphQuery(QueryLanguage ql, String query, String baseURI) throws RepositoryException, MalformedQueryException
+	{
+		return new PooledGraphQuery(ql, query, baseURI);
+	}
+
+	@Override
+	public BooleanQuery prepareBooleanQuery(QueryLanguage ql, String query) throws RepositoryException, MalformedQueryException
+	{
+		return new PooledBooleanQuery(ql, query, null);
+	}
+
+	@Override
+	public BooleanQuery prepareBooleanQuery(QueryLanguage ql, String query, String baseURI) throws RepositoryException, MalformedQueryException
+	{
+		return new PooledBooleanQuery(ql, query, baseURI);
+	}
+
+	@Override
+	public Update prepareUpdate(QueryLanguage ql, String update) throws RepositoryException, MalformedQueryException
+	{
+		return new PooledUpdate(ql, update, null);
+	}
+
+	@Override
+	public Update prepareUpdate(QueryLanguage ql, String update, String baseURI) throws RepositoryException, MalformedQueryException
+	{
+		return new PooledUpdate(ql, update, baseURI);
+	}
+
+	@Override
+	public RepositoryResult<Resource> getContextIDs() throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			return conn.getContextIDs();
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public RepositoryResult<Statement> getStatements(Resource subj, URI pred, Value obj,
+			boolean includeInferred, Resource... contexts) throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			return conn.getStatements(subj, pred, obj, includeInferred, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public boolean hasStatement(Resource subj, URI pred, Value obj,
+			boolean includeInferred, Resource... contexts) throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			return conn.hasStatement(subj, pred, obj, includeInferred, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public boolean hasStatement(Statement st, boolean includeInferred, Resource... contexts) throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			return conn.hasStatement(st, includeInferred, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public void exportStatements(Resource subj, URI pred, Value obj, boolean includeInferred,
+			RDFHandler handler, Resource... contexts) throws RepositoryException, RDFHandlerException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.exportStatements(subj, pred, obj, includeInferred, handler, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public void export(RDFHandler handler, Resource... contexts) throws RepositoryException, RDFHandlerException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.export(handler, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public long size(Resource... contexts) throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			return conn.size(contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public boolean isEmpty() throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			return conn.isEmpty();
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("deprecation")
+	public void setAutoCommit(boolean autoCommit) throws RepositoryException
+	{
+		if (!autoCommit)
+			begin();
+	}
+
+	@Override
+	@SuppressWarnings("deprecation")
+	public boolean isAutoCommit() throws RepositoryException
+	{
+		return true;
+	}
+
+	@Override
+	public boolean isActive() throws RepositoryException
+	{
+		return false;
+	}
+
+	@Override
+	public void begin() throws RepositoryException
+	{
+		throw new UnsupportedOperationException("Transactions are not supported by the shared connection of pooled repository " + pool.getName());
+	}
+
+	@Override
+	public void commit() throws RepositoryException
+	{
+		// autocommit, nothing pending
+	}
+
+	@Override
+	public void rollback() throws RepositoryException
+	{
+		// autocommit, nothing pending
+	}
+
+	@Override
+	public void add(InputStream in, String baseURI, RDFFormat dataFormat, Resource... contexts)
+			throws IOException, RDFParseException, RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.add(in, baseURI, dataFormat, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public void add(Reader reader, String baseURI, RDFFormat dataFormat, Resource... contexts)
+			throws IOException, RDFParseException, RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.add(reader, baseURI, dataFormat, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public void add(URL url, String baseURI, RDFFormat dataFormat, Resource... contexts)
+			throws IOException, RDFParseException, RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.add(url, baseURI, dataFormat, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public void add(File file, String baseURI, RDFFormat dataFormat, Resource... contexts)
+			throws IOException, RDFParseException, RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.add(file, baseURI, dataFormat, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public void add(Resource subject, URI predicate, Value object, Resource... contexts) throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.add(subject, predicate, object, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public void add(Statement st, Resource... contexts) throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.add(st, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public void add(Iterable<? extends Statement> statements, Resource... contexts) throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.add(statements, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public <E extends Exception> void add(Iteration<? extends Statement, E> statements, Resource... contexts)
+			throws RepositoryException, E
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.add(statements, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public void remove(Resource subject, URI predicate, Value object, Resource... contexts) throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.remove(subject, predicate, object, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public void remove(Statement st, Resource... contexts) throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.remove(st, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public void remove(Iterable<? extends Statement> statements, Resource... contexts) throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.remove(statements, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public <E extends Exception> void remove(Iteration<? extends Statement, E> statements, Resource... contexts)
+			throws RepositoryException, E
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.remove(statements, contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public void clear(Resource... contexts) throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.clear(contexts);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public RepositoryResult<Namespace> getNamespaces() throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			return conn.getNamespaces();
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public String getNamespace(String prefix) throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			return conn.getNamespace(prefix);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public void setNamespace(String prefix, String name) throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.setNamespace(prefix, name);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public void removeNamespace(String prefix) throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.removeNamespace(prefix);
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	@Override
+	public void clearNamespaces() throws RepositoryException
+	{
+		RepositoryConnection conn = borrow();
+		try
+		{
+			conn.clearNamespaces();
+		}
+		finally
+		{
+			pool.release(conn);
+		}
+	}
+
+	/**
+	 * Applies the settings of a lazily prepared operation to the operation
+	 * prepared on a borrowed connection.
+	 */
+	private static void configure(AbstractOperation settings, Operation op)
+	{
+		for (Binding binding : settings.getBindings())
+			op.setBinding(binding.getName(), binding.getValue());
+		if (settings.getDataset()!=null)
+			op.setDataset(settings.getDataset());
+		try
+		{
+			op.setIncludeInferred(settings.getIncludeInferred());
+		}
+		catch (UnsupportedOperationException ignore)
+		{
+			// e.g. not supported by the Sesame SPARQLRepository
+		}
+		if (settings instanceof Query && op instanceof Query && ((Query)settings).getMaxQueryTime()>0)
+		{
+			try
+			{
+				((Query)op).setMaxQueryTime(((Query)settings).getMaxQueryTime());
+			}
+			catch (UnsupportedOperationException ignore)
+			{
+				// e.g. not supported by the Sesame SPARQLRepository
+			}
+		}
+	}
+
+	/**
+	 * Query which is prepared on a borrowed connection when evaluated
+	 */
+	private abstract class PooledQuery extends AbstractQuery
+	{
+		protected final QueryLanguage ql;
+		protected final String query;
+		protected final String baseURI;
+
+		private PooledQuery(QueryLanguage ql, String query, String baseURI)
+		{
+			this.ql = ql;
+			this.query = query;
+			this.baseURI = baseURI;
+		}
+
+		protected RepositoryConnection borrowConnection() throws QueryEvaluationException
+		{
+			try
+			{
+				return borrow();
+			}
+			catch (RepositoryException e)
+			{
+				throw new QueryEvaluationException(e);
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return query;
+		}
+	}
+
+	private class PooledTupleQuery extends PooledQuery implements TupleQuery
+	{
+		private PooledTupleQuery(QueryLanguage ql, String query, String baseURI)
+		{
+			super(ql, query, baseURI);
+		}
+
+		private TupleQuery prepare(RepositoryConnection conn) throws QueryEvaluationException
+		{
+			try
+			{
+				TupleQuery q = conn.prepareTupleQuery(ql, query, baseURI);
+				configure(this, q);
+				return q;
+			}
+			catch (RepositoryException e)
+			{
+				throw new QueryEvaluationException(e);
+			}
+			catch (MalformedQueryException e)
+			{
+				throw new QueryEvaluationException(e);
+			}
+		}
+
+		@Override
+		public TupleQueryResult evaluate() throws QueryEvaluationException
+		{
+			RepositoryConnection conn = borrowConnection();
+			try
+			{
+				return prepare(conn).evaluate();
+			}
+			finally
+			{
+				pool.release(conn);
+			}
+		}
+
+		@Override
+		public void evaluate(TupleQueryResultHandler handler) throws QueryEvaluationException, TupleQueryResultHandlerException
+		{
+			RepositoryConnection conn = borrowConnection();
+			try
+			{
+				prepare(conn).evaluate(handler);
+			}
+			finally
+			{
+				pool.release(conn);
+			}
+		}
+	}
+
+	private class PooledGraphQuery extends PooledQuery implements GraphQuery
+	{
+		private PooledGraphQuery(QueryLanguage ql, String query, String baseURI)
+		{
+			super(ql, query, baseURI);
+		}
+
+		private GraphQuery prepare(RepositoryConnection conn) throws QueryEvaluationException
+		{
+			try
+			{
+				GraphQuery q = conn.prepareGraphQuery(ql, query, baseURI);
+				configure(this, q);
+				return q;
+			}
+			catch (RepositoryException e)
+			{
+				throw new QueryEvaluationException(e);
+			}
+			catch (MalformedQueryException e)
+			{
+				throw new QueryEvaluationException(e);
+			}
+		}
+
+		@Override
+		public GraphQueryResult evaluate() throws QueryEvaluationException
+		{
+			RepositoryConnection conn = borrowConnection();
+			try
+			{
+				return prepare(conn).evaluate();
+			}
+			finally
+			{
+				pool.release(conn);
+			}
+		}
+
+		@Override
+		public void evaluate(RDFHandler handler) throws QueryEvaluationException, RDFHandlerException
+		{
+			RepositoryConnection conn = borrowConnection();
+			try
+			{
+				prepare(conn).evaluate(handler);
+			}
+			finally
+			{
+				pool.release(conn);
+			}
+		}
+	}
+
+	private class PooledBooleanQuery extends PooledQuery implements BooleanQuery
+	{
+		private PooledBooleanQuery(QueryLanguage ql, String query, String baseURI)
+		{
+			super(ql, query, baseURI);
+		}
+
+		@Override
+		public boolean evaluate() throws QueryEvaluationException
+		{
+			RepositoryConnection conn = borrowConnection();
+			try
+			{
+				BooleanQuery q = conn.prepareBooleanQuery(ql, query, baseURI);
+				configure(this, q);
+				return q.evaluate();
+			}
+			catch (RepositoryException e)
+			{
+				throw new QueryEvaluationException(e);
+			}
+			catch (MalformedQueryException e)
+			{
+				throw new QueryEvaluationException(e);
+			}
+			finally
+			{
+				pool.release(conn);
+			}
+		}
+	}
+
+	private class PooledUpdate extends AbstractOperation implements Update
+	{
+		private final QueryLanguage ql;
+		private final String update;
+		private final String baseURI;
+
+		private PooledUpdate(QueryLanguage ql, String update, String baseURI)
+		{
+			this.ql = ql;
+			this.update = update;
+			this.baseURI = baseURI;
+		}
+
+		@Override
+		public void execute() throws UpdateExecutionException
+		{
+			RepositoryConnection conn;
+			try
+			{
+				conn = borrow();
+			}
+			catch (RepositoryException e)
+			{
+				throw new UpdateExecutionException(e);
+			}
+			try
+			{
+				Update u = conn.prepareUpdate(ql, update, baseURI);
+				configure(this, u);
+				u.execute();
+			}
+			catch (RepositoryException e)
+			{
+				throw new UpdateExecutionException(e);
+			}
+			catch (MalformedQueryException e)
+			{
+				throw new UpdateExecutionException(e);
+			}
+			finally
+			{
+				pool.release(conn);
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return update;
+		}
+	}
+}
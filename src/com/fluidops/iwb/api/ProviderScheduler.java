@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.URI;
+
+import com.fluidops.iwb.provider.AbstractFlexProvider;
+import com.fluidops.iwb.provider.ExternalProvider;
+import com.fluidops.iwb.provider.LookupProvider;
+import com.fluidops.iwb.util.Config;
+
+/**
+ * Scheduler for the regular provider runs. A dispatcher checks every second
+ * which providers are due, i.e. whose deadline (last update plus poll
+ * interval) has passed, and hands them to a bounded pool of workers
+ * ({@link Config#getProviderSchedulerThreads()}), such that providers are
+ * gathered concurrently. Due providers are prioritized by their staleness:
+ * providers that never ran come first, then the providers that are the
+ * longest behind their deadline. A provider is never run concurrently with
+ * itself.
+ *
+ * A run taking longer than {@link Config#getProviderRunTimeout()} is
+ * interrupted and its worker is released. The provider is not scheduled
+ * again before the interrupted run has actually finished.
+ *
+ * The number of due providers waiting for a worker, the lag of each
+ * provider behind its deadline and the run durations are available via
+ * {@link #getQueueDepth()} and {@link #getStatistics()}, and are exported
+ * via JMX if enabled.
+ */
+public class ProviderScheduler
+{
+	private static final Logger logger = Logger.getLogger(ProviderScheduler.class.getName());
+
+	private static volatile ProviderScheduler instance;
+
+	/**
+	 * Lag and run durations of a provider
+	 */
+	public static class ProviderStatistics
+	{
+		private final URI providerId;
+		private final long lagMillis;
+		private final boolean running;
+		private final long runs;
+		private final long totalDurationMillis;
+		private final long maxDurationMillis;
+		private final long timeouts;
+
+		private ProviderStatistics(URI providerId, long lagMillis, boolean running, RunStatistics stats)
+		{
+			this.providerId = providerId;
+			this.lagMillis = lagMillis;
+			this.running = running;
+			this.runs = stats==null ? 0 : stats.runs.get();
+			this.totalDurationMillis = stats==null ? 0 : stats.totalMillis.get();
+			this.maxDurationMillis = stats==null ? 0 : stats.maxMillis.get();
+			this.timeouts = stats==null ? 0 : stats.timeouts.get();
+		}
+
+		public URI getProviderId()
+		{
+			return providerId;
+		}
+
+		/**
+		 * @return the time in milliseconds the provider is behind its
+		 * 			deadline, 0 if it is not due
+		 */
+		public long getLagMillis()
+		{
+			return lagMillis;
+		}
+
+		public boolean isRunning()
+		{
+			return running;
+		}
+
+		/**
+		 * @return the number of scheduled runs since startup
+		 */
+		public long getRuns()
+		{
+			return runs;
+		}
+
+		public long getTotalDurationMillis()
+		{
+			return totalDurationMillis;
+		}
+
+		public long getMaxDurationMillis()
+		{
+			return maxDurationMillis;
+		}
+
+		/**
+		 * @return the number of runs that exceeded the run timeout
+		 */
+		public long getTimeouts()
+		{
+			return timeouts;
+		}
+
+		/**
+		 * @return the average run duration, 0 if the provider did not run
+		 */
+		public long getAverageDurationMillis()
+		{
+			return runs==0 ? 0 : totalDurationMillis / runs;
+		}
+
+		@Override
+		public String toString()
+		{
+			return providerId + ": lag=" + lagMillis + "ms, running=" + running + ", runs=" + runs
+					+ ", avgDuration=" + getAverageDurationMillis() + "ms, maxDuration=" + maxDurationMillis + "ms"
+					+ ", timeouts=" + timeouts;
+		}
+	}
+
+	private static class RunStatistics
+	{
+		private final AtomicLong runs = new AtomicLong();
+		private final AtomicLong totalMillis = new AtomicLong();
+		private final AtomicLong maxMillis = new AtomicLong();
+		private final AtomicLong timeouts = new AtomicLong();
+
+		private void record(long millis)
+		{
+			runs.incrementAndGet();
+			totalMillis.addAndGet(millis);
+			long max = maxMillis.get();
+			while (millis>max && !maxMillis.compareAndSet(max, millis))
+				max = maxMillis.get();
+		}
+	}
+
+	private final ProviderServiceImpl service;
+
+	private final int threads;
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Executes the provider runs on behalf of the workers, such that a
+	 * worker can abandon a run exceeding the timeout
+	 */
+	private final ExecutorService runner;
+
+	private final long runTimeout;
+
+	/**
+	 * The providers handed to a worker and not yet finished
+	 */
+	private final Set<URI> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<URI, Boolean>());
+
+	private final ConcurrentMap<URI, RunStatistics> runStatistics = new ConcurrentHashMap<URI, RunStatistics>();
+
+	private volatile int queueDepth = 0;
+
+	ProviderScheduler(ProviderServiceImpl service, int threads, long runTimeout)
+	{
+		this.service = service;
+		this.threads = Math.max(threads, 1);
+		this.runTimeout = runTimeout;
+		executor = new ThreadPoolExecutor(this.threads, this.threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), daemonThreadFactory("IWB Provider Update-"));
+		executor.allowCoreThreadTimeOut(true);
+		runner = Executors.newCachedThreadPool(daemonThreadFactory("IWB Provider Run-"));
+	}
+
+	private static ThreadFactory daemonThreadFactory(final String prefix)
+	{
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, prefix + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * @return the running scheduler, null if providers are not scheduled
+	 */
+	public static ProviderScheduler getInstance()
+	{
+		return instance;
+	}
+
+	/**
+	 * Starts the dispatcher.
+	 *
+	 * @return the timer of the dispatcher, cancelling it stops the scheduling
+	 * 			of further provider runs
+	 */
+	Timer start()
+	{
+		Timer timer = new Timer("IWB Provider Update");
+		timer.schedule(new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					dispatch();
+				}
+				catch (Exception e)
+				{
+					logger.error(e.getMessage(), e);
+				}
+			}
+		}, 1000, 1000);
+		instance = this;
+		return timer;
+	}
+
+	/**
+	 * Hands the most stale due providers to the free workers
+	 */
+	void dispatch()
+	{
+		final long now = System.currentTimeMillis();
+
+		List<AbstractFlexProvider<?>> due = new ArrayList<AbstractFlexProvider<?>>();
+		for (AbstractFlexProvider<?> s : service.getProviders())
+		{
+			if (!isScheduled(s))
+				continue;
+			if (s.running != null && s.running == true)
+				continue;
+			if (inFlight.contains(s.providerID))
+				continue;
+			if (lag(s, now)>0)
+				due.add(s);
+		}
+
+		Collections.sort(due, new Comparator<AbstractFlexProvider<?>>()
+		{
+			@Override
+			public int compare(AbstractFlexProvider<?> p1, AbstractFlexProvider<?> p2)
+			{
+				long l1 = lag(p1, now), l2 = lag(p2, now);
+				return l1 > l2 ? -1 : (l1 < l2 ? 1 : 0);
+			}
+		});
+
+		int free = threads - inFlight.size();
+		int submitted = 0;
+		for (AbstractFlexProvider<?> provider : due)
+		{
+			if (submitted>=free)
+				break;
+			submit(provider);
+			submitted++;
+		}
+		queueDepth = due.size() - submitted;
+	}
+
+	private void submit(final AbstractFlexProvider<?> provider)
+	{
+		final URI providerId = provider.providerID;
+		inFlight.add(providerId);
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				long start = System.currentTimeMillis();
+				Future<?> run = null;
+				try
+				{
+					run = runner.submit(new Callable<Void>()
+					{
+						@Override
+						public Void call() throws Exception
+						{
+							service.runProvider(providerId, null);
+							return null;
+						}
+					});
+					if (runTimeout>0)
+						run.get(runTimeout, TimeUnit.MILLISECONDS);
+					else
+						run.get();
+				}
+				catch (TimeoutException e)
+				{
+					run.cancel(true);
+					statisticsOf(providerId).timeouts.incrementAndGet();
+					logger.error("Provider run of " + providerId + " exceeded the timeout of " + runTimeout + "ms and was interrupted");
+				}
+				catch (ExecutionException e)
+				{
+					logger.error(e.getCause().getMessage(), e.getCause());
+				}
+				catch (Exception e)
+				{
+					logger.error(e.getMessage(), e);
+				}
+				finally
+				{
+					statisticsOf(providerId).record(System.currentTimeMillis()-start);
+					inFlight.remove(providerId);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return true if the provider is run by the scheduler
+	 */
+	private static boolean isScheduled(AbstractFlexProvider<?> s)
+	{
+		if (s.pollInterval==null || s.pollInterval<=0)
+			return false; // disabled
+		return !(s instanceof ExternalProvider) && !(s instanceof LookupProvider);
+	}
+
+	/**
+	 * @return the time the provider is behind its deadline, Long.MAX_VALUE if
+	 * 			it never ran, and a value <= 0 if it is not due
+	 */
+	private static long lag(AbstractFlexProvider<?> s, long now)
+	{
+		if (s.lastUpdate==null)
+			return Long.MAX_VALUE;
+		return now - (s.lastUpdate.getTime() + s.pollInterval);
+	}
+
+	private RunStatistics statisticsOf(URI providerId)
+	{
+		RunStatistics res = runStatistics.get(providerId);
+		if (res==null)
+		{
+			RunStatistics newStats = new RunStatistics();
+			res = runStatistics.putIfAbsent(providerId, newStats);
+			if (res==null)
+				res = newStats;
+		}
+		return res;
+	}
+
+	/**
+	 * @return the number of due providers waiting for a free worker
+	 */
+	public int getQueueDepth()
+	{
+		return queueDepth;
+	}
+
+	/**
+	 * @return the number of providers currently run by the scheduler
+	 */
+	public int getRunningCount()
+	{
+		return inFlight.size();
+	}
+
+	/**
+	 * @return the lag and the run durations of the scheduled providers
+	 */
+	public List<ProviderStatistics> getStatistics()
+	{
+		long now = System.currentTimeMillis();
+		List<ProviderStatistics> res = new ArrayList<ProviderStatistics>();
+		for (AbstractFlexProvider<?> s : service.getProviders())
+		{
+			if (!isScheduled(s))
+				continue;
+			long lag = s.lastUpdate==null ? 0 : Math.max(lag(s, now), 0);
+			boolean running = s.running != null && s.running == true;
+			res.add(new ProviderStatistics(s.providerID, lag, running, runStatistics.get(s.providerID)));
+		}
+		return res;
+	}
+
+	/**
+	 * @return the maximum lag of all scheduled providers in milliseconds
+	 */
+	public long getMaxLagMillis()
+	{
+		long res = 0;
+		for (ProviderStatistics stats : getStatistics())
+			res = Math.max(res, stats.getLagMillis());
+		return res;
+	}
+}
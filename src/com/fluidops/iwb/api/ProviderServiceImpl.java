@@ -39,11 +39,10 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
-import java.util.Queue;
 import java.util.Set;
 import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.io.IOUtils;
@@ -54,7 +53,6 @@ import org.openrdf.model.URI;
 import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
-import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.RepositoryResult;
 import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.rio.ntriples.NTriplesWriter;
@@ -70,10 +68,12 @@ import com.fluidops.iwb.TimerRegistry;
 import com.fluidops.iwb.api.Context.ContextLabel;
 import com.fluidops.iwb.model.ParameterConfigDoc;
 import com.fluidops.iwb.model.TypeConfigDoc;
+import com.fluidops.iwb.monitoring.MonitoringUtil;
 import com.fluidops.iwb.provider.AbstractFlexProvider;
 import com.fluidops.iwb.provider.ExternalProvider;
 import com.fluidops.iwb.provider.LookupProvider;
 import com.fluidops.iwb.user.IwbPwdSafe;
+import com.fluidops.iwb.util.Config;
 import com.fluidops.iwb.util.IWBFileUtil;
 import com.fluidops.iwb.util.ObjectPersistance;
 import com.fluidops.iwb.util.User;
@@ -499,6 +499,11 @@ public class ProviderServiceImpl implements ProviderService
      */
     private static final List<AbstractFlexProvider> providers = new CopyOnWriteArrayList<AbstractFlexProvider>();
 
+    /**
+     * Locks for serializing the writes of a provider's data
+     */
+    private static final ConcurrentMap<URI, Object> writeLocks = new ConcurrentHashMap<URI, Object>();
+
     /**
      * thread safe version of provider.remove( provider )
      * @param provider
@@ -543,55 +548,11 @@ public class ProviderServiceImpl implements ProviderService
 
     Timer scheduleProviders()
     {
-        TimerTask timerTask = new TimerTask()
-        {
-            Queue<AbstractFlexProvider> queue = new ArrayBlockingQueue<AbstractFlexProvider>(10000);
-
-            @Override
-            public void run()
-            {
-                try
-                {
-                    if (queue.isEmpty())
-                    {
-                        // add any work
-                            for (AbstractFlexProvider s : getProviders())
-                            {
-                            	if (s.pollInterval<=0)
-                            		continue; // disabled 
-                            	
-                                if (s.running != null && s.running == true)
-                                    continue;
-
-                                if (s instanceof ExternalProvider)
-                                    continue;
-
-                                if (s instanceof LookupProvider)
-                                    continue;
-
-                                if (s.lastUpdate == null)
-                                    queue.add(s);
-                                else if (s.lastUpdate.getTime()
-                                        + s.pollInterval < System
-                                        .currentTimeMillis())
-                                    queue.add(s);
-                            }
-                    }
-                    if (!queue.isEmpty())
-                    {
-                        AbstractFlexProvider provider = queue.poll();
-                        runProvider(provider.providerID, null);
-                    }
-                }
-                catch (Exception e)
-                {
-                    logger.error(e.getMessage(), e);
-                }
-            }
-        };
-        Timer timer = new Timer("IWB Provider Update");
-        timer.schedule(timerTask, 1000, 1000);
+        ProviderScheduler scheduler = new ProviderScheduler(this, Config.getConfig().getProviderSchedulerThreads(), 
+                Config.getConfig().getProviderRunTimeout());
+        Timer timer = scheduler.start();
         TimerRegistry.getInstance().registerProviderServiceTimer(timer);
+        MonitoringUtil.registerProviderScheduler(scheduler);
         return timer;
     }
 
@@ -677,25 +638,33 @@ public class ProviderServiceImpl implements ProviderService
         provider.running = true;
         try
         {
-            if (data != null)
-                newStmts = data; // data provided externally, there is no
-            // need to run the provider
+            if (data == null && isStreaming(provider, parameter))
+            {
+                provider.size = processProviderDataStreaming(provider, parameter, repository);
+                provider.error = null;
+            }
             else
             {
-                if(parameter!=null && provider instanceof LookupProvider)
+                if (data != null)
+                    newStmts = data; // data provided externally, there is no
+                // need to run the provider
+                else
                 {
-                    ((LookupProvider)provider).gather(newStmts, parameter);
+                    if(parameter!=null && provider instanceof LookupProvider)
+                    {
+                        ((LookupProvider)provider).gather(newStmts, parameter);
+                    }
+                    else
+                        provider.gather(newStmts);
+                    
                 }
-                else
-                    provider.gather(newStmts);
-                
+                    
+                provider.error = null;
+    
+                long now = System.currentTimeMillis();
+                processProviderData(provider, newStmts, parameter, repository, historyRepository, now);
+                provider.size = newStmts.size();
             }
-                
-            provider.error = null;
-
-            long now = System.currentTimeMillis();
-            processProviderData(provider, newStmts, parameter, repository, historyRepository, now);
-            provider.size = newStmts.size();
         }
         catch (Throwable t)
         {
@@ -715,6 +684,77 @@ public class ProviderServiceImpl implements ProviderService
         logger.info("Provider run of provider with ID " + provider.providerID + " finished");
     }
 
+    /**
+     * @return true if the data of the provider is gathered with the streaming
+     * 			API and written in batches, see {@link #processProviderDataStreaming(AbstractFlexProvider, URI, Repository)}
+     */
+    private boolean isStreaming(AbstractFlexProvider provider, URI parameter)
+    {
+        if (Config.getConfig().getProviderStreamingBatchSize()<=0)
+            return false;
+        // delta updates need the complete data to compute the difference
+        if (Config.getConfig().getProviderDeltaUpdates())
+            return false;
+        return !(parameter!=null && provider instanceof LookupProvider);
+    }
+    
+    /**
+     * Gathers the provider data with the streaming API and writes it to a
+     * fresh context in batches of {@link Config#getProviderStreamingBatchSize()}.
+     * The whole run is a single transaction: the contexts of the previous
+     * run are deleted and the meta information of the fresh context is
+     * written once the data is gathered completely, readers see the data of
+     * the previous run until the transaction is committed. If the provider
+     * fails, the transaction is rolled back and the data of the previous run
+     * is retained.
+     * 
+     * @return the number of gathered statements
+     */
+    protected int processProviderDataStreaming(AbstractFlexProvider provider,
+            URI parameter, Repository repository) throws Exception
+    {
+        URI providerId = provider.getProviderID();
+        
+        synchronized (writeLockOf(providerId))
+        {
+            ReadWriteDataManager dm = ReadWriteDataManagerImpl.openDataManager(repository);
+            boolean committed = false;
+            try
+            {
+                boolean started = dm.startTransaction();
+                
+                Context c = Context.getFreshPublishedContext(Context.ContextType.PROVIDER, 
+                        null, providerId, null, parameter, null, ContextLabel.REGULAR_PROVIDER_RUN);
+                ContextStatementWriter writer = new ContextStatementWriter(dm, c, 
+                        Config.getConfig().getProviderStreamingBatchSize());
+                writer.startRDF();
+                provider.gather(writer);
+                writer.endRDF();
+                
+                List<Resource> omit = new ArrayList<Resource>();
+                omit.add(c.getURI());
+                dm.deleteExpiredContextsOfSource(providerId, parameter, omit, provider.getContextExpirationTimeMS());
+                
+                // persists the context meta information, making the provider editable if configured
+                if (writer.getCount()>0)
+                    dm.setContextEditable(c, provider.providerDataEditable);
+                
+                dm.finishTransaction(started);
+                committed = true;
+                
+                // caches may have been filled with the previous data during the run
+                CacheManager.getInstance().invalidateAllCaches(repository);
+                return writer.getCount();
+            }
+            finally
+            {
+                if (!committed)
+                    dm.rollbackTransaction();
+                ReadWriteDataManagerImpl.closeQuietly(dm);
+            }
+        }
+    }
+    
     /**
      * Processes the provider data that has been gathered.
      * 
@@ -723,64 +763,66 @@ public class ProviderServiceImpl implements ProviderService
      * @param repository
      * @param historyRepository
      */
-    protected synchronized void processProviderData(AbstractFlexProvider provider,
+    protected void processProviderData(AbstractFlexProvider provider,
+            List<Statement> newStmts, URI parameter, Repository repository,
+            Repository historyRepository, long now)
+    {
+        // writes are serialized per provider, different providers write concurrently
+        synchronized (writeLockOf(provider.getProviderID()))
+        {
+            processProviderDataLocked(provider, newStmts, parameter, repository, historyRepository, now);
+        }
+    }
+    
+    private Object writeLockOf(URI providerId)
+    {
+        Object res = writeLocks.get(providerId);
+        if (res==null)
+        {
+            Object newLock = new Object();
+            res = writeLocks.putIfAbsent(providerId, newLock);
+            if (res==null)
+                res = newLock;
+        }
+        return res;
+    }
+    
+    private void processProviderDataLocked(AbstractFlexProvider provider,
             List<Statement> newStmts, URI parameter, Repository repository,
             Repository historyRepository, long now)
     {
         URI providerId = provider.getProviderID();
         
-        ReadWriteDataManager dm = null;
-        dm = ReadWriteDataManagerImpl.openDataManager(repository);
-
-        Set<URI> uris = new HashSet<URI>();
-        for (Context c :dm.getContextsForSource(providerId))
-		{
-			
-        	/* Collect all URIs occuring as subjects in any statement of the previous provider run */
-        	URI internalContextURI = c.getURI();
-			RepositoryResult<Statement> res;
-			try
-			{
-				res = dm.getStatements(null, null, null, false, internalContextURI);
-				
-				while (res.hasNext())
-				{
-					Resource subject = res.next().getSubject();
-					if (subject instanceof URI)
-						uris.add((URI)subject);
-				}
-			} 
-			catch (RepositoryException e1)
-			{
-				logger.warn(e1.getMessage(), e1);
-			}
-			
-		}
-        
-        Long contextExpirationTimeMS = provider.getContextExpirationTimeMS();
-
-        Context c = dm.updateDataForSrc(providerId, parameter,
-                        Context.ContextType.PROVIDER,
-                        ContextLabel.REGULAR_PROVIDER_RUN, newStmts,
-                        contextExpirationTimeMS);
-
-        /* Calculate the diff of old subjects and new subjects (i.e. all the URIs that occured 
-         * in the last run, but do not occur in the current run anymore) */
-        for (Statement st : newStmts)
-        	uris.remove(st.getSubject());
-        
-        // make provider editable
-        try 
+        ReadWriteDataManager dm = ReadWriteDataManagerImpl.openDataManager(repository);
+        try
         {
-            if (!newStmts.isEmpty())
-                dm.setContextEditable(c,provider.providerDataEditable);
-        } catch (Exception e) {
-            logger.error(e.getMessage(), e);
+            Long contextExpirationTimeMS = provider.getContextExpirationTimeMS();
+    
+            Context c;
+            if (Config.getConfig().getProviderDeltaUpdates())
+            	c = dm.updateDataForSrcDelta(providerId, parameter,
+                            Context.ContextType.PROVIDER,
+                            ContextLabel.REGULAR_PROVIDER_RUN, newStmts,
+                            contextExpirationTimeMS);
+            else
+            	c = dm.updateDataForSrc(providerId, parameter,
+                            Context.ContextType.PROVIDER,
+                            ContextLabel.REGULAR_PROVIDER_RUN, newStmts,
+                            contextExpirationTimeMS);
+    
+            // make provider editable
+            try 
+            {
+                if (!newStmts.isEmpty())
+                    dm.setContextEditable(c,provider.providerDataEditable);
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+        finally
+        {
+            ReadWriteDataManagerImpl.closeQuietly(dm);
         }
-        
-        if (dm != null)
-            dm.close();
-
     }
     
     private static Properties getProvidersProp()
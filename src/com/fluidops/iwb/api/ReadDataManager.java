@@ -19,6 +19,7 @@
 package com.fluidops.iwb.api;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -164,6 +165,18 @@ public interface ReadDataManager
      * given in predicates of statements where the resource appears
      */
     public Set<Resource> getType(Resource resource, boolean includeImplicitTypeStatements);
+    
+    /**
+     * Bulk version of {@link #getType(Resource, boolean)}: obtains the types 
+     * of all given resources. Types that are not present in the type cache
+     * are retrieved using a small number of batched queries, and the cache 
+     * is populated with the results.
+     * 
+     * @param resources the resources, null values are ignored
+     * @param includeImplicitTypeStatements inferencing support
+     * @return a mapping from resource to its (possibly empty) set of types
+     */
+    public Map<Resource, Set<Resource>> getTypes(Collection<? extends Resource> resources, boolean includeImplicitTypeStatements);
 
     /**
      * Returns all object properties in repository
@@ -212,6 +225,18 @@ public interface ReadDataManager
      */
     public String getLabelHTMLEncoded(Value res);
     
+    /**
+     * Bulk version of {@link #getLabel(Value)}: returns the labels for all
+     * given values. Labels that are not present in the label cache are 
+     * resolved using a small number of batched queries, and the cache is
+     * populated with the results. Use this method to prefetch labels before
+     * rendering larger result sets.
+     * 
+     * @param values the values, null values are ignored
+     * @return a mapping from value to label, as returned by {@link #getLabel(Value)}
+     */
+    public Map<Value, String> getLabels(Collection<? extends Value> values);
+    
     /**
      * Gets ontology-defined information for the given predicate, such
      * as dom and range information. Uses internal caching mechanism.
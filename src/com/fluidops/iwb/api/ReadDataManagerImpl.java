@@ -30,6 +30,7 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Collection;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -42,8 +43,12 @@ import java.util.Map.Entry;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -81,6 +86,7 @@ import org.openrdf.query.impl.MutableTupleQueryResult;
 import org.openrdf.query.parser.ParsedBooleanQuery;
 import org.openrdf.query.parser.ParsedGraphQuery;
 import org.openrdf.query.parser.ParsedOperation;
+import org.openrdf.query.parser.ParsedQuery;
 import org.openrdf.query.parser.ParsedTupleQuery;
 import org.openrdf.query.parser.ParsedUpdate;
 import org.openrdf.query.parser.QueryParserUtil;
@@ -88,7 +94,11 @@ import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.RepositoryResult;
+import org.openrdf.repository.sail.SailBooleanQuery;
+import org.openrdf.repository.sail.SailGraphQuery;
 import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.repository.sail.SailRepositoryConnection;
+import org.openrdf.repository.sail.SailTupleQuery;
 import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFWriter;
 import org.openrdf.rio.n3.N3Writer;
@@ -103,11 +113,13 @@ import org.openrdf.sail.memory.MemoryStoreConnection;
 import org.openrdf.sail.nativerdf.NativeStore;
 
 import com.fluidops.iwb.api.Context.ContextState;
+import com.fluidops.iwb.api.query.ParsedQueryCache;
 import com.fluidops.iwb.cache.ContextCache;
 import com.fluidops.iwb.cache.InstanceCache;
 import com.fluidops.iwb.cache.InversePropertyCache;
 import com.fluidops.iwb.cache.LabelCache;
 import com.fluidops.iwb.cache.PropertyCache;
+import com.fluidops.iwb.cache.QueryResultCache;
 import com.fluidops.iwb.cache.PropertyCache.PropertyInfo;
 import com.fluidops.iwb.cache.TypeCache;
 import com.fluidops.iwb.model.MultiPartMutableTupleQueryResultImpl;
@@ -171,7 +183,9 @@ public class ReadDataManagerImpl implements ReadDataManager
 
         /**
          * Includes all abbreviations listed in the map to the query
-         * (unless they are already added in the query manually). 
+         * (unless they are already added in the query manually). If
+         * {@link Config#getInjectUsedPrefixesOnly()} is set, only the
+         * abbreviations actually used in the query are included.
          * 
          * @param query
          * @param map
@@ -179,6 +193,9 @@ public class ReadDataManagerImpl implements ReadDataManager
          */
         static public String addPrefixes(String query, Map<String, String> map)
         {
+                if (Config.getConfig().getInjectUsedPrefixesOnly())
+                    return getUsedPrefixDeclarations(query, map) + query;
+                
                 /*
                  * we have to check for prefixes in the query to not add
                  * duplicate entries. In case duplicates are present Sesame
@@ -245,6 +262,140 @@ public class ReadDataManagerImpl implements ReadDataManager
             return sb.toString();
         }
 
+        /**
+         * Get the prefix declarations for the prefixes that are used in
+         * the query, but not declared in the query.
+         * 
+         * @param queryString
+         * @param map
+         * @return
+         */
+        protected static String getUsedPrefixDeclarations(String queryString, Map<String, String> map)
+        {
+            Set<String> usedPrefixes = findUsedPrefixes(queryString);
+            if (usedPrefixes.isEmpty())
+                return "";
+            
+            Set<String> queryPrefixes = prefixCheck.matcher(queryString).matches() ?
+                    findQueryPrefixes(queryString) : Collections.<String>emptySet();
+
+            StringBuilder sb = new StringBuilder();
+            for (String prefix : usedPrefixes)
+            {
+                if (queryPrefixes.contains(prefix))
+                    continue; // already there, do not add
+                
+                String namespace = prefix.length()==0 ? 
+                        EndpointImpl.api().getNamespaceService().defaultNamespace() : map.get(prefix);
+                if (namespace==null)
+                    continue; // unknown, leave it to the query parser to complain
+                
+                sb.append("PREFIX ").append(prefix).append(": <")
+                        .append(namespace).append(">\r\n");
+            }
+            return sb.toString();
+        }
+        
+        /**
+         * Find all prefixes used in prefixed names of the query (including
+         * prefix declarations), the empty string denotes the default prefix.
+         * The query is scanned once; IRIs, string literals and comments are 
+         * skipped.
+         * 
+         * @param queryString
+         * @return
+         */
+        protected static Set<String> findUsedPrefixes(String queryString)
+        {
+            Set<String> res = new HashSet<String>();
+            int len = queryString.length();
+            int i = 0;
+            while (i<len)
+            {
+                char c = queryString.charAt(i);
+                if (c=='#')
+                {
+                    // comment, skip to end of line
+                    while (i<len && queryString.charAt(i)!='\n' && queryString.charAt(i)!='\r')
+                        i++;
+                }
+                else if (c=='"' || c=='\'')
+                    i = skipString(queryString, i);
+                else if (c=='<')
+                    i = skipIRI(queryString, i);
+                else if (c==':')
+                {
+                    // walk back over the prefix name
+                    int start = i;
+                    while (start>0 && isPrefixChar(queryString.charAt(start-1)))
+                        start--;
+                    char before = start>0 ? queryString.charAt(start-1) : ' ';
+                    String prefix = queryString.substring(start, i);
+                    // exclude variables (?x, $x) and blank nodes (_:b)
+                    if (before!='?' && before!='$' && !prefix.equals("_")
+                            && (prefix.length()==0 || Character.isLetter(prefix.charAt(0))))
+                        res.add(prefix);
+                    i++;
+                }
+                else
+                    i++;
+            }
+            return res;
+        }
+        
+        private static boolean isPrefixChar(char c)
+        {
+            return Character.isLetterOrDigit(c) || c=='_' || c=='-' || c=='.';
+        }
+        
+        /**
+         * Returns the index after the string literal starting at start,
+         * supports long (triple quoted) strings and escapes.
+         */
+        private static int skipString(String query, int start)
+        {
+            char quote = query.charAt(start);
+            int len = query.length();
+            boolean isLong = start+2<len && query.charAt(start+1)==quote && query.charAt(start+2)==quote;
+            int i = isLong ? start+3 : start+1;
+            while (i<len)
+            {
+                char c = query.charAt(i);
+                if (c=='\\')
+                    i += 2;
+                else if (c==quote)
+                {
+                    if (!isLong)
+                        return i+1;
+                    if (i+2<len && query.charAt(i+1)==quote && query.charAt(i+2)==quote)
+                        return i+3;
+                    i++;
+                }
+                else
+                    i++;
+            }
+            return len;
+        }
+        
+        /**
+         * Returns the index after the IRI starting at start. If the
+         * '<' does not start an IRI (i.e. it is the less-than operator), 
+         * the index after the '<' is returned.
+         */
+        private static int skipIRI(String query, int start)
+        {
+            int len = query.length();
+            for (int i=start+1; i<len; i++)
+            {
+                char c = query.charAt(i);
+                if (c=='>')
+                    return i+1;
+                if (c<=' ' || c=='<' || c=='"' || c=='{' || c=='}' || c=='|' || c=='^' || c=='`' || c=='\\')
+                    return start+1;
+            }
+            return start+1;
+        }
+
         /**
          * Find all prefixes declared in the query
          * 
@@ -286,6 +437,10 @@ public class ReadDataManagerImpl implements ReadDataManager
     private static ConcurrentMap<Repository,ReadDataManagerImpl> dms = 
         new ConcurrentHashMap<Repository,ReadDataManagerImpl>(16, 0.75f, 2);
     
+    // data managers with their own connection, used by the current thread instead of the cached ones
+    private static final ThreadLocal<Map<Repository,ReadDataManagerImpl>> threadDms = 
+        new ThreadLocal<Map<Repository,ReadDataManagerImpl>>();
+    
     private static String dateFormatPattern = "E MMM dd HH:mm:ss z yyyy";
     
     /**
@@ -348,6 +503,33 @@ public class ReadDataManagerImpl implements ReadDataManager
      */
     private static List<URI> labelProperties;
     
+    /**
+     * Maximum number of URIs resolved with a single query in {@link #getLabels(Collection)}
+     */
+    private static final int LABEL_BATCH_SIZE = 250;
+    
+    /**
+     * Maximum number of URIs resolved with a single query in {@link #getTypes(Collection, boolean)}
+     */
+    private static final int TYPE_BATCH_SIZE = 250;
+    
+    /**
+     * Single background thread with a bounded queue for type prefetching,
+     * see {@link #prefetchTypes(Repository, Collection)}
+     */
+    private static final ThreadPoolExecutor typePrefetcher = new ThreadPoolExecutor(1, 1, 
+    		60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(100), 
+    		new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "TypePrefetcher");
+					t.setDaemon(true);
+					return t;
+				}
+			}, 
+			new ThreadPoolExecutor.DiscardPolicy());
+    
    
     
     /**
@@ -424,21 +606,77 @@ public class ReadDataManagerImpl implements ReadDataManager
      * need to catch RepositoryExceptions any more. Whenever one
      * occurs, this class closes the connection so clients do
      * no longer need to close the connection in the finally block.
+     * 
+     * The data manager is shared by all threads. For pooled repositories
+     * each read operation borrows a connection from the pool, such that
+     * concurrent requests do not share a connection.
      */
     public static ReadDataManagerImpl getDataManager(Repository r)
     {
-        if (dms.containsKey(r))
+        Map<Repository,ReadDataManagerImpl> own = threadDms.get();
+        if (own!=null && r!=null)
         {
-            ReadDataManagerImpl dm = dms.get(r);
-            dm.assertConnectionIsOpen();
+            ReadDataManagerImpl dm = own.get(r);
+            if (dm==null)
+            {
+                dm = newInstance(r);
+                own.put(r, dm);
+            }
+            else
+                dm.assertConnectionIsOpen();
             return dm;
         }
-        else
+        
+        ReadDataManagerImpl dm = dms.get(r);
+        if (dm!=null)
         {
-            ReadDataManagerImpl dm = newInstance(r);
-            dms.put(r,dm);
+            dm.assertConnectionIsOpen();
             return dm;
         }
+        
+        dm = newInstance(r);
+        ReadDataManagerImpl existing = dms.putIfAbsent(r,dm);
+        if (existing!=null)
+        {
+            // concurrent initialization, hand back the connection
+            dm.closeConnection();
+            existing.assertConnectionIsOpen();
+            return existing;
+        }
+        return dm;
+    }
+
+    /**
+     * Lets {@link #getDataManager(Repository)} hand out data managers with
+     * their own connection to the current thread, until 
+     * {@link #closeThreadDataManagers()} is called. To be used by tasks
+     * running concurrently to the request, e.g. widgets rendered in
+     * parallel, such that they do not share the connection of the cached
+     * data managers.
+     * 
+     * @return true if this call opened the scope, false if the current
+     * 			thread already uses its own data managers
+     */
+    public static boolean openThreadDataManagers()
+    {
+        if (threadDms.get()!=null)
+            return false;
+        threadDms.set(new HashMap<Repository,ReadDataManagerImpl>());
+        return true;
+    }
+    
+    /**
+     * Closes the connections of the data managers opened by the current 
+     * thread, see {@link #openThreadDataManagers()}.
+     */
+    public static void closeThreadDataManagers()
+    {
+        Map<Repository,ReadDataManagerImpl> own = threadDms.get();
+        threadDms.remove();
+        if (own==null)
+            return;
+        for (ReadDataManagerImpl dm : own.values())
+            dm.closeConnection();
     }
 
     /**
@@ -911,6 +1149,198 @@ public class ReadDataManagerImpl implements ReadDataManager
     	return typeSet;
     }
 
+    @Override
+    public Map<Resource, Set<Resource>> getTypes(Collection<? extends Resource> resources, 
+    		boolean includeImplicitTypeStatements)
+    {
+    	Map<Resource, Set<Resource>> res = new HashMap<Resource, Set<Resource>>();
+    	
+    	// collect cache misses, blank nodes cannot be passed to a query and are looked up directly
+    	List<URI> misses = new ArrayList<URI>();
+    	for (Resource resource : resources)
+    	{
+    		if (resource==null || res.containsKey(resource))
+    			continue;
+    		
+    		Pair<List<Resource>,List<Resource>> typeInfo = typeCache.lookup(conn.getRepository(), resource);
+    		List<Resource> cached = typeInfo==null ? null : 
+    			(includeImplicitTypeStatements ? typeInfo.snd : typeInfo.fst);
+    		if (cached!=null)
+    			res.put(resource, new HashSet<Resource>(cached));
+    		else if (resource instanceof URI)
+    		{
+    			// marker to avoid duplicates in the list of misses
+    			res.put(resource, null);
+    			misses.add((URI)resource);
+    		}
+    		else
+    			res.put(resource, getType(resource, includeImplicitTypeStatements));
+    	}
+    	
+    	// resolve the misses in chunks
+    	for (int i=0; i<misses.size(); i+=TYPE_BATCH_SIZE)
+    	{
+    		List<URI> chunk = misses.subList(i, Math.min(i+TYPE_BATCH_SIZE, misses.size()));
+    		Map<URI, List<Resource>> types = getTypeStatements(chunk, includeImplicitTypeStatements);
+    		for (URI uri : chunk)
+    		{
+    			if (types==null)
+    			{
+    				// batch query failed, fall back to single lookup
+    				res.put(uri, getType(uri, includeImplicitTypeStatements));
+    				continue;
+    			}
+    			List<Resource> typeList = types.get(uri);
+    			if (typeList==null)
+    				typeList = new ArrayList<Resource>();
+    			if (includeImplicitTypeStatements)
+    				typeCache.insertIndirectTypesForResource(conn.getRepository(), uri, typeList);
+    			else
+    				typeCache.insertDirectTypesForResource(conn.getRepository(), uri, typeList);
+    			res.put(uri, new HashSet<Resource>(typeList));
+    		}
+    	}
+    	
+    	return res;
+    }
+    
+    /**
+     * Bulk version of {@link #getTypeStatements(Resource, boolean)}, retrieves the
+     * types of all given URIs using a single query with a VALUES clause.
+     * 
+     * @param uris
+     * @param includeImplicitStatements
+     * @return a map containing the types for those URIs that have a type, or null
+     * 			if the query could not be evaluated (e.g. because the repository 
+     * 			does not support SPARQL 1.1)
+     */
+    private Map<URI, List<Resource>> getTypeStatements(List<URI> uris, boolean includeImplicitStatements)
+    {
+    	StringBuilder q = new StringBuilder("SELECT ?s ?t WHERE { ");
+    	Map<String, List<URI>> requested = appendValuesClause(q, uris);
+    	q.append(" ?s <").append(RDF.TYPE.stringValue()).append("> ?t }");
+    	
+    	Map<URI, List<Resource>> res = new HashMap<URI, List<Resource>>();
+    	TupleQueryResult qRes = null;
+    	try
+    	{
+    		qRes = sparqlSelectUncached(q.toString(), includeImplicitStatements);
+    		while (qRes.hasNext())
+    		{
+    			BindingSet bs = qRes.next();
+    			Value subject = bs.getValue("s");
+    			Value type = bs.getValue("t");
+    			if (!(subject instanceof URI) || !(type instanceof Resource))
+    				continue;
+    			List<URI> originals = requested.get(subject.stringValue());
+    			if (originals==null)
+    				continue;
+    			for (URI uri : originals)
+    			{
+    				List<Resource> types = res.get(uri);
+    				if (types==null)
+    				{
+    					types = new ArrayList<Resource>();
+    					res.put(uri, types);
+    				}
+    				types.add((Resource)type);
+    			}
+    		}
+    		return res;
+    	}
+    	catch (MalformedQueryException e)
+    	{
+    		logger.debug("Batched type query not supported: " + e.getMessage());
+    	}
+    	catch (QueryEvaluationException e)
+    	{
+    		monitorReadFailure();
+    		logger.warn("Batched type query failed, using single lookups: " + e.getMessage());
+    	}
+    	finally
+    	{
+    		closeQuietly(qRes);
+    	}
+    	return null;
+    }
+    
+    /**
+     * Appends a VALUES clause binding ?s to the given URIs. The clause is meant
+     * to be placed first in the group pattern, such that the inputs are bound
+     * before the remaining patterns are evaluated. As URIs are sanitized for
+     * the query, the result subjects may differ from the given URIs: the returned 
+     * map resolves them back to the original URIs.
+     * 
+     * @param q
+     * @param uris
+     * @return a map from the URIs as used in the query to the original URIs
+     */
+    private static Map<String, List<URI>> appendValuesClause(StringBuilder q, List<URI> uris)
+    {
+    	Map<String, List<URI>> requested = new HashMap<String, List<URI>>();
+    	q.append("VALUES ?s {");
+    	for (URI uri : uris)
+    	{
+    		String sanitized = StringUtil.replaceNonIriRefCharacter(uri.stringValue(), '_');
+    		List<URI> originals = requested.get(sanitized);
+    		if (originals==null)
+    		{
+    			originals = new ArrayList<URI>(1);
+    			requested.put(sanitized, originals);
+    			q.append(" <").append(sanitized).append(">");
+    		}
+    		originals.add(uri);
+    	}
+    	q.append(" }");
+    	return requested;
+    }
+    
+    /**
+     * Loads the types (including implicit ones) of all resources among the given 
+     * values into the type cache in a background thread. This is a no-op unless 
+     * type prefetching is enabled, see {@link Config#getTypePrefetching()}. If 
+     * the prefetch queue is full, the request is dropped. The prefetcher uses
+     * a data manager of its own, such that it does not compete with request
+     * threads for the connection of the shared data manager.
+     * 
+     * @param rep the repository
+     * @param values the values, e.g. of a materialized query result
+     */
+    public static void prefetchTypes(final Repository rep, Collection<? extends Value> values)
+    {
+    	if (!Config.getConfig().getTypePrefetching())
+    		return;
+    	
+    	final List<Resource> resources = new ArrayList<Resource>();
+    	for (Value value : values)
+    		if (value instanceof URI)
+    			resources.add((URI)value);
+    	if (resources.isEmpty())
+    		return;
+    	
+    	typePrefetcher.execute(new Runnable() {
+			@Override
+			public void run()
+			{
+				ReadDataManagerImpl dm = null;
+				try
+				{
+					dm = newInstance(rep);
+					dm.getTypes(resources, true);
+				}
+				catch (Exception e)
+				{
+					logger.debug("Type prefetching failed: " + e.getMessage(), e);
+				}
+				finally
+				{
+					if (dm!=null)
+						dm.closeConnection();
+				}
+			}
+		});
+    }
+    
     /**
      * Returns a (possibly empty) list of statements containing the
      * types of the resource.
@@ -1002,26 +1432,177 @@ public class ReadDataManagerImpl implements ReadDataManager
 	    if (Analyzer.isAnalyze())
 	        Analyzer.getInstance().callbackGetLabel(false);        
 	    lblStr = getValueForProperties(valAsUri, labelProperties, Config.getConfig().getPreferredLanguage());
-	       
+	    lblStr = completeLabel(valAsUri, lblStr);
+	
+	    labelCache.insert(conn.getRepository(), valAsUri, lblStr);
+	    return lblStr;
+	}
+    
+    /**
+     * Computes the final label for the given URI from the label retrieved
+     * via the label properties (which may be null), i.e. applies the
+     * fallbacks for URIs without label.
+     * 
+     * @param uri
+     * @param lblStr the label retrieved from the repository, may be null
+     * @return
+     */
+    private String completeLabel(URI uri, String lblStr)
+    {
 	    if (lblStr==null)
-	        lblStr = EndpointImpl.api().getNamespaceService().getAbbreviatedURI(valAsUri);
+	        lblStr = EndpointImpl.api().getNamespaceService().getAbbreviatedURI(uri);
 	
 	    // in case the latter fails, we split the URL
 	    if (lblStr==null)
-	        lblStr = valAsUri.getLocalName();
+	        lblStr = uri.getLocalName();
 	
 	    // if also that fails or the label is still empty, use the URI itself
 	    if (lblStr==null || lblStr.isEmpty())
-	        lblStr = valAsUri.stringValue();
+	        lblStr = uri.stringValue();
 	    
 	    // in either case the "Template:" prefix must not be left out to avoid confusion
-	    if (valAsUri.stringValue().startsWith("Template")
+	    if (uri.stringValue().startsWith("Template")
 	            && !lblStr.startsWith("Template"))
 	        lblStr = "Template:(...)" + lblStr;
-	
-	    labelCache.insert(conn.getRepository(), valAsUri, lblStr);
+	    
 	    return lblStr;
-	}
+    }
+    
+    @Override
+    public Map<Value, String> getLabels(Collection<? extends Value> values)
+    {
+    	Map<Value, String> res = new HashMap<Value, String>();
+    	
+    	// collect cache misses, literals and cache hits are handled directly
+    	List<URI> misses = new ArrayList<URI>();
+    	for (Value val : values)
+    	{
+    		if (val==null || res.containsKey(val))
+    			continue;
+    		if (!(val instanceof URI))
+    		{
+    			res.put(val, val.stringValue());
+    			continue;
+    		}
+    		String lblStr = labelCache.lookup(conn.getRepository(), (URI)val);
+    		if (lblStr!=null)
+    			res.put(val, lblStr);
+    		else
+    		{
+    			// marker to avoid duplicates in the list of misses
+    			res.put(val, null);
+    			misses.add((URI)val);
+    		}
+    	}
+    	
+    	// resolve the misses in chunks
+    	for (int i=0; i<misses.size(); i+=LABEL_BATCH_SIZE)
+    	{
+    		List<URI> chunk = misses.subList(i, Math.min(i+LABEL_BATCH_SIZE, misses.size()));
+    		Map<URI, String> labels = getValuesForProperties(chunk, labelProperties, 
+    				Config.getConfig().getPreferredLanguage());
+    		for (URI uri : chunk)
+    		{
+    			String lblStr;
+    			if (labels==null)
+    				lblStr = getLabel(uri);	// batch query failed, fall back to single lookup
+    			else
+    			{
+    				lblStr = completeLabel(uri, labels.get(uri));
+    				labelCache.insert(conn.getRepository(), uri, lblStr);
+    			}
+    			res.put(uri, lblStr);
+    		}
+    	}
+    	
+    	return res;
+    }
+    
+    /**
+     * Bulk version of {@link #getValueForProperties(URI, List, String)}, which retrieves
+     * the values for all given URIs using a single query with a VALUES clause. The
+     * selection of the value per URI follows the same rules as in the single version.
+     * 
+     * @param uris
+     * @param properties
+     * @param preferredLanguage
+     * @return a map containing the values for those URIs that have one, or null if
+     * 			the query could not be evaluated (e.g. because the repository does
+     * 			not support SPARQL 1.1)
+     */
+    private Map<URI, String> getValuesForProperties(List<URI> uris, List<URI> properties, String preferredLanguage)
+    {
+    	Map<URI, String> res = new HashMap<URI, String>();
+    	if (properties.isEmpty() || uris.isEmpty())
+    		return res;
+    	
+    	int propertySize = properties.size();
+    	StringBuilder q = new StringBuilder("SELECT ?s");
+    	StringBuilder where = new StringBuilder();
+    	for (int i = 0; i < propertySize; i++)
+    	{
+    		q.append(" ?x").append(i);
+    		where.append("{ ?s <").append(properties.get(i).stringValue()).append("> ?x").append(i).append(" }");
+    		if ((i+1) < propertySize)
+    			where.append(" UNION ");
+    	}
+    	q.append(" WHERE { ");
+    	Map<String, List<URI>> requested = appendValuesClause(q, uris);
+    	q.append(" ").append(where).append(" }");
+    	
+    	// URIs for which a value in the preferred language was found
+    	Set<URI> done = new HashSet<URI>();
+    	TupleQueryResult qRes = null;
+    	try
+    	{
+    		qRes = sparqlSelectUncached(q.toString(), false);
+    		while (qRes.hasNext())
+    		{
+    			BindingSet bs = qRes.next();
+    			Value subject = bs.getValue("s");
+    			if (!(subject instanceof URI))
+    				continue;
+    			List<URI> originals = requested.get(subject.stringValue());
+    			if (originals==null)
+    				continue;
+    			for (URI uri : originals)
+    			{
+    				if (done.contains(uri))
+    					continue;
+    				for (int i = 0; i < propertySize; i++)
+    				{
+    					Value result = bs.getValue("x" + i);
+    					if (result == null)
+    						continue;
+    					if (preferredLanguage == null 
+    							|| (result instanceof Literal && preferredLanguage.equals(((Literal)result).getLanguage())))
+    					{
+    						res.put(uri, result.stringValue());
+    						done.add(uri);
+    						break;
+    					}
+    					else if (!res.containsKey(uri))
+    						res.put(uri, result.stringValue());
+    				}
+    			}
+    		}
+    		return res;
+    	}
+    	catch (MalformedQueryException e)
+    	{
+    		logger.debug("Batched label query not supported: " + e.getMessage());
+    	}
+    	catch (QueryEvaluationException e)
+    	{
+    		monitorReadFailure();
+    		logger.warn("Batched label query failed, using single lookups: " + e.getMessage());
+    	}
+    	finally
+    	{
+    		closeQuietly(qRes);
+    	}
+    	return null;
+    }
     
     @Override
 	public String getLabelHTMLEncoded(Value val)
@@ -1269,11 +1850,22 @@ public class ReadDataManagerImpl implements ReadDataManager
             throws RepositoryException, MalformedQueryException,
             QueryEvaluationException
     {
+    	String template = normalizeQuery(query, resolveNamespaces, null, true);
+    	String normalizedQuery = replaceSpecialVariablesInQuery(template, resolveValue, false);
+    	QueryResultCache.Key key = createResultCacheKey(normalizedQuery, infer);
+    	if (key!=null)
+    	{
+    		GraphQueryResult cached = QueryResultCache.getInstance().getGraphResult(key);
+    		if (cached!=null)
+    			return cached;
+    	}
+    	
 		// evaluate query
-		GraphQuery preparedQuery = (GraphQuery) prepareQueryInternal(query,
-				resolveNamespaces, resolveValue, true, infer,
-				SparqlQueryType.CONSTRUCT);
+		GraphQuery preparedQuery = (GraphQuery) prepareNormalizedQuery(normalizedQuery,
+				template, resolveValue, infer, SparqlQueryType.CONSTRUCT);
 		GraphQueryResult res = preparedQuery.evaluate();
+		if (key!=null)
+			return QueryResultCache.getInstance().cacheGraphResult(key, res);
         return res;
     }
     
@@ -1297,11 +1889,24 @@ public class ReadDataManagerImpl implements ReadDataManager
     public boolean sparqlAsk(String query, boolean resolveNamespaces, Value resolveValue, boolean infer)
     		throws RepositoryException, MalformedQueryException, QueryEvaluationException
     {
-    	Query askQuery = (Query)prepareQueryInternal(query, true, resolveValue, true, infer, SparqlQueryType.ASK);
+    	String template = normalizeQuery(query, true, null, true);
+    	String normalizedQuery = replaceSpecialVariablesInQuery(template, resolveValue, false);
+    	QueryResultCache.Key key = createResultCacheKey(normalizedQuery, infer);
+    	if (key!=null)
+    	{
+    		Boolean cached = QueryResultCache.getInstance().getBooleanResult(key);
+    		if (cached!=null)
+    			return cached;
+    	}
+    	
+    	Query askQuery = (Query)prepareNormalizedQuery(normalizedQuery, template, resolveValue, infer, SparqlQueryType.ASK);
     	if (askQuery instanceof org.openrdf.query.BooleanQuery)
     	{
     		BooleanQuery askQueryBoolean = (BooleanQuery) askQuery;
-    		return askQueryBoolean.evaluate();
+    		boolean res = askQueryBoolean.evaluate();
+    		if (key!=null)
+    			QueryResultCache.getInstance().cacheBooleanResult(key, res);
+    		return res;
     	}
     	else
     		throw new RuntimeException("Expected ASK query, found: " + query);
@@ -1337,10 +1942,22 @@ public class ReadDataManagerImpl implements ReadDataManager
         // evaluate query
         try
         {
+        	String template = normalizeQuery(query, resolveNamespaces, null, resolveUser);
+        	String normalizedQuery = replaceSpecialVariablesInQuery(template, resolveValue, false);
+        	QueryResultCache.Key key = createResultCacheKey(normalizedQuery, infer);
+        	if (key!=null)
+        	{
+        		TupleQueryResult cached = QueryResultCache.getInstance().getTupleResult(key);
+        		if (cached!=null)
+        			return cached;
+        	}
+        	
             TupleQuery preparedQuery = (TupleQuery)
-            		prepareQueryInternal(query, resolveNamespaces, resolveValue, resolveUser, infer, SparqlQueryType.SELECT);
+            		prepareNormalizedQuery(normalizedQuery, template, resolveValue, infer, SparqlQueryType.SELECT);
 
             TupleQueryResult res = preparedQuery.evaluate();
+            if (key!=null)
+            	return QueryResultCache.getInstance().cacheTupleResult(key, res);
             return res;
         }
         catch (RepositoryException e)
@@ -1351,6 +1968,33 @@ public class ReadDataManagerImpl implements ReadDataManager
         }
     }    
     
+    /**
+     * Evaluates a generated SELECT query, bypassing the {@link QueryResultCache}
+     * and the {@link ParsedQueryCache}. Used for the batch lookups of labels and
+     * types: their VALUES blocks make each query unique, hence caching them 
+     * would only evict useful entries.
+     * 
+     * @param query the query, without special variables or prefixed names
+     * @param infer
+     * @return
+     */
+    private TupleQueryResult sparqlSelectUncached(String query, boolean infer)
+            throws MalformedQueryException, QueryEvaluationException
+    {
+        try
+        {
+            TupleQuery preparedQuery = conn.prepareTupleQuery(QueryLanguage.SPARQL, query);
+            configureQuery(preparedQuery, infer);
+            return preparedQuery.evaluate();
+        }
+        catch (RepositoryException e)
+        {
+        	monitorReadFailure();
+            logger.error("Error in executing query: "+query,e);
+            throw new RuntimeException(e);
+        }
+    }
+    
     @Override
     public Query prepareQuery(String query,
             boolean resolveNamespaces, Value resolveValue, boolean infer)
@@ -1387,6 +2031,23 @@ public class ReadDataManagerImpl implements ReadDataManager
             boolean resolveNamespaces, Value resolveValue,
             boolean resolveUser, boolean infer, SparqlQueryType queryType)
             throws RepositoryException, MalformedQueryException
+    {
+    	query = normalizeQuery(query, resolveNamespaces, resolveValue, resolveUser);
+    	return prepareNormalizedQuery(query, infer, queryType);
+    }
+    
+    /**
+     * Resolves special variables and (optionally) namespace prefixes
+     * in the query, i.e. returns the query as sent to the repository.
+     * 
+     * @param query
+     * @param resolveNamespaces
+     * @param resolveValue
+     * @param resolveUser
+     * @return
+     */
+    protected String normalizeQuery(String query, boolean resolveNamespaces,
+    		Value resolveValue, boolean resolveUser)
     {
     	// replace context-specific patterns in query (where necessary)
     	query = replaceSpecialVariablesInQuery(query, resolveValue, resolveUser);
@@ -1400,21 +2061,72 @@ public class ReadDataManagerImpl implements ReadDataManager
             query = PrefixAdder.addPrefixes(query, map);
         }
                 
-        query = query.trim();
-        
+        return query.trim();
+    }
+    
+    /**
+     * Prepares a query that has been normalized using 
+     * {@link #normalizeQuery(String, boolean, Value, boolean)}.
+     * 
+     * @param query
+     * @param infer
+     * @param queryType the sparql query type or null if unknown
+     * @return
+     * @throws RepositoryException
+     * @throws MalformedQueryException
+     */
+    protected Operation prepareNormalizedQuery(String query, boolean infer, 
+    		SparqlQueryType queryType) throws RepositoryException, MalformedQueryException
+    {
+    	return prepareNormalizedQuery(query, null, null, infer, queryType);
+    }
+    
+    /**
+     * Prepares a query that has been normalized using 
+     * {@link #normalizeQuery(String, boolean, Value, boolean)}. The template
+     * is the query normalized without resolving "??", such that the parsed 
+     * query can be cached per template, see 
+     * {@link ParsedQueryCache#getParsedQuery(String, Value, String)}.
+     * 
+     * @param query
+     * @param template the normalized query with "??" unresolved, or null
+     * @param resolveValue the value of "??"
+     * @param infer
+     * @param queryType the sparql query type or null if unknown
+     * @return
+     * @throws RepositoryException
+     * @throws MalformedQueryException
+     */
+    protected Operation prepareNormalizedQuery(String query, String template, Value resolveValue,
+    		boolean infer, SparqlQueryType queryType) throws RepositoryException, MalformedQueryException
+    {
     	// Note msc: some connections (e.g. HttpRepositoryConnection) do
         // not support the prepareQuery() method; therefore, we try
         // to call the most specific method, which is supported
-        queryType = queryType==null ? ReadDataManagerImpl.getSparqlQueryType(query, false) : queryType;
-        Operation preparedQuery;
-        switch (queryType) {
-        case SELECT: 	preparedQuery = conn.prepareTupleQuery(QueryLanguage.SPARQL, query); break;
-        case CONSTRUCT:	preparedQuery = conn.prepareGraphQuery(QueryLanguage.SPARQL, query); break;
-        case ASK: 		preparedQuery = conn.prepareBooleanQuery(QueryLanguage.SPARQL, query); break;
-        case UPDATE:	preparedQuery = conn.prepareUpdate(QueryLanguage.SPARQL, query); break;
-        default: 		throw new IllegalArgumentException("Query type not supported: " + queryType + ", query: " + query);
+        queryType = queryType==null ? getNormalizedQueryType(query) : queryType;
+        Operation preparedQuery = prepareCachedParsedQuery(query, template, resolveValue, queryType);
+        if (preparedQuery==null)
+        {
+            switch (queryType) {
+            case SELECT: 	preparedQuery = conn.prepareTupleQuery(QueryLanguage.SPARQL, query); break;
+            case CONSTRUCT:	preparedQuery = conn.prepareGraphQuery(QueryLanguage.SPARQL, query); break;
+            case ASK: 		preparedQuery = conn.prepareBooleanQuery(QueryLanguage.SPARQL, query); break;
+            case UPDATE:	preparedQuery = conn.prepareUpdate(QueryLanguage.SPARQL, query); break;
+            default: 		throw new IllegalArgumentException("Query type not supported: " + queryType + ", query: " + query);
+            }
         }
-        
+        configureQuery(preparedQuery, infer);
+        return preparedQuery;
+    }   
+    
+    /**
+     * Sets inferencing and the query timeout of a prepared operation.
+     * 
+     * @param preparedQuery
+     * @param infer
+     */
+    private static void configureQuery(Operation preparedQuery, boolean infer)
+    {
         // enable inferencing        
         try  {
         	preparedQuery.setIncludeInferred(infer); 
@@ -1429,8 +2141,87 @@ public class ReadDataManagerImpl implements ReadDataManager
         } catch (UnsupportedOperationException ignore) {
         	// ignore => operation currently not supported in Sesame SPARQLRepository
         }
-        return preparedQuery;
-    }   
+    }
+
+    /**
+     * Prepares the query from the {@link ParsedQueryCache}, such that
+     * repeated queries are not parsed again. This is only possible for
+     * local (Sail) repositories, remote repositories parse the query
+     * on the server side. Returns null if the query cannot be prepared
+     * from the cache.
+     * 
+     * @param query the normalized query
+     * @param template the normalized query with "??" unresolved, or null
+     * @param resolveValue the value of "??"
+     * @param queryType
+     * @return the prepared query or null
+     * @throws MalformedQueryException
+     */
+    private Operation prepareCachedParsedQuery(String query, String template, Value resolveValue, 
+    		SparqlQueryType queryType) throws MalformedQueryException
+    {
+    	if (queryType==SparqlQueryType.UPDATE || !ParsedQueryCache.getInstance().isEnabled())
+    		return null;
+    	
+    	RepositoryConnection c = conn;
+    	if (c instanceof ContextTrackingRepositoryConnection)
+    		c = ((ContextTrackingRepositoryConnection)c).getWrappedConnection();
+    	boolean monitored = false;
+    	if (c instanceof ReadMonitorRepositoryConnection)
+    	{
+    		c = ((ReadMonitorRepositoryConnection)c).getDelegate();
+    		monitored = true;
+    	}
+    	if (!(c instanceof SailRepositoryConnection))
+    		return null;
+    	SailRepositoryConnection sailConn = (SailRepositoryConnection)c;
+    	if (monitored)
+    		monitorRead();
+    	
+    	// the Sail query constructors are protected, hence the anonymous subclasses
+    	Operation res;
+    	ParsedQuery parsed = template!=null && resolveValue!=null
+    			? ParsedQueryCache.getInstance().getParsedQuery(template, resolveValue, query)
+    			: ParsedQueryCache.getInstance().getParsedQuery(query);
+    	if (queryType==SparqlQueryType.SELECT && parsed instanceof ParsedTupleQuery)
+    		res = new SailTupleQuery((ParsedTupleQuery)parsed, sailConn) { };
+    	else if (queryType==SparqlQueryType.CONSTRUCT && parsed instanceof ParsedGraphQuery)
+    		res = new SailGraphQuery((ParsedGraphQuery)parsed, sailConn) { };
+    	else if (queryType==SparqlQueryType.ASK && parsed instanceof ParsedBooleanQuery)
+    		res = new SailBooleanQuery((ParsedBooleanQuery)parsed, sailConn) { };
+    	else
+    		throw new MalformedQueryException("Not a " + queryType + " query: " + query);
+    	
+    	// the value of the placeholder in CONSTRUCT templates of parsed templates
+    	if (template!=null && resolveValue!=null)
+    		res.setBinding(ParsedQueryCache.RESOLVE_VALUE_VAR, resolveValue instanceof Literal 
+    				? ValueFactoryImpl.getInstance().createLiteral(resolveValue.stringValue()) : resolveValue);
+    	return res;
+    }
+    
+    /**
+     * Returns the key for caching the result of the given query in
+     * the {@link QueryResultCache}, or null if the result must not be 
+     * cached. Results are not cached while a transaction is active, as 
+     * the connection sees uncommitted changes.
+     * 
+     * @param normalizedQuery
+     * @param infer
+     * @return
+     */
+    protected QueryResultCache.Key createResultCacheKey(String normalizedQuery, boolean infer)
+    {
+    	try
+    	{
+    		if (conn==null || conn.isActive())
+    			return null;
+    	}
+    	catch (RepositoryException e)
+    	{
+    		return null;
+    	}
+    	return QueryResultCache.getInstance().createKey(r, normalizedQuery, infer);
+    }
 
     @Override
     public ObjectTable sparqlSelectAsObjectTable(String query, boolean resolveNamespaces, Value resolveValue, boolean infer) throws MalformedQueryException, QueryEvaluationException
@@ -2688,6 +3479,9 @@ public class ReadDataManagerImpl implements ReadDataManager
 	    
 	    // finally reset the hash map
 	    dms = new ConcurrentHashMap<Repository,ReadDataManagerImpl>(16, 0.75f, 2);
+	    
+	    // close pooled connections that are still open
+	    RepositoryConnectionPool.shutdownAll();
     }
 	
 	/**
@@ -3125,20 +3919,52 @@ public class ReadDataManagerImpl implements ReadDataManager
      */
     public static SparqlQueryType getSparqlQueryType(String query, boolean resolveNamespaces) throws MalformedQueryException
     {
-
-    	ParsedOperation parsedOperation = parseQuery(query, resolveNamespaces);
-
+    	// the query type does not depend on the values of special variables,
+    	// hence it is cached per query template
+    	SparqlQueryType res = ParsedQueryCache.getInstance().getQueryType(query, resolveNamespaces);
+    	if (res!=null)
+    		return res;
+
+    	res = getSparqlQueryType(parseQuery(query, resolveNamespaces), query);
+        ParsedQueryCache.getInstance().putQueryType(query, resolveNamespaces, res);
+        return res;
+    }
+    
+    /**
+     * Decides the query type of a query normalized with
+     * {@link #normalizeQuery(String, boolean, Value, boolean)}. The type
+     * is cached apart from the types of query templates.
+     * 
+     * @param query the normalized query
+     * @return
+     * @throws MalformedQueryException
+     */
+    private static SparqlQueryType getNormalizedQueryType(String query) throws MalformedQueryException
+    {
+    	SparqlQueryType res = ParsedQueryCache.getInstance().getNormalizedQueryType(query);
+    	if (res!=null)
+    		return res;
+    	
+    	res = getSparqlQueryType(parseQuery(query, false), query);
+    	ParsedQueryCache.getInstance().putNormalizedQueryType(query, res);
+    	return res;
+    }
+    
+    private static SparqlQueryType getSparqlQueryType(ParsedOperation parsedOperation, String query) throws MalformedQueryException
+    {
+    	SparqlQueryType res;
         if (parsedOperation instanceof ParsedTupleQuery)
-            return SparqlQueryType.SELECT;
+            res = SparqlQueryType.SELECT;
         else if (parsedOperation instanceof ParsedGraphQuery)
-            return SparqlQueryType.CONSTRUCT;
+            res = SparqlQueryType.CONSTRUCT;
         else if (parsedOperation instanceof ParsedBooleanQuery)
-            return SparqlQueryType.ASK;
+            res = SparqlQueryType.ASK;
         else if (parsedOperation instanceof ParsedUpdate)
-        	return SparqlQueryType.UPDATE;
+        	res = SparqlQueryType.UPDATE;
         else
             throw new MalformedQueryException("Unexpected query type "
                     + parsedOperation.getClass() + " for query " + query);
+        return res;
     }
     
     /**
@@ -3252,15 +4078,19 @@ public class ReadDataManagerImpl implements ReadDataManager
      * Return a new connection. If monitoring of repositories
      * is enabled, the repository connection is wrapped in
      * {@link ReadMonitorRepositoryConnection} to monitor
-     * any read access to the underlying repository.
+     * any read access to the underlying repository. For pooled
+     * repositories the connection borrows a pooled connection
+     * per operation, see {@link RepositoryConnectionPool#operationConnection()}.
      * 
      * @return
      * @throws RepositoryException 
      */
     protected RepositoryConnection getConnectionInternal() throws RepositoryException {
+    	RepositoryConnectionPool pool = RepositoryConnectionPool.getPool(r);
+    	RepositoryConnection res = pool!=null ? pool.operationConnection() : r.getConnection();
     	if (MonitoringUtil.isMonitoringEnabled(r))
-        	return new ReadMonitorRepositoryConnection(r.getConnection());
-       	return r.getConnection();
+        	return new ReadMonitorRepositoryConnection(res);
+       	return res;
     }
 	
 	protected void monitorRead() {
@@ -3334,6 +4164,8 @@ public class ReadDataManagerImpl implements ReadDataManager
 	/**
 	 * Merges two tuple query result sets by adding the results of the second query to the first one.
 	 * If the first argument is not mutable, creates a new mutable query result set containing both.
+	 * A single mutable result (e.g. a {@link com.fluidops.iwb.model.StreamingTupleQueryResultImpl}) is returned as is,
+	 * streaming results are only materialized if they need to be merged.
 	 * Argument result sets are closed after completion of the method.
 	 * 
 	 * @param accumulator
@@ -3341,18 +4173,18 @@ public class ReadDataManagerImpl implements ReadDataManager
 	 * @return
 	 * @throws QueryEvaluationException
 	 */
-	public static MutableTupleQueryResultImpl mergeQueryResults(TupleQueryResult accumulator, TupleQueryResult queryResult) throws QueryEvaluationException {
+	public static AbstractMutableTupleQueryResult mergeQueryResults(TupleQueryResult accumulator, TupleQueryResult queryResult) throws QueryEvaluationException {
 		
 		if(accumulator == null) {
 			if(queryResult instanceof AbstractMutableTupleQueryResult ) {
-				return (MutableTupleQueryResultImpl)queryResult;
+				return (AbstractMutableTupleQueryResult)queryResult;
 			} else {
 				return new MutableTupleQueryResultImpl(queryResult);
 				// queryResult is closed automatically after creation of MutableQueryResult
 			}
 		} else {
 			MutableTupleQueryResultImpl result;
-			if(accumulator instanceof AbstractMutableTupleQueryResult) {
+			if(accumulator instanceof MutableTupleQueryResultImpl) {
 				result = (MutableTupleQueryResultImpl)accumulator;
 			} else {
 				result = new MutableTupleQueryResultImpl(accumulator);
@@ -203,6 +203,32 @@ public interface ReadWriteDataManager extends ReadDataManager
             ContextType contextType, ContextLabel label,
             Collection<Statement> stmts, Long contextExpirationDateMS);
 
+    /**
+     * Same as {@link #updateDataForSrc(URI, URI, ContextType, ContextLabel, Collection, Long)},
+     * but if the most recent context of the source for the given parameter
+     * is not editable and its statement hashes are stored (see
+     * {@link ContextStatementHashes}), only the difference to the previous
+     * data is applied to that context: statements no longer present are
+     * removed, new statements are added, and the timestamp of the context
+     * is renewed. The other contexts of the source are deleted according
+     * to the expiration date. Otherwise the data is replaced as in
+     * {@link #updateDataForSrc(URI, URI, ContextType, ContextLabel, Collection, Long)}.
+     * In both cases the statement hashes of the resulting context are stored
+     * for the next update.
+     * 
+     * @param src URI of the src
+     * @param providerParam
+     * @param contextType type of the context
+     * @param label Name for the context
+     * @param stmts The list of stmts to write
+     * @param contextExpirationDateMS the date after which the context expires
+     * 
+     * @return the updated or fresh context
+     */
+    public Context updateDataForSrcDelta(URI src, URI providerParam,
+            ContextType contextType, ContextLabel label,
+            Collection<Statement> stmts, Long contextExpirationDateMS);
+
     /**
      * Loads data for the source from a file and removes all
      * data older than contextExpirationDateMS. If
@@ -23,7 +23,9 @@ import info.aduna.iteration.Iteration;
 import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -56,6 +58,7 @@ import com.fluidops.iwb.Global;
 import com.fluidops.iwb.api.Context.ContextLabel;
 import com.fluidops.iwb.api.Context.ContextState;
 import com.fluidops.iwb.api.Context.ContextType;
+import com.fluidops.iwb.cache.QueryResultCache;
 import com.fluidops.iwb.model.Vocabulary;
 import com.fluidops.iwb.util.Config;
 import com.fluidops.iwb.util.VoIDCalculationUsingSPARQLAggregation;
@@ -148,8 +151,26 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
     @Override
     public void close()
     {
+    	// writes in autocommit mode, e.g. by clients of getConnection()
+    	invalidateAutocommitWrites();
     	closeQuietly(conn);
     }
+    
+    /**
+     * Read/write data managers are opened per operation: for remote
+     * repositories, the connection is leased from the
+     * {@link RepositoryConnectionPool} and handed back on {@link #close()}.
+     * The connection records the written contexts, such that cached query
+     * results are invalidated per context on commit.
+     */
+    @Override
+    protected RepositoryConnection getConnectionInternal() throws RepositoryException
+    {
+    	RepositoryConnectionPool pool = RepositoryConnectionPool.getPool(r);
+    	if (pool!=null)
+    		return new ContextTrackingRepositoryConnection(pool.lease());
+    	return new ContextTrackingRepositoryConnection(super.getConnectionInternal());
+    }
 
     
     /**
@@ -319,6 +340,126 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
     }
     
     
+    @Override
+    public Context updateDataForSrcDelta(URI source,
+            URI providerServiceParam,
+            Context.ContextType srcType, ContextLabel label,
+            Collection<Statement> stmts,
+            Long contextExpirationDateMS)
+    {
+        long[] newHashes = ContextStatementHashes.compute(stmts);
+        
+        // the most recent context of the source for the given parameter is the base of the delta
+        List<Context> previous = new ArrayList<Context>();
+        Context context = null;
+        for (Context c : getContextsForSource(source))
+        {
+        	if (providerServiceParam!=null && !providerServiceParam.equals(c.getInputParameter()))
+        		continue;
+        	previous.add(c);
+        	if (context==null || (c.getTimestamp()!=null 
+        			&& (context.getTimestamp()==null || c.getTimestamp()>context.getTimestamp())))
+        		context = c;
+        }
+        
+        // editable contexts may have been changed by users, i.e. the stored hashes are unreliable
+        long[] oldHashes = null;
+        if (context!=null && !context.isEditable())
+        	oldHashes = ContextStatementHashes.load(context.getURI());
+        
+        if (oldHashes==null)
+        {
+        	Context newContext = updateDataForSrc(source, providerServiceParam, srcType, label, stmts, contextExpirationDateMS);
+        	ContextStatementHashes.store(newContext.getURI(), newHashes);
+        	return newContext;
+        }
+        
+        List<Statement> added = new ArrayList<Statement>();
+        long[] addedHashes = ContextStatementHashes.difference(newHashes, oldHashes);
+        if (addedHashes.length>0)
+        {
+        	Set<Long> seen = new HashSet<Long>();
+        	for (Statement stmt : stmts)
+        	{
+        		long h = ContextStatementHashes.hash(stmt);
+        		if (Arrays.binarySearch(addedHashes, h)>=0 && seen.add(h))
+        			added.add(stmt);
+        	}
+        }
+        
+        // the removed statements are streamed from the context only if there are any 
+        List<Statement> removed = new ArrayList<Statement>();
+        long[] removedHashes = ContextStatementHashes.difference(oldHashes, newHashes);
+        if (removedHashes.length>0)
+        {
+        	RepositoryResult<Statement> contextStmts = null;
+        	try
+        	{
+        		contextStmts = conn.getStatements(null, null, null, false, context.getURI());
+        		while (contextStmts.hasNext())
+        		{
+        			Statement stmt = contextStmts.next();
+        			if (ContextStatementHashes.contains(removedHashes, stmt))
+        				removed.add(stmt);
+        		}
+        	}
+        	catch (RepositoryException e)
+        	{
+        		throw new RuntimeException(e);
+        	}
+        	finally
+        	{
+        		closeQuietly(contextStmts);
+        	}
+        }
+        
+        if (logger.isDebugEnabled())
+        	logger.debug("Delta update of context " + context.getURI() + ": " + added.size() + " added, " + removed.size() + " removed");
+        
+        boolean started = startTransaction();
+        
+        Map<URI,Context> contexts = new HashMap<URI,Context>();
+        contexts.put(context.getURI(), context);
+        try
+        {
+        	// the other contexts are deleted according to the expiration date as for a full update
+        	if (previous.size()>1)
+        		deleteExpiredContextsOfSource(source, providerServiceParam, 
+        				Collections.<Resource>singleton(context.getURI()), contextExpirationDateMS);
+        	
+        	for (Statement stmt : removed)
+        		conn.remove(stmt, context.getURI());
+        	for (Statement stmt : added)
+        		conn.add(stmt, context.getURI());
+        	
+        	// the updated context is as recent as a freshly loaded one
+        	context.setTimestamp(Context.getContextTimestampSafe());
+        	if (newHashes.length==0)
+        		unregisterContextByIdIfEmpty(context.getURI());
+        	else
+        		persistContextMetaInformation(context);
+        }
+        catch (Throwable e)
+        {
+            logger.error(e.getMessage(), e);
+            rollbackTransaction();
+            throw new RuntimeException(e);
+        }
+        
+        finishTransaction(started, added, removed, context, contexts);
+        
+        List<Statement> changed = new ArrayList<Statement>(added);
+        changed.addAll(removed);
+        updateCachesForStmts(changed);
+        
+        if (newHashes.length==0)
+        	ContextStatementHashes.delete(context.getURI());
+        else
+        	ContextStatementHashes.store(context.getURI(), newHashes);
+        return context;
+    }
+    
+    
     @Override
     public Context updateDataForSrc(URI source, URI providerServiceParam,
             Context.ContextType srcType, ContextLabel label,
@@ -393,17 +534,20 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
     @Override
     public void addToContext(Iteration<Statement,RepositoryException> stmts, Context context)
     {
-    	// make sure context meta information is present
-    	persistContextMetaInformation(context);
+    	boolean started = startTransaction();
     	try 
     	{
+    		// make sure context meta information is present
+    		persistContextMetaInformation(context);
     		conn.add(stmts, context.getURI());
     	}
     	catch (Exception e)
     	{
     		logger.error(e.getMessage(), e);
+    		rollbackTransaction();
     		throw new RuntimeException(e);
     	}
+    	finishTransaction(started);
     	cm.invalidateAllCaches(conn.getRepository());
     }
 
@@ -749,6 +893,8 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
             {
 	            Context c = Context.loadContextByURI((URI)contextId,this);
 	            deleteContextMetaInformation(c);
+	            if (r!=Global.negativeChangeRepository && r!=Global.positiveChangeRepository)
+	            	ContextStatementHashes.delete((URI)contextId);
             }
         }
         catch (Throwable e)
@@ -1328,6 +1474,7 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
         { 
             conn.commit();
             monitorWrite();
+            invalidateQueryResults();
             if (logger.isTraceEnabled())
             	logger.trace("[RWDM] Finished transaction");
         }
@@ -1356,10 +1503,52 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
         {
             logger.error(e.getMessage(),e);
         }
+        if (conn instanceof ContextTrackingRepositoryConnection)
+        	((ContextTrackingRepositoryConnection)conn).resetWrittenContexts();
         
         assertConnectionIsOpen(); // recovery
     }
     
+    /**
+     * Drops the cached query results which may read the contexts written
+     * in the committed transaction.
+     */
+    private void invalidateQueryResults()
+    {
+    	if (!(conn instanceof ContextTrackingRepositoryConnection))
+    	{
+    		QueryResultCache.getInstance().invalidate(r);
+    		return;
+    	}
+    	ContextTrackingRepositoryConnection tracking = (ContextTrackingRepositoryConnection)conn;
+    	QueryResultCache.getInstance().invalidate(r, tracking.getWrittenContexts());
+    	tracking.resetWrittenContexts();
+    }
+    
+    /**
+     * Drops the cached query results which may read the contexts written
+     * in autocommit mode, i.e. outside of a transaction. Writes within a
+     * transaction are invalidated on commit.
+     */
+    private void invalidateAutocommitWrites()
+    {
+    	if (!(conn instanceof ContextTrackingRepositoryConnection))
+    		return;
+    	Set<Resource> written = ((ContextTrackingRepositoryConnection)conn).getWrittenContexts();
+    	if (written!=null && written.isEmpty())
+    		return;
+    	try
+    	{
+    		if (conn.isActive())
+    			return;
+    	}
+    	catch (RepositoryException e)
+    	{
+    		logger.warn(e.getMessage(), e);
+    	}
+    	invalidateQueryResults();
+    }
+    
     /**
      * Updates the cache for a set of statement. If the statements have
      * a shared subject, only the subject's cache is updated instead of
@@ -1376,7 +1565,10 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
             if (sharedSubject==null)
                 sharedSubject = stmt.getSubject();
             else if (!sharedSubject.equals(stmt.getSubject()))
+            {
                 cm.invalidateAllCaches(conn.getRepository()); // no shared subject
+                return;
+            }
         }
         
         cm.updateAllCaches(conn.getRepository(),sharedSubject); // shared subject
@@ -1517,6 +1709,7 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
 	    			persistContextMetaInformation(context);
 	    	}
 	    	
+	    	invalidateAutocommitWrites();
 	    	cm.invalidateAllCaches(conn.getRepository());
 		}
 		catch (RepositoryException e)
@@ -0,0 +1,558 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.base.RepositoryConnectionWrapper;
+import org.openrdf.repository.base.RepositoryWrapper;
+import org.openrdf.repository.http.HTTPRepository;
+import org.openrdf.repository.sparql.SPARQLRepository;
+
+import com.fluidops.iwb.monitoring.MonitoringUtil;
+import com.fluidops.iwb.monitoring.ReadMonitorRepositoryConnection;
+import com.fluidops.iwb.util.Config;
+
+/**
+ * Pool of {@link RepositoryConnection}s for a remote repository, i.e. an
+ * {@link HTTPRepository} or a {@link SPARQLRepository}. Connections to local
+ * repositories are cheap to create and are not pooled.
+ *
+ * The pool is bounded by {@link Config#getConnectionPoolMaxSize()}: if all
+ * connections are in use, {@link #borrow()} waits for a connection to be
+ * released. Idle connections are validated before being handed out again
+ * and are closed by a background task after {@link Config#getConnectionPoolIdleTimeout()}
+ * seconds, retaining at least {@link Config#getConnectionPoolMinIdle()} connections.
+ *
+ * Borrowed connections must be returned using {@link #release(RepositoryConnection)}
+ * in a finally block. Short-lived users such as the {@link ReadWriteDataManagerImpl}
+ * obtain a connection using {@link #lease()}, which borrows from the pool on first
+ * use and hands the connection back on close. If the pool is exhausted, the
+ * connections that have been in use for longer than the maximum wait time are
+ * logged together with the call that borrowed them, as they were most likely
+ * not returned.
+ */
+public class RepositoryConnectionPool
+{
+	private static final Logger logger = Logger.getLogger(RepositoryConnectionPool.class.getName());
+
+	/**
+	 * The pools, one per repository
+	 */
+	private static final ConcurrentMap<Repository, RepositoryConnectionPool> pools =
+			new ConcurrentHashMap<Repository, RepositoryConnectionPool>(16, 0.75f, 2);
+
+	/**
+	 * Closes the idle connections of all pools periodically
+	 */
+	private static final ScheduledExecutorService evictor = new ScheduledThreadPoolExecutor(1,
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "IWB Connection Pool Evictor");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	/**
+	 * An idle connection together with the time it was returned to the pool
+	 */
+	private static class IdleConnection
+	{
+		private final RepositoryConnection conn;
+		private final long since;
+
+		private IdleConnection(RepositoryConnection conn, long since)
+		{
+			this.conn = conn;
+			this.since = since;
+		}
+	}
+
+	private final Repository r;
+	private final String name;
+	private final int maxSize;
+	private final int minIdle;
+	private final long idleTimeout;
+	private final long validationInterval;
+	private final long maxWait;
+
+	/**
+	 * Idle connections, most recently used first
+	 */
+	private final LinkedBlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<IdleConnection>();
+
+	/**
+	 * The connections currently handed out, with the call that borrowed them
+	 */
+	private final ConcurrentMap<RepositoryConnection, Borrow> inUse =
+			new ConcurrentHashMap<RepositoryConnection, Borrow>();
+
+	/**
+	 * One permit per connection that may be created or handed out
+	 */
+	private final Semaphore permits;
+
+	private volatile ScheduledFuture<?> eviction;
+
+	private volatile boolean closed = false;
+
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong destroyed = new AtomicLong();
+	private final AtomicLong borrowed = new AtomicLong();
+	private final AtomicLong validationFailures = new AtomicLong();
+	private final AtomicLong waitTimeouts = new AtomicLong();
+
+
+	private RepositoryConnectionPool(Repository r, String name)
+	{
+		Config cfg = Config.getConfig();
+		this.r = r;
+		this.name = name;
+		this.maxSize = cfg.getConnectionPoolMaxSize();
+		this.minIdle = cfg.getConnectionPoolMinIdle();
+		this.idleTimeout = cfg.getConnectionPoolIdleTimeout() * 1000L;
+		this.validationInterval = cfg.getConnectionPoolValidationInterval() * 1000L;
+		this.maxWait = cfg.getConnectionPoolMaxWait() * 1000L;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * Returns the connection pool for the given repository, or null if
+	 * connections to the repository are not pooled.
+	 *
+	 * @param r
+	 * @return
+	 */
+	public static RepositoryConnectionPool getPool(Repository r)
+	{
+		if (r==null)
+			return null;
+		RepositoryConnectionPool pool = pools.get(r);
+		if (pool!=null)
+			return pool;
+		if (!isPoolable(r))
+			return null;
+
+		RepositoryConnectionPool newPool = new RepositoryConnectionPool(r, r.getClass().getSimpleName() + "-" + pools.size());
+		pool = pools.putIfAbsent(r, newPool);
+		if (pool==null)
+		{
+			pool = newPool;
+			pool.scheduleEviction();
+			MonitoringUtil.registerConnectionPool(pool);
+		}
+		return pool;
+	}
+
+	/**
+	 * @return all connection pools that have been created
+	 */
+	public static Collection<RepositoryConnectionPool> getPools()
+	{
+		return pools.values();
+	}
+
+	/**
+	 * Closes all connection pools, including the connections currently
+	 * in use. To be called on shutdown, before the repositories are shut down.
+	 */
+	public static void shutdownAll()
+	{
+		for (RepositoryConnectionPool pool : pools.values())
+			pool.shutdown();
+		pools.clear();
+	}
+
+	/**
+	 * A repository is poolable if pooling is enabled and the repository
+	 * (or the repository it wraps) is a remote repository.
+	 *
+	 * @param r
+	 * @return
+	 */
+	protected static boolean isPoolable(Repository r)
+	{
+		if (Config.getConfig().getConnectionPoolMaxSize()<=0)
+			return false;
+		while (r instanceof RepositoryWrapper)
+			r = ((RepositoryWrapper)r).getDelegate();
+		return r instanceof HTTPRepository || r instanceof SPARQLRepository;
+	}
+
+	/**
+	 * Borrow a connection from the pool. Idle connections are reused if
+	 * possible, otherwise a new connection is opened as long as the maximum
+	 * pool size is not reached. If the pool is exhausted, the method waits
+	 * up to {@link Config#getConnectionPoolMaxWait()} seconds.
+	 *
+	 * @return an open connection in autocommit mode
+	 * @throws RepositoryException if no connection could be obtained
+	 */
+	public RepositoryConnection borrow() throws RepositoryException
+	{
+		if (closed)
+			throw new RepositoryException("Connection pool " + name + " is closed");
+
+		try
+		{
+			if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS))
+			{
+				waitTimeouts.incrementAndGet();
+				logLeaks();
+				throw new RepositoryException("Connection pool " + name + " exhausted: no connection available after " + maxWait + "ms");
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RepositoryException("Interrupted while waiting for a connection", e);
+		}
+
+		try
+		{
+			IdleConnection candidate;
+			while ((candidate=idle.pollFirst())!=null)
+			{
+				if (isValid(candidate))
+					return borrowed(candidate.conn);
+				validationFailures.incrementAndGet();
+				destroy(candidate.conn);
+			}
+
+			return borrowed(createConnection());
+		}
+		catch (RepositoryException e)
+		{
+			permits.release();
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a connection which borrows a pooled connection on first use
+	 * and returns it to the pool on {@link RepositoryConnection#close()}.
+	 * The lease may be used again after closing it, in which case another
+	 * connection is borrowed. The lease must be closed in a finally block.
+	 *
+	 * @return
+	 */
+	public RepositoryConnection lease()
+	{
+		return new PooledConnection(this);
+	}
+
+	/**
+	 * Returns a connection which borrows a pooled connection for each
+	 * operation and returns it when the operation is done. The connection
+	 * is in autocommit mode and may be shared by several threads, closing
+	 * it is a no-op.
+	 * 
+	 * @return
+	 */
+	public RepositoryConnection operationConnection()
+	{
+		return new PooledOperationConnection(this, r);
+	}
+
+	/**
+	 * Return a borrowed connection to the pool. Pending transactions are
+	 * rolled back. Closed or broken connections are discarded.
+	 *
+	 * @param conn
+	 */
+	public void release(RepositoryConnection conn)
+	{
+		if (conn==null)
+			return;
+		inUse.remove(conn);
+
+		try
+		{
+			if (closed || !conn.isOpen())
+			{
+				destroy(conn);
+				return;
+			}
+
+			// reset the connection state
+			if (conn.isActive())
+				conn.rollback();
+			idle.offerFirst(new IdleConnection(conn, System.currentTimeMillis()));
+		}
+		catch (Exception e)
+		{
+			logger.debug("Discarding connection on release: " + e.getMessage());
+			destroy(conn);
+		}
+		finally
+		{
+			permits.release();
+		}
+
+		evictIdle();
+	}
+
+	/**
+	 * Closes idle connections which have not been used for longer than the
+	 * idle timeout, retaining the configured minimum of idle connections.
+	 */
+	public void evictIdle()
+	{
+		long now = System.currentTimeMillis();
+		// the oldest connections are at the end of the deque
+		for (Iterator<IdleConnection> it = idle.descendingIterator(); it.hasNext();)
+		{
+			IdleConnection candidate = it.next();
+			if (idle.size()<=minIdle || now-candidate.since<=idleTimeout)
+				break;
+			if (idle.removeLastOccurrence(candidate))
+				destroy(candidate.conn);
+		}
+	}
+
+	/**
+	 * Closes all idle connections and marks the pool as closed, such that
+	 * connections in use are closed on release.
+	 */
+	public void shutdown()
+	{
+		closed = true;
+		if (eviction!=null)
+			eviction.cancel(false);
+		IdleConnection candidate;
+		while ((candidate=idle.pollFirst())!=null)
+			destroy(candidate.conn);
+	}
+
+	/**
+	 * Connection handed out by {@link RepositoryConnectionPool#lease()}
+	 */
+	private static class PooledConnection extends RepositoryConnectionWrapper
+	{
+		private final RepositoryConnectionPool pool;
+
+		/**
+		 * The borrowed connection, null if none is borrowed currently
+		 */
+		private RepositoryConnection delegate;
+
+		private PooledConnection(RepositoryConnectionPool pool)
+		{
+			super(pool.r);
+			this.pool = pool;
+		}
+
+		@Override
+		public RepositoryConnection getDelegate() throws RepositoryException
+		{
+			if (delegate==null)
+				delegate = pool.borrow();
+			return delegate;
+		}
+
+		@Override
+		public boolean isOpen() throws RepositoryException
+		{
+			// a connection is borrowed on demand
+			if (delegate==null)
+				return !pool.closed;
+			return delegate.isOpen();
+		}
+
+		@Override
+		public void close() throws RepositoryException
+		{
+			RepositoryConnection c = delegate;
+			delegate = null;
+			pool.release(c);
+		}
+	}
+
+	/**
+	 * The call that borrowed a connection, see {@link RepositoryConnectionPool#logLeaks()}
+	 */
+	private static class Borrow extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final long since = System.currentTimeMillis();
+
+		private Borrow()
+		{
+			super("Connection borrowed by thread " + Thread.currentThread().getName());
+		}
+	}
+
+	private RepositoryConnection borrowed(RepositoryConnection conn)
+	{
+		borrowed.incrementAndGet();
+		inUse.put(conn, new Borrow());
+		return conn;
+	}
+
+	/**
+	 * Logs the connections that have been in use for longer than the maximum
+	 * wait time, together with the call that borrowed them. To be called if
+	 * the pool is exhausted: such connections were most likely not returned.
+	 */
+	private void logLeaks()
+	{
+		long now = System.currentTimeMillis();
+		for (Borrow borrow : inUse.values())
+		{
+			if (now-borrow.since>maxWait)
+				logger.warn("Connection of pool " + name + " in use for " + (now-borrow.since)
+						+ "ms, it has possibly not been returned to the pool", borrow);
+		}
+	}
+
+	/**
+	 * Runs {@link #evictIdle()} periodically, such that idle connections are
+	 * closed even if no connection is released
+	 */
+	private void scheduleEviction()
+	{
+		long period = Math.max(1000L, idleTimeout/2);
+		eviction = evictor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run()
+			{
+				try
+				{
+					evictIdle();
+				}
+				catch (RuntimeException e)
+				{
+					// keep the task scheduled
+					logger.debug("Eviction of idle connections failed: " + e.getMessage(), e);
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	private boolean isValid(IdleConnection candidate)
+	{
+		try
+		{
+			if (!candidate.conn.isOpen())
+				return false;
+			if (System.currentTimeMillis()-candidate.since<=validationInterval)
+				return true;
+			candidate.conn.prepareBooleanQuery(QueryLanguage.SPARQL, "ASK { }").evaluate();
+			return true;
+		}
+		catch (Exception e)
+		{
+			logger.debug("Validation of pooled connection failed: " + e.getMessage());
+			return false;
+		}
+	}
+
+	private RepositoryConnection createConnection() throws RepositoryException
+	{
+		RepositoryConnection conn = r.getConnection();
+		created.incrementAndGet();
+		if (MonitoringUtil.isMonitoringEnabled(r))
+			return new ReadMonitorRepositoryConnection(conn);
+		return conn;
+	}
+
+	private void destroy(RepositoryConnection conn)
+	{
+		destroyed.incrementAndGet();
+		ReadWriteDataManagerImpl.closeQuietly(conn);
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public boolean isClosed()
+	{
+		return closed;
+	}
+
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * @return the number of connections currently handed out
+	 */
+	public int getActiveCount()
+	{
+		return maxSize - permits.availablePermits();
+	}
+
+	public int getIdleCount()
+	{
+		return idle.size();
+	}
+
+	public long getCreatedCount()
+	{
+		return created.get();
+	}
+
+	public long getDestroyedCount()
+	{
+		return destroyed.get();
+	}
+
+	public long getBorrowedCount()
+	{
+		return borrowed.get();
+	}
+
+	public long getValidationFailureCount()
+	{
+		return validationFailures.get();
+	}
+
+	public long getWaitTimeoutCount()
+	{
+		return waitTimeouts.get();
+	}
+}
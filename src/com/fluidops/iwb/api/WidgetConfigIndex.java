@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.RDFS;
+
+import com.fluidops.iwb.widget.WidgetConfig;
+
+/**
+ * Immutable index of the widget configurations, built once whenever the
+ * configurations change (see {@link AbstractWidgetSelector}), such that the
+ * configurations applicable to a resource can be determined by a few hash
+ * lookups.
+ *
+ * The configurations are ranked in the order in which they are applied:
+ *
+ * 1.) instance-specific widget configs (applyToInstances=false)
+ * 2.) type-specific widget configs (applyToInstances=true)
+ * 3.) configs for RDFS.RESOURCE
+ *
+ * Within each group the order of the configuration list is retained.
+ */
+class WidgetConfigIndex
+{
+	/**
+	 * Configurations with applyToInstances=false, keyed by their value
+	 */
+	private final Map<Value, List<WidgetConfig>> instanceConfigs = new HashMap<Value, List<WidgetConfig>>();
+
+	/**
+	 * Configurations with applyToInstances=true, keyed by their type
+	 */
+	private final Map<Value, List<WidgetConfig>> typeConfigs = new HashMap<Value, List<WidgetConfig>>();
+
+	/**
+	 * Configurations for RDFS.RESOURCE with applyToInstances=true, which apply
+	 * to every URI
+	 */
+	private final List<WidgetConfig> resourceConfigs = new ArrayList<WidgetConfig>();
+
+	private final Map<WidgetConfig, Integer> rank = new IdentityHashMap<WidgetConfig, Integer>();
+
+	private final Comparator<WidgetConfig> rankComparator = new Comparator<WidgetConfig>()
+	{
+		@Override
+		public int compare(WidgetConfig c1, WidgetConfig c2)
+		{
+			return rank.get(c1).compareTo(rank.get(c2));
+		}
+	};
+
+	/**
+	 * @param configs the (non-deleted) widget configurations
+	 */
+	WidgetConfigIndex(Collection<WidgetConfig> configs)
+	{
+		List<WidgetConfig> sorted = new ArrayList<WidgetConfig>(configs);
+		Collections.sort(sorted, new Comparator<WidgetConfig>()
+		{
+			public int compare(WidgetConfig c1, WidgetConfig c2)
+			{
+				return group(c1) - group(c2);
+			}
+		});
+
+		for (WidgetConfig wc : sorted)
+		{
+			rank.put(wc, rank.size());
+			if (wc.applyToInstances)
+			{
+				add(typeConfigs, wc);
+				if (wc.value.equals(RDFS.RESOURCE))
+					resourceConfigs.add(wc);
+			}
+			else
+				add(instanceConfigs, wc);
+		}
+	}
+
+	private static int group(WidgetConfig wc)
+	{
+		if (wc.value.equals(RDFS.RESOURCE))
+			return 2;
+		return wc.applyToInstances ? 1 : 0;
+	}
+
+	private static void add(Map<Value, List<WidgetConfig>> map, WidgetConfig wc)
+	{
+		List<WidgetConfig> list = map.get(wc.value);
+		if (list==null)
+		{
+			list = new ArrayList<WidgetConfig>(2);
+			map.put(wc.value, list);
+		}
+		list.add(wc);
+	}
+
+	/**
+	 * Returns the configurations applicable to the given value, ordered by
+	 * their priority. Preconditions are not evaluated.
+	 *
+	 * @param value
+	 * @param types the types of the value, if it is a resource
+	 * @return
+	 */
+	List<WidgetConfig> getCandidates(Value value, Collection<? extends Value> types)
+	{
+		Map<WidgetConfig, Boolean> res = new IdentityHashMap<WidgetConfig, Boolean>();
+		addAll(res, instanceConfigs.get(value));
+		for (Value type : types)
+			addAll(res, typeConfigs.get(type));
+		if (value instanceof URI)
+			addAll(res, resourceConfigs);
+
+		List<WidgetConfig> candidates = new ArrayList<WidgetConfig>(res.keySet());
+		Collections.sort(candidates, rankComparator);
+		return candidates;
+	}
+
+	private static void addAll(Map<WidgetConfig, Boolean> res, List<WidgetConfig> configs)
+	{
+		if (configs==null)
+			return;
+		for (WidgetConfig wc : configs)
+			res.put(wc, Boolean.TRUE);
+	}
+
+	/**
+	 * @return the number of indexed configurations
+	 */
+	int size()
+	{
+		return rank.size();
+	}
+}
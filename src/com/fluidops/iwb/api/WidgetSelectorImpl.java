@@ -19,10 +19,10 @@
 package com.fluidops.iwb.api;
 
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -31,7 +31,6 @@ import org.openrdf.model.Literal;
 import org.openrdf.model.Resource;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
-import org.openrdf.model.vocabulary.RDFS;
 import org.openrdf.query.MalformedQueryException;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.repository.RepositoryException;
@@ -53,12 +52,6 @@ public class WidgetSelectorImpl extends AbstractWidgetSelector
 {
     private static final Logger logger = Logger.getLogger(WidgetSelectorImpl.class);
 	
-    /**
-     * Set containing widget configurations, which have already been applied to the current page.
-     * Needed in order to avoid the same widget with the same parameter being applied twice.
-     */
-    private Set<WidgetConfig> appliedWidgetConfigs;
-    
 	public WidgetSelectorImpl()
 	{
 	}
@@ -68,88 +61,40 @@ public class WidgetSelectorImpl extends AbstractWidgetSelector
 	{
 		pc.widgets = Sets.newLinkedHashSet();
 		
-		appliedWidgetConfigs = new HashSet<WidgetConfig>();
+		UserManager userManager = EndpointImpl.api().getUserManager();
+		ReadDataManager dm = EndpointImpl.api().getDataManager();
 		
-		// we sort the widget configuration to reflect the priority in 
+		// the candidates are ordered to reflect the priority in 
 		// which they are applied:
 		// 1.) Apply instance-specific widget configs
 		// 2.) Apply type-specific widget configs
 		// 3.) Apply RDFS.RESOURCE special handling
-		List<WidgetConfig> widgetConfig = new LinkedList<WidgetConfig>(getWidgets());
-		Collections.sort(widgetConfig, new Comparator<WidgetConfig>()
-		{
-			public int compare(WidgetConfig c1,WidgetConfig c2)
-			{
-				// lowest prio (=highest order number): RDFS.RESOURCE
-				if (c1.value.equals(RDFS.RESOURCE))
-					if (c2.value.equals(RDFS.RESOURCE))
-						return 0;
-					else
-						return 1;
-				else if (c2.value.equals(RDFS.RESOURCE))
-					return -1;
-				
-				// second lowest prio (second-highest order number): applyToInstances=false
-				if (!c1.applyToInstances)
-					if (!c2.applyToInstances)
-						return 0;
-					else
-						return -1;
-				else if (!c2.applyToInstances)
-					return 1;
-				
-				// highest priority (lowest order number): applyToInstances=true
-				// (which holds if we reach this piece of code)
-				return !c2.applyToInstances ? -1 : 0;
-			}
-		});
+		Set<Resource> types = pc.value instanceof Resource ? 
+				dm.getType((Resource) pc.value) : Collections.<Resource>emptySet();
+		List<WidgetConfig> candidates = getIndex().getCandidates(pc.value, types);
 		
-		UserManager userManager = EndpointImpl.api().getUserManager();
-		ReadDataManager dm = EndpointImpl.api().getDataManager();
-		for (WidgetConfig wc : widgetConfig)
+		// widget configurations which have already been applied to the current page, identified
+		// by widget class and input. Needed in order to avoid the same widget with the same 
+		// parameter being applied twice.
+		Set<String> applied = new HashSet<String>();
+		
+		// results of the preconditions, each distinct ASK query is evaluated once per page
+		Map<String, Boolean> preConditions = new HashMap<String, Boolean>();
+		
+		for (WidgetConfig wc : candidates)
 		{
 			// filter out widgets that are blocked according to global system settings or ACLs
 			if (!com.fluidops.iwb.util.Config.getConfig().getPivotActive() && (wc.widget.equals(PivotWidget.class))) continue;
 			if (!userManager.hasUIComponentAccess(UIComponent.NAVIGATION_GRAPH,null) && (wc.widget.equals(GraphWidget.class))) continue;
 			if (!userManager.hasUIComponentAccess(UIComponent.NAVIGATION_PIVOT,null) && (wc.widget.equals(PivotWidget.class))) continue;
 			if (!userManager.hasUIComponentAccess(UIComponent.NAVIGATION_TABLE,null) && (wc.widget.equals(TripleEditorWidget.class))) continue;
-				
-			// (1) in case the widget applies to the resource directly...
-			if (!wc.applyToInstances)
-			{
-				// ... add it if the resource addressed by the widget matches 
-				// the current pc.value (otherwise, we ignore the widget definition)
-				if (wc.value.equals(pc.value))
-				{
-					addWidget(wc, pc);
-					continue;
-				}
-			}
-			
-			// (2) in case the widget applies to instances of the resource...
-			if (wc.applyToInstances)
-			{
-				// ... the current resource must be of type Resource ...
-				if (pc.value instanceof Resource)
-				{
-				    for(Value type : dm.getType((Resource) pc.value)) 
-				    {
-						// ... and the widget must match  one of its types
-				    	if(!wc.value.equals(type)) continue;
-				            
-						addWidget(wc, pc);
-						continue;
-					}
-				}
-			}
 			
-			// (3) in case the widget is of special type RDFS.RESOURCE, it
-			//     applies to every URI (if applyToInstances=true)
-			if (pc.value instanceof URI && wc.value.equals(RDFS.RESOURCE) && wc.applyToInstances)
-			{
-				addWidget(wc, pc);
+			String key = wc.widget.getName() + " " + wc.input.toString();
+			if (applied.contains(key) || !isApplicable(wc, pc.value, preConditions))
 				continue;
-			}	
+			
+			if (addWidget(wc, pc))
+				applied.add(key);
 		}
  
 		if (pc.value instanceof URI && userManager.hasUIComponentAccess(UIComponent.NAVIGATION_WIKI, null))
@@ -166,82 +111,79 @@ public class WidgetSelectorImpl extends AbstractWidgetSelector
 		}
 	}
 
-	private boolean isApplicable(WidgetConfig wc, Value value)
+	/**
+	 * Evaluates the precondition of the widget configuration, if any. The results are
+	 * memorized in the given map, such that configurations sharing the same precondition 
+	 * are evaluated with a single ASK query.
+	 * 
+	 * @param wc
+	 * @param value
+	 * @param preConditions the results of the preconditions evaluated for the value so far
+	 * @return
+	 */
+	private boolean isApplicable(WidgetConfig wc, Value value, Map<String, Boolean> preConditions)
 	{
 		String askQuery = wc.preCondition;
 		
     	if (StringUtil.isNotNullNorEmpty(askQuery))
     	{
-        	ReadDataManager dm = ReadDataManagerImpl.getDataManager(Global.repository);
-        	
-    		 try
-			{
-				return dm.sparqlAsk(askQuery, true, value, false);
-			}
-			catch (RepositoryException e)
-			{
-				logger.warn(e.getMessage());
-				return false;
-			}
-			catch (MalformedQueryException e)
-			{				
-				logger.warn("invalid ask-query: "+e.getMessage());
-				return false;
-			}
-			catch (QueryEvaluationException e)
-			{
-				logger.warn(e.getMessage());
-				return false;
-			}
-
+    		Boolean res = preConditions.get(askQuery);
+    		if (res==null)
+    		{
+    			res = evaluatePreCondition(askQuery, value);
+    			preConditions.put(askQuery, res);
+    		}
+    		return res;
     	}
 		return true;
 	}
+	
+	private boolean evaluatePreCondition(String askQuery, Value value)
+	{
+		ReadDataManager dm = ReadDataManagerImpl.getDataManager(Global.repository);
 
-	/**
-	 * Checks if a widget of a certain class has already been added to 
-	 * a collection of widgets
-	 * 
-	 * @param widgets a collection of widgets
-	 * @param widgetClass a widget class
-	 * @return
-	 */
-    private boolean added(WidgetConfig widgetConfig) {
-		
-		for (WidgetConfig wc : this.appliedWidgetConfigs)
+		try
 		{
-			if (wc.widget.equals(widgetConfig.widget) && wc.input.toString().equals(widgetConfig.input.toString()))
-				return true;
+			return dm.sparqlAsk(askQuery, true, value, false);
+		}
+		catch (RepositoryException e)
+		{
+			logger.warn(e.getMessage());
+			return false;
+		}
+		catch (MalformedQueryException e)
+		{				
+			logger.warn("invalid ask-query: "+e.getMessage());
+			return false;
+		}
+		catch (QueryEvaluationException e)
+		{
+			logger.warn(e.getMessage());
+			return false;
 		}
-		
-		return false;
 	}
 
 	/**
-	 * Adds the widget config if a higher prio widget was not yet contained in the widget set
+	 * Adds the widget for the widget config to the page
 	 * 
 	 * @param wc widget configuration
-	 * @param widgets the set of widgets
-	 * @return
-	 * @throws Exception in case widget construction fails
+	 * @param pc the page context
+	 * @return true if the widget was added, false if widget construction failed
 	 */
 	@SuppressWarnings("rawtypes")
-    private void addWidget(WidgetConfig wc, PageContext pc)
+    private boolean addWidget(WidgetConfig wc, PageContext pc)
 	{
-		if (added(wc) || !isApplicable(wc, pc.value))
-			return;
-		
 		try
 		{
 			Widget w = (Widget) wc.widget.newInstance();
 			w.setMapping(wc.input);
 			pc.widgets.add( w );
-			
-			appliedWidgetConfigs.add(wc);
+			return true;
 		}
 		catch (Exception e)
 		{
 			logger.error(e.getMessage(),e);
+			return false;
 		}
 	}
 
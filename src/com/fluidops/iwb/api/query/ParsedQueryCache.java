@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api.query;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openrdf.model.Literal;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.query.parser.ParsedBooleanQuery;
+import org.openrdf.query.parser.ParsedGraphQuery;
+import org.openrdf.query.parser.ParsedQuery;
+import org.openrdf.query.parser.ParsedTupleQuery;
+import org.openrdf.query.parser.QueryParserUtil;
+
+import com.fluidops.iwb.api.ReadDataManagerImpl.SparqlQueryType;
+import com.fluidops.iwb.cache.BoundedCacheMap;
+import com.fluidops.iwb.cache.CacheStatistics;
+import com.fluidops.iwb.util.Config;
+
+/**
+ * Bounded cache for the results of SPARQL query parsing, i.e. the query
+ * type of a query template and the parsed query algebra of a query.
+ *
+ * Queries with a "??" placeholder are parsed per template, with the
+ * placeholder parsed as variable {@link #RESOLVE_VALUE_VAR} which is set to
+ * the resolved value in the copy handed out, see
+ * {@link #getParsedQuery(String, Value, String)}. Thus queries which differ
+ * in the resolved value only are parsed once.
+ *
+ * Parsed queries are handed out as copies (with a cloned tuple expression),
+ * such that the query engine can freely modify them during optimization.
+ * The size of the cache is configured by {@link Config#getParsedQueryCacheSize()}.
+ */
+public class ParsedQueryCache
+{
+	/**
+	 * The variable which stands for the "??" placeholder in parsed query
+	 * templates. The value has to be bound to this variable when the query
+	 * is evaluated, such that it is available to CONSTRUCT templates.
+	 */
+	public static final String RESOLVE_VALUE_VAR = "_resolveValue";
+
+	private static final ParsedQueryCache instance = new ParsedQueryCache();
+
+	/**
+	 * Query types, keyed on the query template
+	 */
+	private final BoundedCacheMap<String,SparqlQueryType> queryTypes;
+
+	/**
+	 * Query types of normalized queries, kept apart from the templates as
+	 * there is one normalized query per resolved value
+	 */
+	private final BoundedCacheMap<String,SparqlQueryType> normalizedQueryTypes;
+
+	/**
+	 * Parsed queries, keyed on the query string or on the query template
+	 * (with the placeholder replaced by {@link #RESOLVE_VALUE_VAR})
+	 */
+	private final BoundedCacheMap<String,ParsedQuery> parsedQueries;
+
+	private final int maxEntries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public static ParsedQueryCache getInstance()
+	{
+		return instance;
+	}
+
+	private ParsedQueryCache()
+	{
+		maxEntries = Config.getConfig().getParsedQueryCacheSize();
+		queryTypes = new BoundedCacheMap<String,SparqlQueryType>(maxEntries, 0, evictions);
+		normalizedQueryTypes = new BoundedCacheMap<String,SparqlQueryType>(maxEntries, 0, evictions);
+		parsedQueries = new BoundedCacheMap<String,ParsedQuery>(maxEntries, 0, evictions);
+	}
+
+	/**
+	 * @return true if the cache is enabled
+	 */
+	public boolean isEnabled()
+	{
+		return maxEntries>0;
+	}
+
+	/**
+	 * Returns the cached query type of the given query template, or null
+	 * if it is unknown.
+	 *
+	 * @param query the query template
+	 * @param resolveNamespaces whether namespaces are resolved when parsing the template
+	 * @return
+	 */
+	public SparqlQueryType getQueryType(String query, boolean resolveNamespaces)
+	{
+		if (!isEnabled())
+			return null;
+		SparqlQueryType res = queryTypes.get(typeKey(query, resolveNamespaces));
+		count(res!=null);
+		return res;
+	}
+
+	public void putQueryType(String query, boolean resolveNamespaces, SparqlQueryType type)
+	{
+		if (isEnabled())
+			queryTypes.put(typeKey(query, resolveNamespaces), type);
+	}
+
+	/**
+	 * Returns the cached query type of the given normalized query, i.e.
+	 * a query with special variables and prefixes resolved, or null if it
+	 * is unknown.
+	 *
+	 * @param query the normalized query
+	 * @return
+	 */
+	public SparqlQueryType getNormalizedQueryType(String query)
+	{
+		if (!isEnabled())
+			return null;
+		SparqlQueryType res = normalizedQueryTypes.get(query);
+		count(res!=null);
+		return res;
+	}
+
+	public void putNormalizedQueryType(String query, SparqlQueryType type)
+	{
+		if (isEnabled())
+			normalizedQueryTypes.put(query, type);
+	}
+
+	/**
+	 * Returns the parsed SPARQL query for the given query string. The
+	 * query is parsed on cache miss. Update operations are not supported.
+	 *
+	 * @param query the query, with special variables and prefixes resolved
+	 * @return a private copy of the parsed query
+	 * @throws MalformedQueryException if the query cannot be parsed or is no query
+	 */
+	public ParsedQuery getParsedQuery(String query) throws MalformedQueryException
+	{
+		ParsedQuery parsed = isEnabled() ? parsedQueries.get(query) : null;
+		if (isEnabled())
+			count(parsed!=null);
+		if (parsed==null)
+		{
+			parsed = QueryParserUtil.parseQuery(QueryLanguage.SPARQL, query, null);
+			if (isEnabled())
+				parsedQueries.put(query, parsed);
+		}
+		return copy(parsed);
+	}
+
+	/**
+	 * Returns the parsed SPARQL query for a query template, with the "??"
+	 * placeholder resolved to the given value. The template is parsed and
+	 * cached with the variable {@link #RESOLVE_VALUE_VAR} in place of the
+	 * placeholder, which is set to the value in the returned copy. Literals
+	 * are resolved to plain literals, as by
+	 * {@link com.fluidops.iwb.api.ReadDataManagerImpl#replaceSpecialVariablesInQuery(String, Value, boolean)}.
+	 *
+	 * The resolved query is parsed instead if the placeholder cannot be
+	 * replaced by a variable, e.g. if it occurs inside a string literal or
+	 * in a FROM clause, or if the variable would be part of the result.
+	 *
+	 * @param template the query with prefixes and special variables other than "??" resolved
+	 * @param value the value of the placeholder, a URI or a literal
+	 * @param query the query with all special variables resolved
+	 * @return a private copy of the parsed query
+	 * @throws MalformedQueryException if the query cannot be parsed or is no query
+	 */
+	public ParsedQuery getParsedQuery(String template, Value value, String query) throws MalformedQueryException
+	{
+		if (!isEnabled() || !(value instanceof URI || value instanceof Literal))
+			return getParsedQuery(query);
+		String key = toVariableTemplate(template);
+		if (key==null)
+			return getParsedQuery(query);
+
+		ParsedQuery parsed = parsedQueries.get(key);
+		count(parsed!=null);
+		if (parsed==null)
+		{
+			try
+			{
+				parsed = QueryParserUtil.parseQuery(QueryLanguage.SPARQL, key, null);
+			}
+			catch (MalformedQueryException e)
+			{
+				// the placeholder is not used as a term, e.g. FROM ??
+				return getParsedQuery(query);
+			}
+			parsedQueries.put(key, parsed);
+		}
+		if (parsed.getTupleExpr().getBindingNames().contains(RESOLVE_VALUE_VAR))
+			return getParsedQuery(query);
+
+		ParsedQuery res = copy(parsed);
+		final Value constant = value instanceof Literal ? new LiteralImpl(value.stringValue()) : value;
+		res.getTupleExpr().visit(new QueryModelVisitorBase<RuntimeException>()
+		{
+			@Override
+			public void meet(Var var)
+			{
+				if (RESOLVE_VALUE_VAR.equals(var.getName()) && !var.hasValue())
+					var.setValue(constant);
+			}
+		});
+		return res;
+	}
+
+	/**
+	 * Replaces the "??" placeholders of the template by the variable
+	 * {@link #RESOLVE_VALUE_VAR}. Placeholders inside IRIs, string literals
+	 * or comments are not replaced by the textual substitution of the
+	 * value, hence such templates are not parsed per template.
+	 *
+	 * @param template
+	 * @return the template with variables or null if the placeholders cannot be replaced
+	 */
+	protected static String toVariableTemplate(String template)
+	{
+		if (template.indexOf("??")<0 || template.contains(RESOLVE_VALUE_VAR))
+			return null;
+
+		StringBuilder res = new StringBuilder(template.length()+32);
+		int length = template.length();
+		int i = 0;
+		while (i<length)
+		{
+			char c = template.charAt(i);
+			int end = i+1;
+			if (c=='#')
+			{
+				end = template.indexOf('\n', i);
+				if (end<0)
+					end = length;
+			}
+			else if (c=='<')
+			{
+				// IRI references, '<' may as well be an operator
+				int j = i+1;
+				while (j<length && " \t\r\n<>\"{}".indexOf(template.charAt(j))<0)
+					j++;
+				if (j<length && template.charAt(j)=='>')
+					end = j+1;
+			}
+			else if (c=='"' || c=='\'')
+			{
+				// string literals, including long strings
+				String delimiter = template.startsWith(""+c+c+c, i) ? ""+c+c+c : ""+c;
+				int j = i+delimiter.length();
+				while (j<length && !template.startsWith(delimiter, j))
+					j += template.charAt(j)=='\\' ? 2 : 1;
+				end = Math.min(j+delimiter.length(), length);
+			}
+			else if (template.startsWith("??", i))
+			{
+				res.append('?').append(RESOLVE_VALUE_VAR);
+				i += 2;
+				continue;
+			}
+
+			if (end>i+1 && template.substring(i, end).contains("??"))
+				return null;
+			res.append(template, i, end);
+			i = end;
+		}
+		return res.toString();
+	}
+
+	public int size()
+	{
+		return queryTypes.size() + normalizedQueryTypes.size() + parsedQueries.size();
+	}
+
+	public CacheStatistics getStatistics()
+	{
+		return new CacheStatistics(getClass().getSimpleName(), size(), hits.get(), misses.get(), evictions.get());
+	}
+
+	public void resetStatistics()
+	{
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	public void clear()
+	{
+		queryTypes.clear();
+		normalizedQueryTypes.clear();
+		parsedQueries.clear();
+	}
+
+	private void count(boolean hit)
+	{
+		if (hit)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+	}
+
+	private static String typeKey(String query, boolean resolveNamespaces)
+	{
+		return (resolveNamespaces ? "1" : "0") + query;
+	}
+
+	private static ParsedQuery copy(ParsedQuery parsed)
+	{
+		String source = parsed.getSourceString();
+		TupleExpr expr = parsed.getTupleExpr().clone();
+		ParsedQuery res;
+		if (parsed instanceof ParsedTupleQuery)
+			res = new ParsedTupleQuery(source, expr);
+		else if (parsed instanceof ParsedGraphQuery)
+			res = new ParsedGraphQuery(source, expr, ((ParsedGraphQuery)parsed).getQueryNamespaces());
+		else if (parsed instanceof ParsedBooleanQuery)
+			res = new ParsedBooleanQuery(source, expr);
+		else
+			throw new IllegalArgumentException("Unsupported query type: " + parsed.getClass().getName());
+		res.setDataset(parsed.getDataset());
+		return res;
+	}
+}
@@ -24,6 +24,7 @@ import org.apache.log4j.Logger;
 import org.openrdf.query.BindingSet;
 
 import com.fluidops.iwb.model.AbstractMutableTupleQueryResult;
+import com.fluidops.iwb.model.StreamingTupleQueryResultImpl;
 
 /**
  * The class responsible for guessing the datatype of each variable in SPARQL tuple query. 
@@ -38,6 +39,10 @@ public class TupleQueryResultDatatypeEstimator {
 	// Since for the large query result set the process of checking every data value can take a long time,
 	// this value corresponds to the maximal number of tuples which should be checked.
 	public static final int MAX_CHECKED_TUPLES = 10;
+	
+	// For streamed query results only a prefix of this size is sampled, such that
+	// datatype estimation does not force reading the complete result.
+	public static final int MAX_SAMPLED_TUPLES = 1000;
 
 	private String queryString;
 	
@@ -92,6 +97,9 @@ public class TupleQueryResultDatatypeEstimator {
 	
 	private Map<String, QueryFieldProfile> getPossibleDataTypesFromQueryResults(Map<String, QueryFieldProfile> mapFieldProfiles, AbstractMutableTupleQueryResult result) {
 		
+		if(result instanceof StreamingTupleQueryResultImpl)
+			result = result.getReducedResultSet(MAX_SAMPLED_TUPLES);
+		
 		int rows = result.size();
 		
 		try {
@@ -30,7 +30,7 @@ import org.openrdf.model.URI;
  */
 public class AutoSuggestionCache extends RepositoryCache<URI,List<String>>
 {
-    private static AutoSuggestionCache instance = null;
+    private static final AutoSuggestionCache instance = new AutoSuggestionCache();
     
     /**
      * Return the one and only instance
@@ -39,8 +39,6 @@ public class AutoSuggestionCache extends RepositoryCache<URI,List<String>>
      */
     static public AutoSuggestionCache getInstance()
     {
-        if (instance==null)
-            instance = new AutoSuggestionCache();
         return instance;
     }
     
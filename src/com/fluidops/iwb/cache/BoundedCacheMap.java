@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded key-value store backing a {@link RepositoryCache} for a single
+ * repository. Entries are evicted in least recently used order once the
+ * configured maximum number of entries is exceeded. Optionally, entries
+ * expire after a fixed time to live.
+ *
+ * The map is thread-safe. To allow concurrent access from many request
+ * threads, the entries are distributed over independently locked segments
+ * by key hash; the LRU order and the size bound are maintained per segment.
+ * Hence, if keys hash unevenly, an entry may be evicted while the map holds
+ * fewer than the maximum number of entries.
+ */
+public class BoundedCacheMap<K,V>
+{
+	/**
+	 * Default number of segments, i.e. the number of threads that can
+	 * access the map without contention
+	 */
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	/**
+	 * Value wrapper remembering the time of insertion
+	 */
+	private static class CacheEntry<V>
+	{
+		private final V value;
+		private final long created;
+
+		private CacheEntry(V value, long created)
+		{
+			this.value = value;
+			this.created = created;
+		}
+	}
+
+	/**
+	 * A segment is an LRU map guarded by its own lock
+	 */
+	private static class Segment<K,V> extends LinkedHashMap<K,CacheEntry<V>>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int maxEntries;
+		private final transient AtomicLong evictions;
+
+		private Segment(int maxEntries, AtomicLong evictions)
+		{
+			// access order = true => iteration order is LRU first
+			super(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+			this.evictions = evictions;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K,CacheEntry<V>> eldest)
+		{
+			if (maxEntries>0 && size()>maxEntries)
+			{
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Time to live of an entry in ms, a value <= 0 means no expiry
+	 */
+	private final long timeToLive;
+
+	/**
+	 * Counter for evicted (and expired) entries, shared with the owning cache
+	 */
+	private final AtomicLong evictions;
+
+	private final Segment<K,V>[] segments;
+
+	/**
+	 * @param maxEntries
+	 * 			the maximum number of entries, <= 0 for an unbounded map
+	 * @param timeToLive
+	 * 			the time to live of an entry in ms, <= 0 to disable expiry
+	 * @param evictions
+	 * 			counter that is incremented for each evicted entry
+	 */
+	public BoundedCacheMap(int maxEntries, long timeToLive, AtomicLong evictions)
+	{
+		this(maxEntries, timeToLive, evictions, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * @param maxEntries
+	 * 			the maximum number of entries, <= 0 for an unbounded map
+	 * @param timeToLive
+	 * 			the time to live of an entry in ms, <= 0 to disable expiry
+	 * @param evictions
+	 * 			counter that is incremented for each evicted entry
+	 * @param concurrencyLevel
+	 * 			the number of segments (rounded to a power of two)
+	 */
+	public BoundedCacheMap(int maxEntries, long timeToLive, AtomicLong evictions, int concurrencyLevel)
+	{
+		this.timeToLive = timeToLive;
+		this.evictions = evictions;
+
+		// use fewer segments for small caches, such that the bound is still meaningful
+		int nSegments = 1;
+		while (nSegments<concurrencyLevel && (maxEntries<=0 || nSegments*2<=maxEntries))
+			nSegments <<= 1;
+
+		int segmentMax = maxEntries<=0 ? 0 : (maxEntries + nSegments - 1) / nSegments;
+		@SuppressWarnings("unchecked")
+		Segment<K,V>[] segments = (Segment<K,V>[])new Segment<?,?>[nSegments];
+		for (int i=0; i<nSegments; i++)
+			segments[i] = new Segment<K,V>(segmentMax, evictions);
+		this.segments = segments;
+	}
+
+	/**
+	 * Returns the value associated to key, or null if there is no
+	 * such (non-expired) entry.
+	 */
+	public V get(K key)
+	{
+		Segment<K,V> segment = segmentFor(key);
+		synchronized (segment)
+		{
+			CacheEntry<V> entry = segment.get(key);
+			if (entry==null)
+				return null;
+			if (isExpired(entry, System.currentTimeMillis()))
+			{
+				segment.remove(key);
+				evictions.incrementAndGet();
+				return null;
+			}
+			return entry.value;
+		}
+	}
+
+	public boolean containsKey(K key)
+	{
+		Segment<K,V> segment = segmentFor(key);
+		synchronized (segment)
+		{
+			CacheEntry<V> entry = segment.get(key);
+			return entry!=null && !isExpired(entry, System.currentTimeMillis());
+		}
+	}
+
+	public void put(K key, V value)
+	{
+		Segment<K,V> segment = segmentFor(key);
+		CacheEntry<V> entry = new CacheEntry<V>(value, System.currentTimeMillis());
+		synchronized (segment)
+		{
+			segment.put(key, entry);
+		}
+	}
+
+	/**
+	 * Computes the new value of an entry from its current value, see
+	 * {@link BoundedCacheMap#update(Object, ValueUpdate)}
+	 */
+	public static interface ValueUpdate<V>
+	{
+		/**
+		 * @param current the current value, null if there is no (non-expired) entry
+		 * @return the new value, null to remove the entry
+		 */
+		public V update(V current);
+	}
+
+	/**
+	 * Atomically replaces the value associated to key by the value computed
+	 * from the current one, i.e. concurrent updates of the same key are not lost.
+	 */
+	public void update(K key, ValueUpdate<V> update)
+	{
+		Segment<K,V> segment = segmentFor(key);
+		synchronized (segment)
+		{
+			CacheEntry<V> entry = segment.get(key);
+			long now = System.currentTimeMillis();
+			V current = entry==null || isExpired(entry, now) ? null : entry.value;
+			V value = update.update(current);
+			if (value==null)
+				segment.remove(key);
+			else
+				segment.put(key, new CacheEntry<V>(value, now));
+		}
+	}
+
+	public void remove(K key)
+	{
+		Segment<K,V> segment = segmentFor(key);
+		synchronized (segment)
+		{
+			segment.remove(key);
+		}
+	}
+
+	public void clear()
+	{
+		for (Segment<K,V> segment : segments)
+		{
+			synchronized (segment)
+			{
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of entries, expired entries are purged
+	 * before counting.
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (Segment<K,V> segment : segments)
+		{
+			synchronized (segment)
+			{
+				purgeExpired(segment);
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	private Segment<K,V> segmentFor(K key)
+	{
+		int h = key==null ? 0 : key.hashCode();
+		// spread bits, as the segment index uses the low order bits only
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return segments[h & (segments.length-1)];
+	}
+
+	private void purgeExpired(Segment<K,V> segment)
+	{
+		if (timeToLive<=0)
+			return;
+		long now = System.currentTimeMillis();
+		for (Iterator<CacheEntry<V>> it = segment.values().iterator(); it.hasNext();)
+		{
+			if (isExpired(it.next(), now))
+			{
+				it.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	private boolean isExpired(CacheEntry<V> entry, long now)
+	{
+		return timeToLive>0 && now-entry.created>timeToLive;
+	}
+}
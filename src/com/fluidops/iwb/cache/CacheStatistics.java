@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.cache;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of the statistics of a {@link RepositoryCache}.
+ */
+public class CacheStatistics implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private final String cacheName;
+	private final int size;
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+
+	public CacheStatistics(String cacheName, int size, long hits, long misses, long evictions)
+	{
+		this.cacheName = cacheName;
+		this.size = size;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+	}
+
+	public String getCacheName()
+	{
+		return cacheName;
+	}
+
+	/**
+	 * @return the number of entries, summed over all repositories
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+
+	public long getHits()
+	{
+		return hits;
+	}
+
+	public long getMisses()
+	{
+		return misses;
+	}
+
+	public long getEvictions()
+	{
+		return evictions;
+	}
+
+	/**
+	 * @return the ratio of hits to lookups, 0 if there were no lookups
+	 */
+	public double getHitRate()
+	{
+		long lookups = hits + misses;
+		return lookups==0 ? 0.0 : (double)hits/lookups;
+	}
+
+	@Override
+	public String toString()
+	{
+		return cacheName + ": size=" + size + ", hits=" + hits + ", misses="
+				+ misses + ", evictions=" + evictions;
+	}
+}
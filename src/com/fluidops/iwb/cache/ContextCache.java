@@ -18,8 +18,6 @@
 
 package com.fluidops.iwb.cache;
 
-import java.util.Map;
-
 import org.openrdf.model.Resource;
 import org.openrdf.repository.Repository;
 
@@ -32,7 +30,7 @@ import com.fluidops.iwb.api.Context;
  */
 public class ContextCache extends RepositoryCache<Resource,Context>
 {    
-    private static ContextCache instance = null;
+    private static final ContextCache instance = new ContextCache();
     
     /**
      * Return the one and only instance
@@ -41,8 +39,6 @@ public class ContextCache extends RepositoryCache<Resource,Context>
      */
     static public ContextCache getInstance()
     {
-        if (instance==null)
-            instance = new ContextCache();
         return instance;
     }
     
@@ -57,8 +53,6 @@ public class ContextCache extends RepositoryCache<Resource,Context>
     @Override
     public void updateCache(Repository rep, Resource u)
     {
-        Map<Resource,Context> repCache = cache.get(rep);
-        if (repCache!=null)
-            repCache.remove(u);
+        remove(rep,u);
     }
 }
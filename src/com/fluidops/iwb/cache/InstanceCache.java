@@ -32,7 +32,7 @@ import org.openrdf.model.Resource;
  */
 public class InstanceCache extends RepositoryCache<Resource,List<Resource>>
 {
-    private static InstanceCache instance = null;
+    private static final InstanceCache instance = new InstanceCache();
     
     /**
      * Return the one and only instance
@@ -41,8 +41,6 @@ public class InstanceCache extends RepositoryCache<Resource,List<Resource>>
      */
     static public InstanceCache getInstance()
     {
-        if (instance==null)
-            instance = new InstanceCache();
         return instance;
     }
     
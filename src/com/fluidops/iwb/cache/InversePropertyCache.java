@@ -18,8 +18,6 @@
 
 package com.fluidops.iwb.cache;
 
-import java.util.Map;
-
 import org.openrdf.model.Resource;
 import org.openrdf.model.URI;
 import org.openrdf.repository.Repository;
@@ -33,7 +31,7 @@ public class InversePropertyCache extends RepositoryCache<URI,URI>
      * @author msc
      */
 
-    private static InversePropertyCache instance = null;
+    private static final InversePropertyCache instance = new InversePropertyCache();
 
     /**
      * Return the one and only instance
@@ -42,8 +40,6 @@ public class InversePropertyCache extends RepositoryCache<URI,URI>
      */
     static public InversePropertyCache getInstance()
     {
-        if (instance == null)
-            instance = new InversePropertyCache();
         return instance;
     }
 
@@ -58,8 +54,7 @@ public class InversePropertyCache extends RepositoryCache<URI,URI>
     @Override
     public void updateCache(Repository rep, Resource u)
     {
-        Map<URI,URI> repCache = cache.get(rep);
-        if (repCache!=null)
-            repCache.remove(u);
+        if (u instanceof URI)
+            remove(rep,(URI)u);
     }
 }
@@ -18,8 +18,6 @@
 
 package com.fluidops.iwb.cache;
 
-import java.util.Map;
-
 import org.openrdf.model.Resource;
 import org.openrdf.model.URI;
 import org.openrdf.repository.Repository;
@@ -32,7 +30,7 @@ import org.openrdf.repository.Repository;
  */
 public class LabelCache extends RepositoryCache<URI,String>
 {
-    private static LabelCache instance = null;
+    private static final LabelCache instance = new LabelCache();
     
     /**
      * Return the one and only instance
@@ -41,8 +39,6 @@ public class LabelCache extends RepositoryCache<URI,String>
      */
     static public LabelCache getInstance()
     {
-        if (instance==null)
-            instance = new LabelCache();
         return instance;
     }
     
@@ -57,8 +53,7 @@ public class LabelCache extends RepositoryCache<URI,String>
     @Override
     public void updateCache(Repository rep, Resource u)
     {
-        Map<URI,String> repCache = cache.get(rep);
-        if (repCache!=null)
-            repCache.remove(u);
+        if (u instanceof URI)
+            remove(rep,(URI)u);
     }
 }
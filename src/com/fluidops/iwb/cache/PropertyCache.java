@@ -20,7 +20,6 @@ package com.fluidops.iwb.cache;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.openrdf.model.Resource;
@@ -46,7 +45,7 @@ import com.fluidops.iwb.model.Vocabulary;
  */
 public class PropertyCache extends RepositoryCache<URI,PropertyInfo>
 {
-    private static PropertyCache instance = null;
+    private static final PropertyCache instance = new PropertyCache();
     
     /**
      * Return the one and only instance
@@ -55,8 +54,6 @@ public class PropertyCache extends RepositoryCache<URI,PropertyInfo>
      */
     static public PropertyCache getInstance()
     {
-        if (instance==null)
-            instance = new PropertyCache();
         return instance;
     }
     
@@ -311,8 +308,7 @@ public class PropertyCache extends RepositoryCache<URI,PropertyInfo>
     @Override
     public void updateCache(Repository rep, Resource u)
     {
-        Map<URI,PropertyInfo> repCache = cache.get(rep);
-        if (repCache!=null)
-            repCache.remove(u);
+        if (u instanceof URI)
+            remove(rep,(URI)u);
     }
 }
@@ -0,0 +1,627 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.cache;
+
+import info.aduna.iteration.CloseableIteration;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.Dataset;
+import org.openrdf.query.GraphQueryResult;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.helpers.StatementPatternCollector;
+import org.openrdf.query.impl.GraphQueryResultImpl;
+import org.openrdf.query.impl.TupleQueryResultImpl;
+import org.openrdf.query.parser.ParsedQuery;
+import org.openrdf.repository.Repository;
+
+import com.fluidops.iwb.Global;
+import com.fluidops.iwb.api.query.ParsedQueryCache;
+import com.fluidops.iwb.util.Config;
+
+/**
+ * Cache for the results of SPARQL SELECT, CONSTRUCT and ASK queries
+ * against {@link Global#repository}.
+ *
+ * Results are cached per normalized query string (i.e. after special
+ * variables and namespace prefixes have been resolved) and inferencing
+ * flag. Writes invalidate the cached results per context: a result is
+ * dropped if its query may read one of the written contexts. A query reads
+ * only the named contexts if it has a FROM clause or if all its triple
+ * patterns are in GRAPH clauses with a constant IRI, otherwise it may read
+ * any context. Each repository has a write version which is incremented on
+ * every write, results computed while a write happened are not stored.
+ *
+ * Results are cached while the caller reads them. The cache is bounded by an
+ * estimated memory budget, see {@link Config#getQueryResultCacheSize()}.
+ * Results with more than {@link Config#getQueryResultCacheMaxRows()} rows
+ * and results which are not read completely are not cached. Queries
+ * containing a <code># nocache</code> comment, non-deterministic functions
+ * (e.g. NOW() or RAND()) or SERVICE clauses are never cached.
+ */
+public class QueryResultCache
+{
+	/**
+	 * Per-query opt-out hint, e.g. "SELECT * WHERE { ?s ?p ?o } # nocache",
+	 * matched against the comments of the query
+	 */
+	private static final Pattern NOCACHE_HINT = Pattern.compile("#\\s*nocache\\b.*", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * Queries whose results may change without a write to the repository
+	 */
+	private static final Pattern NON_DETERMINISTIC = Pattern.compile(
+			"\\b(NOW|RAND|UUID|STRUUID|BNODE)\\s*\\(|\\bSERVICE\\b", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * Estimated fixed memory overhead of a cached row / value in bytes
+	 */
+	private static final int ROW_OVERHEAD = 64;
+	private static final int VALUE_OVERHEAD = 48;
+
+	private static final QueryResultCache instance = new QueryResultCache();
+
+	/**
+	 * Cache key, identifies a query result. The key remembers the write
+	 * version of the repository at the time it was created, such that a
+	 * result is not stored if the repository has been written meanwhile.
+	 * Keys are obtained from {@link QueryResultCache#createKey(Repository, String, boolean)}.
+	 */
+	public static class Key
+	{
+		private final Repository r;
+		private final String query;
+		private final boolean infer;
+		private final long version;
+
+		private Key(Repository r, String query, boolean infer, long version)
+		{
+			this.r = r;
+			this.query = query;
+			this.infer = infer;
+			this.version = version;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int res = 31 * r.hashCode() + query.hashCode();
+			return 31 * res + (infer ? 1 : 0);
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this==obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key)obj;
+			return r==other.r && infer==other.infer && query.equals(other.query);
+		}
+	}
+
+	/**
+	 * A cached result: a list of binding sets, a list of statements
+	 * (together with the namespaces) or a boolean
+	 */
+	private static class Entry
+	{
+		private final List<String> bindingNames;
+		private final Map<String,String> namespaces;
+		private final List<?> rows;
+		private final Boolean booleanResult;
+		private final long size;
+
+		/**
+		 * The contexts the query reads, null if it may read any context
+		 */
+		private Set<Resource> contexts;
+
+		private Entry(List<String> bindingNames, Map<String,String> namespaces, List<?> rows, Boolean booleanResult, long size)
+		{
+			this.bindingNames = bindingNames;
+			this.namespaces = namespaces;
+			this.rows = rows;
+			this.booleanResult = booleanResult;
+			this.size = size;
+		}
+
+		/**
+		 * @param written the written contexts, null for all contexts
+		 * @return true if the query may read one of the given contexts
+		 */
+		private boolean reads(Set<Resource> written)
+		{
+			if (contexts==null || written==null)
+				return true;
+			for (Resource context : written)
+				if (contexts.contains(context))
+					return true;
+			return false;
+		}
+	}
+
+	/**
+	 * Passes the rows of a query result through to the caller, recording
+	 * them up to the row limit. Once the result has been read completely,
+	 * the recorded rows are stored in the cache.
+	 */
+	private abstract class Recorder<T> implements CloseableIteration<T,QueryEvaluationException>
+	{
+		private final CloseableIteration<? extends T,QueryEvaluationException> res;
+		private final int maxRows;
+
+		/**
+		 * The rows read so far, null if the result is not to be cached
+		 */
+		private List<T> rows = new ArrayList<T>();
+
+		private Recorder(CloseableIteration<? extends T,QueryEvaluationException> res)
+		{
+			this.res = res;
+			this.maxRows = Config.getConfig().getQueryResultCacheMaxRows();
+		}
+
+		@Override
+		public boolean hasNext() throws QueryEvaluationException
+		{
+			boolean hasNext = res.hasNext();
+			if (!hasNext && rows!=null)
+			{
+				store(rows);
+				rows = null;
+			}
+			return hasNext;
+		}
+
+		@Override
+		public T next() throws QueryEvaluationException
+		{
+			T row = res.next();
+			if (rows!=null)
+			{
+				rows.add(row);
+				if (rows.size()>maxRows)
+					rows = null;
+			}
+			return row;
+		}
+
+		@Override
+		public void remove() throws QueryEvaluationException
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() throws QueryEvaluationException
+		{
+			// a partially read result is not cached
+			rows = null;
+			res.close();
+		}
+
+		protected abstract void store(List<T> rows);
+	}
+
+	/**
+	 * Write versions of the repositories
+	 */
+	private final ConcurrentMap<Repository,AtomicLong> versions = new ConcurrentHashMap<Repository,AtomicLong>();
+
+	/**
+	 * The cached results in LRU order, guarded by this
+	 */
+	private final LinkedHashMap<Key,Entry> entries = new LinkedHashMap<Key,Entry>(64, 0.75f, true);
+
+	/**
+	 * Estimated memory of all entries in bytes, guarded by this
+	 */
+	private long memory = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public static QueryResultCache getInstance()
+	{
+		return instance;
+	}
+
+	private QueryResultCache()
+	{
+	}
+
+	/**
+	 * Creates the cache key for the given query. Returns null if the
+	 * result of the query must not be cached, i.e. if the cache is disabled,
+	 * the repository is not cached or the query opts out.
+	 *
+	 * @param r the repository
+	 * @param query the normalized query
+	 * @param infer
+	 * @return the key or null
+	 */
+	public Key createKey(Repository r, String query, boolean infer)
+	{
+		if (r==null || query==null || r!=Global.repository || getMemoryBudget()<=0)
+			return null;
+		if (hasNoCacheHint(query) || NON_DETERMINISTIC.matcher(query).find())
+			return null;
+		return new Key(r, query, infer, getVersion(r));
+	}
+
+	/**
+	 * Checks whether the query contains a <code># nocache</code> comment.
+	 * Comments start with a '#' outside of IRIs and string literals.
+	 *
+	 * @param query
+	 * @return
+	 */
+	protected static boolean hasNoCacheHint(String query)
+	{
+		int length = query.length();
+		for (int i=0; i<length; i++)
+		{
+			char c = query.charAt(i);
+			if (c=='#')
+			{
+				int end = query.indexOf('\n', i);
+				if (end<0)
+					end = length;
+				if (NOCACHE_HINT.matcher(query.substring(i, end).trim()).matches())
+					return true;
+				i = end;
+			}
+			else if (c=='<')
+			{
+				// skip IRI references, '<' may as well be an operator
+				int j = i+1;
+				while (j<length && " \t\r\n<>\"{}".indexOf(query.charAt(j))<0)
+					j++;
+				if (j<length && query.charAt(j)=='>')
+					i = j;
+			}
+			else if (c=='"' || c=='\'')
+			{
+				// skip string literals, including long strings
+				String delimiter = query.startsWith(""+c+c+c, i) ? ""+c+c+c : ""+c;
+				int j = i+delimiter.length();
+				while (j<length && !query.startsWith(delimiter, j))
+					j += query.charAt(j)=='\\' ? 2 : 1;
+				i = j+delimiter.length()-1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Determines the contexts the query reads: the contexts of the FROM and
+	 * FROM NAMED clauses, or the constant contexts of the triple patterns if
+	 * all patterns are in a GRAPH clause.
+	 *
+	 * @param query
+	 * @return the contexts or null if the query may read any context
+	 */
+	private static Set<Resource> getReadContexts(String query)
+	{
+		ParsedQuery parsed;
+		try
+		{
+			parsed = ParsedQueryCache.getInstance().getParsedQuery(query);
+		}
+		catch (MalformedQueryException e)
+		{
+			return null;
+		}
+		catch (RuntimeException e)
+		{
+			return null;
+		}
+
+		Set<Resource> res = new HashSet<Resource>();
+		Dataset dataset = parsed.getDataset();
+		if (dataset!=null)
+		{
+			res.addAll(dataset.getDefaultGraphs());
+			res.addAll(dataset.getNamedGraphs());
+			return res;
+		}
+
+		for (StatementPattern pattern : StatementPatternCollector.process(parsed.getTupleExpr()))
+		{
+			Var context = pattern.getContextVar();
+			if (context==null || !(context.getValue() instanceof Resource))
+				return null;
+			res.add((Resource)context.getValue());
+		}
+		return res;
+	}
+
+	/**
+	 * @return the current write version of the repository
+	 */
+	public long getVersion(Repository r)
+	{
+		AtomicLong version = versions.get(r);
+		return version==null ? 0 : version.get();
+	}
+
+	/**
+	 * Signals that the repository has been written. Increments the write
+	 * version of the repository and drops all cached results for it.
+	 *
+	 * @param r
+	 */
+	public void invalidate(Repository r)
+	{
+		invalidate(r, null);
+	}
+
+	/**
+	 * Signals that the given contexts of the repository have been written.
+	 * Increments the write version of the repository and drops the cached
+	 * results of the queries which may read one of the contexts.
+	 *
+	 * @param r
+	 * @param contexts the written contexts (null for the default context),
+	 * 			null if all contexts may have been written
+	 */
+	public void invalidate(Repository r, Set<Resource> contexts)
+	{
+		if (r==null || (contexts!=null && contexts.isEmpty()))
+			return;
+		versionOf(r).incrementAndGet();
+
+		synchronized (this)
+		{
+			for (Iterator<Map.Entry<Key,Entry>> it = entries.entrySet().iterator(); it.hasNext();)
+			{
+				Map.Entry<Key,Entry> e = it.next();
+				if (e.getKey().r==r && e.getValue().reads(contexts))
+				{
+					memory -= e.getValue().size;
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops all cached results for all repositories.
+	 */
+	public void invalidate()
+	{
+		if (Global.repository!=null)
+			versionOf(Global.repository);
+		for (AtomicLong version : versions.values())
+			version.incrementAndGet();
+		synchronized (this)
+		{
+			entries.clear();
+			memory = 0;
+		}
+	}
+
+	/**
+	 * Returns the cached result of a SELECT query, or null if there is none.
+	 */
+	public TupleQueryResult getTupleResult(Key key)
+	{
+		Entry entry = lookup(key);
+		if (entry==null || entry.bindingNames==null)
+			return null;
+		@SuppressWarnings("unchecked")
+		List<BindingSet> rows = (List<BindingSet>)entry.rows;
+		return new TupleQueryResultImpl(entry.bindingNames, rows);
+	}
+
+	/**
+	 * Returns the cached result of a CONSTRUCT query, or null if there is none.
+	 */
+	public GraphQueryResult getGraphResult(Key key)
+	{
+		Entry entry = lookup(key);
+		if (entry==null || entry.namespaces==null)
+			return null;
+		@SuppressWarnings("unchecked")
+		List<Statement> rows = (List<Statement>)entry.rows;
+		return new GraphQueryResultImpl(entry.namespaces, rows);
+	}
+
+	/**
+	 * Returns the cached result of an ASK query, or null if there is none.
+	 */
+	public Boolean getBooleanResult(Key key)
+	{
+		Entry entry = lookup(key);
+		return entry==null ? null : entry.booleanResult;
+	}
+
+	/**
+	 * Caches the given SELECT result while it is read. The returned result
+	 * passes the rows of res through to the caller. Once it has been read
+	 * completely, the rows are stored in the cache unless there are too many.
+	 *
+	 * @param key
+	 * @param res the query result
+	 * @return a result to be used instead of res
+	 * @throws QueryEvaluationException
+	 */
+	public TupleQueryResult cacheTupleResult(final Key key, TupleQueryResult res) throws QueryEvaluationException
+	{
+		final List<String> bindingNames = res.getBindingNames();
+		return new TupleQueryResultImpl(bindingNames, new Recorder<BindingSet>(res) {
+			@Override
+			protected void store(List<BindingSet> rows)
+			{
+				long size = 0;
+				for (BindingSet bs : rows)
+				{
+					size += ROW_OVERHEAD;
+					for (Binding b : bs)
+						size += sizeOf(b.getValue());
+				}
+				QueryResultCache.this.store(key, new Entry(bindingNames, null, rows, null, size));
+			}
+		});
+	}
+
+	/**
+	 * Caches the given CONSTRUCT result while it is read, see
+	 * {@link #cacheTupleResult(Key, TupleQueryResult)}.
+	 */
+	public GraphQueryResult cacheGraphResult(final Key key, GraphQueryResult res) throws QueryEvaluationException
+	{
+		final Map<String,String> namespaces = res.getNamespaces();
+		return new GraphQueryResultImpl(namespaces, new Recorder<Statement>(res) {
+			@Override
+			protected void store(List<Statement> rows)
+			{
+				long size = 0;
+				for (Statement st : rows)
+					size += ROW_OVERHEAD + sizeOf(st.getSubject()) + sizeOf(st.getPredicate())
+							+ sizeOf(st.getObject()) + sizeOf(st.getContext());
+				QueryResultCache.this.store(key, new Entry(null, namespaces, rows, null, size));
+			}
+		});
+	}
+
+	/**
+	 * Caches the result of an ASK query.
+	 */
+	public void cacheBooleanResult(Key key, boolean res)
+	{
+		store(key, new Entry(null, null, null, res, ROW_OVERHEAD));
+	}
+
+	/**
+	 * @return the number of cached results
+	 */
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * @return the estimated memory of the cached results in bytes
+	 */
+	public synchronized long getMemoryUsage()
+	{
+		return memory;
+	}
+
+	public CacheStatistics getStatistics()
+	{
+		return new CacheStatistics(getClass().getSimpleName(), size(), hits.get(), misses.get(), evictions.get());
+	}
+
+	public void resetStatistics()
+	{
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	private AtomicLong versionOf(Repository r)
+	{
+		AtomicLong version = versions.get(r);
+		if (version==null)
+		{
+			AtomicLong newVersion = new AtomicLong();
+			version = versions.putIfAbsent(r, newVersion);
+			if (version==null)
+				version = newVersion;
+		}
+		return version;
+	}
+
+	private Entry lookup(Key key)
+	{
+		Entry entry;
+		synchronized (this)
+		{
+			entry = entries.get(key);
+		}
+		if (entry==null)
+			misses.incrementAndGet();
+		else
+			hits.incrementAndGet();
+		return entry;
+	}
+
+	private void store(Key key, Entry entry)
+	{
+		long budget = getMemoryBudget();
+		if (entry.size>budget || key.version!=getVersion(key.r))
+			return;
+		entry.contexts = getReadContexts(key.query);
+
+		synchronized (this)
+		{
+			// the repository has been written while evaluating the query
+			if (key.version!=getVersion(key.r))
+				return;
+
+			Entry old = entries.put(key, entry);
+			if (old!=null)
+				memory -= old.size;
+			memory += entry.size;
+
+			// evict least recently used entries
+			for (Iterator<Entry> it = entries.values().iterator(); memory>budget && it.hasNext();)
+			{
+				Entry eldest = it.next();
+				memory -= eldest.size;
+				it.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	private static long sizeOf(Value v)
+	{
+		return v==null ? 0 : VALUE_OVERHEAD + 2L * v.stringValue().length();
+	}
+
+	private static long getMemoryBudget()
+	{
+		return Config.getConfig().getQueryResultCacheSize() * 1024L * 1024L;
+	}
+}
@@ -18,16 +18,26 @@
 
 package com.fluidops.iwb.cache;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.openrdf.model.Resource;
 import org.openrdf.repository.Repository;
 
+import com.fluidops.iwb.util.Config;
+
 /**
  * Abstract superclass for implementing caches over the repository.
  * 
+ * The per-repository caches are bounded: the maximum number of entries
+ * and the time to live of entries can be configured per cache, see
+ * {@link Config#getCacheMaxEntries(String)} and 
+ * {@link Config#getCacheExpiryTime(String)}.
+ * 
+ * Caches are thread-safe and designed for concurrent lookups from
+ * many request threads, see {@link BoundedCacheMap}.
+ * 
  * @author msc
  *
  */
@@ -36,14 +46,21 @@ public abstract class RepositoryCache<KEY,VALUE>
     /**
      * The cache, mapping keys to values
      */
-    protected Map<Repository,Map<KEY,VALUE>> cache;
+    protected ConcurrentMap<Repository,BoundedCacheMap<KEY,VALUE>> cache;
+    
+    /**
+     * Statistics counters, aggregated over all repositories
+     */
+    protected final AtomicLong hits = new AtomicLong();
+    protected final AtomicLong misses = new AtomicLong();
+    protected final AtomicLong evictions = new AtomicLong();
  
     /**
      * Constructor
      */
     public RepositoryCache()
     {
-        cache = new HashMap<Repository,Map<KEY,VALUE>>();
+        cache = new ConcurrentHashMap<Repository,BoundedCacheMap<KEY,VALUE>>();
     }
     
     /**
@@ -56,14 +73,19 @@ public abstract class RepositoryCache<KEY,VALUE>
     public VALUE lookup(Repository rep, KEY key)
     {
         // get repository-specific cache
-        Map<KEY,VALUE> repCache = cache.get(rep);
-        return repCache==null?null:repCache.get(key);
+        BoundedCacheMap<KEY,VALUE> repCache = cache.get(rep);
+        VALUE res = repCache==null?null:repCache.get(key);
+        if (res==null)
+            misses.incrementAndGet();
+        else
+            hits.incrementAndGet();
+        return res;
     }
     
     public boolean containsKey(Repository rep, KEY key)
     {
         // get repository-specific cache
-        Map<KEY,VALUE> repCache = cache.get(rep);
+        BoundedCacheMap<KEY,VALUE> repCache = cache.get(rep);
         return repCache!=null&&repCache.containsKey(key);
     }
     /**
@@ -74,16 +96,65 @@ public abstract class RepositoryCache<KEY,VALUE>
      */
     public void insert(Repository rep, KEY key, VALUE val)
     {
-        Map<KEY,VALUE> repCache = cache.get(rep);
-        
-        // initially create repository-dependent cache, if it does not exist
+        getOrCreateRepositoryCache(rep).put(key,val);
+    }
+    
+    /**
+     * Removes the entry for the given key from the repository cache
+     * 
+     * @param rep
+     * @param key
+     */
+    public void remove(Repository rep, KEY key)
+    {
+        BoundedCacheMap<KEY,VALUE> repCache = cache.get(rep);
+        if (repCache!=null)
+            repCache.remove(key);
+    }
+    
+    /**
+     * Returns the repository-dependent cache, which is initially created 
+     * if it does not exist.
+     * 
+     * @param rep
+     * @return
+     */
+    protected BoundedCacheMap<KEY,VALUE> getOrCreateRepositoryCache(Repository rep)
+    {
+        BoundedCacheMap<KEY,VALUE> repCache = cache.get(rep);
         if (repCache==null)
         {
-            repCache = Collections.synchronizedMap(new HashMap<KEY,VALUE>());
-            cache.put(rep,repCache);
+            BoundedCacheMap<KEY,VALUE> newCache = createRepositoryCache();
+            repCache = cache.putIfAbsent(rep,newCache);
+            if (repCache==null)
+                repCache = newCache;
         }
-        
-        repCache.put(key,val);
+        return repCache;
+    }
+    
+    /**
+     * Creates a new repository-dependent cache, bounded according 
+     * to the configuration of this cache.
+     * 
+     * @return
+     */
+    protected BoundedCacheMap<KEY,VALUE> createRepositoryCache()
+    {
+        Config cfg = Config.getConfig();
+        String name = getCacheName();
+        return new BoundedCacheMap<KEY,VALUE>(cfg.getCacheMaxEntries(name),
+                cfg.getCacheExpiryTime(name)*1000L, evictions);
+    }
+    
+    /**
+     * Returns the name of this cache, which is used as identifier in the
+     * configuration and in statistics, i.e. the simple class name.
+     * 
+     * @return
+     */
+    public String getCacheName()
+    {
+        return getClass().getSimpleName();
     }
     
     /**
@@ -100,7 +171,7 @@ public abstract class RepositoryCache<KEY,VALUE>
      */
     public void invalidate(Repository rep)
     {
-        Map<KEY,VALUE> repCache = cache.get(rep);
+        BoundedCacheMap<KEY,VALUE> repCache = cache.get(rep);
         if (repCache!=null)
             repCache.clear();
     }
@@ -131,17 +202,58 @@ public abstract class RepositoryCache<KEY,VALUE>
      */
     public int size(Repository rep) {	
 		if (rep!=null) {
-			Map<KEY, VALUE> repCache = cache.get(rep);
+			BoundedCacheMap<KEY,VALUE> repCache = cache.get(rep);
 			if (repCache==null)
 				return 0;
 			return repCache.size();
 		}
 		
 		int size=0;
-		for (Repository r : cache.keySet())
-			size+=cache.get(r).size();
+		for (BoundedCacheMap<KEY,VALUE> repCache : cache.values())
+			size+=repCache.size();
 		return size;
 	}
-				
-	
+    
+    /**
+     * @return the number of successful lookups
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+    
+    /**
+     * @return the number of lookups that did not find a value
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+    
+    /**
+     * @return the number of entries evicted due to size limit or expiry
+     */
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+    
+    /**
+     * @return a snapshot of the current statistics of this cache
+     */
+    public CacheStatistics getStatistics()
+    {
+        return new CacheStatistics(getCacheName(), size(null), 
+                getHitCount(), getMissCount(), getEvictionCount());
+    }
+    
+    /**
+     * Resets the hit, miss and eviction counters
+     */
+    public void resetStatistics()
+    {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
 }
@@ -18,10 +18,7 @@
 
 package com.fluidops.iwb.cache;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.openrdf.model.Resource;
 import org.openrdf.repository.Repository;
@@ -36,7 +33,7 @@ import com.fluidops.util.Pair;
  */
 public class TypeCache extends RepositoryCache<Resource,Pair<List<Resource>,List<Resource>>>
 {
-    private static TypeCache instance = null;
+    private static final TypeCache instance = new TypeCache();
     
     /**
      * Return the one and only instance
@@ -45,8 +42,6 @@ public class TypeCache extends RepositoryCache<Resource,Pair<List<Resource>,List
      */
     static public TypeCache getInstance()
     {
-        if (instance==null)
-            instance = new TypeCache();
         return instance;
     }
     
@@ -59,47 +54,40 @@ public class TypeCache extends RepositoryCache<Resource,Pair<List<Resource>,List
     }
     
     
-    public void insertDirectTypesForResource(Repository rep, Resource res, List<Resource> types)
+    public void insertDirectTypesForResource(Repository rep, Resource res, final List<Resource> types)
     {
-        Map<Resource,Pair<List<Resource>,List<Resource>>> repCache = cache.get(rep);
-        if (repCache==null)
-        {
-            repCache = Collections.synchronizedMap(
-                    new HashMap<Resource,Pair<List<Resource>,List<Resource>>>());
-            cache.put(rep,repCache);
-        }
+        BoundedCacheMap<Resource,Pair<List<Resource>,List<Resource>>> repCache = 
+                getOrCreateRepositoryCache(rep);
         
-        Pair<List<Resource>,List<Resource>> val = repCache.get(res);
-        if (val==null)
-            val = new Pair<List<Resource>,List<Resource>>(types,null);
-        else
-            val = new Pair<List<Resource>,List<Resource>>(types,val.snd);
-        repCache.put(res,val);
+        // atomic, as direct and indirect types may be inserted concurrently (e.g. by the prefetcher)
+        repCache.update(res, new BoundedCacheMap.ValueUpdate<Pair<List<Resource>,List<Resource>>>()
+        {
+            @Override
+            public Pair<List<Resource>,List<Resource>> update(Pair<List<Resource>,List<Resource>> val)
+            {
+                return new Pair<List<Resource>,List<Resource>>(types, val==null ? null : val.snd);
+            }
+        });
     }
     
-    public void insertIndirectTypesForResource(Repository rep, Resource res, List<Resource> types)
+    public void insertIndirectTypesForResource(Repository rep, Resource res, final List<Resource> types)
     {
-        Map<Resource,Pair<List<Resource>,List<Resource>>> repCache = cache.get(rep);
-        if (repCache==null)
-        {
-            repCache = Collections.synchronizedMap(
-                    new HashMap<Resource,Pair<List<Resource>,List<Resource>>>());
-            cache.put(rep,repCache);
-        }
+        BoundedCacheMap<Resource,Pair<List<Resource>,List<Resource>>> repCache = 
+                getOrCreateRepositoryCache(rep);
         
-        Pair<List<Resource>,List<Resource>> val = repCache.get(res);
-        if (val==null)
-            val = new Pair<List<Resource>,List<Resource>>(null,types);
-        else
-            val = new Pair<List<Resource>,List<Resource>>(val.fst,types);
-        repCache.put(res,val);
+        repCache.update(res, new BoundedCacheMap.ValueUpdate<Pair<List<Resource>,List<Resource>>>()
+        {
+            @Override
+            public Pair<List<Resource>,List<Resource>> update(Pair<List<Resource>,List<Resource>> val)
+            {
+                return new Pair<List<Resource>,List<Resource>>(val==null ? null : val.fst, types);
+            }
+        });
     }
     
     @Override
     public void updateCache(Repository rep, Resource res)
     {
-        Map<Resource,Pair<List<Resource>,List<Resource>>> repCache = cache.get(rep);
-        if (repCache!=null)
-            repCache.remove(res);
+        remove(rep,res);
     }
 }
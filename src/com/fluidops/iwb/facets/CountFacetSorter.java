@@ -18,17 +18,28 @@
 
 package com.fluidops.iwb.facets;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.Set;
+import java.util.List;
 import java.util.Map.Entry;
 
-import org.openrdf.OpenRDFException;
 import org.openrdf.model.URI;
 
+/**
+ * Orders the facets by their count, e.g. the number of statements or
+ * resources per facet, and returns the top {@link #MAX_FACETS} facets.
+ */
 public class CountFacetSorter implements FacetSorter {
 
-	public CountFacetSorter() throws OpenRDFException {
+	/**
+	 * Maximum number of facets returned by {@link #getTopFacets(HashMap)}
+	 */
+	public static final int MAX_FACETS = 25;
+	
+	public CountFacetSorter() {
 		
 	}
 
@@ -37,23 +48,20 @@ public class CountFacetSorter implements FacetSorter {
 		LinkedList<URI> displayedFacets = new LinkedList<URI>(); 
 		
 		if(mapping!=null) {
-             Set<Entry<URI, Integer>> entries = mapping.entrySet();
-
-             for (int i = 0; i < 25; i++) {
-                 int max = 0;
-                 Entry<URI, Integer> maxEntry = null;
-                 for (Entry<URI, Integer> e : entries) {
-                     if (e.getValue() > max) {
-                         maxEntry = e;
-                         max = e.getValue();
-                     }
-                 }
-                 if (maxEntry == null) break;
-
-                 displayedFacets.add(maxEntry.getKey());
-                 entries.remove(maxEntry);
-             }
-         }
+			List<Entry<URI, Integer>> entries = new ArrayList<Entry<URI, Integer>>(mapping.entrySet());
+			Collections.sort(entries, new Comparator<Entry<URI, Integer>>() {
+				@Override
+				public int compare(Entry<URI, Integer> e1, Entry<URI, Integer> e2) {
+					return e2.getValue().compareTo(e1.getValue());
+				}
+			});
+
+			for (Entry<URI, Integer> e : entries) {
+				if (displayedFacets.size()==MAX_FACETS || e.getValue()<=0) 
+					break;
+				displayedFacets.add(e.getKey());
+			}
+		}
 		return displayedFacets;
 	}
 
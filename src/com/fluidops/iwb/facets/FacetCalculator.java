@@ -19,120 +19,228 @@
 package com.fluidops.iwb.facets;
 
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
-import org.openrdf.model.Statement;
+import org.openrdf.model.Literal;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.impl.ValueFactoryImpl;
-import org.openrdf.query.Binding;
 import org.openrdf.query.BindingSet;
-import org.openrdf.query.GraphQuery;
-import org.openrdf.query.GraphQueryResult;
-import org.openrdf.query.MalformedQueryException;
 import org.openrdf.query.QueryEvaluationException;
-import org.openrdf.query.QueryLanguage;
-import org.openrdf.query.TupleQuery;
 import org.openrdf.query.TupleQueryResult;
-import org.openrdf.repository.RepositoryConnection;
-import org.openrdf.repository.RepositoryException;
+import org.openrdf.rio.ntriples.NTriplesUtil;
 
 import com.fluidops.ajax.FClientUpdate;
 import com.fluidops.ajax.components.FContainer;
 import com.fluidops.ajax.components.FLabel;
 import com.fluidops.iwb.Global;
+import com.fluidops.iwb.api.ReadDataManager;
+import com.fluidops.iwb.api.ReadDataManagerImpl;
+import com.fluidops.iwb.model.AbstractMutableTupleQueryResult;
 import com.fluidops.iwb.page.SearchPageContext;
 import com.fluidops.util.Rand;
 
+/**
+ * Computes the facets of a search result, shown by the {@link com.fluidops.iwb.widget.SearchResultWidget}
+ * if {@link com.fluidops.iwb.util.Config#getFacetedSearch()} is enabled. The facet values
+ * and their counts are aggregated by the triple store with a single grouped query per
+ * result set, i.e. GROUP BY predicate and value with COUNT of the distinct result
+ * resources. The grouped result is streamed and only the top
+ * {@link #MAX_FACET_VALUES} values per facet are retained. The facets
+ * are ordered by their total count using the {@link CountFacetSorter}.
+ * 
+ * If a refinement listener is set and the {@link FacetIndex} of the result
+ * fits into the memory budget of the session, it is cached with the
+ * {@link FacetIndexCache} and the facets are computed and refined in memory.
+ * Selecting a facet value then updates the facets in place and notifies the
+ * listener, which obtains the refined result with {@link #getRefinedResources()},
+ * instead of re-running the search.
+ */
 public class FacetCalculator {
     private static final Logger logger = Logger.getLogger(FacetCalculator.class.getName());
 
+    /**
+     * Maximum number of values displayed per facet
+     */
+    static final int MAX_FACET_VALUES = 20;
+    
+    /**
+     * Maximum number of result resources for which a {@link FacetIndex} is built
+     */
+    private static final int MAX_INDEXED_RESOURCES = 100000;
+    
+    private static final Pattern QUERY_FORM = Pattern.compile("\\b(SELECT|CONSTRUCT)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern WHERE = Pattern.compile("\\bWHERE\\s*\\{", Pattern.CASE_INSENSITIVE);
+    private static final Pattern VARIABLE = Pattern.compile("[?$](\\w+)");
+    
 	private SearchPageContext pc;
 	private String facetQuery = "";
 	
+	/**
+	 * The total count per facet, i.e. the sum of the counts of all its values
+	 */
+	private HashMap<URI, Integer> facetCounts = new HashMap<URI, Integer>();
+	
 	int facetCount = Rand.nextBoundedInt(1, 10000);
+	
+	/**
+	 * The in-memory index of the result, null if the facets are computed by the triple store
+	 */
+	private FacetIndex index;
+	
+	/**
+	 * The selected values per facet, used for refining the result with the index
+	 */
+	private final Map<URI, Set<Value>> selection = new HashMap<URI, Set<Value>>();
+	
+	/**
+	 * Notified when the selection changes, null if the result cannot be refined in place
+	 */
+	private Runnable refinementListener;
+	
+	/**
+	 * The binding of the facetted resources in the tuple result
+	 */
+	private String resourceBinding;
 
 	public FacetCalculator(SearchPageContext pc) {
 		this.pc = pc;
 	}
+	
+	/**
+	 * Sets the listener notified when the selected facet values change, such
+	 * that the displayed result can be refined in place. Must be set before
+	 * {@link #getFacetContainer()}, as the result is only indexed in memory
+	 * if a listener is set.
+	 * 
+	 * @param refinementListener
+	 */
+	public void setRefinementListener(Runnable refinementListener) {
+		this.refinementListener = refinementListener;
+	}
 
 	public FContainer getFacetContainer() {
 		
-		Map<URI, Vector<Value>> facets = null;
+		Map<URI, List<FacetValue>> facets = null;
 		
 		FContainer allFacetContainer = new FContainer("all" + Rand.getIncrementalFluidUUID());
 		allFacetContainer.setClazz("allFacets");
 		
-		FLabel titleLabel = new FLabel(Rand.getIncrementalFluidUUID(), "Refine Search Result");
-		titleLabel.setClazz("facettedSearchTitle");
-		allFacetContainer.add(titleLabel);
-		
 		if ( pc.queryType.equals("CONSTRUCT")) {
-			facets = facetsForConstruct();
+			facets = facetsForQuery(true);
 		} else if (pc.queryType.equals("SELECT")) {
-			facets = facetsForSelect();
+			facets = facetsForQuery(false);
 		}
 		else if (pc.queryType.equals("KEYWORD")) {
 			facets = facetsForKeyword();
 		}
 		else {
-			facets = new HashMap<URI, Vector<Value>>();
+			facets = new HashMap<URI, List<FacetValue>>();
 		}
 		
+		renderFacets(allFacetContainer, facets);
+		return allFacetContainer;
+	}
+	
+	/**
+	 * @return the resources of the result refined by the selected facet
+	 * 			values, all resources if no value is selected, or null if
+	 * 			the result is not indexed
+	 */
+	public List<URI> getRefinedResources() {
+		if (index==null)
+			return null;
+		return index.getResources(index.refine(selection));
+	}
+	
+	/**
+	 * @return true if at least one facet value is selected
+	 */
+	public boolean hasSelection() {
+		return !selection.isEmpty();
+	}
+	
+	/**
+	 * @return the name of the binding of the facetted resources in the
+	 * 			tuple result, null if the facets are not computed for a tuple result
+	 */
+	public String getResourceBinding() {
+		return resourceBinding;
+	}
+	
+	private void renderFacets(final FContainer allFacetContainer, Map<URI, List<FacetValue>> facets) {
+		
+		FLabel titleLabel = new FLabel(Rand.getIncrementalFluidUUID(), "Refine Search Result");
+		titleLabel.setClazz("facettedSearchTitle");
+		allFacetContainer.add(titleLabel);
+		
 		boolean active = true;
 		int displayedFacets = 0;
-		for (Entry<URI, Vector<Value>> entry : facets.entrySet()) {
+		for (URI facetName : new CountFacetSorter().getTopFacets(facetCounts)) {
 			
-			URI facetName = entry.getKey();
 			FacetContainer facetContainer = new FacetContainer("facetContainer" + Rand.getIncrementalFluidUUID(), facetName.getLocalName(), active);
 //			facetContainer.setActive(active);
 
 			FContainer facetValueContainer = new FContainer("facetValue01");
 			facetValueContainer.setClazz("facetValues");
 
-			Set<String> facetValues = new HashSet<String>();
-			
-			for (Value v : entry.getValue()) {
+			for (FacetValue fv : facets.get(facetName)) {
 
-				if (!facetValues.contains(v.stringValue())) {
-					facetValues.add(v.stringValue());
-					
-					String facetDisplayString = (v instanceof URI) ? ((URI)v).getLocalName() : v.stringValue();
+				final Value v = fv.getFacetValue();
+				final URI predicate = facetName;
+				String facetDisplayString = ((v instanceof URI) ? ((URI)v).getLocalName() : v.stringValue()) + " (" + fv.getCount() + ")";
 
-					FLabel facetVal = new FLabel("fVal" + Rand.getIncrementalFluidUUID(), facetDisplayString, "", true) {
+				FLabel facetVal = new FLabel("fVal" + Rand.getIncrementalFluidUUID(), facetDisplayString, "", true) {
 
-						@Override
-						public void onClick() {
-							String value = "";
-							if (facetQuery.contains("?facetPred"))
-								facetQuery = facetQuery.replace("?facetPred" + facetCount, "<" + this.value + ">");
-							else
-								facetQuery = facetQuery.substring(0, facetQuery.lastIndexOf("<")+1) + this.value + facetQuery.substring(facetQuery.lastIndexOf(">"));
-							try {
-								value = ValueFactoryImpl.getInstance().createURI((String)this.name).stringValue();
-								String updateString = "document.location='?q=" + URLEncoder.encode(facetQuery.substring(0, facetQuery.lastIndexOf("?")) + "<" + value + "> }", "UTF-8") + "'"; 
-								addClientUpdate(new FClientUpdate(updateString));
-							}
-							catch (Exception e) {
-								addClientUpdate(new FClientUpdate("document.location='?q=" + facetQuery.substring(0, facetQuery.lastIndexOf("}")-1) + ". FILTER (?facetObj" + facetCount + " = \"" + this.name + "\") }" +  "'"));
-							}
-							
-							super.onClick();
+					@Override
+					public void onClick() {
+						if (index!=null) {
+							toggleSelection(predicate, v);
+							allFacetContainer.removeAll();
+							renderFacets(allFacetContainer, facetsFromIndex());
+							allFacetContainer.populateView();
+							if (refinementListener!=null)
+								refinementListener.run();
+							return;
+						}
+						// keyword searches cannot be refined by a query
+						if (facetQuery.length()==0)
+							return;
+						String value = "";
+						if (facetQuery.contains("?facetPred"))
+							facetQuery = facetQuery.replace("?facetPred" + facetCount, "<" + this.value + ">");
+						else
+							facetQuery = facetQuery.substring(0, facetQuery.lastIndexOf("<")+1) + this.value + facetQuery.substring(facetQuery.lastIndexOf(">"));
+						try {
+							value = ValueFactoryImpl.getInstance().createURI((String)this.name).stringValue();
+							String updateString = "document.location='?q=" + URLEncoder.encode(facetQuery.substring(0, facetQuery.lastIndexOf("?")) + "<" + value + "> }", "UTF-8") + "'"; 
+							addClientUpdate(new FClientUpdate(updateString));
 						}
-					};
-					facetVal.value = facetName.stringValue();
-					facetVal.name = v.stringValue();
+						catch (Exception e) {
+							addClientUpdate(new FClientUpdate("document.location='?q=" + facetQuery.substring(0, facetQuery.lastIndexOf("}")-1) + ". FILTER (?facetObj" + facetCount + " = \"" + this.name + "\") }" +  "'"));
+						}
+						
+						super.onClick();
+					}
+				};
+				facetVal.value = facetName.stringValue();
+				facetVal.name = v.stringValue();
 
-					facetVal.setClazz("facetValue");
-					facetValueContainer.add(facetVal);
-				}
+				facetVal.setClazz(isSelected(facetName, v) ? "facetValue facetValueSelected" : "facetValue");
+				facetValueContainer.add(facetVal);
 			}
 
 			facetContainer.addInternal(facetValueContainer);
@@ -143,159 +251,242 @@ public class FacetCalculator {
 			allFacetContainer.add(facetContainer);
 			
 		}
-
-		return allFacetContainer;
 	}
 	
-	private Map<URI, Vector<Value>> facetsForKeyword() {
-		
-		Map<URI, Vector<Value>> facets = new HashMap<URI, Vector<Value>>();
+	private void toggleSelection(URI predicate, Value value) {
+		Set<Value> values = selection.get(predicate);
+		if (values==null) {
+			values = new HashSet<Value>();
+			selection.put(predicate, values);
+		}
+		if (!values.remove(value))
+			values.add(value);
+		if (values.isEmpty())
+			selection.remove(predicate);
+	}
+	
+	private boolean isSelected(URI predicate, Value value) {
+		Set<Value> values = selection.get(predicate);
+		return values!=null && values.contains(value);
+	}
+	
+	/**
+	 * Computes the facets of the refined result with the index
+	 */
+	private Map<URI, List<FacetValue>> facetsFromIndex() {
+		facetCounts.clear();
+		FacetAggregator aggregator = new FacetAggregator();
+		index.count(index.refine(selection), aggregator);
+		return aggregator.getFacets();
+	}
+	
+	/**
+	 * Computes the facets of the resources of a keyword search with a single
+	 * grouped query, the hits are bound using VALUES
+	 */
+	private Map<URI, List<FacetValue>> facetsForKeyword() {
 		
+		Set<URI> subjects = new LinkedHashSet<URI>();
 		try {
-			RepositoryConnection con = Global.repository.getConnection();
-			
-	        while (pc.queryResult.hasNext()) {
-	            BindingSet bindingSet = (BindingSet) pc.queryResult.next();
-	            String uri = bindingSet.getValue("Subject").stringValue();
-	            
-				String queryString = "SELECT ?y ?z WHERE { <" + uri + "> ?y ?z }";
-				TupleQuery query = con.prepareTupleQuery(QueryLanguage.SPARQL, queryString);
-				
-				TupleQueryResult queryRes = query.evaluate();
-				
-				while (queryRes.hasNext()) {
-
-					BindingSet s = queryRes.next();
-
-					Binding predicateBinding = s.getBinding("y");
-					URI predicate = (URI )predicateBinding.getValue();
-					
-					Vector<Value> facet = null;
-					if (facets.containsKey(predicate))
-						facet = facets.get(predicate);
-					else {
-						facet = new Vector<Value>();
-						facets.put(predicate, facet);
-					}
-					facet.add(s.getBinding("z").getValue());
-
-				}
+			while (pc.queryResult.hasNext()) {
+				BindingSet bindingSet = (BindingSet) pc.queryResult.next();
+				Value subject = bindingSet.getValue("Subject");
+				if (subject instanceof URI)
+					subjects.add((URI)subject);
 			}
-			
-		} catch (RepositoryException e1) {
-			logger.error(e1.getMessage(), e1);
-		} catch (MalformedQueryException e) {
-			logger.error(e.getMessage(), e);
 		} catch (QueryEvaluationException e) {
 			logger.error(e.getMessage(), e);
-		} 
-		return facets;
+		}
+		// make the result available for rendering
+		if (pc.queryResult instanceof AbstractMutableTupleQueryResult)
+			((AbstractMutableTupleQueryResult)pc.queryResult).beforeFirst();
+		
+		resourceBinding = "Subject";
+		if (refinementListener!=null) {
+			FacetIndexCache cache = FacetIndexCache.getInstance(pc.session);
+			String key = "KEYWORD " + pc.query;
+			if (subjects.size()>MAX_INDEXED_RESOURCES)
+				cache.markTooBig(key);
+			else
+				index = cache.getOrBuild(key, subjects);
+			if (index!=null)
+				return facetsFromIndex();
+		}
+		
+		FacetAggregator aggregator = new FacetAggregator();
+		if (subjects.isEmpty())
+			return aggregator.getFacets();
+		
+		StringBuilder query = new StringBuilder("SELECT ?facetPred ?facetObj (COUNT(DISTINCT ?x) AS ?facetCount) WHERE { VALUES ?x {");
+		for (URI subject : subjects)
+			query.append(" ").append(NTriplesUtil.toNTriplesString(subject));
+		query.append(" } ?x ?facetPred ?facetObj } GROUP BY ?facetPred ?facetObj");
+		evaluate(query.toString(), aggregator);
+		return aggregator.getFacets();
 	}
 
-	private Map<URI, Vector<Value>> facetsForSelect() {
-
-		TupleQuery query;
-		Map<URI, Vector<Value>> facets = new HashMap<URI, Vector<Value>>();
-
+	/**
+	 * Computes the facets of the resources bound to the first variable of the
+	 * SELECT or CONSTRUCT query of the page context, with a single grouped
+	 * query over the WHERE clause of the query
+	 * 
+	 * @param construct
+	 * @return
+	 */
+	private Map<URI, List<FacetValue>> facetsForQuery(boolean construct) {
+
+		FacetAggregator aggregator = new FacetAggregator();
+		
+		Matcher form = QUERY_FORM.matcher(pc.query);
+		if (!form.find()) {
+			logger.warn("Facets cannot be computed, unsupported query: " + pc.query);
+			return aggregator.getFacets();
+		}
+		String prologue = pc.query.substring(0, form.start());
+		
+		// the facets are computed for the first variable of the query
+		Matcher var = VARIABLE.matcher(pc.query);
+		String where = whereClause(pc.query, form.end(), construct);
+		if (!var.find(form.end()) || where==null) {
+			logger.warn("Facets cannot be computed, unsupported query: " + pc.query);
+			return aggregator.getFacets();
+		}
+		String uriBinding = var.group(1);
+		if (!construct)
+			resourceBinding = uriBinding;
+		
+		// the base query for refining the search via the facets
+		facetQuery = pc.query.substring(0, pc.query.lastIndexOf("}")) + ". ?" + uriBinding + " ?facetPred" + facetCount + " ?facetObj" + facetCount + " }";
+		
+		if (refinementListener!=null) {
+			FacetIndexCache cache = FacetIndexCache.getInstance(pc.session);
+			index = cache.get(pc.query);
+			if (index==null && !cache.isTooBig(pc.query)) {
+				List<URI> subjects = selectResources(prologue + "SELECT DISTINCT ?" + uriBinding + " WHERE " + where + " LIMIT " + (MAX_INDEXED_RESOURCES+1), uriBinding);
+				if (subjects!=null && subjects.size()>MAX_INDEXED_RESOURCES)
+					cache.markTooBig(pc.query);
+				else if (subjects!=null)
+					index = cache.getOrBuild(pc.query, subjects);
+			}
+			if (index!=null)
+				return facetsFromIndex();
+		}
+		
+		String query = prologue + "SELECT ?facetPred ?facetObj (COUNT(DISTINCT ?" + uriBinding + ") AS ?facetCount) WHERE { " 
+				+ "{ SELECT DISTINCT ?" + uriBinding + " WHERE " + where + " } "
+				+ "?" + uriBinding + " ?facetPred ?facetObj } GROUP BY ?facetPred ?facetObj";
+		evaluate(query, aggregator);
+		return aggregator.getFacets();
+	}
+	
+	/**
+	 * @return the resources bound to the given variable, or null if the query fails
+	 */
+	private List<URI> selectResources(String query, String uriBinding) {
+		
+		ReadDataManager dm = ReadDataManagerImpl.getDataManager(Global.repository);
+		List<URI> res = new ArrayList<URI>();
+		TupleQueryResult qres = null;
 		try {
-			RepositoryConnection con = Global.repository.getConnection();
-			try {
-				
-				String uriBinding = pc.query.substring(pc.query.indexOf("?")+1, pc.query.indexOf(" ", pc.query.indexOf("?")));
-				String parsedFacetQuery = pc.query.substring(0, pc.query.lastIndexOf("}")) + ". ?" + uriBinding + " ?facetPred" + facetCount + " ?facetObj" + facetCount + " }";
-				facetQuery = parsedFacetQuery;				
-				parsedFacetQuery = parsedFacetQuery.replace("SELECT", "SELECT ?facetPred" + facetCount + " ?facetObj" + facetCount +" ");
-				
-				query = con.prepareTupleQuery(QueryLanguage.SPARQL, parsedFacetQuery);
-
-				TupleQueryResult queryRes = (TupleQueryResult) query.evaluate();
-
-				// fix msc: graph query result may contain duplicate statements
-				// (actually a bug/feature of Sesame), so we filter them out
-				
-				while (queryRes.hasNext()) {
-
-					BindingSet s = queryRes.next();
-
-					Binding predicateBinding = s.getBinding("facetPred" + facetCount);
-					URI predicate = (URI )predicateBinding.getValue();
-					
-					Vector<Value> facet = null;
-					if (facets.containsKey(predicate))
-						facet = facets.get(predicate);
-					else {
-						facet = new Vector<Value>();
-						facets.put(predicate, facet);
-					}
-					facet.add(s.getBinding("facetObj" + facetCount).getValue());
-
-				}
-
-				
-			} finally {
-				con.close();
+			qres = dm.sparqlSelect(query, false);
+			while (qres.hasNext()) {
+				Value subject = qres.next().getValue(uriBinding);
+				if (subject instanceof URI)
+					res.add((URI)subject);
 			}
-
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
+			return null;
+		} finally {
+			ReadDataManagerImpl.closeQuietly(qres);
 		}
+		return res;
+	}
 	
-		return facets;
+	/**
+	 * @return the group graph pattern of the WHERE clause, or null if it cannot be determined
+	 */
+	static String whereClause(String query, int formEnd, boolean construct) {
+		Matcher where = WHERE.matcher(query);
+		int start;
+		if (where.find(formEnd))
+			start = where.end()-1;
+		else
+			start = construct ? -1 : query.indexOf('{', formEnd);
+		int end = query.lastIndexOf('}');
+		if (start<0 || end<start)
+			return null;
+		return query.substring(start, end+1);
 	}
-
-	private Map<URI, Vector<Value>> facetsForConstruct() {
-
-		GraphQuery query;
-		Map<URI, Vector<Value>> facets = new HashMap<URI, Vector<Value>>();
-		
-		String uriBinding = pc.query.substring(pc.query.indexOf("?")+1, pc.query.indexOf(" ", pc.query.indexOf("?")));
-		
-		String parsedFacetQuery = pc.query.substring(0, pc.query.lastIndexOf("}")) + ". ?" + uriBinding + " ?facetPred" + facetCount + " ?facetObj" + facetCount + " }";
-		facetQuery = parsedFacetQuery;	
-		// TODO this is a dead store, fix appropriately
-//		parsedFacetQuery = parsedFacetQuery.replace("SELECT", "SELECT ?facetPred" + facetCount + " ?facetObj" + facetCount +" ");
+	
+	/**
+	 * Evaluates the grouped facet query and streams the result into the aggregator
+	 */
+	private void evaluate(String query, FacetAggregator aggregator) {
 		
-
+		ReadDataManager dm = ReadDataManagerImpl.getDataManager(Global.repository);
+		TupleQueryResult res = null;
 		try {
-			RepositoryConnection con = Global.repository.getConnection();
-			try {
-				query = con.prepareGraphQuery(QueryLanguage.SPARQL, facetQuery);
-
-				GraphQueryResult queryRes = (GraphQueryResult) query.evaluate();
-
-				// fix msc: graph query result may contain duplicate statements
-				// (actually a bug/feature of Sesame), so we filter them out
-				Set<Statement> queryResNoDups = new HashSet<Statement>();
-				while (queryRes.hasNext())
-					queryResNoDups.add(queryRes.next());
-				Iterator<Statement> res = queryResNoDups.iterator();
-
-				while (res.hasNext()) {
-
-					Statement s = res.next();
-
-					URI predicate = s.getPredicate();
-					
-					Vector<Value> facet = null;
-					if (facets.containsKey(predicate))
-						facet = facets.get(predicate);
-					else {
-						facet = new Vector<Value>();
-						facets.put(predicate, facet);
-					}
-					facet.add(s.getObject());
-
-				}
-
-				
-			} finally {
-				con.close();
+			res = dm.sparqlSelect(query, false);
+			while (res.hasNext()) {
+				BindingSet bs = res.next();
+				Value predicate = bs.getValue("facetPred");
+				Value count = bs.getValue("facetCount");
+				if (!(predicate instanceof URI) || !(count instanceof Literal))
+					continue;
+				aggregator.add((URI)predicate, bs.getValue("facetObj"), ((Literal)count).intValue());
 			}
-
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
+		} finally {
+			ReadDataManagerImpl.closeQuietly(res);
 		}
+	}
 	
-		return facets;
+	/**
+	 * Retains the top {@link FacetCalculator#MAX_FACET_VALUES} values per facet
+	 * and sums up the total count per facet
+	 */
+	private class FacetAggregator implements FacetIndex.CountHandler {
+		
+		private final Map<URI, PriorityQueue<FacetValue>> topValues = new HashMap<URI, PriorityQueue<FacetValue>>();
+		
+		@Override
+		public void add(URI predicate, Value value, int count) {
+			Integer total = facetCounts.get(predicate);
+			facetCounts.put(predicate, total==null ? count : total+count);
+			
+			PriorityQueue<FacetValue> values = topValues.get(predicate);
+			if (values==null) {
+				values = new PriorityQueue<FacetValue>(MAX_FACET_VALUES+1, BY_COUNT);
+				topValues.put(predicate, values);
+			}
+			values.add(new FacetValue(value, predicate, count));
+			if (values.size()>MAX_FACET_VALUES)
+				values.poll();
+		}
+		
+		/**
+		 * @return the facets with their values ordered by descending count
+		 */
+		Map<URI, List<FacetValue>> getFacets() {
+			Map<URI, List<FacetValue>> res = new HashMap<URI, List<FacetValue>>();
+			for (Entry<URI, PriorityQueue<FacetValue>> facet : topValues.entrySet()) {
+				List<FacetValue> values = new ArrayList<FacetValue>(facet.getValue());
+				Collections.sort(values, Collections.reverseOrder(BY_COUNT));
+				res.put(facet.getKey(), values);
+			}
+			return res;
+		}
 	}
+	
+	private static final Comparator<FacetValue> BY_COUNT = new Comparator<FacetValue>() {
+		@Override
+		public int compare(FacetValue v1, FacetValue v2) {
+			if (v1.getCount()!=v2.getCount())
+				return v1.getCount() < v2.getCount() ? -1 : 1;
+			// ties: alphabetically first value ranks highest
+			return v2.getFacetValue().stringValue().compareTo(v1.getFacetValue().stringValue());
+		}
+	};
 }
@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.facets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.rio.ntriples.NTriplesUtil;
+
+import com.fluidops.iwb.Global;
+import com.fluidops.iwb.api.ReadDataManager;
+import com.fluidops.iwb.api.ReadDataManagerImpl;
+
+/**
+ * In-memory facet index over the resources of a base search result. The
+ * resources are dictionary encoded, i.e. identified by their position in
+ * the base result, and each facet value has a posting list, a sorted array
+ * of the ids of the resources having the value. Refining the result by
+ * selected facet values and counting the values of the refined result are
+ * thus merges of sorted arrays that do not need to access the triple store.
+ * As opposed to bitmaps, the size of a posting list depends on the number
+ * of resources having the value only, not on the size of the base result.
+ *
+ * Indexes are immutable and are cached per user session, see
+ * {@link FacetIndexCache}. An index is only built if its estimated size
+ * does not exceed the given memory budget.
+ */
+public class FacetIndex {
+
+	private static final Logger logger = Logger.getLogger(FacetIndex.class.getName());
+
+	/**
+	 * Maximum number of resources per query when building the index
+	 */
+	private static final int BATCH_SIZE = 500;
+
+	/**
+	 * Rough per posting list overhead in bytes (map entry, value, array)
+	 */
+	private static final int POSTING_OVERHEAD = 128;
+
+	private final List<URI> subjects;
+
+	private final Map<URI, Map<Value, int[]>> postings;
+
+	private final long estimatedBytes;
+
+	private FacetIndex(List<URI> subjects, Map<URI, Map<Value, int[]>> postings, long estimatedBytes) {
+		this.subjects = subjects;
+		this.postings = postings;
+		this.estimatedBytes = estimatedBytes;
+	}
+
+	/**
+	 * Builds the index for the given resources by reading their outgoing
+	 * statements from the global repository.
+	 *
+	 * @param resources the resources of the base result
+	 * @param memoryBudget the maximum estimated size of the index in bytes
+	 * @return the index, or null if the index exceeds the memory budget
+	 * @throws MalformedQueryException
+	 * @throws QueryEvaluationException
+	 */
+	public static FacetIndex build(Collection<URI> resources, long memoryBudget)
+			throws MalformedQueryException, QueryEvaluationException {
+
+		Builder builder = new Builder(resources, memoryBudget);
+		List<URI> subjects = builder.subjects;
+
+		ReadDataManager dm = ReadDataManagerImpl.getDataManager(Global.repository);
+		for (int start=0; start<subjects.size(); start+=BATCH_SIZE) {
+
+			StringBuilder query = new StringBuilder("SELECT ?x ?facetPred ?facetObj WHERE { VALUES ?x {");
+			for (URI subject : subjects.subList(start, Math.min(start+BATCH_SIZE, subjects.size())))
+				query.append(" ").append(NTriplesUtil.toNTriplesString(subject));
+			query.append(" } ?x ?facetPred ?facetObj }");
+
+			TupleQueryResult res = null;
+			try {
+				res = dm.sparqlSelect(query.toString(), false);
+				while (res.hasNext()) {
+					BindingSet bs = res.next();
+					Value predicate = bs.getValue("facetPred");
+					if (!(predicate instanceof URI))
+						continue;
+					if (!builder.add((URI)bs.getValue("x"), (URI)predicate, bs.getValue("facetObj"))) {
+						logger.debug("Facet index for " + subjects.size() + " resources exceeds the memory budget of " + memoryBudget + " bytes");
+						return null;
+					}
+				}
+			} finally {
+				ReadDataManagerImpl.closeQuietly(res);
+			}
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * @return the number of resources of the base result
+	 */
+	public int size() {
+		return subjects.size();
+	}
+
+	/**
+	 * @return the estimated size of the index in bytes
+	 */
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	/**
+	 * @return the sorted ids of all resources of the base result
+	 */
+	public int[] all() {
+		int[] res = new int[subjects.size()];
+		for (int i=0; i<res.length; i++)
+			res[i] = i;
+		return res;
+	}
+
+	/**
+	 * Refines the base result by the selected facet values: a resource must
+	 * have at least one of the selected values of each facet.
+	 *
+	 * @param selection the selected values per facet
+	 * @return the sorted ids of the matching resources
+	 */
+	public int[] refine(Map<URI, Set<Value>> selection) {
+		int[] res = null;
+		for (Entry<URI, Set<Value>> facet : selection.entrySet()) {
+			if (facet.getValue().isEmpty())
+				continue;
+			int[] union = new int[0];
+			Map<Value, int[]> values = postings.get(facet.getKey());
+			if (values!=null) {
+				for (Value v : facet.getValue()) {
+					int[] posting = values.get(v);
+					if (posting!=null)
+						union = union(union, posting);
+				}
+			}
+			res = res==null ? union : intersect(res, union);
+		}
+		return res==null ? all() : res;
+	}
+
+	/**
+	 * Counts the facet values within the given resources.
+	 *
+	 * @param current the sorted ids of the resources, e.g. as obtained from {@link #refine(Map)}
+	 * @param handler receives the values with a count greater than 0
+	 */
+	public void count(int[] current, CountHandler handler) {
+		// membership lookup, such that counting is linear in the size of the postings
+		boolean[] contained = null;
+		if (current.length<subjects.size()) {
+			contained = new boolean[subjects.size()];
+			for (int id : current)
+				contained[id] = true;
+		}
+		for (Entry<URI, Map<Value, int[]>> facet : postings.entrySet()) {
+			for (Entry<Value, int[]> value : facet.getValue().entrySet()) {
+				int[] posting = value.getValue();
+				int count = posting.length;
+				if (contained!=null) {
+					count = 0;
+					for (int id : posting)
+						if (contained[id])
+							count++;
+				}
+				if (count>0)
+					handler.add(facet.getKey(), value.getKey(), count);
+			}
+		}
+	}
+
+	/**
+	 * @param ids
+	 * @return the resources with the given ids
+	 */
+	public List<URI> getResources(int[] ids) {
+		List<URI> res = new ArrayList<URI>(ids.length);
+		for (int id : ids)
+			res.add(subjects.get(id));
+		return res;
+	}
+
+	/**
+	 * @return the sorted union of the given sorted arrays
+	 */
+	static int[] union(int[] a, int[] b) {
+		int[] res = new int[a.length+b.length];
+		int i=0, j=0, n=0;
+		while (i<a.length && j<b.length) {
+			if (a[i]<b[j])
+				res[n++] = a[i++];
+			else if (a[i]>b[j])
+				res[n++] = b[j++];
+			else {
+				res[n++] = a[i++];
+				j++;
+			}
+		}
+		while (i<a.length)
+			res[n++] = a[i++];
+		while (j<b.length)
+			res[n++] = b[j++];
+		return n==res.length ? res : Arrays.copyOf(res, n);
+	}
+
+	/**
+	 * @return the sorted intersection of the given sorted arrays
+	 */
+	static int[] intersect(int[] a, int[] b) {
+		int[] res = new int[Math.min(a.length, b.length)];
+		int i=0, j=0, n=0;
+		while (i<a.length && j<b.length) {
+			if (a[i]<b[j])
+				i++;
+			else if (a[i]>b[j])
+				j++;
+			else {
+				res[n++] = a[i++];
+				j++;
+			}
+		}
+		return n==res.length ? res : Arrays.copyOf(res, n);
+	}
+
+	/**
+	 * Receives the facet values with their counts
+	 */
+	public interface CountHandler {
+
+		public void add(URI predicate, Value value, int count);
+	}
+
+	/**
+	 * Collects the facet values of the resources of a base result and
+	 * keeps track of the estimated size of the index.
+	 */
+	static class Builder {
+
+		private final List<URI> subjects;
+
+		private final Map<URI, Integer> ids = new HashMap<URI, Integer>();
+
+		private final Map<URI, Map<Value, Posting>> postings = new HashMap<URI, Map<Value, Posting>>();
+
+		private final long memoryBudget;
+
+		private long bytes;
+
+		/**
+		 * @param resources the resources of the base result, duplicates are ignored
+		 * @param memoryBudget the maximum estimated size of the index in bytes
+		 */
+		Builder(Collection<URI> resources, long memoryBudget) {
+			this.memoryBudget = memoryBudget;
+			subjects = new ArrayList<URI>(resources.size());
+			for (URI r : resources) {
+				if (!ids.containsKey(r)) {
+					ids.put(r, subjects.size());
+					subjects.add(r);
+				}
+			}
+			bytes = 16L * subjects.size();
+		}
+
+		/**
+		 * Adds a facet value of a resource of the base result, values of
+		 * other resources are ignored.
+		 *
+		 * @return false if the index exceeds the memory budget
+		 */
+		boolean add(URI subject, URI predicate, Value value) {
+			Integer id = ids.get(subject);
+			if (id==null)
+				return true;
+			Map<Value, Posting> values = postings.get(predicate);
+			if (values==null) {
+				values = new HashMap<Value, Posting>();
+				postings.put(predicate, values);
+				bytes += POSTING_OVERHEAD;
+			}
+			Posting posting = values.get(value);
+			if (posting==null) {
+				posting = new Posting();
+				values.put(value, posting);
+				bytes += POSTING_OVERHEAD + 2L*value.stringValue().length();
+			}
+			bytes += posting.add(id);
+			return bytes<=memoryBudget;
+		}
+
+		/**
+		 * @return the index with sorted and duplicate free postings
+		 */
+		FacetIndex build() {
+			Map<URI, Map<Value, int[]>> res = new HashMap<URI, Map<Value, int[]>>();
+			long size = 16L * subjects.size();
+			for (Entry<URI, Map<Value, Posting>> facet : postings.entrySet()) {
+				Map<Value, int[]> values = new HashMap<Value, int[]>();
+				for (Entry<Value, Posting> value : facet.getValue().entrySet()) {
+					int[] posting = value.getValue().toSortedArray();
+					values.put(value.getKey(), posting);
+					size += POSTING_OVERHEAD + 2L*value.getKey().stringValue().length() + 4L*posting.length;
+				}
+				res.put(facet.getKey(), values);
+				size += POSTING_OVERHEAD;
+			}
+			return new FacetIndex(Collections.unmodifiableList(subjects), res, size);
+		}
+	}
+
+	/**
+	 * Growable posting list used while building the index
+	 */
+	private static class Posting {
+
+		private int[] ids = new int[4];
+
+		private int size = 0;
+
+		/**
+		 * @return the number of bytes allocated additionally
+		 */
+		int add(int id) {
+			// statements are mostly grouped by resource
+			if (size>0 && ids[size-1]==id)
+				return 0;
+			int allocated = 0;
+			if (size==ids.length) {
+				ids = Arrays.copyOf(ids, size*2);
+				allocated = 4*size;
+			}
+			ids[size++] = id;
+			return allocated;
+		}
+
+		int[] toSortedArray() {
+			int[] res = Arrays.copyOf(ids, size);
+			Arrays.sort(res);
+			int n = 0;
+			for (int i=0; i<res.length; i++)
+				if (n==0 || res[n-1]!=res[i])
+					res[n++] = res[i];
+			return n==res.length ? res : Arrays.copyOf(res, n);
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.facets;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.URI;
+
+import com.fluidops.ajax.FSession;
+import com.fluidops.iwb.util.Config;
+
+/**
+ * Per session cache of {@link FacetIndex}es keyed by the base query, such
+ * that refining a search result does not rebuild the index. The cache is
+ * stored in the session state and holds the most recently used indexes
+ * within the memory budget of {@link Config#getFacetIndexMemoryBudget()}.
+ * Base queries whose index exceeds the budget are remembered as well, such
+ * that their resources are not selected again.
+ *
+ * The caches of all sessions are invalidated by {@link #invalidateAll()}
+ * when the global repository is written, see {@link com.fluidops.iwb.api.CacheManager}.
+ */
+public class FacetIndexCache {
+
+	private static final Logger logger = Logger.getLogger(FacetIndexCache.class.getName());
+
+	private static final String SESSION_KEY = "facetIndexCache";
+
+	/**
+	 * Maximum number of remembered base queries whose index is too big
+	 */
+	private static final int MAX_TOO_BIG = 100;
+
+	/**
+	 * Incremented on every write to the global repository
+	 */
+	private static final AtomicLong repositoryVersion = new AtomicLong();
+
+	private final LinkedHashMap<String, FacetIndex> indexes = new LinkedHashMap<String, FacetIndex>(16, 0.75f, true);
+
+	private final LinkedHashMap<String, Boolean> tooBig = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size()>MAX_TOO_BIG;
+		}
+	};
+
+	private final long memoryBudget;
+
+	private long usedBytes = 0;
+
+	/**
+	 * The repository version the cached entries are valid for
+	 */
+	private long version = repositoryVersion.get();
+
+	private FacetIndexCache(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * @param session the session, may be null
+	 * @return the cache of the given session, created on first access, or
+	 * 			a new cache that is not shared if there is no session
+	 */
+	public static FacetIndexCache getInstance(FSession session) {
+		long memoryBudget = Config.getConfig().getFacetIndexMemoryBudget() * 1024L * 1024L;
+		if (session==null)
+			return new FacetIndexCache(memoryBudget);
+		synchronized (session) {
+			FacetIndexCache res = (FacetIndexCache) session.getSessionState(SESSION_KEY);
+			if (res==null) {
+				res = new FacetIndexCache(memoryBudget);
+				session.setSessionState(SESSION_KEY, res);
+			}
+			return res;
+		}
+	}
+
+	/**
+	 * Invalidates the cached indexes of all sessions, as the facet values
+	 * of their resources may have changed.
+	 */
+	public static void invalidateAll() {
+		repositoryVersion.incrementAndGet();
+	}
+
+	/**
+	 * @param key the base query
+	 * @return the cached index, or null
+	 */
+	public synchronized FacetIndex get(String key) {
+		validate();
+		return indexes.get(key);
+	}
+
+	/**
+	 * @param key the base query
+	 * @return true if the index of the given base query is known to exceed
+	 * 			the memory budget or the maximum number of resources
+	 */
+	public synchronized boolean isTooBig(String key) {
+		validate();
+		return tooBig.containsKey(key);
+	}
+
+	/**
+	 * Remembers that the index of the given base query exceeds the memory
+	 * budget or the maximum number of resources.
+	 *
+	 * @param key the base query
+	 */
+	public synchronized void markTooBig(String key) {
+		validate();
+		tooBig.put(key, Boolean.TRUE);
+	}
+
+	/**
+	 * Returns the cached index for the given base query, or builds it for the
+	 * given resources. Least recently used indexes are evicted to stay within
+	 * the memory budget.
+	 *
+	 * @param key the base query
+	 * @param resources the resources of the base result
+	 * @return the index, or null if it exceeds the memory budget or cannot be built
+	 */
+	public FacetIndex getOrBuild(String key, Collection<URI> resources) {
+		FacetIndex res = get(key);
+		if (res!=null || isTooBig(key))
+			return res;
+
+		long builtVersion = repositoryVersion.get();
+		try {
+			res = FacetIndex.build(resources, memoryBudget);
+		} catch (Exception e) {
+			logger.error("Facet index could not be built: " + e.getMessage(), e);
+			return null;
+		}
+		if (res==null)
+			markTooBig(key);
+		else
+			put(key, res, builtVersion);
+		return res;
+	}
+
+	/**
+	 * Stores the index unless the repository has been written while it was built
+	 */
+	private synchronized void put(String key, FacetIndex index, long builtVersion) {
+		validate();
+		if (builtVersion!=version)
+			return;
+		FacetIndex old = indexes.put(key, index);
+		if (old!=null)
+			usedBytes -= old.getEstimatedBytes();
+		usedBytes += index.getEstimatedBytes();
+
+		Iterator<FacetIndex> it = indexes.values().iterator();
+		while (usedBytes>memoryBudget && it.hasNext()) {
+			FacetIndex eldest = it.next();
+			if (eldest==index)
+				break;
+			usedBytes -= eldest.getEstimatedBytes();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Clears the cache if the repository has been written since the entries were built
+	 */
+	private void validate() {
+		long current = repositoryVersion.get();
+		if (current!=version) {
+			clear();
+			version = current;
+		}
+	}
+
+	/**
+	 * @return the estimated size of the cached indexes in bytes
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	public synchronized void clear() {
+		indexes.clear();
+		tooBig.clear();
+		usedBytes = 0;
+	}
+}
@@ -41,13 +41,28 @@ public class FacetValue {
 		this.facetValue = facetValue;
 	}
 
+	/**
+	 * The number of resources having this value, 0 if unknown
+	 */
+	public int getCount() {
+		return count;
+	}
+
 	private URI facetName;
 	private Value facetValue;
+	private int count;
 	
 	public FacetValue(Value facetValue, URI facetName) {
 		
+		this(facetValue, facetName, 0);
+		
+	}
+	
+	public FacetValue(Value facetValue, URI facetName, int count) {
+		
 		this.facetName = facetName;
 		this.facetValue = facetValue;
+		this.count = count;
 		
 	}
 	
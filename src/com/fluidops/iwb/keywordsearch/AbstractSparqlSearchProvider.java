@@ -34,7 +34,9 @@ import com.fluidops.iwb.api.ReadDataManagerImpl;
 import com.fluidops.iwb.api.ReadDataManagerImpl.SparqlQueryType;
 import com.fluidops.iwb.api.ReadWriteDataManagerImpl;
 import com.fluidops.iwb.model.MutableTupleQueryResultImpl;
+import com.fluidops.iwb.model.StreamingTupleQueryResultImpl;
 import com.fluidops.iwb.server.HybridSearchServlet.BooleanQueryResult;
+import com.fluidops.iwb.util.Config;
 import com.fluidops.util.StringUtil;
 import com.google.common.collect.Sets;
 
@@ -129,7 +131,12 @@ public abstract class AbstractSparqlSearchProvider implements
         case SELECT:
             TupleQueryResult tRes = dm.sparqlSelect(queryString, true, resolveValue, infer);
             // allow to iterate over result set multiple times
-            return new MutableTupleQueryResultImpl(tRes); 
+            if (!Config.getConfig().getSearchResultStreaming())
+            	return new MutableTupleQueryResultImpl(tRes);
+            StreamingTupleQueryResultImpl streamingRes = new StreamingTupleQueryResultImpl(tRes);
+            // read the first row to surface evaluation errors
+            streamingRes.prefetch(1);
+            return streamingRes;
         case CONSTRUCT:
             GraphQueryResult gRes = dm.sparqlConstruct(queryString, true, resolveValue, infer);
             return gRes;
@@ -49,6 +49,8 @@ public class EntityPageWidgetContainer extends TabWidgetContainer {
 
 	protected List<AbstractWidget<?>> allWidgets = Lists.newArrayList();
 	
+	protected ParallelWidgetRenderer renderer = new ParallelWidgetRenderer();
+	
 	
 	public EntityPageWidgetContainer() {		
 		super();	
@@ -94,8 +96,8 @@ public class EntityPageWidgetContainer extends TabWidgetContainer {
 					return "<center><div class=\"widgetTitle\">" + widget.getTitle() + "</div></center>" +super.render();
 				}				
 			};
-			cont.add(widget.getComponentUAE(id));
 			rightContainer.add(cont);
+			renderer.render(widget, id, cont);
 			
 		}			
 		
@@ -104,6 +106,13 @@ public class EntityPageWidgetContainer extends TabWidgetContainer {
 	}
 	
 
+	@Override
+	public void postRegistration(PageContext pc) {
+		// the views are rendered while the other widgets are evaluated in parallel
+		super.postRegistration(pc);
+		renderer.awaitAll();
+	}
+
 	/**
 	 * Returns true if the current widget is rendered as a view in the
 	 * tabpane, via {@link #postRegistration(PageContext)}
@@ -0,0 +1,455 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.layout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.fluidops.ajax.components.FAsynchContainer;
+import com.fluidops.ajax.components.FComponent;
+import com.fluidops.ajax.components.FContainer;
+import com.fluidops.iwb.api.ReadDataManagerImpl;
+import com.fluidops.iwb.util.Config;
+import com.fluidops.iwb.widget.Widget;
+import com.fluidops.iwb.widget.WidgetEmbeddingError;
+import com.fluidops.iwb.widget.WidgetEmbeddingError.ErrorType;
+import com.fluidops.iwb.wiki.FluidWikiModel;
+import com.fluidops.iwb.wiki.parserfunction.WidgetParserFunction;
+import com.fluidops.util.Rand;
+import com.fluidops.util.concurrent.UserTask;
+
+/**
+ * Renders the widgets of a page concurrently on a bounded executor shared by
+ * all pages. A {@link WidgetContainer} submits its widgets via
+ * {@link #render(Widget, String, FContainer)} and collects the
+ * components via {@link #awaitAll()} once all widgets are added, i.e. in
+ * {@link WidgetContainer#postRegistration(com.fluidops.iwb.page.PageContext)}.
+ * Likewise, the widgets embedded into the wiki view are submitted while the
+ * wiki text is rendered, see {@link WidgetParserFunction#setRenderer(ParallelWidgetRenderer)}.
+ *
+ * Each widget is rendered with its own data managers, i.e. with its own
+ * repository connections, see {@link ReadDataManagerImpl#openThreadDataManagers()},
+ * and with its own wiki rendering model, see {@link FluidWikiModel#detachModel()}.
+ *
+ * Widgets that are not finished within the page deadline
+ * ({@link Config#getWidgetRenderDeadline()}) are shown with a loading
+ * placeholder, which is filled by the FAjax channel as soon as the widget
+ * is available. If the queue of the executor is full, the widget is not
+ * rendered on the request thread but shown with a placeholder right away,
+ * and rendered by the FAjax callback of the placeholder.
+ *
+ * Parallel rendering is enabled by setting {@link Config#getWidgetRenderThreads()}
+ * to a positive value, otherwise widgets are rendered sequentially on the
+ * request thread. The render times of the widgets are recorded per widget
+ * class, see {@link #getTimings()}, and exported via JMX together with the
+ * state of the executor.
+ *
+ * Note that instances are not thread-safe, they are meant to be used by
+ * a single container.
+ */
+public class ParallelWidgetRenderer
+{
+	private static final Logger logger = Logger.getLogger(ParallelWidgetRenderer.class.getName());
+
+	private static ThreadPoolExecutor executor;
+
+	private static final ConcurrentMap<String, Timing> timings = new ConcurrentHashMap<String, Timing>();
+
+	/**
+	 * Render time statistics of a widget class
+	 */
+	public static class Timing
+	{
+		private final String widgetClass;
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalMillis = new AtomicLong();
+		private final AtomicLong maxMillis = new AtomicLong();
+		private final AtomicLong deferred = new AtomicLong();
+
+		private Timing(String widgetClass)
+		{
+			this.widgetClass = widgetClass;
+		}
+
+		private void record(long millis)
+		{
+			count.incrementAndGet();
+			totalMillis.addAndGet(millis);
+			long max = maxMillis.get();
+			while (millis>max && !maxMillis.compareAndSet(max, millis))
+				max = maxMillis.get();
+		}
+
+		public String getWidgetClass()
+		{
+			return widgetClass;
+		}
+
+		/**
+		 * @return the number of rendered widgets
+		 */
+		public long getCount()
+		{
+			return count.get();
+		}
+
+		public long getTotalMillis()
+		{
+			return totalMillis.get();
+		}
+
+		public long getMaxMillis()
+		{
+			return maxMillis.get();
+		}
+
+		/**
+		 * @return the average render time, 0 if no widget was rendered
+		 */
+		public long getAverageMillis()
+		{
+			long c = count.get();
+			return c==0 ? 0 : totalMillis.get() / c;
+		}
+
+		/**
+		 * @return the number of widgets that missed the page deadline and were
+		 * 			shown with a placeholder
+		 */
+		public long getDeferredCount()
+		{
+			return deferred.get();
+		}
+
+		@Override
+		public String toString()
+		{
+			return widgetClass + ": count=" + getCount() + ", avg=" + getAverageMillis()
+					+ "ms, max=" + getMaxMillis() + "ms, deferred=" + getDeferredCount();
+		}
+	}
+
+	/**
+	 * Receives the component of a widget, or its placeholder, in {@link #awaitAll()}
+	 */
+	public static interface Target
+	{
+		public void add(FComponent component);
+	}
+
+	private static class Job
+	{
+		private final Widget<?> widget;
+		private final String id;
+		private final Target target;
+		private final Future<FComponent> future;
+		// the task rejected by the executor, run by the placeholder (null if submitted)
+		private final FutureTask<FComponent> rejected;
+
+		private Job(Widget<?> widget, String id, Target target, Future<FComponent> future, FutureTask<FComponent> rejected)
+		{
+			this.widget = widget;
+			this.id = id;
+			this.target = target;
+			this.future = future;
+			this.rejected = rejected;
+		}
+	}
+
+	/**
+	 * Placeholder for a widget that missed the page deadline, the widget
+	 * component is retrieved with the FAjax callback
+	 */
+	private static class Placeholder extends FAsynchContainer
+	{
+		private final Job job;
+
+		private Placeholder(Job job)
+		{
+			super(Rand.getIncrementalFluidUUID(), "<div class=\"statusLoading\" />");
+			this.job = job;
+		}
+
+		@Override
+		public FComponent getComponentAsynch()
+		{
+			if (job.rejected!=null)
+				job.rejected.run();
+			try
+			{
+				return job.future.get(Config.getConfig().getWidgetRenderTimeout(), TimeUnit.MILLISECONDS);
+			}
+			catch (TimeoutException e)
+			{
+				job.future.cancel(true);
+				logger.warn("Rendering of widget " + job.widget.getClass().getName() + " timed out.");
+				return WidgetEmbeddingError.getErrorLabel(job.id, ErrorType.QUERY_TIMEOUT);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return WidgetEmbeddingError.getErrorLabel(job.id, ErrorType.EXCEPTION, "Rendering was interrupted");
+			}
+			catch (ExecutionException e)
+			{
+				return errorLabel(job, e);
+			}
+		}
+	}
+
+	private final List<Job> jobs = new ArrayList<Job>();
+
+	private final long deadline;
+
+	private long start = -1;
+
+	/**
+	 * Creates a renderer with the page deadline from the configuration
+	 */
+	public ParallelWidgetRenderer()
+	{
+		this(Config.getConfig().getWidgetRenderDeadline());
+	}
+
+	/**
+	 * @param deadline the time in milliseconds, counted from the first submitted
+	 * 			widget, after which unfinished widgets are shown with a placeholder
+	 */
+	public ParallelWidgetRenderer(long deadline)
+	{
+		this.deadline = deadline;
+	}
+
+	/**
+	 * @return true if widgets are rendered in parallel
+	 */
+	public static boolean isEnabled()
+	{
+		return Config.getConfig().getWidgetRenderThreads()>0;
+	}
+
+	/**
+	 * Renders the widget and adds its component to the target container. If
+	 * parallel rendering is enabled, the widget is rendered on the executor
+	 * and the component is added in {@link #awaitAll()}.
+	 *
+	 * @param widget
+	 * @param id the component id, see {@link Widget#getComponentUAE(String)}
+	 * @param target
+	 */
+	public void render(Widget<?> widget, String id, final FContainer target)
+	{
+		render(widget, id, new Target() {
+			@Override
+			public void add(FComponent component)
+			{
+				target.add(component);
+			}
+		});
+	}
+
+	/**
+	 * Renders the widget and passes its component to the target, see
+	 * {@link #render(Widget, String, FContainer)}.
+	 *
+	 * @param widget
+	 * @param id the component id, see {@link Widget#getComponentUAE(String)}
+	 * @param target
+	 */
+	public void render(final Widget<?> widget, final String id, Target target)
+	{
+		if (!isEnabled())
+		{
+			long t0 = System.currentTimeMillis();
+			target.add(widget.getComponentUAE(id));
+			timingOf(widget).record(System.currentTimeMillis()-t0);
+			return;
+		}
+
+		if (start<0)
+			start = System.currentTimeMillis();
+
+		// the user context is propagated to the render thread for access control
+		Callable<FComponent> task = new UserTask<FComponent>(new Callable<FComponent>() {
+			@Override
+			public FComponent call() throws Exception
+			{
+				long t0 = System.currentTimeMillis();
+				boolean ownDataManagers = ReadDataManagerImpl.openThreadDataManagers();
+				// the rendered components of wiki text within the widget are not
+				// registered to the model of the page or of a previous job
+				FluidWikiModel.ModelState modelState = FluidWikiModel.detachModel();
+				try
+				{
+					return widget.getComponentUAE(id);
+				}
+				finally
+				{
+					FluidWikiModel.restoreModel(modelState);
+					if (ownDataManagers)
+						ReadDataManagerImpl.closeThreadDataManagers();
+					timingOf(widget).record(System.currentTimeMillis()-t0);
+				}
+			}
+		});
+		try
+		{
+			jobs.add(new Job(widget, id, target, executor().submit(task), null));
+		}
+		catch (RejectedExecutionException e)
+		{
+			logger.debug("Render queue is full, widget " + widget.getClass().getName() + " is rendered asynchronously.");
+			FutureTask<FComponent> rejected = new FutureTask<FComponent>(task);
+			jobs.add(new Job(widget, id, target, rejected, rejected));
+		}
+	}
+
+	/**
+	 * Waits for the submitted widgets until the page deadline is reached and
+	 * adds their components to the respective target containers. Widgets that
+	 * are not yet finished are added as placeholder.
+	 */
+	public void awaitAll()
+	{
+		for (Job job : jobs)
+		{
+			FComponent component = null;
+			// rejected widgets are rendered by the placeholder
+			if (job.rejected==null)
+			{
+				try
+				{
+					long remaining = start + deadline - System.currentTimeMillis();
+					component = job.future.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+				}
+				catch (TimeoutException e)
+				{
+					// handled below
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				catch (ExecutionException e)
+				{
+					component = errorLabel(job, e);
+				}
+			}
+
+			if (component==null)
+			{
+				timingOf(job.widget).deferred.incrementAndGet();
+				component = new Placeholder(job);
+			}
+			job.target.add(component);
+		}
+		jobs.clear();
+	}
+
+	/**
+	 * @return a snapshot of the render time statistics per widget class
+	 */
+	public static List<Timing> getTimings()
+	{
+		return new ArrayList<Timing>(timings.values());
+	}
+
+	public static void resetTimings()
+	{
+		timings.clear();
+	}
+
+	/**
+	 * @return the number of widgets waiting for a render thread
+	 */
+	public static synchronized int getQueueDepth()
+	{
+		return executor==null ? 0 : executor.getQueue().size();
+	}
+
+	/**
+	 * @return the number of widgets currently rendered
+	 */
+	public static synchronized int getActiveCount()
+	{
+		return executor==null ? 0 : executor.getActiveCount();
+	}
+
+	private static Timing timingOf(Widget<?> widget)
+	{
+		String name = widget.getClass().getName();
+		Timing res = timings.get(name);
+		if (res==null)
+		{
+			Timing newTiming = new Timing(name);
+			res = timings.putIfAbsent(name, newTiming);
+			if (res==null)
+				res = newTiming;
+		}
+		return res;
+	}
+
+	private static FComponent errorLabel(Job job, ExecutionException e)
+	{
+		logger.warn("Widget construction failed: " + e.getCause().getMessage());
+		logger.debug("Widget construction exception", e.getCause());
+		return WidgetEmbeddingError.getErrorLabel(job.id, ErrorType.INVALID_WIDGET_CONFIGURATION, e.getCause().getMessage());
+	}
+
+	/**
+	 * The bounded executor shared by all pages. If the queue is full, widgets
+	 * are rejected and shown with a placeholder, see {@link #render(Widget, String, Target)}.
+	 */
+	private static synchronized ThreadPoolExecutor executor()
+	{
+		if (executor==null)
+		{
+			int threads = Config.getConfig().getWidgetRenderThreads();
+			executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(threads*16), new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+						@Override
+						public Thread newThread(Runnable r)
+						{
+							Thread t = new Thread(r, "WidgetRenderer-" + count.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+}
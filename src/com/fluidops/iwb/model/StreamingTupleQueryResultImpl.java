@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
+
+import com.fluidops.iwb.api.ReadDataManagerImpl;
+import com.fluidops.iwb.util.Config;
+
+/**
+ * Mutable tuple query result which reads the underlying query result lazily.
+ * Binding sets are pulled from the source only when they are accessed and are
+ * kept in a replay buffer, such that the result can be iterated over multiple
+ * times (e.g. by several widgets rendering the same search result). Consumers
+ * which only need the first rows, e.g. via {@link #getReducedResultSet(int)},
+ * thus never cause the full result to be transferred.
+ *
+ * The replay buffer can be bounded by {@link Config#getSearchResultMaxRows()}
+ * and {@link Config#getSearchResultMaxBytes()}: if the result exceeds one of
+ * these limits, the source is closed and the result is truncated with a
+ * warning, rather than exhausting the heap. Consumers thus never fail while
+ * iterating, see {@link #isTruncated()}.
+ *
+ * The source is closed as soon as it is exhausted or when {@link #close()} is
+ * invoked. Binding sets that have not been read before closing are dropped,
+ * i.e. the result is truncated as well.
+ */
+public class StreamingTupleQueryResultImpl extends AbstractMutableTupleQueryResult {
+
+	private static final Logger logger = Logger.getLogger(StreamingTupleQueryResultImpl.class.getName());
+
+	/**
+	 * Rough per binding overhead in bytes used for estimating the buffer size
+	 */
+	private static final int BINDING_OVERHEAD = 48;
+
+	private TupleQueryResult source;
+
+	private final ArrayList<BindingSet> buffer = new ArrayList<BindingSet>();
+
+	private final int maxRows;
+
+	private final long maxBytes;
+
+	private long bytes = 0;
+
+	private boolean truncated = false;
+
+	/**
+	 * The index of the next element returned by {@link #next()}
+	 */
+	private int cursor = 0;
+
+	/**
+	 * The index of the last element that was returned by a call to
+	 * {@link #next()} or {@link #previous()}. Equal to -1 if there is no such
+	 * element.
+	 */
+	private int lastReturned = -1;
+
+	/**
+	 * Creates a streaming result with the limits from the configuration
+	 *
+	 * @param source
+	 * @throws QueryEvaluationException
+	 */
+	public StreamingTupleQueryResultImpl(TupleQueryResult source) throws QueryEvaluationException
+	{
+		this(source, Config.getConfig().getSearchResultMaxRows(),
+				Config.getConfig().getSearchResultMaxBytes()*1024L*1024L);
+	}
+
+	/**
+	 * @param source the query result to read from
+	 * @param maxRows the maximum number of rows, a value <=0 means unlimited
+	 * @param maxBytes the maximum estimated size of the result in bytes, a value <=0 means unlimited
+	 * @throws QueryEvaluationException
+	 */
+	public StreamingTupleQueryResultImpl(TupleQueryResult source, int maxRows, long maxBytes) throws QueryEvaluationException
+	{
+		this.source = source;
+		this.maxRows = maxRows;
+		this.maxBytes = maxBytes;
+		this.bindingNames.addAll(source.getBindingNames());
+	}
+
+	/**
+	 * Reads binding sets from the source until the buffer contains at least
+	 * the given number of elements or the source is exhausted. Can be used
+	 * to surface evaluation errors early, i.e. before the result is consumed.
+	 *
+	 * @param count
+	 * @return true if the buffer contains at least count elements
+	 * @throws QueryEvaluationException
+	 */
+	public boolean prefetch(int count) throws QueryEvaluationException {
+
+		try {
+			while (buffer.size()<count && source!=null) {
+				if (!source.hasNext()) {
+					closeSource();
+					break;
+				}
+				BindingSet bs = source.next();
+				if (exceedsLimits(bs)) {
+					truncated = true;
+					closeSource();
+					break;
+				}
+				buffer.add(bs);
+			}
+		} catch (QueryEvaluationException e) {
+			closeSource();
+			throw e;
+		} catch (RuntimeException e) {
+			closeSource();
+			throw e;
+		}
+		return buffer.size()>=count;
+	}
+
+	/**
+	 * @return true if all binding sets of the source have been read
+	 */
+	public boolean isExhausted() {
+		return source==null;
+	}
+
+	/**
+	 * @return true if binding sets of the source have been dropped, either
+	 * 			because the result exceeds the limits or because it was
+	 * 			closed before being read completely
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * @param bs the next binding set of the source
+	 * @return true if adding the binding set to the buffer exceeds one of the limits
+	 */
+	private boolean exceedsLimits(BindingSet bs) {
+
+		if (maxRows>0 && buffer.size()>=maxRows) {
+			logger.warn("Query result truncated to the maximum of " + maxRows + " rows (searchResultMaxRows)");
+			return true;
+		}
+
+		if (maxBytes>0) {
+			long size = 0;
+			for (Binding b : bs)
+				size += BINDING_OVERHEAD + 2L*(b.getName().length()+b.getValue().stringValue().length());
+			if (bytes+size>maxBytes) {
+				logger.warn("Query result truncated to " + buffer.size() + " rows, the maximum size of " 
+						+ (maxBytes/1024/1024) + " MB is exceeded (searchResultMaxBytes)");
+				return true;
+			}
+			bytes += size;
+		}
+		return false;
+	}
+
+	private boolean fill(int count) {
+		try {
+			return prefetch(count);
+		} catch (QueryEvaluationException e) {
+			throw new IllegalStateException("Error while reading the query result: " + e.getMessage(), e);
+		}
+	}
+
+	private void fillAll() {
+		fill(Integer.MAX_VALUE);
+	}
+
+	private void closeSource() {
+		if (source!=null) {
+			ReadDataManagerImpl.closeQuietly(source);
+			source = null;
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return fill(cursor+1);
+	}
+
+	@Override
+	public boolean hasPrevious() {
+		return cursor>0;
+	}
+
+	@Override
+	public BindingSet next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		lastReturned = cursor++;
+		return buffer.get(lastReturned);
+	}
+
+	@Override
+	public BindingSet previous() {
+		if (!hasPrevious())
+			throw new NoSuchElementException();
+		lastReturned = --cursor;
+		return buffer.get(lastReturned);
+	}
+
+	@Override
+	public void remove() {
+		if (lastReturned == -1)
+			throw new IllegalStateException();
+		remove(lastReturned);
+	}
+
+	@Override
+	public BindingSet remove(int index) {
+		fill(index+1);
+		BindingSet result = buffer.remove(index);
+		if (cursor > index)
+			cursor--;
+		lastReturned = -1;
+		return result;
+	}
+
+	@Override
+	public void clear() {
+		closeSource();
+		bindingNames.clear();
+		buffer.clear();
+		cursor = 0;
+		lastReturned = -1;
+	}
+
+	/**
+	 * Moves the cursor to the end of the query result, just after the last
+	 * binding set. Note that this reads the complete source.
+	 */
+	@Override
+	public void afterLast() {
+		fillAll();
+		cursor = buffer.size();
+	}
+
+	@Override
+	public void beforeFirst() {
+		cursor = 0;
+	}
+
+	@Override
+	public void setIndex(int index) {
+		if (index < 0 || (!fill(index) && index > buffer.size()))
+			throw new IllegalArgumentException("Index out of range: " + index);
+		cursor = index;
+	}
+
+	@Override
+	public int getIndex() {
+		return cursor;
+	}
+
+	@Override
+	public BindingSet get(int index) {
+		fill(index+1);
+		return buffer.get(index);
+	}
+
+	/**
+	 * Returns the number of binding sets. Note that this reads the complete source.
+	 */
+	@Override
+	public int size() {
+		fillAll();
+		return buffer.size();
+	}
+
+	@Override
+	public AbstractMutableTupleQueryResult getReducedResultSet(int limit) {
+		fill(limit);
+		int actualLimit = Math.min(buffer.size(), limit);
+		return new MutableTupleQueryResultImpl(bindingNames, buffer.subList(0, actualLimit));
+	}
+
+	@Override
+	public List<BindingSet> asList() {
+		fillAll();
+		return new ArrayList<BindingSet>(buffer);
+	}
+
+	@Override
+	protected ListIterator<BindingSet> getOrCreateIterator() {
+		fillAll();
+		return buffer.listIterator(cursor);
+	}
+
+	/**
+	 * Closes the underlying source, binding sets which have already been
+	 * read remain accessible.
+	 */
+	@Override
+	public void close() {
+		if (source!=null) {
+			truncated = true;
+			if (logger.isDebugEnabled())
+				logger.debug("Query result closed after reading " + buffer.size() + " rows");
+		}
+		closeSource();
+	}
+}
@@ -19,6 +19,8 @@
 package com.fluidops.iwb.monitoring;
 
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.MBeanRegistrationException;
@@ -27,11 +29,20 @@ import javax.management.MalformedObjectNameException;
 import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
 
+import org.apache.log4j.Logger;
 import org.openrdf.repository.Repository;
 
+import com.fluidops.iwb.api.CacheManager;
 import com.fluidops.iwb.api.EndpointImpl;
 import com.fluidops.iwb.api.MonitoringService;
 import com.fluidops.iwb.api.MonitoringServiceImplMBean;
+import com.fluidops.iwb.api.ProviderScheduler;
+import com.fluidops.iwb.api.ProviderScheduler.ProviderStatistics;
+import com.fluidops.iwb.api.RepositoryConnectionPool;
+import com.fluidops.iwb.cache.QueryResultCache;
+import com.fluidops.iwb.cache.RepositoryCache;
+import com.fluidops.iwb.layout.ParallelWidgetRenderer;
+import com.fluidops.iwb.layout.ParallelWidgetRenderer.Timing;
 import com.fluidops.iwb.monitoring.MonitoringResultHolder.DatabaseLog;
 import com.fluidops.iwb.monitoring.MonitoringResultHolder.DatabaseType;
 import com.fluidops.iwb.util.Config;
@@ -46,6 +57,12 @@ import com.fluidops.iwb.util.Config;
  */
 public class MonitoringUtil
 {
+	private static final Logger logger = Logger.getLogger(MonitoringUtil.class.getName());
+	
+	/**
+	 * The MBeanServer used for JMX export, null if JMX is not initialized
+	 */
+	private static volatile MBeanServer jmxServer = null;
 	
 	/**
 	 * MBean for JMX export
@@ -88,6 +105,196 @@ public class MonitoringUtil
 		}		
 	}
 	
+	/**
+	 * MBean for JMX export of repository cache statistics
+	 */
+	public static interface RepositoryCacheExportMBean {
+		public int getSize();
+		public long getHits();
+		public long getMisses();
+		public long getEvictions();
+		public double getHitRate();
+		public void reset();
+	}
+	/**
+	 * Implementation of the RepositoryCache MBean for JMX export
+	 */
+	public static class RepositoryCacheExport implements RepositoryCacheExportMBean {
+		private final RepositoryCache<?,?> cache;
+		
+		public RepositoryCacheExport(RepositoryCache<?,?> cache) {
+			this.cache = cache;
+		}
+		public int getSize() {
+			return cache.size(null);
+		}
+		public long getHits() {
+			return cache.getHitCount();
+		}
+		public long getMisses() {
+			return cache.getMissCount();
+		}
+		public long getEvictions() {
+			return cache.getEvictionCount();
+		}
+		public double getHitRate() {
+			return cache.getStatistics().getHitRate();
+		}
+		@Override
+		public void reset() {
+			cache.resetStatistics();
+		}
+	}
+	
+	/**
+	 * MBean for JMX export of query result cache statistics
+	 */
+	public static interface QueryResultCacheExportMBean extends RepositoryCacheExportMBean {
+		public long getMemoryUsage();
+	}
+	/**
+	 * Implementation of the QueryResultCache MBean for JMX export
+	 */
+	public static class QueryResultCacheExport implements QueryResultCacheExportMBean {
+		private final QueryResultCache cache = QueryResultCache.getInstance();
+		
+		public int getSize() {
+			return cache.size();
+		}
+		public long getMemoryUsage() {
+			return cache.getMemoryUsage();
+		}
+		public long getHits() {
+			return cache.getStatistics().getHits();
+		}
+		public long getMisses() {
+			return cache.getStatistics().getMisses();
+		}
+		public long getEvictions() {
+			return cache.getStatistics().getEvictions();
+		}
+		public double getHitRate() {
+			return cache.getStatistics().getHitRate();
+		}
+		@Override
+		public void reset() {
+			cache.resetStatistics();
+		}
+	}
+	
+	/**
+	 * MBean for JMX export of connection pool statistics
+	 */
+	public static interface ConnectionPoolExportMBean {
+		public int getMaxSize();
+		public int getActive();
+		public int getIdle();
+		public long getCreated();
+		public long getDestroyed();
+		public long getBorrowed();
+		public long getValidationFailures();
+		public long getWaitTimeouts();
+	}
+	/**
+	 * Implementation of the RepositoryConnectionPool MBean for JMX export
+	 */
+	public static class ConnectionPoolExport implements ConnectionPoolExportMBean {
+		private final RepositoryConnectionPool pool;
+		
+		public ConnectionPoolExport(RepositoryConnectionPool pool) {
+			this.pool = pool;
+		}
+		public int getMaxSize() {
+			return pool.getMaxSize();
+		}
+		public int getActive() {
+			return pool.getActiveCount();
+		}
+		public int getIdle() {
+			return pool.getIdleCount();
+		}
+		public long getCreated() {
+			return pool.getCreatedCount();
+		}
+		public long getDestroyed() {
+			return pool.getDestroyedCount();
+		}
+		public long getBorrowed() {
+			return pool.getBorrowedCount();
+		}
+		public long getValidationFailures() {
+			return pool.getValidationFailureCount();
+		}
+		public long getWaitTimeouts() {
+			return pool.getWaitTimeoutCount();
+		}
+	}
+	
+	/**
+	 * MBean for JMX export of provider scheduler statistics
+	 */
+	public static interface ProviderSchedulerExportMBean {
+		public int getQueueDepth();
+		public int getRunning();
+		public long getMaxLagMillis();
+		public String[] getProviderStatistics();
+	}
+	/**
+	 * Implementation of the ProviderScheduler MBean for JMX export
+	 */
+	public static class ProviderSchedulerExport implements ProviderSchedulerExportMBean {
+		private final ProviderScheduler scheduler;
+		
+		public ProviderSchedulerExport(ProviderScheduler scheduler) {
+			this.scheduler = scheduler;
+		}
+		public int getQueueDepth() {
+			return scheduler.getQueueDepth();
+		}
+		public int getRunning() {
+			return scheduler.getRunningCount();
+		}
+		public long getMaxLagMillis() {
+			return scheduler.getMaxLagMillis();
+		}
+		public String[] getProviderStatistics() {
+			List<String> res = new ArrayList<String>();
+			for (ProviderStatistics stats : scheduler.getStatistics())
+				res.add(stats.toString());
+			return res.toArray(new String[res.size()]);
+		}
+	}
+	
+	/**
+	 * MBean for JMX export of widget render statistics
+	 */
+	public static interface WidgetRendererExportMBean {
+		public int getQueueDepth();
+		public int getActive();
+		public String[] getTimings();
+		public void reset();
+	}
+	/**
+	 * Implementation of the ParallelWidgetRenderer MBean for JMX export
+	 */
+	public static class WidgetRendererExport implements WidgetRendererExportMBean {
+		public int getQueueDepth() {
+			return ParallelWidgetRenderer.getQueueDepth();
+		}
+		public int getActive() {
+			return ParallelWidgetRenderer.getActiveCount();
+		}
+		public String[] getTimings() {
+			List<String> res = new ArrayList<String>();
+			for (Timing timing : ParallelWidgetRenderer.getTimings())
+				res.add(timing.toString());
+			return res.toArray(new String[res.size()]);
+		}
+		public void reset() {
+			ParallelWidgetRenderer.resetTimings();
+		}
+	}
+	
 	/**
 	 * @return true if monitoring for the given repository is enabled
 	 */
@@ -107,8 +314,64 @@ public class MonitoringUtil
 		
 		// register monitoring server
 		registerMonitoringServiceToJMX(mbs);
+		
+		jmxServer = mbs;
+		for (RepositoryConnectionPool pool : RepositoryConnectionPool.getPools())
+			registerConnectionPool(pool);
+		if (ProviderScheduler.getInstance()!=null)
+			registerProviderScheduler(ProviderScheduler.getInstance());
 	}	
 	
+	/**
+	 * Export the statistics of the given connection pool via JMX. Pools
+	 * are created lazily, hence this method is invoked on creation of the
+	 * pool. If JMX monitoring is not initialized, this is a no-op.
+	 * 
+	 * @param pool
+	 */
+	public static void registerConnectionPool(RepositoryConnectionPool pool)
+	{
+		MBeanServer mbs = jmxServer;
+		if (mbs==null)
+			return;
+		try
+		{
+			ObjectName mbObject = new ObjectName("com.fluidops.iwb:type=ConnectionPool,name=" + pool.getName());
+			// replace the bean of a previous pool with the same name (e.g. after a restart)
+			if (mbs.isRegistered(mbObject))
+				mbs.unregisterMBean(mbObject);
+			mbs.registerMBean(new ConnectionPoolExport(pool), mbObject);
+		}
+		catch (Exception e)
+		{
+			logger.warn("Could not register connection pool " + pool.getName() + " to JMX: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Export the statistics of the provider scheduler via JMX. If JMX
+	 * monitoring is not initialized, this is a no-op.
+	 * 
+	 * @param scheduler
+	 */
+	public static void registerProviderScheduler(ProviderScheduler scheduler)
+	{
+		MBeanServer mbs = jmxServer;
+		if (mbs==null)
+			return;
+		try
+		{
+			ObjectName mbObject = new ObjectName("com.fluidops.iwb:type=ProviderScheduler");
+			if (mbs.isRegistered(mbObject))
+				mbs.unregisterMBean(mbObject);
+			mbs.registerMBean(new ProviderSchedulerExport(scheduler), mbObject);
+		}
+		catch (Exception e)
+		{
+			logger.warn("Could not register provider scheduler to JMX: " + e.getMessage());
+		}
+	}
+	
 	private static void registerMonitoringServiceToJMX(MBeanServer mbs) throws Exception
 	{
 		ObjectName monitoring = new ObjectName("com.fluidops.iwb:type=MonitoringService");
@@ -129,6 +392,13 @@ public class MonitoringUtil
         if (Config.getConfig().getUseMySQL()) {
         	registerDatabaseLogExportBean(mbs, "SQL", DatabaseType.SQL);
         }
+        
+        for (RepositoryCache<?,?> cache : CacheManager.getInstance().getAllRepositoryCaches()) {
+        	ObjectName mbObject = new ObjectName("com.fluidops.iwb:type=Cache,name=" + cache.getCacheName());
+        	mbs.registerMBean(new RepositoryCacheExport(cache), mbObject);
+        }
+        mbs.registerMBean(new QueryResultCacheExport(), new ObjectName("com.fluidops.iwb:type=Cache,name=QueryResultCache"));
+        mbs.registerMBean(new WidgetRendererExport(), new ObjectName("com.fluidops.iwb:type=WidgetRenderer"));
 	}
 	
 	private static void registerDatabaseLogExportBean(MBeanServer mbs,
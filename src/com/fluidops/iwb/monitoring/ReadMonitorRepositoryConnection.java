@@ -64,6 +64,13 @@ public class ReadMonitorRepositoryConnection implements RepositoryConnection {
 	public ReadMonitorRepositoryConnection(RepositoryConnection conn) {
 		this.conn = conn;	}
 
+	/**
+	 * @return the monitored connection
+	 */
+	public RepositoryConnection getDelegate() {
+		return conn;
+	}
+	
 	public Repository getRepository() {
 		return conn.getRepository();
 	}
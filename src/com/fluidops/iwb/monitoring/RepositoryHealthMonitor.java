@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.monitoring;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+import com.fluidops.iwb.Global;
+import com.fluidops.iwb.api.ReadDataManagerImpl;
+import com.fluidops.iwb.util.Config;
+import com.fluidops.iwb.util.SQL;
+import com.fluidops.util.concurrent.TaskExecutor;
+
+
+/**
+ * Background health check of the global repository and, if configured, the
+ * SQL store. The checks run on a schedule ({@link Config#getHealthCheckInterval()})
+ * and publish a cached {@link Status}, such that page requests do not need to
+ * verify the connections themselves.
+ *
+ * The monitor acts as circuit breaker: after {@link Config#getHealthCheckFailureThreshold()}
+ * consecutive failed checks the circuit is opened and {@link #isAvailable()}
+ * returns false, until the next successful check closes it again. A check
+ * which does not finish within {@link Config#getHealthCheckTimeout()} counts
+ * as failed.
+ *
+ * The monitor is started once at startup, see {@link #start()}. Until then,
+ * the repository is considered available.
+ */
+public class RepositoryHealthMonitor {
+
+	private static final Logger logger = Logger.getLogger(RepositoryHealthMonitor.class.getName());
+
+	private static final RepositoryHealthMonitor instance = new RepositoryHealthMonitor();
+
+	/**
+	 * Immutable result of a health check
+	 */
+	public static class Status {
+
+		private final boolean healthy;
+		private final String message;
+		private final long timestamp;
+
+		private Status(boolean healthy, String message, long timestamp) {
+			this.healthy = healthy;
+			this.message = message;
+			this.timestamp = timestamp;
+		}
+
+		/**
+		 * @return true if the last check succeeded
+		 */
+		public boolean isHealthy() {
+			return healthy;
+		}
+
+		/**
+		 * @return the error message of the last check, empty if it succeeded
+		 */
+		public String getMessage() {
+			return message;
+		}
+
+		/**
+		 * @return the time of the last check in milliseconds
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+	}
+
+	private volatile Status status;
+
+	private volatile boolean open = false;
+
+	private int consecutiveFailures = 0;
+
+	private boolean started = false;
+
+	/**
+	 * Runs the probes, such that a hanging connection can be timed out
+	 */
+	private final ExecutorService probeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "RepositoryHealthProbe");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * The probe of the last check, if it is still running no further probe is submitted
+	 */
+	private Future<?> probe = null;
+
+	public static RepositoryHealthMonitor getInstance() {
+		return instance;
+	}
+
+	private RepositoryHealthMonitor() {
+
+	}
+
+	/**
+	 * Starts the scheduled checks, to be called once at startup after the
+	 * global repository is initialized. The first check is done synchronously.
+	 */
+	public synchronized void start() {
+		if (started)
+			return;
+		started = true;
+		check();
+		long interval = Config.getConfig().getHealthCheckInterval();
+		TaskExecutor.instance().scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				check();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return false if the circuit is open, i.e. the repository or the SQL
+	 * 			store failed the configured number of consecutive checks
+	 */
+	public boolean isAvailable() {
+		return !open;
+	}
+
+	/**
+	 * @return the result of the last check
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Verifies the connection to the global repository and the SQL store and
+	 * updates the status and the circuit accordingly.
+	 */
+	public void check() {
+		Status res;
+		Future<?> current = submitProbe();
+		if (current==null) {
+			res = new Status(false, "Previous health check did not finish", System.currentTimeMillis());
+		} else {
+			try {
+				current.get(Config.getConfig().getHealthCheckTimeout(), TimeUnit.MILLISECONDS);
+				res = new Status(true, "", System.currentTimeMillis());
+			} catch (TimeoutException e) {
+				res = new Status(false, "Health check timed out after " + Config.getConfig().getHealthCheckTimeout() + "ms", System.currentTimeMillis());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				res = new Status(false, cause.getMessage()!=null ? cause.getMessage() : cause.getClass().getSimpleName(), System.currentTimeMillis());
+			}
+		}
+		update(res);
+	}
+
+	/**
+	 * Submits a probe verifying the connections, unless the probe of a
+	 * previous check is still running (e.g. blocked on a hanging connection).
+	 *
+	 * @return the probe, or null if the previous probe is still running
+	 */
+	private synchronized Future<?> submitProbe() {
+		if (probe!=null && !probe.isDone())
+			return null;
+		probe = probeExecutor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				ReadDataManagerImpl.verifyConnection(Global.repository, false);
+				if (Config.getConfig().getUseMySQL())
+					SQL.verifyConnection();
+				return null;
+			}
+		});
+		return probe;
+	}
+
+	private synchronized void update(Status res) {
+		status = res;
+		if (res.isHealthy()) {
+			if (open)
+				logger.info("Health check succeeded, circuit closed.");
+			consecutiveFailures = 0;
+			open = false;
+		} else {
+			consecutiveFailures++;
+			if (!open && consecutiveFailures>=Config.getConfig().getHealthCheckFailureThreshold()) {
+				logger.error("Health check failed " + consecutiveFailures + " times, circuit opened: " + res.getMessage());
+				open = true;
+			}
+		}
+	}
+}
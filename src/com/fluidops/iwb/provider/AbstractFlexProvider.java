@@ -34,6 +34,8 @@ import org.apache.log4j.Logger;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.helpers.StatementCollector;
 
 import com.fluidops.ajax.components.FForm.Validation;
 import com.fluidops.iwb.model.Capability;
@@ -184,6 +186,26 @@ public abstract class AbstractFlexProvider<T extends Serializable> implements Po
      */
     public abstract void gather( List<Statement> res ) throws Exception;
     
+    /**
+     * Streaming variant of {@link #gather(List)}: passes the statements to the
+     * handler as they are produced, such that they can be written in batches
+     * without holding the entire output in memory. The handler may block while
+     * it writes a batch, which throttles the provider. Only
+     * {@link RDFHandler#handleStatement(Statement)} is called by providers,
+     * starting and ending the RDF stream is up to the caller.
+     * 
+     * The default implementation adapts the list based {@link #gather(List)}.
+     * Providers producing large amounts of data should override this method
+     * and implement {@link #gather(List)} with a {@link StatementCollector}.
+     */
+    public void gather( RDFHandler handler ) throws Exception
+    {
+        List<Statement> res = new LinkedList<Statement>();
+        gather( res );
+        for ( Statement st : res )
+            handler.handleStatement( st );
+    }
+    
     /**
      * given a config pojo, add new statements to res - exceptions are handled in list
      */
@@ -33,6 +33,9 @@ import javax.xml.xpath.XPathFactory;
 import org.apache.log4j.Logger;
 import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.helpers.StatementCollector;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -78,9 +81,9 @@ public abstract class AbstractXMLFlexProvider extends AbstractFlexProvider<Abstr
     transient List<Element> skipNodes = new ArrayList<Element>();
     
     /**
-     * result statemets
+     * receives the result statements
      */
-    transient List<Statement> res;
+    transient RDFHandler handler;
 
     /**
      * configure XML 2 RDF mapping
@@ -150,11 +153,16 @@ public abstract class AbstractXMLFlexProvider extends AbstractFlexProvider<Abstr
     public abstract Document getXML( Config config ) throws Exception;
     
     public void gatherPkScheme(Config config, List<Statement> res) throws Exception
+    {
+        gatherPkScheme( config, new StatementCollector( res ) );
+    }
+    
+    public void gatherPkScheme(Config config, RDFHandler handler) throws Exception
     {
         // clear state
         node2resource.clear();
         skipNodes.clear();
-        this.res = res;
+        this.handler = handler;
         
         Document doc = getXML( config );
         XPath x = XPathFactory.newInstance().newXPath();
@@ -292,22 +300,40 @@ public abstract class AbstractXMLFlexProvider extends AbstractFlexProvider<Abstr
             return;
         if ( o == null || o.length() == 0 )
             return;
-        res.add( EndpointImpl.api().getDataManager().s( s, p, o ) );
+        try
+        {
+            handler.handleStatement( EndpointImpl.api().getDataManager().s( s, p, o ) );
+        }
+        catch (RDFHandlerException e)
+        {
+            throw new RuntimeException(e);
+        }
     }
     
     @Override
     public void gather(List<Statement> stmts) throws Exception
+    {
+        gather( new StatementCollector( stmts ) );
+    }
+    
+    @Override
+    public void gather(RDFHandler handler) throws Exception
     {
         if ( config.mapping != null && !config.mapping.isEmpty() )
-            gatherTripleScheme( config, stmts );
+            gatherTripleScheme( config, handler );
         else
-            gatherPkScheme( config, stmts );
+            gatherPkScheme( config, handler );
+    }
+    
+    public void gatherTripleScheme(Config config, List<Statement> stmts) throws Exception
+    {
+        gatherTripleScheme( config, new StatementCollector( stmts ) );
     }
     
     /**
      * call getXML() and start mapping
      */
-    public void gatherTripleScheme(Config config, List<Statement> stmts) throws Exception
+    public void gatherTripleScheme(Config config, RDFHandler handler) throws Exception
     {
         Document lastResult;
         try
@@ -370,7 +396,7 @@ public abstract class AbstractXMLFlexProvider extends AbstractFlexProvider<Abstr
                         
 
                         
-                        stmts.add( s );
+                        handler.handleStatement( s );
                     }
                 }
             }
@@ -21,10 +21,13 @@ package com.fluidops.iwb.provider;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.openrdf.model.Statement;
@@ -41,6 +44,9 @@ import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.helpers.StatementCollector;
 import org.openrdf.sail.inferencer.fc.ForwardChainingRDFSInferencer;
 import org.openrdf.sail.memory.MemoryStore;
 
@@ -52,7 +58,14 @@ import com.fluidops.iwb.provider.TableProvider.Table;
 
 /**
  * code to parse CSV
- * TODO: escaping, possible first row does not contain headers
+ * 
+ * The file is read with the {@link CSVTokenizer} (RFC 4180, i.e. quoted
+ * fields are supported) if the separator is a single character, and the
+ * statements of each row are passed to the handler directly, such that the
+ * file is never held in memory. Optionally, the file is parsed in chunks by
+ * several workers.
+ * 
+ * TODO: possible first row does not contain headers
  * 
  * @author aeb
  */
@@ -100,8 +113,20 @@ public class CSVProvider extends AbstractFlexProvider<CSVProvider.Config>
 		// the first n columns
 		// this could be done by annotating in the target ontology, which attributes are parts of
 		// the key
+		
+		@ParameterConfigDoc(desc = "charset of the file, default: UTF-8")
+		public String charset;
+		
+		@ParameterConfigDoc(desc = "number of workers parsing chunks of the file in parallel, default: 1. " +
+				"Requires that no (quoted) field contains a line break.")
+		public Integer workers;
 	}
 	
+	/**
+	 * Number of statements a worker collects before passing them to the handler
+	 */
+	private static final int BATCH_SIZE = 10000;
+	
     
 	@Override
 	public Class<? extends Config> getConfigClass()
@@ -109,12 +134,15 @@ public class CSVProvider extends AbstractFlexProvider<CSVProvider.Config>
 		return Config.class;
 	}
     
+    @Override
     public void gather(List<Statement> stmts) throws Exception
     {
-
-    	Map<String, URI> properties = new HashMap<String,URI>();
-    	Map<String, URI> ranges = new HashMap<String,URI>();
-    	
+    	gather(new StatementCollector(stmts));
+    }
+    
+    @Override
+    public void gather(RDFHandler handler) throws Exception
+    {
     	Repository schema = new SailRepository(new ForwardChainingRDFSInferencer(new MemoryStore()));
     	schema.initialize();
     	
@@ -122,77 +150,215 @@ public class CSVProvider extends AbstractFlexProvider<CSVProvider.Config>
     	try {
 	    	con.add(new File(config.schema), null, RDFFormat.RDFXML);
 	    	
-	    	BufferedReader  in = new BufferedReader(new FileReader(new File(config.filename)));
-	    	
 	    	if(config.separator==null) config.separator=";";
-	        Table table = getTable(in, config.separator);
-	        ValueFactory f = new ValueFactoryImpl();
-	
-	        URI property = null;
-	    	URI range = null;
-	
-	    	String defaultNS = EndpointImpl.api().getNamespaceService().defaultNamespace();
-	        for(String collabel:table.collabels) {
-	            property = null;
-	        	range = null;
-	        	TupleQuery query = con.prepareTupleQuery(QueryLanguage.SPARQL, 
-	        			"SELECT ?prop ?range WHERE { ?prop <http://www.w3.org/2000/01/rdf-schema#label> \""+collabel+"\" . ?prop <http://www.w3.org/2000/01/rdf-schema#range> ?range }");
-	        	TupleQueryResult result = query.evaluate();
+	    	Character separator = separatorChar(config.separator);
+	    	File file = new File(config.filename);
+	    	
+	    	if (separator==null) {
+	    		// regular expression as separator, no streaming
+		    	BufferedReader  in = new BufferedReader(new FileReader(file));
+		        Table table;
+		        try {
+		        	table = getTable(in, config.separator);
+		        } finally {
+		        	in.close();
+		        }
+		        RowMapping mapping = compileRowMapping(con, table.collabels);
+		        for ( List<String> row : table.values )
+		        	mapping.map(row, handler);
+		        return;
+	    	}
+	    	
+	    	Charset charset = config.charset==null ? Charset.forName("UTF-8") : Charset.forName(config.charset);
+	    	CSVTokenizer tokenizer = new CSVTokenizer(file, separator, charset);
+	    	try {
+	    		List<String> row = new ArrayList<String>();
+	    		if (!tokenizer.next(row))
+	    			return; // empty file
+	    		RowMapping mapping = compileRowMapping(con, new ArrayList<String>(row));
+	    		
+	    		if (config.workers==null || config.workers<=1) {
+	    			while (tokenizer.next(row))
+	    				mapping.map(row, handler);
+	    		}
+	    		else
+	    			gatherParallel(file, separator, charset, tokenizer.getPosition(), mapping, handler);
+	    	} finally {
+	    		tokenizer.close();
+	    	}
+    	}
+    	finally {
+    		con.close();
+    	}
+    }
+    
+    /**
+     * Parses the rows after the header in chunks by {@link Config#workers} workers. 
+     * Each worker passes its statements to the handler in batches, the handler 
+     * is never called concurrently.
+     */
+    protected void gatherParallel(final File file, final char separator, final Charset charset, long dataStart, 
+    		final RowMapping mapping, final RDFHandler handler) throws Exception
+    {
+    	final long[] chunks = CSVTokenizer.split(file, dataStart, config.workers);
+    	ExecutorService executor = Executors.newFixedThreadPool(chunks.length-1);
+    	try {
+	    	List<Future<Void>> results = new ArrayList<Future<Void>>();
+	    	for (int i=0; i<chunks.length-1; i++) {
+	    		final int chunk = i;
+	    		results.add(executor.submit(new Callable<Void>() {
+	    			@Override
+	    			public Void call() throws Exception
+	    			{
+	    				List<Statement> batch = new ArrayList<Statement>(BATCH_SIZE);
+	    				StatementCollector collector = new StatementCollector(batch);
+	    				CSVTokenizer tokenizer = new CSVTokenizer(file, separator, charset, chunks[chunk], chunks[chunk+1]);
+	    				try {
+	    					List<String> row = new ArrayList<String>();
+	    					while (tokenizer.next(row)) {
+	    						mapping.map(row, collector);
+	    						if (batch.size()>=BATCH_SIZE)
+	    							flush(batch, handler);
+	    					}
+	    					flush(batch, handler);
+	    				} finally {
+	    					tokenizer.close();
+	    				}
+	    				return null;
+	    			}
+	    		}));
+	    	}
+	    	for (Future<Void> result : results)
+	    		result.get();
+    	} finally {
+    		executor.shutdownNow();
+    	}
+    }
+    
+    private static void flush(List<Statement> batch, RDFHandler handler) throws RDFHandlerException
+    {
+    	synchronized (handler) {
+    		for (Statement st : batch)
+    			handler.handleStatement(st);
+    	}
+    	batch.clear();
+    }
+    
+    /**
+     * @param separator
+     * @return the separator as single character, or null if it is a regular expression
+     */
+    protected static Character separatorChar(String separator)
+    {
+    	if (separator.length()==1)
+    		return separator.charAt(0);
+    	if (separator.equals("\\t"))
+    		return '\t';
+    	// escaped character of a regular expression, e.g. \|
+    	if (separator.length()==2 && separator.charAt(0)=='\\' && !Character.isLetterOrDigit(separator.charAt(1)))
+    		return separator.charAt(1);
+    	return null;
+    }
+    
+    /**
+     * Compiles the mapping of the columns to properties, as defined by the
+     * labels and ranges of the schema.
+     */
+    protected RowMapping compileRowMapping(RepositoryConnection con, List<String> collabels) throws Exception
+    {
+    	ValueFactory f = ValueFactoryImpl.getInstance();
+    	String defaultNS = EndpointImpl.api().getNamespaceService().defaultNamespace();
+    	
+    	URI[] properties = new URI[collabels.size()];
+    	URI[] ranges = new URI[collabels.size()];
+    	for (int i=0; i<collabels.size(); i++) {
+    		String collabel = collabels.get(i);
+    		URI property = null;
+    		URI range = null;
+        	TupleQuery query = con.prepareTupleQuery(QueryLanguage.SPARQL, 
+        			"SELECT ?prop ?range WHERE { ?prop <http://www.w3.org/2000/01/rdf-schema#label> \""+collabel+"\" . ?prop <http://www.w3.org/2000/01/rdf-schema#range> ?range }");
+        	TupleQueryResult result = query.evaluate();
+        	try {
 	        	if(result.hasNext()) {
 	        		BindingSet binding = result.next();
 	        		property = (URI)binding.getBinding("prop").getValue();
 	        		range = (URI)binding.getBinding("range").getValue();
-	        	}	
-	        	if(property==null)
-	        		property = f.createURI(defaultNS+collabel);
-	        	if(range==null)
-	        		range = XMLSchema.STRING;
-	        	properties.put(collabel, property);
-	        	ranges.put(collabel, range);
-	        }
-	    	
-	        for ( List<String> row : table.values )
-	        {
-	        	if(row.size()==0) continue; //sometimes rows are empty
-	        	
-	        	int colnum=0;
-	        	URI subject = null;
-	        	
-	        	//we assume we have a composite key. The first column is always part of the key. Optionally there may be more columns part of the key
-	        	StringBuilder key = new StringBuilder(row.get(0));
-	        	for(int i=1;i<config.keycolumns;i++) {
-	        		key.append("_");
-	        		key.append(row.get(i));
 	        	}
-	       		subject = f.createURI(defaultNS+key.toString()); // the first two columns are key
-	        	stmts.add(ReadDataManagerImpl.s(subject, RDF.TYPE, config.type));
-	       	
-	        	
-	            for ( String c : row ) {
-	            	if(colnum>=table.collabels.size()) {
-	            		logger.warn("Error in row: "+ row);
-	            		continue;
-	            	}
-	            	String colname = table.collabels.get(colnum++);
-	            	
-	            	if(c.isEmpty()) continue;
-	            	
-	            	property = properties.get(colname);
-	            	range = ranges.get(colname);
-	            	if(range.stringValue().startsWith("http://www.w3.org/2001/XMLSchema#"))
-	            	    stmts.add(ReadDataManagerImpl.s(subject, property, f.createLiteral(c)));
-	            	else {
-	            	    
-	            		URI object = f.createURI(defaultNS+c);
-	            		stmts.add(ReadDataManagerImpl.s(subject, property,object ));
-	            		stmts.add(ReadDataManagerImpl.s(object, RDF.TYPE, range));
-	            	}
-	            }
-	            
-	        }
+        	} finally {
+        		result.close();
+        	}
+        	if(property==null)
+        		property = f.createURI(defaultNS+collabel);
+        	if(range==null)
+        		range = XMLSchema.STRING;
+        	properties[i] = property;
+        	ranges[i] = range;
     	}
-    	finally {
-    		con.close();
+    	return new RowMapping(config.type, defaultNS, config.keycolumns, properties, ranges);
+    }
+    
+    /**
+     * Maps the rows of the table to statements: the subject is built from the 
+     * key columns, each non empty cell becomes a literal or, if the range of 
+     * the column is not an XML Schema datatype, a resource of that type. 
+     * Thread safe.
+     */
+    protected static class RowMapping
+    {
+    	private static final ValueFactory f = ValueFactoryImpl.getInstance();
+    	
+    	private final URI type;
+    	private final String defaultNS;
+    	private final int keycolumns;
+    	private final URI[] properties;
+    	private final URI[] ranges;
+    	private final boolean[] literal;
+    	
+    	protected RowMapping(URI type, String defaultNS, int keycolumns, URI[] properties, URI[] ranges)
+    	{
+    		this.type = type;
+    		this.defaultNS = defaultNS;
+    		this.keycolumns = keycolumns;
+    		this.properties = properties;
+    		this.ranges = ranges;
+    		this.literal = new boolean[ranges.length];
+    		for (int i=0; i<ranges.length; i++)
+    			literal[i] = ranges[i].stringValue().startsWith("http://www.w3.org/2001/XMLSchema#");
+    	}
+    	
+    	public void map(List<String> row, RDFHandler handler) throws RDFHandlerException
+    	{
+        	if(row.size()==0) return; //sometimes rows are empty
+        	if(row.size()<keycolumns) {
+        		logger.warn("Error in row (missing key columns): "+ row);
+        		return;
+        	}
+        	
+        	//we assume we have a composite key. The first column is always part of the key. Optionally there may be more columns part of the key
+        	StringBuilder key = new StringBuilder(row.get(0));
+        	for(int i=1;i<keycolumns;i++) {
+        		key.append("_");
+        		key.append(row.get(i));
+        	}
+       		URI subject = f.createURI(defaultNS+key.toString()); // the first two columns are key
+        	handler.handleStatement(ReadDataManagerImpl.s(subject, RDF.TYPE, type));
+        	
+        	if(row.size()>properties.length)
+        		logger.warn("Error in row: "+ row);
+        	
+        	int cols = Math.min(row.size(), properties.length);
+        	for (int colnum=0; colnum<cols; colnum++) {
+        		String c = row.get(colnum);
+            	if(c.isEmpty()) continue;
+            	
+            	if(literal[colnum])
+            	    handler.handleStatement(ReadDataManagerImpl.s(subject, properties[colnum], f.createLiteral(c)));
+            	else {
+            		URI object = f.createURI(defaultNS+c);
+            		handler.handleStatement(ReadDataManagerImpl.s(subject, properties[colnum], object));
+            		handler.handleStatement(ReadDataManagerImpl.s(object, RDF.TYPE, ranges[colnum]));
+            	}
+        	}
     	}
     }
         
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.provider;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Tokenizer for CSV files according to RFC 4180: fields are separated by
+ * a single character separator, records by CRLF, LF or CR, and fields may
+ * be enclosed in double quotes, in which case they may contain separators,
+ * line breaks and escaped double quotes (""). Blank lines are skipped.
+ *
+ * The file is memory mapped in windows, such that the heap usage does not
+ * depend on the size of the file: records are scanned directly on the
+ * mapped bytes, only the field values are copied and decoded. The
+ * separator must be an ASCII character and the charset ASCII compatible
+ * (e.g. UTF-8 or ISO-8859-1).
+ *
+ * A tokenizer may be restricted to the records starting within a range of
+ * the file, which allows to parse chunks of a file in parallel, see
+ * {@link #split(File, long, int)}. This requires that no field contains a
+ * line break, as chunks are aligned at line breaks.
+ */
+public class CSVTokenizer implements Closeable
+{
+	private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private final RandomAccessFile file;
+
+	private final FileChannel channel;
+
+	private final long fileSize;
+
+	private final byte separator;
+
+	private final Charset charset;
+
+	/**
+	 * Records starting at or after this position are not read
+	 */
+	private final long end;
+
+	private MappedByteBuffer window;
+
+	private long windowStart = 0;
+
+	private int windowSize = DEFAULT_WINDOW_SIZE;
+
+	/**
+	 * Position of the next record in the file
+	 */
+	private long position;
+
+	/**
+	 * Buffer for the bytes of the current field
+	 */
+	private byte[] field = new byte[256];
+
+	private int fieldLength = 0;
+
+	/**
+	 * Tokenizes the complete file.
+	 */
+	public CSVTokenizer(File file, char separator, Charset charset) throws IOException
+	{
+		this(file, separator, charset, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Tokenizes the records starting within the given range of the file. A
+	 * record starts within the range if its first byte is in the range and
+	 * follows a line break (or is the first byte of the file).
+	 *
+	 * @param file
+	 * @param separator the field separator, an ASCII character
+	 * @param charset
+	 * @param start the first byte of the range
+	 * @param end the end (exclusive) of the range
+	 */
+	public CSVTokenizer(File file, char separator, Charset charset, long start, long end) throws IOException
+	{
+		if (separator>127 || separator=='"' || separator=='\n' || separator=='\r')
+			throw new IllegalArgumentException("Illegal CSV separator: '" + separator + "'");
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.fileSize = channel.size();
+		this.separator = (byte)separator;
+		this.charset = charset;
+		this.end = Math.min(end, fileSize);
+
+		if (start<=0)
+		{
+			position = 0;
+			// skip UTF-8 byte order mark
+			if (fileSize>=3 && byteAt(0)==(byte)0xEF && byteAt(1)==(byte)0xBB && byteAt(2)==(byte)0xBF)
+				position = 3;
+		}
+		else
+		{
+			// align to the first record after a line break (LF, or CR not followed by LF)
+			position = start;
+			while (position<fileSize && !isRecordStart(position))
+				position++;
+		}
+	}
+
+	/**
+	 * Splits the given range of the file into chunks of about equal size
+	 * for parallel parsing.
+	 *
+	 * @param file
+	 * @param start the start of the range, e.g. the position after the header
+	 * @param chunks the number of chunks
+	 * @return the start positions of the chunks, followed by the end of the file
+	 */
+	public static long[] split(File file, long start, int chunks)
+	{
+		long size = file.length();
+		chunks = (int)Math.max(1, Math.min(chunks, (size-start) / (1024*1024) + 1));
+		long[] res = new long[chunks+1];
+		for (int i=0; i<chunks; i++)
+			res[i] = start + (size-start) / chunks * i;
+		res[chunks] = size;
+		return res;
+	}
+
+	/**
+	 * Reads the next record.
+	 *
+	 * @param fields the list receiving the fields of the record, cleared before
+	 * @return false if there are no more records
+	 * @throws IOException
+	 */
+	public boolean next(List<String> fields) throws IOException
+	{
+		while (true)
+		{
+			fields.clear();
+			if (position>=end)
+				return false;
+
+			int off = (int)(position - windowStart);
+			if (window==null || off<0 || off>=window.limit())
+			{
+				map(position);
+				off = 0;
+			}
+
+			int recordEnd = parseRecord(off, fields);
+			if (recordEnd<0)
+			{
+				// the record exceeds the window: remap at the record, growing the window if necessary
+				if (windowStart==position)
+				{
+					if (windowSize>Integer.MAX_VALUE/2)
+						throw new IOException("CSV record at position " + position + " exceeds the maximum size");
+					windowSize *= 2;
+				}
+				map(position);
+				continue;
+			}
+			position = windowStart + recordEnd;
+
+			// skip blank lines
+			if (fields.size()==1 && fields.get(0).length()==0)
+				continue;
+			return true;
+		}
+	}
+
+	/**
+	 * @return the position of the next record in the file
+	 */
+	public long getPosition()
+	{
+		return position;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		window = null;
+		file.close();
+	}
+
+	/**
+	 * Parses the record starting at the given offset of the window.
+	 *
+	 * @return the offset after the record and its line break, or -1 if the
+	 * 			record is not complete within the window
+	 */
+	private int parseRecord(int off, List<String> fields)
+	{
+		int limit = window.limit();
+		boolean eof = windowStart + limit >= fileSize;
+		int i = off;
+		while (true)
+		{
+			fieldLength = 0;
+			byte b;
+			if (i<limit && window.get(i)=='"')
+			{
+				i++;
+				while (true)
+				{
+					if (i>=limit)
+					{
+						if (!eof)
+							return -1;
+						break;	// unterminated quote, take the rest of the file
+					}
+					b = window.get(i);
+					if (b=='"')
+					{
+						if (i+1>=limit && !eof)
+							return -1;
+						if (i+1<limit && window.get(i+1)=='"')
+						{
+							append(b);
+							i += 2;
+							continue;
+						}
+						i++;
+						break;
+					}
+					append(b);
+					i++;
+				}
+			}
+			// unquoted field, or characters after the closing quote
+			while (i<limit && (b=window.get(i))!=separator && b!='\n' && b!='\r')
+			{
+				append(b);
+				i++;
+			}
+			fields.add(new String(field, 0, fieldLength, charset));
+
+			if (i>=limit)
+				return eof ? i : -1;
+			b = window.get(i++);
+			if (b==separator)
+				continue;
+			// line break
+			if (b=='\r' && i<limit && window.get(i)=='\n')
+				i++;
+			return i;
+		}
+	}
+
+	private void append(byte b)
+	{
+		if (fieldLength==field.length)
+		{
+			byte[] tmp = new byte[field.length*2];
+			System.arraycopy(field, 0, tmp, 0, fieldLength);
+			field = tmp;
+		}
+		field[fieldLength++] = b;
+	}
+
+	private void map(long start) throws IOException
+	{
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, fileSize-start));
+	}
+
+	private boolean isRecordStart(long pos) throws IOException
+	{
+		byte prev = byteAt(pos-1);
+		return prev=='\n' || (prev=='\r' && byteAt(pos)!='\n');
+	}
+
+	private byte byteAt(long pos) throws IOException
+	{
+		if (window==null || pos<windowStart || pos>=windowStart+window.limit())
+			map(pos);
+		return window.get((int)(pos-windowStart));
+	}
+}
@@ -23,6 +23,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.openrdf.model.Statement;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.helpers.StatementCollector;
 
 import com.fluidops.iwb.cms.Collect;
 import com.fluidops.iwb.cms.File;
@@ -83,6 +85,12 @@ public class FileProvider extends AbstractFlexProvider<FileProvider.Config>
 	
 	@Override
 	public void gather(List<Statement> res) throws Exception
+	{
+		gather(new StatementCollector(res));
+	}
+	
+	@Override
+	public void gather(RDFHandler handler) throws Exception
 	{
 		if (StringUtil.isNullOrEmpty(config.fileClass))
 			config.fileClass = com.fluidops.iwb.util.Config.getConfig().uploadFileClass();
@@ -94,10 +102,10 @@ public class FileProvider extends AbstractFlexProvider<FileProvider.Config>
 			config.extractClass = "com.fluidops.iwb.cms.extract.Basic";
 		
 		File file = Factory.get( config.fileClass, config.location, config.path, config.user == null ? null : config.user.username, config.user == null ? null : config.user.password(this) );
-		gather( res, file, (Collect)Class.forName( config.extractClass ).newInstance(), config.recursive, true );
+		gather( handler, file, (Collect)Class.forName( config.extractClass ).newInstance(), config.recursive, true );
 	}
 	
-	protected void gather(List<Statement> res, File file, Collect collect, Boolean recursive, boolean isTopLevel) throws Exception
+	protected void gather(RDFHandler handler, File file, Collect collect, Boolean recursive, boolean isTopLevel) throws Exception
 	{
 		if ( !file.exists() ) return;
 		
@@ -110,7 +118,7 @@ public class FileProvider extends AbstractFlexProvider<FileProvider.Config>
 			if ( isTopLevel || (recursive != null && recursive) )
 			{
 				for ( File kid : file.listFiles() )
-					gather( res, kid, collect, recursive, false );
+					gather( handler, kid, collect, recursive, false );
 			}
 			else if ( file instanceof WebDirectory )
 			{
@@ -123,7 +131,8 @@ public class FileProvider extends AbstractFlexProvider<FileProvider.Config>
 					if ( ! ( mt.fst + "/" + mt.snd ).equals( config.mimeTypeFilter ) )
 						return;
 				}
-				res.addAll( collect.collectRDF(file, file.getURI() ) );
+				for ( Statement st : collect.collectRDF(file, file.getURI() ) )
+					handler.handleStatement( st );
 
 			}
 		}
@@ -137,7 +146,8 @@ public class FileProvider extends AbstractFlexProvider<FileProvider.Config>
 				if ( ! ( mt.fst + "/" + mt.snd ).equals( config.mimeTypeFilter ) )
 					return;
 			}
-			res.addAll( collect.collectRDF(file, file.getURI() ) );
+			for ( Statement st : collect.collectRDF(file, file.getURI() ) )
+				handler.handleStatement( st );
 		}
 	}
 
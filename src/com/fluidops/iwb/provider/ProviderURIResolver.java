@@ -138,7 +138,7 @@ public class ProviderURIResolver implements Serializable
 	 * @param type
 	 * @return the URI (not null)
 	 */
-	public URI resolveProperty(String propName, URI type, URI propertyType)
+	public synchronized URI resolveProperty(String propName, URI type, URI propertyType)
 	{
 		if (propName==null)
 			throw new RuntimeException("Illegal Call");
@@ -18,31 +18,35 @@
 
 package com.fluidops.iwb.provider;
 
-import info.aduna.iteration.Iterations;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipInputStream;
 
 import org.apache.log4j.Logger;
 import org.openrdf.model.Statement;
 import org.openrdf.model.impl.ValueFactoryImpl;
-import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
-import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.rio.RDFFormat;
-import org.openrdf.sail.memory.MemoryStore;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+import org.openrdf.rio.helpers.StatementCollector;
 import org.xeustechnologies.jtar.TarInputStream;
 
 import com.fluidops.iwb.Global;
 import com.fluidops.iwb.api.ReadDataManagerImpl;
 import com.fluidops.iwb.model.ParameterConfigDoc;
+import com.fluidops.iwb.model.ParameterConfigDoc.Type;
 import com.fluidops.iwb.model.TypeConfigDoc;
 
 import fr.inria.rdfa.RDFaParser;
@@ -75,7 +79,13 @@ public class RDFProvider extends AbstractFlexProvider<RDFProvider.Config>
 	
 	
 	@Override
-	public void gather(final List<Statement> res) throws Exception
+	public void gather(List<Statement> res) throws Exception
+	{
+		gather(new StatementCollector(res));
+	}
+	
+	@Override
+	public void gather(final RDFHandler handler) throws Exception
 	{
 	    // TODO: This should be done via SPARQL Provider, has nothing to do with RDF Provider.
 		// if statement can be moved to DataSourcesTable - leave it in for now so
@@ -85,20 +95,14 @@ public class RDFProvider extends AbstractFlexProvider<RDFProvider.Config>
 			SPARQLEndpointProvider.Config c = new SPARQLEndpointProvider.Config();
 			c.endpoint = config.url;
 			c.query = "construct {?s ?p ?o} where {?s ?p ?o}";
+			c.paging = config.sparqlPaging;
 			SPARQLEndpointProvider p = new SPARQLEndpointProvider();
 			p.config = c;
-			p.gather(res);
+			p.gather(handler);
 			return;
 		}
-		Repository repository;
-		
-		// in streaming mode, we write directly into the repository
-		if(config.streaming)
-		    repository = Global.repository;
-		else {
-		    repository = new SailRepository(new MemoryStore());
-		    repository.initialize();
-		}
+		// counts the statements passed to the handler
+		final AtomicInteger count = new AtomicInteger();
 		
         URL url = new URL(config.url);
         
@@ -142,18 +146,15 @@ public class RDFProvider extends AbstractFlexProvider<RDFProvider.Config>
         
         if(rdfFormat == null)
             logger.error("Failed to determine RDF Format for "+url);
-        if(rdfFormat !=null )
+        if(rdfFormat !=null && config.streaming)
         {
-            RepositoryConnection con = repository.getConnection();
+            // in streaming mode, we write directly into the repository
+            RepositoryConnection con = Global.repository.getConnection();
             try 
             {
                 con.add(unpackStream(url, conn.getInputStream()), url.toString(), rdfFormat, ValueFactoryImpl.getInstance().createURI(url.toString()));
                 success = true;
                 logger.info("Successfully loaded "+url+" with RDFFormat "+rdfFormat);
-                
-                // in non streaming mode, we need to return the triples as list
-                if(!config.streaming) 
-                    res.addAll(Iterations.asList(con.getStatements(null, null, null, false)));
             }
             catch ( Exception e )
             {
@@ -165,10 +166,41 @@ public class RDFProvider extends AbstractFlexProvider<RDFProvider.Config>
                 con.close();
             }
         }
+        else if(rdfFormat !=null )
+        {
+            // the parsed statements are passed to the handler as they are read
+            RDFParser parser = Rio.createParser(rdfFormat);
+            parser.setRDFHandler(new RDFHandlerBase()
+            {
+                @Override
+                public void handleStatement(Statement st) throws RDFHandlerException
+                {
+                    handler.handleStatement(st);
+                    count.incrementAndGet();
+                }
+            });
+            InputStream in = unpackStream(url, conn.getInputStream());
+            try 
+            {
+                parser.parse(in, url.toString());
+                success = true;
+                logger.info("Successfully loaded "+url+" with RDFFormat "+rdfFormat);
+            }
+            catch ( Exception e )
+            {
+                logger.error("Failed to load "+url+" with RDFFormat "+rdfFormat);
+                throw new RuntimeException(e);
+            }
+            finally 
+            {
+                in.close();
+            }
+        }
         
         if ( !success )
         {
             //  try RDFa
+            final List<Statement> res = new ArrayList<Statement>();
             try
             {
                 RDFaParser aParser = new RDFaParser()
@@ -194,8 +226,11 @@ public class RDFProvider extends AbstractFlexProvider<RDFProvider.Config>
                 // wrong format
             	logger.trace("Error occured while collecting RDF data: " + ignore.getMessage(), ignore);
             }
+            for ( Statement st : res )
+                handler.handleStatement( st );
+            count.addAndGet( res.size() );
         }
-        if ( res.isEmpty() )
+        if ( count.get()==0 )
             throw new RuntimeException("No valid RDF data found");
 	}
 
@@ -231,6 +266,13 @@ public class RDFProvider extends AbstractFlexProvider<RDFProvider.Config>
 
 		@ParameterConfigDoc(desc = "Defines whether streaming mode is set to true or false")
 		public boolean streaming;
+
+		@ParameterConfigDoc(
+				desc = "Paging of the complete dump if the URL is a SPARQL endpoint (ending with 'sparql'): OFFSET fetches pages " +
+						"ordered by subject, predicate and object, KEYSET fetches the statements for one page of subjects at a time " +
+						"but skips blank node subjects. Default is NONE, i.e. the dump is fetched at once.",
+				type = Type.DROPDOWN)
+		public SPARQLEndpointProvider.PagingMode sparqlPaging;
 	}
 	
 	public static class ProviderThread extends Thread
@@ -24,6 +24,8 @@ import java.util.List;
 import org.openrdf.model.Statement;
 import org.openrdf.query.GraphQueryResult;
 import org.openrdf.repository.Repository;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.helpers.StatementCollector;
 
 import com.fluidops.iwb.api.ReadDataManagerImpl;
 import com.fluidops.iwb.api.ReadDataManagerImpl.SparqlQueryType;
@@ -41,8 +43,28 @@ public class SPARQLEndpointProvider extends AbstractFlexProvider<SPARQLEndpointP
 {
 	private static final long serialVersionUID = -5612668119106879634L;
 
+	public static enum PagingMode
+	{
+		NONE,		// execute the query at once
+		OFFSET,		// fetch pages of the solutions via LIMIT/OFFSET, ordered by the key variable
+		KEYSET		// enumerate the keys in order and fetch the results for one page of keys at a time
+	};
+
+	public static enum PartitioningMode
+	{
+		NONE,
+		SUBJECT_HASH,	// partition by the hash of the key variable
+		CLASS			// partition by the rdf:type of the key variable
+	};
+
 	@Override
 	public void gather(List<Statement> res) throws Exception
+	{
+		gather(new StatementCollector(res));
+	}
+	
+	@Override
+	public void gather(RDFHandler handler) throws Exception
 	{
 	    
 		SparqlQueryType qt = ReadDataManagerImpl.getSparqlQueryType(config.query, true);
@@ -59,13 +81,26 @@ public class SPARQLEndpointProvider extends AbstractFlexProvider<SPARQLEndpointP
 	    Repository repository = RepositoryFactory.getSPARQLRepository(config.endpoint, user, pass);
 	    repository.initialize();
 	    
+	    if ((config.paging!=null && config.paging!=PagingMode.NONE) 
+	    		|| (config.partitioning!=null && config.partitioning!=PartitioningMode.NONE)) {
+	    	String checkpointId = null;
+	    	if (config.checkpoint!=null && config.checkpoint)
+	    		checkpointId = providerID!=null ? providerID.stringValue() : config.endpoint + "\n" + config.query;
+	    	new SPARQLHarvester(repository, config, checkpointId).harvest(handler);
+	    	return;
+	    }
+	    
 	    ReadWriteDataManager dm=null; 
 	    try {
 	    	dm = ReadWriteDataManagerImpl.openDataManager(repository);
 	        GraphQueryResult result = dm.sparqlConstruct(config.query, true, null, false);
 	        
-	        while(result.hasNext())
-	            res.add(result.next());
+	        try {
+	        	while(result.hasNext())
+	        		handler.handleStatement(result.next());
+	        } finally {
+	        	result.close();
+	        }
 	    }
 	    finally {
 	    	ReadWriteDataManagerImpl.closeQuietly(dm);
@@ -97,6 +132,43 @@ public class SPARQLEndpointProvider extends AbstractFlexProvider<SPARQLEndpointP
 				desc = "The (optional) user credentials used for basic authentication at the given SPARQL endpoint."
 				)
 		public User user;
+		
+		@ParameterConfigDoc(
+				desc = "Paging of large results: OFFSET fetches pages of the solutions via LIMIT/OFFSET ordered by the key variable, " +
+						"KEYSET enumerates the values of the key variable in order and fetches the results for one page of keys at a time. " +
+						"The query must not use solution modifiers. Default is NONE, i.e. the query is executed at once.",
+				type = Type.DROPDOWN)
+		public PagingMode paging;
+		
+		@ParameterConfigDoc(
+				desc = "Number of solutions (OFFSET) or keys (KEYSET) per page, default: 10000. Should be below the result limit of the endpoint.")
+		public Integer pageSize;
+		
+		@ParameterConfigDoc(
+				desc = "Partitioning of large results: SUBJECT_HASH splits the query by the hash of the key variable, " +
+						"CLASS splits the query by the type of the key variable. Default is NONE.",
+				type = Type.DROPDOWN)
+		public PartitioningMode partitioning;
+		
+		@ParameterConfigDoc(
+				desc = "Number of partitions for SUBJECT_HASH partitioning (at most 256), default: 16")
+		public Integer partitionCount;
+		
+		@ParameterConfigDoc(
+				desc = "The variable of the query used for paging and partitioning, default: s")
+		public String keyVariable;
+		
+		@ParameterConfigDoc(
+				desc = "Number of pages fetched in parallel, default: 1")
+		public Integer concurrency;
+		
+		@ParameterConfigDoc(
+				desc = "Number of retries of a failed page, default: 3")
+		public Integer maxRetries;
+		
+		@ParameterConfigDoc(
+				desc = "Store fetched pages, such that a failed run resumes with the missing pages (paging or partitioning only)")
+		public Boolean checkpoint;
 	}
 	
 	@Override
@@ -0,0 +1,763 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.provider;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.openrdf.model.BNode;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.query.GraphQueryResult;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.repository.Repository;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.RDFWriter;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.StatementCollector;
+import org.openrdf.rio.ntriples.NTriplesUtil;
+
+import com.fluidops.iwb.api.ReadDataManagerImpl;
+import com.fluidops.iwb.api.ReadWriteDataManager;
+import com.fluidops.iwb.api.ReadWriteDataManagerImpl;
+import com.fluidops.iwb.provider.SPARQLEndpointProvider.PagingMode;
+import com.fluidops.iwb.provider.SPARQLEndpointProvider.PartitioningMode;
+import com.fluidops.iwb.util.IWBFileUtil;
+
+/**
+ * Paged and partitioned harvesting of a CONSTRUCT query from a SPARQL
+ * endpoint, such that large endpoints are not asked for the complete
+ * result at once (which typically runs into timeouts or result caps).
+ *
+ * The query is split into partitions (by the hash of the key variable or
+ * by the type of the key variable), and each partition is fetched in pages:
+ * via LIMIT/OFFSET ordered by the key variable, or via keyset paging, i.e.
+ * the distinct keys are enumerated in order and the results are fetched
+ * for one page of keys at a time. Pages are fetched in parallel by the given
+ * number of workers, a failed page is retried, and the statements of a
+ * page are passed to the handler once the page is complete.
+ *
+ * If a checkpoint is used, every fetched page is stored in the data folder
+ * (harvest/), such that a run that failed resumes with the missing pages.
+ * The checkpoint is removed when all pages have been harvested, or when
+ * the query or the paging configuration of the harvest changed.
+ */
+public class SPARQLHarvester
+{
+	private static final Logger logger = Logger.getLogger(SPARQLHarvester.class.getName());
+
+	private static final Pattern CONSTRUCT = Pattern.compile("\\bCONSTRUCT\\b", Pattern.CASE_INSENSITIVE);
+
+	private static final String CLASS_VARIABLE = "?__harvestClass";
+
+	private static final Pattern VARIABLE = Pattern.compile("[?$](\\w+)");
+
+	private final Repository repository;
+
+	private final ConstructQuery query;
+
+	private final String key;
+
+	private final PagingMode paging;
+
+	private final PartitioningMode partitioning;
+
+	private final int pageSize;
+
+	private final int partitionCount;
+
+	private final int concurrency;
+
+	private final int maxRetries;
+
+	private final Checkpoint checkpoint;
+
+	private final AtomicInteger pages = new AtomicInteger();
+
+	private final AtomicLong statements = new AtomicLong();
+
+	/**
+	 * @param repository the initialized SPARQL repository of the endpoint
+	 * @param config the provider config with the CONSTRUCT query
+	 * @param checkpointId identifies the checkpoint of the harvest, null if no checkpoint is used
+	 */
+	public SPARQLHarvester(Repository repository, SPARQLEndpointProvider.Config config, String checkpointId)
+	{
+		this.repository = repository;
+		this.query = ConstructQuery.parse(config.query);
+		String keyVariable = config.keyVariable==null || config.keyVariable.trim().isEmpty() ? "s" : config.keyVariable.trim();
+		this.key = keyVariable.startsWith("?") || keyVariable.startsWith("$") ? "?" + keyVariable.substring(1) : "?" + keyVariable;
+		this.paging = config.paging==null ? PagingMode.NONE : config.paging;
+		this.partitioning = config.partitioning==null ? PartitioningMode.NONE : config.partitioning;
+		this.pageSize = config.pageSize==null || config.pageSize<=0 ? 10000 : config.pageSize;
+		this.partitionCount = config.partitionCount==null || config.partitionCount<=0 ? 16 : Math.min(config.partitionCount, 256);
+		this.concurrency = config.concurrency==null || config.concurrency<=0 ? 1 : config.concurrency;
+		this.maxRetries = config.maxRetries==null || config.maxRetries<0 ? 3 : config.maxRetries;
+		this.checkpoint = checkpointId==null ? null : new Checkpoint(checkpointId, config.query + "\n" + key + "\n" + paging 
+				+ "\n" + partitioning + "\n" + pageSize + "\n" + partitionCount);
+	}
+
+	/**
+	 * Harvests all pages of all partitions and passes the statements to the
+	 * given handler. The handler is called by the workers, but never
+	 * concurrently.
+	 *
+	 * @param handler
+	 * @throws Exception if a page could not be fetched within the retries
+	 */
+	public void harvest(final RDFHandler handler) throws Exception
+	{
+		long start = System.currentTimeMillis();
+		final List<PageSource> sources = partitions();
+
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "SPARQL Harvester-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		// the first error stops all workers
+		final AtomicReference<Exception> error = new AtomicReference<Exception>();
+		List<Future<Void>> workers = new ArrayList<Future<Void>>();
+		for (int i=0; i<concurrency; i++)
+		{
+			workers.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception
+				{
+					try
+					{
+						for (PageSource source : sources)
+						{
+							Page page;
+							while (error.get()==null && (page=source.next())!=null)
+								harvest(page, handler);
+						}
+					}
+					catch (Exception e)
+					{
+						error.compareAndSet(null, e);
+					}
+					return null;
+				}
+			}));
+		}
+		executor.shutdown();
+		try
+		{
+			for (Future<Void> worker : workers)
+				worker.get();
+		}
+		catch (ExecutionException e)
+		{
+			error.compareAndSet(null, new Exception(e.getCause()));
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		if (error.get()!=null)
+			throw error.get();
+
+		if (checkpoint!=null)
+			checkpoint.clear();
+		logger.info("Harvested " + statements.get() + " statements in " + pages.get() + " pages from "
+				+ sources.size() + " partitions in " + (System.currentTimeMillis()-start) + "ms");
+	}
+
+	private void harvest(Page page, RDFHandler handler) throws Exception
+	{
+		List<Statement> stmts = checkpoint==null ? null : checkpoint.load(page.query);
+		if (stmts==null)
+		{
+			stmts = fetch(page.query);
+			if (checkpoint!=null)
+				checkpoint.store(page.query, stmts);
+		}
+		page.source.done(stmts.size());
+
+		synchronized (handler)
+		{
+			for (Statement st : stmts)
+				handler.handleStatement(st);
+		}
+		pages.incrementAndGet();
+		statements.addAndGet(stmts.size());
+	}
+
+	/**
+	 * @return the page sources of the partitions of the query
+	 */
+	private List<PageSource> partitions() throws Exception
+	{
+		List<String> partitions = new ArrayList<String>();
+		switch (partitioning)
+		{
+		case SUBJECT_HASH:
+			// partition by the leading hex digits of the MD5 hash of the key;
+			// STR() fails on blank nodes, so the first partition takes them
+			int digits = partitionCount<=16 ? 1 : 2;
+			int prefixes = digits==1 ? 16 : 256;
+			for (int p=0; p<partitionCount; p++)
+			{
+				StringBuilder filter = new StringBuilder("FILTER(");
+				if (p==0)
+					filter.append("isBlank(" + key + ") || ");
+				filter.append("SUBSTR(MD5(STR(" + key + ")), 1, " + digits + ") IN (");
+				for (int i=p; i<prefixes; i+=partitionCount)
+				{
+					if (i!=p)
+						filter.append(", ");
+					String prefix = Integer.toHexString(i);
+					filter.append("\"").append(digits==2 && prefix.length()==1 ? "0" + prefix : prefix).append("\"");
+				}
+				partitions.add(filter.append(")) ").toString());
+			}
+			break;
+		case CLASS:
+			for (Value type : selectValues(query.select("DISTINCT " + CLASS_VARIABLE, key + " a " + CLASS_VARIABLE + " .", ""), CLASS_VARIABLE.substring(1)))
+			{
+				if (type instanceof URI)
+					partitions.add(key + " a " + NTriplesUtil.toNTriplesString(type) + " . ");
+			}
+			// resources without a type
+			partitions.add("FILTER NOT EXISTS { " + key + " a " + CLASS_VARIABLE + " } ");
+			break;
+		default:
+			partitions.add("");
+		}
+
+		List<PageSource> res = new ArrayList<PageSource>();
+		for (String partition : partitions)
+		{
+			switch (paging)
+			{
+			case OFFSET:	res.add(new OffsetPages(partition)); break;
+			case KEYSET:	res.add(new KeysetPages(partition)); break;
+			default:		res.add(new SinglePage(partition));
+			}
+		}
+		return res;
+	}
+
+	private List<Statement> fetch(final String pageQuery) throws Exception
+	{
+		return withRetries(new Callable<List<Statement>>() {
+			@Override
+			public List<Statement> call() throws Exception
+			{
+				ReadWriteDataManager dm = null;
+				GraphQueryResult result = null;
+				try
+				{
+					dm = ReadWriteDataManagerImpl.openDataManager(repository);
+					result = dm.sparqlConstruct(pageQuery, true, null, false);
+					List<Statement> res = new ArrayList<Statement>();
+					while (result.hasNext())
+						res.add(result.next());
+					return res;
+				}
+				finally
+				{
+					ReadDataManagerImpl.closeQuietly(result);
+					ReadWriteDataManagerImpl.closeQuietly(dm);
+				}
+			}
+		}, pageQuery);
+	}
+
+	private List<Value> selectValues(final String selectQuery, final String variable) throws Exception
+	{
+		return withRetries(new Callable<List<Value>>() {
+			@Override
+			public List<Value> call() throws Exception
+			{
+				ReadWriteDataManager dm = null;
+				TupleQueryResult result = null;
+				try
+				{
+					dm = ReadWriteDataManagerImpl.openDataManager(repository);
+					result = dm.sparqlSelect(selectQuery, true);
+					List<Value> res = new ArrayList<Value>();
+					while (result.hasNext())
+					{
+						Value v = result.next().getValue(variable);
+						if (v!=null)
+							res.add(v);
+					}
+					return res;
+				}
+				finally
+				{
+					ReadDataManagerImpl.closeQuietly(result);
+					ReadWriteDataManagerImpl.closeQuietly(dm);
+				}
+			}
+		}, selectQuery);
+	}
+
+	/**
+	 * Executes the given call, retrying it with a linear backoff if it fails.
+	 */
+	private <T> T withRetries(Callable<T> call, String queryString) throws Exception
+	{
+		for (int attempt=0; ; attempt++)
+		{
+			try
+			{
+				return call.call();
+			}
+			catch (Exception e)
+			{
+				if (attempt>=maxRetries)
+					throw new Exception("Query failed after " + (attempt+1) + " attempts: " + queryString, e);
+				logger.warn("Query failed (attempt " + (attempt+1) + "), retrying: " + e.getMessage());
+				Thread.sleep(1000L * (attempt+1));
+			}
+		}
+	}
+
+	/**
+	 * A page, i.e. a CONSTRUCT query for a part of the result
+	 */
+	private static class Page
+	{
+		private final PageSource source;
+		private final String query;
+
+		private Page(PageSource source, String query)
+		{
+			this.source = source;
+			this.query = query;
+		}
+	}
+
+	/**
+	 * The pages of a partition, handed out to the workers one by one
+	 */
+	private abstract class PageSource
+	{
+		/**
+		 * @return the next page, or null if the partition is exhausted
+		 */
+		abstract Page next() throws Exception;
+
+		/**
+		 * Called when a page of this source was fetched
+		 */
+		void done(int count)
+		{
+		}
+	}
+
+	private class SinglePage extends PageSource
+	{
+		private final String partition;
+		private boolean exhausted = false;
+
+		private SinglePage(String partition)
+		{
+			this.partition = partition;
+		}
+
+		@Override
+		synchronized Page next()
+		{
+			if (exhausted)
+				return null;
+			exhausted = true;
+			return new Page(this, query.construct(partition, ""));
+		}
+	}
+
+	/**
+	 * LIMIT/OFFSET paging ordered by the key and all other variables of the
+	 * template, such that the order of the solutions is total and the pages
+	 * neither overlap nor miss solutions. Pages are handed out until a
+	 * fetched page is empty, hence at most one page per worker is requested
+	 * beyond the end of the partition.
+	 */
+	private class OffsetPages extends PageSource
+	{
+		private final String partition;
+		private final String orderBy;
+		private long offset = 0;
+		private volatile boolean exhausted = false;
+
+		private OffsetPages(String partition)
+		{
+			this.partition = partition;
+			this.orderBy = query.orderBy(key);
+		}
+
+		@Override
+		synchronized Page next()
+		{
+			if (exhausted)
+				return null;
+			Page res = new Page(this, query.construct(partition, orderBy + " LIMIT " + pageSize + " OFFSET " + offset));
+			offset += pageSize;
+			return res;
+		}
+
+		@Override
+		void done(int count)
+		{
+			if (count==0)
+				exhausted = true;
+		}
+	}
+
+	/**
+	 * Keyset paging: the keys are enumerated in the order of their string
+	 * value, starting after the last key of the previous page, and each page
+	 * fetches the results of its keys via VALUES. Blank node keys cannot be
+	 * bound via VALUES and are skipped.
+	 */
+	private class KeysetPages extends PageSource
+	{
+		private final String partition;
+		private String lastKey = null;
+		private boolean exhausted = false;
+
+		private KeysetPages(String partition)
+		{
+			this.partition = partition;
+		}
+
+		@Override
+		synchronized Page next() throws Exception
+		{
+			if (exhausted)
+				return null;
+
+			String after = lastKey==null ? "" : "FILTER(STR(" + key + ") > \"" + NTriplesUtil.escapeString(lastKey) + "\") ";
+			List<Value> keys = selectValues(query.select("DISTINCT " + key, partition + after,
+					" ORDER BY STR(" + key + ") LIMIT " + pageSize), key.substring(1));
+			if (keys.size()<pageSize)
+				exhausted = true;
+			if (keys.isEmpty())
+				return null;
+			lastKey = keys.get(keys.size()-1).stringValue();
+
+			StringBuilder values = new StringBuilder("VALUES " + key + " {");
+			int skipped = 0;
+			for (Value v : keys)
+			{
+				if (v instanceof BNode)
+					skipped++;
+				else
+					values.append(" ").append(NTriplesUtil.toNTriplesString(v));
+			}
+			if (skipped>0)
+				logger.warn("Skipped " + skipped + " blank node keys, use a different key variable or OFFSET paging to harvest them.");
+			values.append(" } ");
+			return new Page(this, query.construct(values + partition, ""));
+		}
+	}
+
+	/**
+	 * A CONSTRUCT query split into its prologue, its template and its
+	 * WHERE pattern, such that page queries can extend the pattern.
+	 */
+	static class ConstructQuery
+	{
+		private final String prologue;
+		private final String template;
+		private final String pattern;
+
+		private ConstructQuery(String prologue, String template, String pattern)
+		{
+			this.prologue = prologue;
+			this.template = template;
+			this.pattern = pattern;
+		}
+
+		/**
+		 * @param query a CONSTRUCT query without solution modifiers
+		 * @return the parsed query
+		 * @throws IllegalArgumentException if the query cannot be split
+		 */
+		static ConstructQuery parse(String query)
+		{
+			Matcher m = CONSTRUCT.matcher(query);
+			if (!m.find())
+				throw new IllegalArgumentException("Only CONSTRUCT queries can be harvested in pages");
+			String prologue = query.substring(0, m.start());
+
+			String template, pattern;
+			int pos = skipWhitespace(query, m.end());
+			if (query.regionMatches(true, pos, "WHERE", 0, 5))
+			{
+				// short form CONSTRUCT WHERE { ... }
+				pos = skipWhitespace(query, pos+5);
+				int end = groupEnd(query, pos);
+				pattern = query.substring(pos, end);
+				template = pattern;
+				pos = end;
+			}
+			else
+			{
+				int end = groupEnd(query, pos);
+				template = query.substring(pos, end);
+				pos = skipWhitespace(query, end);
+				if (query.regionMatches(true, pos, "WHERE", 0, 5))
+					pos = skipWhitespace(query, pos+5);
+				end = groupEnd(query, pos);
+				pattern = query.substring(pos, end);
+				pos = end;
+			}
+
+			String modifiers = query.substring(pos).trim();
+			if (modifiers.length()>0)
+				throw new IllegalArgumentException("Solution modifiers are not supported for paged harvesting: " + modifiers);
+			return new ConstructQuery(prologue, template, pattern);
+		}
+
+		/**
+		 * @return the CONSTRUCT query with the given pattern added to the WHERE clause
+		 */
+		String construct(String extraPattern, String modifiers)
+		{
+			return prologue + "CONSTRUCT " + template + " WHERE { " + extraPattern + pattern + " }" + modifiers;
+		}
+
+		/**
+		 * @return the ORDER BY clause over the given key and the other variables
+		 * 			of the template, i.e. all variables determining the constructed
+		 * 			statements
+		 */
+		String orderBy(String key)
+		{
+			Set<String> variables = new LinkedHashSet<String>();
+			variables.add(key.substring(1));
+			Matcher m = VARIABLE.matcher(template);
+			while (m.find())
+				variables.add(m.group(1));
+			StringBuilder res = new StringBuilder(" ORDER BY");
+			for (String v : variables)
+				res.append(" ?").append(v);
+			return res.toString();
+		}
+
+		/**
+		 * @return a SELECT query over the WHERE clause with the given pattern added
+		 */
+		String select(String projection, String extraPattern, String modifiers)
+		{
+			return prologue + "SELECT " + projection + " WHERE { " + extraPattern + pattern + " }" + modifiers;
+		}
+
+		private static int skipWhitespace(String query, int pos)
+		{
+			while (pos<query.length() && Character.isWhitespace(query.charAt(pos)))
+				pos++;
+			return pos;
+		}
+
+		/**
+		 * @return the position after the group starting at the given position
+		 */
+		private static int groupEnd(String query, int start)
+		{
+			if (start>=query.length() || query.charAt(start)!='{')
+				throw new IllegalArgumentException("Expected '{' at position " + start + " of the query");
+			int depth = 0;
+			for (int i=start; i<query.length(); i++)
+			{
+				char c = query.charAt(i);
+				if (c=='"' || c=='\'')
+				{
+					// skip string literals, which may contain braces
+					for (i++; i<query.length() && query.charAt(i)!=c; i++)
+						if (query.charAt(i)=='\\')
+							i++;
+				}
+				else if (c=='{')
+					depth++;
+				else if (c=='}' && --depth==0)
+					return i+1;
+			}
+			throw new IllegalArgumentException("Unbalanced braces in the query");
+		}
+	}
+
+	/**
+	 * Stores fetched pages as N-Triples files named by the hash of the page
+	 * query, in a folder per harvest.
+	 */
+	static class Checkpoint
+	{
+		private static final String SIGNATURE_FILE = "harvest.txt";
+
+		private final File folder;
+
+		private final String signature;
+
+		/**
+		 * @param id identifies the harvest, e.g. the provider
+		 * @param signature the query and paging configuration of the harvest, stored
+		 * 			pages of a harvest with a different signature are removed
+		 */
+		Checkpoint(String id, String signature)
+		{
+			folder = new File(IWBFileUtil.getFileInDataFolder("harvest"), md5(id));
+			this.signature = signature;
+			File f = new File(folder, SIGNATURE_FILE);
+			try
+			{
+				if (folder.exists() && (!f.exists() || !signature.equals(FileUtils.readFileToString(f, "UTF-8"))))
+				{
+					logger.info("Removing the checkpoint of a previous harvest with a different query: " + folder);
+					FileUtils.deleteDirectory(folder);
+				}
+			}
+			catch (IOException e)
+			{
+				logger.warn("Checkpoint " + folder + " could not be checked, removing it: " + e.getMessage());
+				FileUtils.deleteQuietly(folder);
+			}
+		}
+
+		/**
+		 * @return the stored statements of the page, or null if the page is not stored
+		 */
+		List<Statement> load(String pageQuery)
+		{
+			File f = new File(folder, md5(pageQuery) + ".nt");
+			if (!f.exists())
+				return null;
+			InputStream in = null;
+			try
+			{
+				in = new BufferedInputStream(new FileInputStream(f));
+				List<Statement> res = new ArrayList<Statement>();
+				RDFParser parser = Rio.createParser(RDFFormat.NTRIPLES);
+				parser.setPreserveBNodeIDs(true);
+				parser.setRDFHandler(new StatementCollector(res));
+				parser.parse(in, "");
+				return res;
+			}
+			catch (Exception e)
+			{
+				logger.warn("Checkpoint page " + f + " could not be read, fetching it again: " + e.getMessage());
+				return null;
+			}
+			finally
+			{
+				IOUtils.closeQuietly(in);
+			}
+		}
+
+		synchronized void store(String pageQuery, List<Statement> stmts)
+		{
+			File signatureFile = new File(folder, SIGNATURE_FILE);
+			if (!signatureFile.exists())
+			{
+				folder.mkdirs();
+				try
+				{
+					FileUtils.writeStringToFile(signatureFile, signature, "UTF-8");
+				}
+				catch (IOException e)
+				{
+					logger.warn("Checkpoint " + folder + " could not be written: " + e.getMessage());
+					return;
+				}
+			}
+			String name = md5(pageQuery);
+			File tmp = new File(folder, name + ".tmp");
+			OutputStream out = null;
+			try
+			{
+				out = new BufferedOutputStream(new FileOutputStream(tmp));
+				RDFWriter writer = Rio.createWriter(RDFFormat.NTRIPLES, out);
+				writer.startRDF();
+				for (Statement st : stmts)
+					writer.handleStatement(st);
+				writer.endRDF();
+				out.close();
+				// the rename makes the page visible only if it is complete
+				if (!tmp.renameTo(new File(folder, name + ".nt")))
+					throw new Exception("Rename failed");
+			}
+			catch (Exception e)
+			{
+				logger.warn("Checkpoint page could not be written: " + e.getMessage());
+				IOUtils.closeQuietly(out);
+				tmp.delete();
+			}
+		}
+
+		void clear()
+		{
+			FileUtils.deleteQuietly(folder);
+		}
+
+		private static String md5(String s)
+		{
+			try
+			{
+				byte[] digest = MessageDigest.getInstance("MD5").digest(s.getBytes("UTF-8"));
+				StringBuilder res = new StringBuilder();
+				for (byte b : digest)
+					res.append(String.format("%02x", b));
+				return res.toString();
+			}
+			catch (Exception e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
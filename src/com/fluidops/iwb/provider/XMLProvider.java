@@ -18,7 +18,10 @@
 
 package com.fluidops.iwb.provider;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -26,12 +29,23 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
@@ -47,7 +61,10 @@ import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.model.vocabulary.OWL;
 import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.helpers.StatementCollector;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -78,6 +95,12 @@ import com.sun.org.apache.xpath.internal.jaxp.XPathFactoryImpl;
     	</mappingSpec>
 	</code>
  * 
+ * In streaming mode (see {@link Config#streaming}) the document is not
+ * loaded as a whole: the input is read with StAX and split into records at
+ * the node bases of the rules, each record is built as a small DOM fragment
+ * and the records are mapped in parallel. XPath expressions are compiled
+ * once per worker and reused for all nodes.
+ * 
  * @author msc
  */
 @TypeConfigDoc("XML Provider transforms an XML document into RDF, using a mapping language.  This provider requires a mapping file and valid XML as input.")
@@ -97,12 +120,62 @@ public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config>
 	
 	private transient NamespaceContext ctx;
 
+	/**
+	 * Compiled XPath expressions per thread, as XPathExpressions are not thread safe
+	 */
+	private transient ThreadLocal<Map<String, XPathExpression>> compiledExpressions;
+
 	
 	@Override
 	public void gather(final List<Statement> res) throws Exception
-	{				
+	{
+		if (isStreaming())
+		{
+			gather(new StatementCollector(res));
+			return;
+		}
+		gatherFromDocument(res, initializeGather());
+	}
+	
+	@Override
+	public void gather(RDFHandler handler) throws Exception
+	{
+		if (!isStreaming())
+		{
+			super.gather(handler);
+			return;
+		}
+		
 		HashMap<String, MappingRule> mappingRules = initializeGather();
+		List<RecordPath> recordPaths = new ArrayList<RecordPath>();
+		for (MappingRule mr : mappingRules.values())
+		{
+			RecordPath recordPath = RecordPath.parse(mr, ctx);
+			if (recordPath==null)
+			{
+				logger.warn("Node base '" + mr.nodeBase + "' of rule " + mr.id + " is not supported in streaming mode, " +
+						"loading the complete document instead.");
+				List<Statement> res = new ArrayList<Statement>();
+				gatherFromDocument(res, mappingRules);
+				for (Statement st : res)
+					handler.handleStatement(st);
+				return;
+			}
+			recordPaths.add(recordPath);
+		}
+		gatherStreaming(handler, mappingRules, recordPaths);
+	}
+	
+	protected boolean isStreaming()
+	{
+		return config.streaming!=null && config.streaming;
+	}
 	
+	/**
+	 * Loads the XML file as DOM and executes the mapping rules one by one.
+	 */
+	protected void gatherFromDocument(List<Statement> res, HashMap<String, MappingRule> mappingRules) throws Exception
+	{
 		// load XML in DOM
 		File xmlFile = IWBFileUtil.getFileInWorkingDir(config.xmlfile);
 		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
@@ -117,6 +190,171 @@ public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config>
 	    for (MappingRule mr : mappingRules.values())
 	    	processMappingRule(res, mappingRules, doc, mr);
 	}
+	
+	/**
+	 * Streams the XML file with StAX: every element matching the node base of
+	 * a rule starts a record, which is built as DOM fragment (including nested
+	 * records) and mapped by a pool of workers. The statements of a record are
+	 * passed to the handler at once, the handler is never called concurrently.
+	 */
+	protected void gatherStreaming(final RDFHandler handler, final HashMap<String, MappingRule> mappingRules,
+			List<RecordPath> recordPaths) throws Exception
+	{
+		final Map<MappingRule, Map<String,URI>> ruleTypes = new HashMap<MappingRule, Map<String,URI>>();
+		for (MappingRule mr : mappingRules.values())
+			ruleTypes.put(mr, resolveTypes(mr));
+		
+		int workers = config.workers==null || config.workers<=0 ? Runtime.getRuntime().availableProcessors() : config.workers;
+		// the bounded queue blocks the reader if the workers fall behind
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(workers*16), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+					@Override
+					public Thread newThread(Runnable r)
+					{
+						Thread t = new Thread(r, "XML Provider Worker-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		final AtomicReference<Exception> error = new AtomicReference<Exception>();
+		
+		XMLInputFactory xif = XMLInputFactory.newInstance();
+		xif.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		xif.setProperty(XMLInputFactory.IS_VALIDATING, false);
+		xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		DocumentBuilder builder = factory.newDocumentBuilder();
+		
+		File xmlFile = IWBFileUtil.getFileInWorkingDir(config.xmlfile);
+		InputStream in = new BufferedInputStream(new FileInputStream(xmlFile));
+		XMLStreamReader reader = null;
+		try
+		{
+			reader = xif.createXMLStreamReader(in);
+			
+			List<QName> path = new ArrayList<QName>();
+			Document fragment = null;
+			Node current = null;
+			List<Pair<MappingRule, Node>> records = null;
+			while (reader.hasNext() && error.get()==null)
+			{
+				switch (reader.next())
+				{
+				case XMLStreamConstants.START_ELEMENT:
+					path.add(reader.getName());
+					List<MappingRule> matching = new ArrayList<MappingRule>();
+					for (RecordPath recordPath : recordPaths)
+						if (recordPath.matches(path))
+							matching.add(recordPath.rule);
+					if (fragment==null)
+					{
+						if (matching.isEmpty())
+							break;
+						fragment = builder.newDocument();
+						current = fragment;
+						records = new ArrayList<Pair<MappingRule, Node>>();
+					}
+					Element e = createElement(fragment, reader);
+					current.appendChild(e);
+					current = e;
+					for (MappingRule mr : matching)
+						records.add(new Pair<MappingRule, Node>(mr, e));
+					break;
+					
+				case XMLStreamConstants.END_ELEMENT:
+					path.remove(path.size()-1);
+					if (fragment==null)
+						break;
+					current = current.getParentNode();
+					if (current==fragment)
+					{
+						final List<Pair<MappingRule, Node>> fragmentRecords = records;
+						executor.execute(new Runnable() {
+							@Override
+							public void run()
+							{
+								if (error.get()!=null)
+									return;
+								try
+								{
+									List<Statement> stmts = new ArrayList<Statement>();
+									for (Pair<MappingRule, Node> record : fragmentRecords)
+										processNode(stmts, mappingRules, record.fst, ruleTypes.get(record.fst), record.snd);
+									synchronized (handler)
+									{
+										for (Statement st : stmts)
+											handler.handleStatement(st);
+									}
+								}
+								catch (Exception e)
+								{
+									error.compareAndSet(null, e);
+								}
+							}
+						});
+						fragment = null;
+						current = null;
+						records = null;
+					}
+					break;
+					
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					if (fragment!=null)
+						current.appendChild(fragment.createTextNode(reader.getText()));
+					break;
+				}
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			if (reader!=null)
+				reader.close();
+			in.close();
+		}
+		
+		if (error.get()!=null)
+			throw error.get();
+	}
+	
+	/**
+	 * Creates a DOM element for the current start element of the reader,
+	 * including its namespace declarations and attributes.
+	 */
+	private static Element createElement(Document doc, XMLStreamReader reader)
+	{
+		Element e = doc.createElementNS(emptyToNull(reader.getNamespaceURI()), qualifiedName(reader.getPrefix(), reader.getLocalName()));
+		for (int i=0; i<reader.getNamespaceCount(); i++)
+		{
+			String prefix = reader.getNamespacePrefix(i);
+			e.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, 
+					StringUtil.isNullOrEmpty(prefix) ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix, 
+					reader.getNamespaceURI(i));
+		}
+		for (int i=0; i<reader.getAttributeCount(); i++)
+		{
+			QName name = reader.getAttributeName(i);
+			e.setAttributeNS(emptyToNull(name.getNamespaceURI()), qualifiedName(name.getPrefix(), name.getLocalPart()), 
+					reader.getAttributeValue(i));
+		}
+		return e;
+	}
+	
+	private static String qualifiedName(String prefix, String localName)
+	{
+		return StringUtil.isNullOrEmpty(prefix) ? localName : prefix + ":" + localName;
+	}
+	
+	private static String emptyToNull(String s)
+	{
+		return StringUtil.isNullOrEmpty(s) ? null : s;
+	}
 
 
 	@Override
@@ -214,6 +452,14 @@ public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config>
 
 		initializeXPathFactory();
 		
+		compiledExpressions = new ThreadLocal<Map<String, XPathExpression>>() {
+			@Override
+			protected Map<String, XPathExpression> initialValue()
+			{
+				return new HashMap<String, XPathExpression>();
+			}
+		};
+		
 		// initialize property resolver
 		uriResolver = new ProviderURIResolver(config.globalResolver);
 		
@@ -239,122 +485,165 @@ public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config>
 	{
 		///////////////////////////////////////
 		// iterate over all nodes matching the rule
-		XPath nlXpath = xpf.newXPath();
-		nlXpath.setNamespaceContext(ctx);
-		NodeList nl = (NodeList)nlXpath.evaluate(mr.nodeBase, doc, XPathConstants.NODESET);
+		NodeList nl = (NodeList)compile(mr.nodeBase).evaluate(doc, XPathConstants.NODESET);
 
+		// node types
+		Map<String,URI> types = resolveTypes(mr);
+		
 		for (int i=0; i<nl.getLength(); i++)
-		{
-			Node n = nl.item(i);
-			
-			// node type
-		    Map<String,URI> types = new HashMap<String,URI>();
-		    for (String owlType : mr.owlTypes)
-		    {
-		    	URI type = null;
-		    	if (owlType.contains("="))
-		    	{
-		    		String keyVal[] = owlType.split("=");
-		    		type = EndpointImpl.api().getNamespaceService().guessURIOrCreateInDefaultNS(keyVal[1]);
-		    		types.put(keyVal[0],type);
-		    	}
-		    	else
-		    	{
-		    		type = EndpointImpl.api().getNamespaceService().guessURIOrCreateInDefaultNS(owlType);
-		    		types.put("*", type);
-		    	}
-		    }
-
+			processNode(stmts, mappingRules, mr, types, nl.item(i));
+	}
+	
+	/**
+	 * @param mr
+	 * @return the types of the rule by tag name, "*" for the default type
+	 */
+	protected Map<String,URI> resolveTypes(MappingRule mr)
+	{
+	    Map<String,URI> types = new HashMap<String,URI>();
+	    for (String owlType : mr.owlTypes)
+	    {
+	    	URI type = null;
+	    	if (owlType.contains("="))
+	    	{
+	    		String keyVal[] = owlType.split("=");
+	    		type = EndpointImpl.api().getNamespaceService().guessURIOrCreateInDefaultNS(keyVal[1]);
+	    		types.put(keyVal[0],type);
+	    	}
+	    	else
+	    	{
+	    		type = EndpointImpl.api().getNamespaceService().guessURIOrCreateInDefaultNS(owlType);
+	    		types.put("*", type);
+	    	}
+	    }
+	    return types;
+	}
+	
+	/**
+	 * Applies a mapping rule to a single node of its node base.
+	 * 
+	 * @param stmts
+	 * @param mappingRules
+	 * @param mr
+	 * @param types the types of the rule, see {@link #resolveTypes(MappingRule)}
+	 * @param n
+	 * @throws XPathExpressionException
+	 */
+	protected void processNode(List<Statement> stmts, HashMap<String, MappingRule> mappingRules, 
+			MappingRule mr, Map<String,URI> types, Node n) throws XPathExpressionException
+	{
+		// get node id
+	    URI uri = null;
+	    if (mr.objectId!=null)
+	    {                	
+	    	uri = resolveParametrizedExpressionAsURI(mr.objectId,n,mr.instanceNamespace,false,null,null);
+	    	if (uri==null)
+	    		uri = getRandomId(n,mr.instanceNamespace);
+	    }
+	    else
+	    {
+	    	uri = getRandomId(n,mr.instanceNamespace);
+	    }
+	    
+	    if (uri==null)
+	    {
+	    	logger.warn(" URI could not be created: " + mr.objectId);
+	    	return; // cannot be resolved
+	    }
+	    
+	    URI type = null;
+	    if (types.containsKey(n.getNodeName()))
+	    	type = types.get(n.getNodeName());
+	    else if (types.containsKey("*"))
+	    	type = types.get("*");
+	    else
+	    	throw new RuntimeException("Unmatched Tag Name '" + n.getNodeName() + "'.");
+		stmts.add(vf.createStatement(uri, RDF.TYPE, type));
 
-			// get node id
-		    URI uri = null;
-		    if (mr.objectId!=null)
-		    {                	
-		    	uri = resolveParametrizedExpressionAsURI(mr.objectId,n,mr.instanceNamespace,false,null,null);
-		    	if (uri==null)
-		    		uri = getRandomId(n,mr.instanceNamespace);
-		    }
-		    else
-		    {
-		    	uri = getRandomId(n,mr.instanceNamespace);
-		    }
-		    
-		    if (uri==null)
-		    {
-		    	logger.warn(" URI could not be created: " + mr.objectId);
-		    	continue; // cannot be resolved
-		    }
-		    
-		    URI type = null;
-		    if (types.containsKey(n.getNodeName()))
-		    	type = types.get(n.getNodeName());
-		    else if (types.containsKey("*"))
-		    	type = types.get("*");
-		    else
-		    	throw new RuntimeException("Unmatched Tag Name '" + n.getNodeName() + "'.");
-			stmts.add(vf.createStatement(uri, RDF.TYPE, type));
+		
+	    // get node label
+	    List<Literal> labelValues = resolveParametrizedExpressionAsLiterals(mr.objectLabel,n,false,null,null);
+	    if (labelValues.size()==1)
+	        stmts.add(vf.createStatement(uri, RDFS.LABEL, labelValues.get(0)));
 
-			
-		    // get node label
-		    List<Literal> labelValues = resolveParametrizedExpressionAsLiterals(mr.objectLabel,n,false,null,null);
-		    if (labelValues.size()==1)
-		        stmts.add(vf.createStatement(uri, RDFS.LABEL, labelValues.get(0)));
-
-		    
-		    // handle datatype properties
-		    for (DatatypePropertyMapping dpMapping : mr.datatypePropMappings)
-		    {
-		    	String xpathDP = dpMapping.value;
-		    	
-		    	// type predicate and assign label
-		    	URI predicate = uriResolver.resolveProperty(dpMapping.owlProperty,type,OWL.DATATYPEPROPERTY);
-		        
-		        // extract and write values for rule
-		        List<Literal> values = resolveParametrizedExpressionAsLiterals(xpathDP,n,dpMapping.useNodeName,dpMapping.ignoreIfMatches, dpMapping.manipulator);
-		    	for (int j=0;j<values.size();j++)
-		    	{
-		            stmts.add(vf.createStatement(uri, predicate, values.get(j)));
-		    	}
-		    }
-		    
-		    // handle object properties
-		    for (ObjectPropertyMapping opMapping : mr.objectPropertyMappings)
-		    {
-		    	String xpathOP = opMapping.value;
-		    	
-		    	// type predicate and assign label
-		    	URI predicate = uriResolver.resolveProperty(opMapping.owlProperty,type, OWL.OBJECTPROPERTY);
-		        
-		        // create object property mapping for each node in the node base
-		    	XPath opmNodeListXpath = xpf.newXPath();
-		    	opmNodeListXpath.setNamespaceContext(ctx);
-		        NodeList opmNodeList = (NodeList)opmNodeListXpath.evaluate(opMapping.nodeBase, n, XPathConstants.NODESET);
-		        for (int j=0; j<opmNodeList.getLength(); j++)
-		        {
-		        	Node opmNode = opmNodeList.item(j);
-		        	
-		            // extract and write values for rule
-		            List<String> values = null;
-		            if (opMapping.hashValue)
-		            	values = getHashValue(xpathOP,opmNode);
-		            else
-		            	values = resolveParametrizedExpression(xpathOP,opmNode,opMapping.useNodeName,opMapping.ignoreIfMatches);
-		            
+	    
+	    // handle datatype properties
+	    for (DatatypePropertyMapping dpMapping : mr.datatypePropMappings)
+	    {
+	    	String xpathDP = dpMapping.value;
+	    	
+	    	// type predicate and assign label
+	    	URI predicate = uriResolver.resolveProperty(dpMapping.owlProperty,type,OWL.DATATYPEPROPERTY);
+	        
+	        // extract and write values for rule
+	        List<Literal> values = resolveParametrizedExpressionAsLiterals(xpathDP,n,dpMapping.useNodeName,dpMapping.ignoreIfMatches, dpMapping.manipulator);
+	    	for (int j=0;j<values.size();j++)
+	    	{
+	            stmts.add(vf.createStatement(uri, predicate, values.get(j)));
+	    	}
+	    }
+	    
+	    // handle object properties
+	    for (ObjectPropertyMapping opMapping : mr.objectPropertyMappings)
+	    {
+	    	String xpathOP = opMapping.value;
+	    	
+	    	// type predicate and assign label
+	    	URI predicate = uriResolver.resolveProperty(opMapping.owlProperty,type, OWL.OBJECTPROPERTY);
+	        
+	        // create object property mapping for each node in the node base
+	        NodeList opmNodeList = (NodeList)compile(opMapping.nodeBase).evaluate(n, XPathConstants.NODESET);
+	        for (int j=0; j<opmNodeList.getLength(); j++)
+	        {
+	        	Node opmNode = opmNodeList.item(j);
+	        	
+	            // extract and write values for rule
+	            List<String> values = null;
+	            if (opMapping.hashValue)
+	            	values = getHashValue(xpathOP,opmNode);
+	            else
+	            	values = resolveParametrizedExpression(xpathOP,opmNode,opMapping.useNodeName,opMapping.ignoreIfMatches);
+	            
 	        		// we use the namespace from the referred rule, to create exactly
 	        		// the same URI as written by the original object
 	        		MappingRule referredRule = mappingRules.get(opMapping.referredRule);
 	        		
 	        		String namespace = referredRule!=null ? 
 	        			referredRule.instanceNamespace : opMapping.instanceNamespace;
-		        	for (String value : values)
-		        	{
-			            // generate the corresponding statement
-		        		URI obj = createUriInNamespace(value,namespace);
-		        		stmts.add(vf.createStatement(uri, predicate, obj));
-		        	}
-		        }
-		    }
+	        	for (String value : values)
+	        	{
+		            // generate the corresponding statement
+	        		URI obj = createUriInNamespace(value,namespace);
+	        		stmts.add(vf.createStatement(uri, predicate, obj));
+	        	}
+	        }
+	    }
+	}
+	
+	/**
+	 * Returns the compiled XPath expression, which is cached per thread.
+	 * 
+	 * @param expression
+	 * @return
+	 * @throws XPathExpressionException
+	 */
+	protected XPathExpression compile(String expression) throws XPathExpressionException
+	{
+		Map<String, XPathExpression> cache = compiledExpressions.get();
+		XPathExpression res = cache.get(expression);
+		if (res==null)
+		{
+			// the factory is not thread safe
+			XPath xpath;
+			synchronized (xpf)
+			{
+				xpath = xpf.newXPath();
+			}
+			xpath.setNamespaceContext(ctx);
+			res = xpath.compile(expression);
+			cache.put(expression, res);
 		}
+		return res;
 	}
 
 	/**
@@ -374,9 +663,7 @@ public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config>
 		{
 			try 
 			{
-				XPath xpath = xpf.newXPath();
-				xpath.setNamespaceContext(ctx);
-				XPathExpression xpathExp = xpath.compile(xpathOP.substring(1,xpathOP.length()-1));
+				XPathExpression xpathExp = compile(xpathOP.substring(1,xpathOP.length()-1));
 				NodeList nl = (NodeList)xpathExp.evaluate(context, XPathConstants.NODESET);
 
 		    	for (int i=0;i<nl.getLength();i++)
@@ -419,8 +706,6 @@ public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config>
 	 */
 	protected List<String> resolveParametrizedExpression(String parametrizedExpression, Node context, boolean useNodeName, String ignoreIfMatches)
 	{		
-		Map<String,XPathExpression> map = new HashMap<String,XPathExpression>();
-		
 		List<String> result = new ArrayList<String>();
 		if (parametrizedExpression==null)
 			return result;
@@ -431,19 +716,12 @@ public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config>
 		while (m.find())
 			xPathExpressions.put(m.group(0),new ArrayList<String>());
 
-		XPath xpathDPExp = xpf.newXPath();
-		xpathDPExp.setNamespaceContext(ctx);
 		for (Entry<String, List<String>> entry : xPathExpressions.entrySet())
 		{
 			String xPathExpression = entry.getKey();
 			try
 			{
-				XPathExpression xpathExp = map.get(xPathExpression);
-				if (xpathExp==null)
-				{
-					xpathExp = xpathDPExp.compile(xPathExpression.substring(1,xPathExpression.length()-1));
-					map.put(xPathExpression,xpathExp);
-				}
+				XPathExpression xpathExp = compile(xPathExpression.substring(1,xPathExpression.length()-1));
 
 				NodeList dpNodeList = (NodeList)xpathExp.evaluate(context, XPathConstants.NODESET);
 
@@ -777,6 +1055,112 @@ public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config>
 	    
 	    @ParameterConfigDoc(desc = "Comma-separated list of namespaces that can occur in XPath expressions in the mapping file e.g. fluidops=http://www.fluidops.com/, we can now use fluidops: to refer to XML elements in the respective namespace.")
 	    public String namespaceAbbreviations;
+	    
+	    @ParameterConfigDoc(desc = "Stream the XML input instead of loading it completely: the input is split into records at the node bases of the rules, " +
+	    		"which are mapped in parallel. Node bases must be paths of the form /a/b or //b, and the XPath expressions of a rule must not leave its node.")
+	    public Boolean streaming;
+	    
+	    @ParameterConfigDoc(desc = "Number of workers mapping the records in streaming mode, default: number of processors")
+	    public Integer workers;
+	}
+
+	/**
+	 * The node base of a mapping rule as path of element steps, e.g. /a/b,
+	 * //b or /a//b, which can be matched against the element path in
+	 * streaming mode.
+	 */
+	protected static class RecordPath
+	{
+		private static final Pattern STEP = Pattern.compile("(//?)(\\*|(?:([\\w.-]+):)?([\\w.-]+))");
+		
+		final MappingRule rule;
+		
+		private final boolean[] descendant;
+		
+		private final String[] namespaces;
+		
+		/**
+		 * Local names of the steps, null for *
+		 */
+		private final String[] localNames;
+		
+		private RecordPath(MappingRule rule, List<Boolean> descendant, List<String> namespaces, List<String> localNames)
+		{
+			this.rule = rule;
+			this.descendant = new boolean[descendant.size()];
+			for (int i=0; i<descendant.size(); i++)
+				this.descendant[i] = descendant.get(i);
+			this.namespaces = namespaces.toArray(new String[namespaces.size()]);
+			this.localNames = localNames.toArray(new String[localNames.size()]);
+		}
+		
+		/**
+		 * @param rule
+		 * @param ctx the namespace context resolving the prefixes of the node base
+		 * @return the path, or null if the node base is not a supported path
+		 */
+		static RecordPath parse(MappingRule rule, NamespaceContext ctx)
+		{
+			if (rule.nodeBase==null)
+				return null;
+			String nodeBase = rule.nodeBase.trim();
+			List<Boolean> descendant = new ArrayList<Boolean>();
+			List<String> namespaces = new ArrayList<String>();
+			List<String> localNames = new ArrayList<String>();
+			
+			Matcher m = STEP.matcher(nodeBase);
+			int pos = 0;
+			while (pos<nodeBase.length())
+			{
+				m.region(pos, nodeBase.length());
+				if (!m.lookingAt())
+					return null;
+				descendant.add(m.group(1).length()==2);
+				if (m.group(2).equals("*"))
+				{
+					namespaces.add(null);
+					localNames.add(null);
+				}
+				else
+				{
+					String namespace = m.group(3)==null ? "" : ctx.getNamespaceURI(m.group(3));
+					if (namespace==null)
+						return null;
+					namespaces.add(namespace);
+					localNames.add(m.group(4));
+				}
+				pos = m.end();
+			}
+			return localNames.isEmpty() ? null : new RecordPath(rule, descendant, namespaces, localNames);
+		}
+		
+		/**
+		 * @param path the names of the open elements, starting at the document element
+		 * @return true if the last element of the path is matched
+		 */
+		boolean matches(List<QName> path)
+		{
+			return matches(0, path, 0);
+		}
+		
+		private boolean matches(int step, List<QName> path, int pos)
+		{
+			if (step==localNames.length)
+				return pos==path.size();
+			if (!descendant[step])
+				return pos<path.size() && matches(step, path.get(pos)) && matches(step+1, path, pos+1);
+			for (int i=pos; i<path.size(); i++)
+				if (matches(step, path.get(i)) && matches(step+1, path, i+1))
+					return true;
+			return false;
+		}
+		
+		private boolean matches(int step, QName name)
+		{
+			if (localNames[step]==null)
+				return true;
+			return localNames[step].equals(name.getLocalPart()) && namespaces[step].equals(name.getNamespaceURI());
+		}
 	}
 
 	/**
@@ -383,18 +383,7 @@ public class HybridSearchServlet extends IWBHttpServlet
 			
 		resp.setStatus(HttpServletResponse.SC_OK);
 			
-        // calculate facets
-		// legacy code faceted search, currently not active
-//			String facetsAsString = "";
-//			if (Config.getConfig().getFacetedSearch().equals("standard")) 
-//			{
-//				FacetCalculator facetter = new FacetCalculator( pc );
-//				FContainer facetContainer = facetter.getFacetContainer();
-//				page.register(facetContainer);
-//				facetsAsString = facetContainer.htmlAnchor().toString();
-//				facetContainer.drawAdvHeader(true);
-//				facetContainer.drawHeader(false);
-//			}
+        // facets are calculated by the SearchResultWidget, see Config#getFacetedSearch()
 
 		// page title
 		pc.title = (pc.queryLanguage.equals("SPARQL") && !pc.queryType.equals("KEYWORD") || pc.query.isEmpty()) 
@@ -403,14 +392,21 @@ public class HybridSearchServlet extends IWBHttpServlet
 
         // TODO: activeLabel
 
-		// select widgets to display search results
-		selectWidgets(pc, infer);
-        
-        // layout result page
-        populateContainer(pc, errorRecords);
-        
-        // print response
-        EndpointImpl.api().getPrinter().print(pc, resp);
+		try {
+			// select widgets to display search results
+			selectWidgets(pc, infer);
+	        
+	        // layout result page
+	        populateContainer(pc, errorRecords);
+	        
+	        // print response
+	        EndpointImpl.api().getPrinter().print(pc, resp);
+		} finally {
+			// close the source of a streamed query result, the rows read
+			// while rendering remain available to the widgets
+			if (pc.queryResult!=null)
+				ReadDataManagerImpl.closeQuietly(pc.queryResult);
+		}
     }
 	
 	private static ErrorRecord createErrorRecord (Exception e, SearchProvider provider, SearchPageContext pc) {
@@ -18,8 +18,10 @@
 
 package com.fluidops.iwb.server;
 
-import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -29,6 +31,8 @@ import org.apache.log4j.Logger;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 
+import com.fluidops.ajax.FClientUpdate;
+import com.fluidops.ajax.FClientUpdate.Prio;
 import com.fluidops.ajax.FSession;
 import com.fluidops.ajax.api.PageMapper;
 import com.fluidops.ajax.api.PageMapperImpl;
@@ -36,9 +40,11 @@ import com.fluidops.ajax.components.FPage;
 import com.fluidops.iwb.Global;
 import com.fluidops.iwb.api.APIImpl;
 import com.fluidops.iwb.api.EndpointImpl;
+import com.fluidops.iwb.api.LookupRefreshQueue;
 import com.fluidops.iwb.api.ReadWriteDataManager;
 import com.fluidops.iwb.api.ReadWriteDataManagerImpl;
 import com.fluidops.iwb.layout.TabWidgetContainer;
+import com.fluidops.iwb.monitoring.RepositoryHealthMonitor;
 import com.fluidops.iwb.page.PageContext;
 import com.fluidops.iwb.provider.AbstractFlexProvider;
 import com.fluidops.iwb.provider.LookupProvider;
@@ -46,8 +52,6 @@ import com.fluidops.iwb.server.RedirectService.RedirectType;
 import com.fluidops.iwb.user.UserManager;
 import com.fluidops.iwb.user.UserManager.ValueAccessLevel;
 import com.fluidops.iwb.util.Config;
-import com.fluidops.iwb.util.SQL;
-import com.fluidops.util.GenUtil;
 
 /**
  * simplified wiki servlet workflow
@@ -67,6 +71,16 @@ public class Servlet extends IWBHttpServlet
 	{
 		try
 		{
+			// fail fast if the repository or the SQL store are known to be unavailable
+			RepositoryHealthMonitor health = RepositoryHealthMonitor.getInstance();
+			if (!health.isAvailable())
+			{
+				response.setHeader("Retry-After", String.valueOf(Math.max(1, Config.getConfig().getHealthCheckInterval()/1000)));
+				response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, 
+						"Connection to repository could not be established: " + health.getStatus().getMessage());
+				return;
+			}
+			
 		    Value value = EndpointImpl.api().getRequestMapper().getValueFromRequest(request);
 		    
 		    ////////////////// SECURITY CHECKS
@@ -131,19 +145,12 @@ public class Servlet extends IWBHttpServlet
 			
 			APIImpl api = EndpointImpl.api();
 	        
-			// check if the connection to the global repository works
-			ReadWriteDataManagerImpl.verifyConnection(Global.repository, false);
-
-			// if SQLStorage is used: check if connection to the server is possible
-			if (Config.getConfig().getUseMySQL())
-				SQL.verifyConnection();
-			
-	        
 			// lookup subject
 	        api.getRequestMapper().map(pc, request);
 	        	
 	        //  Lookup Providers for this URI
 	        // TODO: Should think about more flexible mechanism to assign providers to certain types of objects (e.g. based on rdf:type), could be similar as for WidgetConfigs
+	        List<Future<Void>> lookupRefreshes = new ArrayList<Future<Void>>();
 	        if ( pc.value instanceof URI )
 				for ( AbstractFlexProvider provider : EndpointImpl.api().getProviderService().getProviders() )
 					if ( provider instanceof LookupProvider )
@@ -155,7 +162,17 @@ public class Servlet extends IWBHttpServlet
 						// if data for this URI is already cached, find our in which context and whether it needs updating
 						URI contextURI = dm.isCached(provider.getProviderID(), uri);
 
-						if(contextURI==null || ( System.currentTimeMillis() - dm.getContext(contextURI).getTimestamp())>provider.pollInterval)
+						boolean expired = contextURI!=null 
+								&& ( System.currentTimeMillis() - dm.getContext(contextURI).getTimestamp())>provider.pollInterval;
+
+						if(expired && Config.getConfig().getLookupRefreshAsync())
+						{
+							// serve the cached data, the page is reloaded once the refresh is done
+							Future<Void> refresh = LookupRefreshQueue.getInstance().refresh(provider.providerID, uri);
+							if (refresh!=null)
+								lookupRefreshes.add(refresh);
+						}
+						else if(contextURI==null || expired)
 						{
 						    // the correct way to store the provider data is as follows, but it seems not to scale with OWLIM
 						    EndpointImpl.api().getProviderService().runProvider(provider.providerID, uri.stringValue());
@@ -186,20 +203,17 @@ public class Servlet extends IWBHttpServlet
 	        }
 	        
 	        // widgets
-	        File file = new File(Config.getConfig().getWorkingDir() + "config/widgets.prop");
-	        if (!file.exists()) {
-	        	GenUtil.createNewFile(file);
-	        }
 	        api.getWidgetSelector().selectWidgets(pc);
 	        
-	        File file2 = new File(Config.getConfig().getWorkingDir() + "config/layout.prop");
-	        if (!file2.exists()) {
-	        	GenUtil.createNewFile(file2);
-	        }
-	        
 	        // layout
 	        api.getLayouter().populateContainer( pc );
 	        
+	        // the page is reused for the same URI, stop polling of a previous request
+	        if (pc.page.isPollingStarted())
+	        	pc.page.stopPolling();
+	        if (!lookupRefreshes.isEmpty())
+	        	pollLookupRefreshes(pc.page, lookupRefreshes);
+	        
 	        // print
 	        api.getPrinter().print(pc, response);
 	        
@@ -216,6 +230,47 @@ public class Servlet extends IWBHttpServlet
 		}
 	}
 	
+	/**
+	 * Lets the page poll the given lookup provider refreshes. As soon as all
+	 * of them are done, the page is reloaded if at least one of them succeeded,
+	 * otherwise the page keeps showing the cached data.
+	 */
+	private static void pollLookupRefreshes(final FPage page, final List<Future<Void>> refreshes)
+	{
+		page.startPolling(2000L, null, new Runnable() {
+			@Override
+			public void run() {
+				boolean succeeded = false;
+				for (Future<Void> refresh : refreshes)
+				{
+					if (!refresh.isDone())
+						return;
+					succeeded |= succeeded(refresh);
+				}
+				page.stopPolling();
+				if (succeeded)
+					page.addClientUpdate(new FClientUpdate(Prio.VERYEND, "document.location=document.location;"));
+			}
+		});
+	}
+	
+	/**
+	 * @return true if the completed refresh succeeded
+	 */
+	private static boolean succeeded(Future<Void> refresh)
+	{
+		try
+		{
+			refresh.get();
+			return true;
+		}
+		catch (Exception e)
+		{
+			logger.debug("Lookup refresh failed: " + e.getMessage());
+			return false;
+		}
+	}
+	
 	/*
 	 * The login is done via a POST request, therefore also need to support it here.
 	 */
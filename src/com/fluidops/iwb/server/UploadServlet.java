@@ -35,6 +35,7 @@ import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFParseException;
 
 import com.fluidops.iwb.Global;
+import com.fluidops.iwb.api.CacheManager;
 
 /**
  * update datastore with uploaded content
@@ -69,6 +70,7 @@ public class UploadServlet extends IWBHttpServlet
 			finally 
 			{
 				con.close();
+				CacheManager.getInstance().invalidateAllCaches(Global.repository);
 			}
 		} 
 		catch (RDFParseException e) 
@@ -43,6 +43,7 @@ import com.fluidops.iwb.api.ReadDataManager;
 import com.fluidops.iwb.api.ReadDataManagerImpl;
 import com.fluidops.iwb.api.ReadWriteDataManager;
 import com.fluidops.iwb.api.ReadWriteDataManagerImpl;
+import com.fluidops.iwb.layout.ParallelWidgetRenderer;
 import com.fluidops.iwb.user.UserManager.ValueAccessLevel;
 import com.fluidops.iwb.util.Config;
 import com.fluidops.iwb.widget.AbstractWidget;
@@ -98,7 +99,9 @@ public class SemWikiUtil {
 		// Initialize the HTML renderer.
 		// This is a per-thread context used for rendering.
 		Wikimedia.initializeHTMLRenderer();
-		String wikiHtml = Wikimedia.getHTML(content, subject, parent, version);			
+		// the embedded widgets are rendered in parallel while the wiki text is rendered
+		ParallelWidgetRenderer renderer = ParallelWidgetRenderer.isEnabled() ? new ParallelWidgetRenderer() : null;
+		String wikiHtml = Wikimedia.getHTML(content, subject, parent, version, renderer);			
 		for (FComponent widgetComponent : Wikimedia.getRenderedComponents()) {
 			parent.add(widgetComponent);
 		}
@@ -911,6 +911,384 @@ public class Config extends DelegateConfig
     {
     	return delegate().getInt("communicationServiceQueueSize", 100000);
     }
+
+	/**
+	 * Default maximum number of entries per repository in a repository cache,
+	 * see {@link #getCacheMaxEntries(String)}.
+	 */
+	@ConfigDoc( name="cacheMaxEntries",
+	        desc="Maximum number of entries per repository in the repository caches (e.g. LabelCache, TypeCache), least recently used entries are evicted. The bound is enforced per lock segment of the cache, so an entry may be evicted before the cache holds this many entries if keys hash unevenly. Can be overridden per cache using <CacheName>.maxEntries, 0 means unbounded. Default: 100000",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getCacheMaxEntries()
+	{
+		return delegate().getInt("cacheMaxEntries", 100000);
+	}
+
+	/**
+	 * Maximum number of entries per repository for the repository cache
+	 * with the given name (e.g. LabelCache), falls back to
+	 * {@link #getCacheMaxEntries()} if not specified.
+	 */
+	public int getCacheMaxEntries(String cacheName)
+	{
+		return delegate().getInt(cacheName + ".maxEntries", getCacheMaxEntries());
+	}
+
+	@ConfigDoc( name="typePrefetching",
+	        desc="If enabled, the types of all URIs in query results rendered as tables are loaded into the type cache in the background. Default: false",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.BOOLEAN )
+	public boolean getTypePrefetching()
+	{
+		return delegate().getBoolean("typePrefetching", false);
+	}
+
+	/**
+	 * Default time to live (in seconds) of repository cache entries,
+	 * see {@link #getCacheExpiryTime(String)}.
+	 */
+	@ConfigDoc( name="cacheExpiryTime",
+	        desc="Time to live (in seconds) of entries in the repository caches. Can be overridden per cache using <CacheName>.expiryTime, 0 disables expiry. Default: 0",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getCacheExpiryTime()
+	{
+		return delegate().getInt("cacheExpiryTime", 0);
+	}
+
+	/**
+	 * Time to live (in seconds) of entries of the repository cache with
+	 * the given name (e.g. LabelCache), falls back to
+	 * {@link #getCacheExpiryTime()} if not specified.
+	 */
+	public int getCacheExpiryTime(String cacheName)
+	{
+		return delegate().getInt(cacheName + ".expiryTime", getCacheExpiryTime());
+	}
+
+	@ConfigDoc( name="queryResultCacheSize",
+	        desc="Memory budget (in MB) of the SPARQL query result cache for the global repository, 0 disables the cache. Default: 32",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getQueryResultCacheSize()
+	{
+		return delegate().getInt("queryResultCacheSize", 32);
+	}
+
+	@ConfigDoc( name="queryResultCacheMaxRows",
+	        desc="Maximum number of rows of a SPARQL query result to be cached in the query result cache. Default: 10000",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getQueryResultCacheMaxRows()
+	{
+		return delegate().getInt("queryResultCacheMaxRows", 10000);
+	}
+
+	@ConfigDoc( name="renderedPageCacheSize",
+	        desc="Maximum number of rendered wiki pages kept in the rendered page cache, 0 disables the cache. Default: 500",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getRenderedPageCacheSize()
+	{
+		return delegate().getInt("renderedPageCacheSize", 500);
+	}
+
+	@ConfigDoc( name="templateCacheSize",
+	        desc="Maximum number of wiki template revisions kept in the template cache, 0 disables the cache. Default: 1000",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getTemplateCacheSize()
+	{
+		return delegate().getInt("templateCacheSize", 1000);
+	}
+
+	@ConfigDoc( name="facetedSearch",
+	        desc="Show facets for refining the result of SELECT, CONSTRUCT and keyword searches on the search result page. Default: false",
+	        category=Category.NONE,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.BOOLEAN )
+	public boolean getFacetedSearch()
+	{
+		return delegate().getBoolean("facetedSearch", false);
+	}
+
+	@ConfigDoc( name="facetIndexMemoryBudget",
+	        desc="Memory budget in MB per user session for the in-memory facet indexes of search results, larger results are faceted by the triple store. Default: 32",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getFacetIndexMemoryBudget()
+	{
+		return delegate().getInt("facetIndexMemoryBudget", 32);
+	}
+
+	@ConfigDoc( name="wikiParseCacheSize",
+	        desc="Maximum number of parsed wiki page structures (embedded widgets and included templates) to be cached. Default: 1000",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getWikiParseCacheSize()
+	{
+		return delegate().getInt("wikiParseCacheSize", 1000);
+	}
+
+	@ConfigDoc( name="providerSchedulerThreads",
+	        desc="Number of providers that are gathered concurrently by the provider scheduler. Default: 4",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getProviderSchedulerThreads()
+	{
+		return delegate().getInt("providerSchedulerThreads", 4);
+	}
+
+	@ConfigDoc( name="providerRunTimeout",
+	        desc="Time in milliseconds after which a scheduled provider run is interrupted, 0 means unlimited. Default: 3600000",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getProviderRunTimeout()
+	{
+		return delegate().getInt("providerRunTimeout", 3600000);
+	}
+
+	@ConfigDoc( name="providerStreamingBatchSize",
+	        desc="Number of statements per write when provider data is gathered with the streaming API within a single transaction, 0 disables streaming. Not used with providerDeltaUpdates. Default: 0",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getProviderStreamingBatchSize()
+	{
+		return delegate().getInt("providerStreamingBatchSize", 0);
+	}
+
+	@ConfigDoc( name="providerDeltaUpdates",
+	        desc="Apply only the added and removed statements of a provider run to the previous provider context instead of replacing the context. Default: false",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.BOOLEAN )
+	public boolean getProviderDeltaUpdates()
+	{
+		return delegate().getBoolean("providerDeltaUpdates", false);
+	}
+
+	@ConfigDoc( name="lookupRefreshAsync",
+	        desc="Refresh expired data of lookup providers in the background and serve the cached data meanwhile. Otherwise the page request waits for the refresh. Default: false",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.BOOLEAN )
+	public boolean getLookupRefreshAsync()
+	{
+		return delegate().getBoolean("lookupRefreshAsync", false);
+	}
+
+	@ConfigDoc( name="lookupRefreshThreads",
+	        desc="Number of threads for refreshing lookup provider data in the background. Default: 4",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getLookupRefreshThreads()
+	{
+		return delegate().getInt("lookupRefreshThreads", 4);
+	}
+
+	@ConfigDoc( name="lookupRefreshQueueSize",
+	        desc="Maximum number of lookup provider refreshes waiting for a background thread. Default: 1000",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getLookupRefreshQueueSize()
+	{
+		return delegate().getInt("lookupRefreshQueueSize", 1000);
+	}
+
+	@ConfigDoc( name="lookupRefreshMaxPerProvider",
+	        desc="Maximum number of concurrently running background refreshes per lookup provider, further refreshes of the provider wait. Values above 1 require a provider whose run state is not shared between runs. Default: 1",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getLookupRefreshMaxPerProvider()
+	{
+		return delegate().getInt("lookupRefreshMaxPerProvider", 1);
+	}
+
+	@ConfigDoc( name="lookupRefreshFailureBackoff",
+	        desc="Time in milliseconds for which background refreshes of a lookup provider are skipped after a failed refresh, doubled with every consecutive failure. Default: 60000",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getLookupRefreshFailureBackoff()
+	{
+		return delegate().getInt("lookupRefreshFailureBackoff", 60000);
+	}
+
+	@ConfigDoc( name="healthCheckInterval",
+	        desc="Interval in milliseconds of the background health check of the repository and the SQL store. Default: 5000",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getHealthCheckInterval()
+	{
+		return delegate().getInt("healthCheckInterval", 5000);
+	}
+
+	@ConfigDoc( name="healthCheckFailureThreshold",
+	        desc="Number of consecutive failed health checks after which page requests are answered with an error page. Default: 2",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getHealthCheckFailureThreshold()
+	{
+		return delegate().getInt("healthCheckFailureThreshold", 2);
+	}
+
+	@ConfigDoc( name="healthCheckTimeout",
+	        desc="Time in milliseconds after which a health check of the repository and the SQL store is counted as failed. Default: 3000",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getHealthCheckTimeout()
+	{
+		return delegate().getInt("healthCheckTimeout", 3000);
+	}
+
+	@ConfigDoc( name="widgetRenderThreads",
+	        desc="Number of threads for rendering the widgets of a page in parallel, 0 renders widgets sequentially on the request thread. Default: 0",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getWidgetRenderThreads()
+	{
+		return delegate().getInt("widgetRenderThreads", 0);
+	}
+
+	@ConfigDoc( name="widgetRenderDeadline",
+	        desc="Time in milliseconds a page waits for widgets rendered in parallel, slower widgets are loaded asynchronously. Default: 2000",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getWidgetRenderDeadline()
+	{
+		return delegate().getInt("widgetRenderDeadline", 2000);
+	}
+
+	@ConfigDoc( name="widgetRenderTimeout",
+	        desc="Time in milliseconds after which the asynchronous loading of a widget rendered in parallel is aborted. Default: 60000",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getWidgetRenderTimeout()
+	{
+		return delegate().getInt("widgetRenderTimeout", 60000);
+	}
+
+	@ConfigDoc( name="searchResultStreaming",
+	        desc="If true, SELECT results of SPARQL searches are read lazily from the repository instead of being materialized completely. Default: true",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.BOOLEAN )
+	public boolean getSearchResultStreaming()
+	{
+		return delegate().getBoolean("searchResultStreaming", true);
+	}
+
+	@ConfigDoc( name="searchResultMaxRows",
+	        desc="Maximum number of rows of a streamed search result; larger results are truncated with a warning. 0 means unlimited. Default: 0",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getSearchResultMaxRows()
+	{
+		return delegate().getInt("searchResultMaxRows", 0);
+	}
+
+	@ConfigDoc( name="searchResultMaxBytes",
+	        desc="Maximum estimated size of a streamed search result in MB; larger results are truncated with a warning. 0 means unlimited. Default: 0",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getSearchResultMaxBytes()
+	{
+		return delegate().getInt("searchResultMaxBytes", 0);
+	}
+
+	@ConfigDoc( name="injectUsedPrefixesOnly",
+	        desc="If true, only the PREFIX declarations of registered namespaces actually used in a query are added to the query; if false, all registered namespaces are declared. Default: false",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.BOOLEAN )
+	public boolean getInjectUsedPrefixesOnly()
+	{
+		return delegate().getBoolean("injectUsedPrefixesOnly", false);
+	}
+
+	@ConfigDoc( name="parsedQueryCacheSize",
+	        desc="Maximum number of parsed SPARQL queries and query types kept in the parsed query cache, 0 disables the cache. Default: 1000",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getParsedQueryCacheSize()
+	{
+		return delegate().getInt("parsedQueryCacheSize", 1000);
+	}
+
+	@ConfigDoc( name="connectionPoolMaxSize",
+	        desc="Maximum number of pooled connections per remote (HTTP or SPARQL) repository, 0 disables connection pooling. Default: 8",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getConnectionPoolMaxSize()
+	{
+		return delegate().getInt("connectionPoolMaxSize", 8);
+	}
+
+	@ConfigDoc( name="connectionPoolMinIdle",
+	        desc="Number of idle pooled connections that are retained regardless of the idle timeout. Default: 1",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getConnectionPoolMinIdle()
+	{
+		return delegate().getInt("connectionPoolMinIdle", 1);
+	}
+
+	@ConfigDoc( name="connectionPoolIdleTimeout",
+	        desc="Time (in seconds) after which idle pooled connections are closed. Default: 300",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getConnectionPoolIdleTimeout()
+	{
+		return delegate().getInt("connectionPoolIdleTimeout", 300);
+	}
+
+	@ConfigDoc( name="connectionPoolValidationInterval",
+	        desc="Pooled connections which have been idle for longer than this time (in seconds) are validated before reuse. Default: 30",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getConnectionPoolValidationInterval()
+	{
+		return delegate().getInt("connectionPoolValidationInterval", 30);
+	}
+
+	@ConfigDoc( name="connectionPoolMaxWait",
+	        desc="Maximum time (in seconds) to wait for a pooled connection if all connections are in use. Default: 30",
+	        category=Category.INT,
+	        iwbCategory=IWBCategory.CORE,
+	        type = Type.INTEGER )
+	public int getConnectionPoolMaxWait()
+	{
+		return delegate().getInt("connectionPoolMaxWait", 30);
+	}
 	
 	@ConfigDoc( name="annotationCustomizerClassName", 
 			desc="Name of class for OWL Annotation customization. Must be a subclass of OWLAnnotationCustomizer", 
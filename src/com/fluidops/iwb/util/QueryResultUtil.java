@@ -19,10 +19,14 @@
 package com.fluidops.iwb.util;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.openrdf.model.Statement;
 import org.openrdf.model.Value;
+import org.openrdf.query.Binding;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.GraphQueryResult;
 import org.openrdf.query.MalformedQueryException;
@@ -169,16 +173,21 @@ public class QueryResultUtil
 	        for (String name : result.getBindingNames())
 	            tm.addColumn(name);
 	        int rowCounter = 0;
+	        Set<Value> values = new HashSet<Value>();
 	        
 	        // add the row content to the model
 	        while (result.hasNext())
 	        {
+	        	BindingSet b = result.next();
 	            List<FComponent> row = 
-	            	buildRow(result.next(), result.getBindingNames(), rowCounter, dm, valueCfg);
+	            	buildRow(b, result.getBindingNames(), rowCounter, dm, valueCfg);
+	            collectValues(b, values);
 	            
 	            tm.addRow(row.toArray());
 	            rowCounter++;
 	        }
+	        prefetchLabels(values, dm, valueCfg);
+	        ReadDataManagerImpl.prefetchTypes(rep, values);
 	        return tm;
         } finally {
         	ReadDataManagerImpl.closeQuietly(result);
@@ -234,12 +243,14 @@ public class QueryResultUtil
 	            tm.addColumn(name);
 	        tm.addColumn("");
 	        int rowCounter = 0;	    
+	        Set<Value> values = new HashSet<Value>();
 	        
 	        // add the row content to the model
 	        while (result.hasNext())
 	        {
 	        	BindingSet b=result.next();
 	            List<FComponent> row = buildRow(b, result.getBindingNames(), rowCounter, dm, valueCfg);
+	            collectValues(b, values);
 	              	
 	            // add row actions (>1 => container, component otherwise)
 	            if (rowActions.size()>1) {
@@ -263,6 +274,8 @@ public class QueryResultUtil
 	            tm.addRow(row.toArray());
 	            rowCounter++;
 	        } 
+	        prefetchLabels(values, dm, valueCfg);
+	        ReadDataManagerImpl.prefetchTypes(rep, values);
 
 	        return tm;
         } finally {
@@ -307,22 +320,53 @@ public class QueryResultUtil
 			FSelectableTableModel<BindingSet> tm = new FSelectableTableModelImpl<BindingSet>(result.getBindingNames(), true);
 
 			int rowCounter = 0;
+			Set<Value> values = new HashSet<Value>();
 
 			// add the row content to the model
 			while (result.hasNext()) {
 				BindingSet b = result.next();
 				List<FComponent> row = buildRow(b, result.getBindingNames(),
 						rowCounter, dm, valueCfg);
+				collectValues(b, values);
 				
 				tm.addRow(row.toArray(), b);
 				rowCounter++;
 			}
+			prefetchLabels(values, dm, valueCfg);
+			ReadDataManagerImpl.prefetchTypes(rep, values);
 			return tm;
 		} finally {
 			ReadWriteDataManagerImpl.closeQuietly(result);
 		}    
     }
    
+    /**
+     * Add all values bound in the binding set to the given collection
+     * 
+     * @param bindingSet
+     * @param values
+     */
+    protected static void collectValues(BindingSet bindingSet, Collection<Value> values)
+    {
+    	for (Binding b : bindingSet)
+    		values.add(b.getValue());
+    }
+    
+    /**
+     * Resolve the labels of the given values in one go, such that the label
+     * cache is populated before the {@link FValue}s of the table are rendered.
+     * This is a no-op if labels are not shown.
+     * 
+     * @param values
+     * @param dm
+     * @param cfg
+     */
+    protected static void prefetchLabels(Collection<Value> values, ReadDataManager dm, ValueConfig cfg)
+    {
+    	if (cfg.showLabels && !values.isEmpty())
+    		dm.getLabels(values);
+    }
+    
     /**
      * Build a particular row for the retrieved results, convenience method
      * 
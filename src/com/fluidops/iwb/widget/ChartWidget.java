@@ -468,6 +468,9 @@ public class ChartWidget extends AbstractWidget<ChartWidget.Config>
                 int maxvalues = values.size();
                 String[] labelsArray = new String[maxvalues];
                 Paint[] colorArray = new Color[maxvalues];
+                
+                // resolve all labels at once
+                globalDm.getLabels(labels);
                 for (int i = 0; i < maxvalues; i++)
                 {
                     String label = globalDm.getLabel(labels.elementAt(i));
@@ -272,6 +272,9 @@ public class ChartWidgetUtil
 	    res.valuesArray = new Double[res.maxvalues];
 		res.colorArray = new Color[res.maxvalues];
 		
+		// resolve all labels at once
+		globalDm.getLabels(labels);
+		
 		for (int i = 0; i < res.maxvalues; i++)
 		{
 			String label = globalDm.getLabel(labels.elementAt(i));
@@ -304,6 +307,9 @@ public class ChartWidgetUtil
 		res.maxvalues = values.size();
 		res.labelsArray = new String[res.maxvalues];
 	    res.valuesArray = new Double[res.maxvalues][outputs.size()];
+	    
+	    // resolve all labels at once
+	    globalDm.getLabels(labels);
 		
         for (int i = 0; i < res.maxvalues; i++)
         {
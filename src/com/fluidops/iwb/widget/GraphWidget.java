@@ -18,6 +18,7 @@
 
 package com.fluidops.iwb.widget;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -231,6 +232,7 @@ public class GraphWidget extends AbstractWidget<GraphWidget.Config>
         try
         {
 	    		res = dm.getStatementsAsList( (Resource)value, null, null, false);
+	    		prefetchLabels(dm, res, spread, false);
 	    		
 	        	JSONObject obj = createNode(value, rep);
 	          
@@ -488,6 +490,29 @@ public class GraphWidget extends AbstractWidget<GraphWidget.Config>
 		return getRDFAsJsonTree(value, 0, rep, depth, spread);
 	}
 	
+	/**
+	 * Resolves the labels of the predicates and objects (or subjects) of the 
+	 * first statements in one go, as well as the types of the objects (or 
+	 * subjects), which determine the node type. The number of statements is
+	 * limited by the spread of the graph.
+	 */
+	private static void prefetchLabels(ReadDataManager dm, List<Statement> stmts, int spread, boolean subjects)
+	{
+		List<Value> values = new ArrayList<Value>();
+		List<Resource> nodes = new ArrayList<Resource>();
+		for (int i=0; i<stmts.size() && i<=spread; i++)
+		{
+			Statement st = stmts.get(i);
+			Value node = subjects ? st.getSubject() : st.getObject();
+			values.add(st.getPredicate());
+			values.add(node);
+			if (node instanceof Resource)
+				nodes.add((Resource)node);
+		}
+		dm.getLabels(values);
+		dm.getTypes(nodes, true);
+	}
+
 	private JSONObject getRDFAsJsonTree(URI value, int recCount, Repository rep, int maxDepth, int spread)  
 	{
 		if (recCount++ > maxDepth) 
@@ -512,6 +537,7 @@ public class GraphWidget extends AbstractWidget<GraphWidget.Config>
 			int edgeCount = 0;
 
 			List<Statement> res = dm.getStatementsAsList((URI)value, null, null, false);
+			prefetchLabels(dm, res, spread, false);
 
 			JSONArray children = new JSONArray();
             Iterator<Statement> it = res.iterator();
@@ -570,6 +596,7 @@ public class GraphWidget extends AbstractWidget<GraphWidget.Config>
 			}
 
 			res = dm.getStatementsAsList(null, null, (URI)value, false);
+			prefetchLabels(dm, res, spread, true);
             Iterator<Statement> it2 = res.iterator();
 			while (it2.hasNext() && edgeCount <= spread) 
 			{
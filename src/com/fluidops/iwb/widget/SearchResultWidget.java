@@ -21,12 +21,15 @@ package com.fluidops.iwb.widget;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.GraphQueryResult;
@@ -46,7 +49,9 @@ import com.fluidops.ajax.models.FTableModel;
 import com.fluidops.iwb.ajax.FValue;
 import com.fluidops.iwb.ajax.FValueWithMatchHighlight;
 import com.fluidops.iwb.api.ImageResolver;
+import com.fluidops.iwb.facets.FacetCalculator;
 import com.fluidops.iwb.model.AbstractMutableTupleQueryResult;
+import com.fluidops.iwb.model.MutableTupleQueryResultImpl;
 import com.fluidops.iwb.page.SearchPageContext;
 import com.fluidops.iwb.server.HybridSearchServlet.BooleanQueryResult;
 import com.fluidops.iwb.util.Config;
@@ -176,6 +181,22 @@ public class SearchResultWidget extends AbstractWidget<WidgetVoidConfig> {
 				&& spc.queryType != null
 				&& spc.queryType.equals("KEYWORD");
 
+		// facets for refining the result, computed before the result is read for the table
+		FContainer facets = null;
+		TableRefinement refinement = null;
+		if (Config.getConfig().getFacetedSearch() && spc.queryType!=null 
+				&& !(spc.queryResult instanceof BooleanQueryResult))
+		{
+			FacetCalculator calculator = new FacetCalculator(spc);
+			// tuple results are refined in place
+			if (spc.queryResult instanceof AbstractMutableTupleQueryResult)
+			{
+				refinement = new TableRefinement(calculator, (AbstractMutableTupleQueryResult) spc.queryResult, clustering);
+				calculator.setRefinementListener(refinement);
+			}
+			facets = calculator.getFacetContainer();
+		}
+
 		// construct table model from query result
 		FTableModel tm = null;
 		int numberOfRows =  -1;
@@ -227,6 +248,8 @@ public class SearchResultWidget extends AbstractWidget<WidgetVoidConfig> {
 
 		// container for the result table
 		FContainer cont = new FContainer(id);
+		if (facets!=null)
+			cont.add(facets);
 
 		// define result table
 		FTable tbl = new FTable(Rand.getIncrementalFluidUUID(), tm, numberOfRows, columnWidth);
@@ -235,6 +258,8 @@ public class SearchResultWidget extends AbstractWidget<WidgetVoidConfig> {
 		tbl.setShowCSVExport(true);
 		tbl.setOverFlowContainer(true);
 		cont.add(tbl);
+		if (refinement!=null)
+			refinement.table = tbl;
 
 		return cont;
 	}
@@ -570,4 +595,60 @@ public class SearchResultWidget extends AbstractWidget<WidgetVoidConfig> {
 	public Class<WidgetVoidConfig> getConfigClass() {
 		return WidgetVoidConfig.class;
 	}
+
+	/**
+	 * Refines the result table in place to the rows whose facetted resource
+	 * is contained in the refined result of the {@link FacetCalculator}.
+	 */
+	private class TableRefinement implements Runnable
+	{
+		private final FacetCalculator calculator;
+
+		private final AbstractMutableTupleQueryResult result;
+
+		private final boolean clustering;
+
+		private FTable table;
+
+		private TableRefinement(FacetCalculator calculator, AbstractMutableTupleQueryResult result, boolean clustering)
+		{
+			this.calculator = calculator;
+			this.result = result;
+			this.clustering = clustering;
+		}
+
+		@Override
+		public void run()
+		{
+			List<URI> refined = calculator.getRefinedResources();
+			String binding = calculator.getResourceBinding();
+			if (table==null || refined==null || binding==null)
+				return;
+
+			List<BindingSet> rows = result.asList();
+			if (calculator.hasSelection())
+			{
+				Set<URI> resources = new HashSet<URI>(refined);
+				List<BindingSet> filtered = new ArrayList<BindingSet>();
+				for (BindingSet bindingSet : rows)
+				{
+					if (resources.contains(bindingSet.getValue(binding)))
+						filtered.add(bindingSet);
+				}
+				rows = filtered;
+			}
+
+			try
+			{
+				AbstractMutableTupleQueryResult res = new MutableTupleQueryResultImpl(result.getBindingNames(), rows);
+				table.setModel(clustering ? constructClusteredTableModel(res) : constructTableModel(res));
+			}
+			catch (QueryEvaluationException e)
+			{
+				logger.error("The refined result could not be displayed", e);
+				return;
+			}
+			table.populateView();
+		}
+	}
 }
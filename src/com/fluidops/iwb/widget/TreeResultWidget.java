@@ -516,6 +516,16 @@ public class TreeResultWidget extends AbstractWidget<TreeResultWidget.Config>
 					default:
 						break;
 					}
+   					// resolve the types of all candidates at once
+   					if (predicateTreeNode.type != null)
+   					{
+   						List<Resource> resources = new ArrayList<Resource>();
+   						for (Value value : vals)
+   							if (value instanceof Resource)
+   								resources.add((Resource)value);
+   						dm.getTypes(resources, true);
+   					}
+   					
         			// Evaluate query
    					List<Value> resultsMatchingType = new ArrayList<Value>();
         			for(Value value : vals)
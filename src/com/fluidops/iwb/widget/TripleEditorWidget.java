@@ -1161,6 +1161,11 @@ public class TripleEditorWidget extends
             
             Set<Resource> typesOfInstance = dm.getType(TripleEditorWidget.this.data.getCurrentSubject());
             
+            // the property infos (and thus the types of the properties) are only
+            // needed to cluster by instance types: resolve them at once in that case
+            if (typesOfInstance.size()>0 && placeholders.size()>1)
+            	dm.getTypes(placeholders, true);
+            
             for (URI p : placeholders)
             {
             	Set<Value> domains = new HashSet<Value>();
@@ -65,9 +65,9 @@ public class FluidTemplateResolver implements TemplateResolver {
         	return templateParameters.get("1");
         
         try {
-	        String templ = wikiModel.getIncludedTemplate(templateName, namespace, pageVersion);
+	        TemplateCache.Template templ = wikiModel.getCachedTemplate(templateName, namespace, pageVersion);
 	
-	        if (templ!=null)
+	        if (templ.getText()!=null)
 	            return wikiModel.resolveIncludedTemplate(templ, templateName, templateParameters);
               
 	        return null;
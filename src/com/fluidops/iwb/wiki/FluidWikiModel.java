@@ -121,6 +121,11 @@ public class FluidWikiModel extends WikiModel
 	 * Can be set via {@link #setReplaceIWBMagicWords(boolean)}
 	 */
 	private boolean replaceIWBMagicWords = true;
+	
+	/**
+	 * Collects the dependencies of the rendered page for the {@link RenderedPageCache}, may be null
+	 */
+	private RenderedPageCache.Recorder recorder = null;
 
 	private static final ThreadLocal<MessageDigest> localDigest = new ThreadLocal<MessageDigest>()
 	{
@@ -183,6 +188,16 @@ public class FluidWikiModel extends WikiModel
 		this.replaceIWBMagicWords = replaceIWBMagicWords;
 	}
 	
+	/**
+	 * Set the recorder collecting the included templates and dynamic
+	 * content of the page for the {@link RenderedPageCache}
+	 * 
+	 * @param recorder the recorder, may be null
+	 */
+	public void setRecorder(RenderedPageCache.Recorder recorder) {
+		this.recorder = recorder;
+	}
+	
 	/**
 	 * Override and enable semantic web features.
 	 */
@@ -214,6 +229,12 @@ public class FluidWikiModel extends WikiModel
 
 	@Override
 	public ITemplateFunction getTemplateFunction(String name) {
+		// all context aware functions except for #widget (which is restored
+		// by the cache) as well as #time produce dynamic content
+		if (recorder!=null && ("#time".equals(name) 
+				|| (contextAwareTemplateFunctions.containsKey(name) && !"#widget".equals(name))))
+			recorder.setUncacheable("parser function " + name);
+		
 		// return context aware parser functions first, then return default implementations
 		if (contextAwareTemplateFunctions.containsKey(name))
 			return contextAwareTemplateFunctions.get(name);
@@ -234,6 +255,14 @@ public class FluidWikiModel extends WikiModel
 		return hash.charAt(0) + "/" + hash + "/" + imageName;
 	}
 
+	/**
+	 * @return the number of templates currently being expanded, i.e. 1 while 
+	 * 			resolving a template included directly by the page
+	 */
+	int getTemplateDepth() {
+		return included.size();
+	}
+
 	@Override
 	public void substituteTemplateCall(String templateName, Map<String, String> parameterMap, Appendable writer) throws IOException {
 
@@ -439,6 +468,9 @@ public class FluidWikiModel extends WikiModel
 		if (templateName.equalsIgnoreCase("FixBunching"))
 			return "";
 
+		if (recorder!=null && isDynamicMagicWord(templateName))
+			recorder.setUncacheable("magic word " + templateName);
+		
 		// process platform specific magic words
 		if (replaceIWBMagicWords && IWBMagicWords.isMagicWord(templateName)) {
 			try {
@@ -502,6 +534,15 @@ public class FluidWikiModel extends WikiModel
 		return "";
 	}
 	
+	/**
+	 * @return true if the value of the magic word depends on the user or the current time
+	 */
+	private static boolean isDynamicMagicWord(String templateName) {
+		return templateName.equals(IWBMagicWords.MAGIC_USERNAME) 
+				|| templateName.equals(IWBMagicWords.MAGIC_USERURI)
+				|| templateName.startsWith("CURRENT") || templateName.startsWith("LOCAL");
+	}
+	
 	/**
 	 * Method for processing an image link.
 	 * Here we can customize and prepare args for the HTML converter.
@@ -623,6 +664,12 @@ public class FluidWikiModel extends WikiModel
                     if (predicate!=null)
                     {
                         object = dm.guessValueForPredicate(relationValue, ns.guessURI(nameSpace), true);
+                        if (recorder!=null)
+                        {
+                        	recorder.addResource(predicate);
+                        	if (object instanceof URI)
+                        		recorder.addResource((URI)object);
+                        }
     	                
     	                if(object instanceof URI)
     	                {
@@ -763,6 +810,51 @@ public class FluidWikiModel extends WikiModel
 		parsedWidgets.set( new ArrayList<Class<? extends AbstractWidget<?>>>() );
 	}
 	
+	/**
+	 * The static part of the rendering model of a thread, see {@link #detachModel()}
+	 */
+	public static class ModelState
+	{
+		private final List<FComponent> renderedComponents;
+		private final List<Class<? extends AbstractWidget<?>>> parsedWidgets;
+		
+		private ModelState(List<FComponent> renderedComponents, List<Class<? extends AbstractWidget<?>>> parsedWidgets)
+		{
+			this.renderedComponents = renderedComponents;
+			this.parsedWidgets = parsedWidgets;
+		}
+	}
+	
+	/**
+	 * Initializes a new static part of the rendering model for the current thread,
+	 * e.g. for rendering a widget on behalf of another page.
+	 * 
+	 * @return the previous state, to be restored with {@link #restoreModel(ModelState)}
+	 */
+	public static ModelState detachModel()
+	{
+		ModelState res = new ModelState(renderedComponents.get(), parsedWidgets.get());
+		initModel();
+		return res;
+	}
+	
+	/**
+	 * Restores the static part of the rendering model of the current thread.
+	 * 
+	 * @param state the state returned by {@link #detachModel()}
+	 */
+	public static void restoreModel(ModelState state)
+	{
+		if (state.renderedComponents==null)
+			renderedComponents.remove();
+		else
+			renderedComponents.set(state.renderedComponents);
+		if (state.parsedWidgets==null)
+			parsedWidgets.remove();
+		else
+			parsedWidgets.set(state.parsedWidgets);
+	}
+	
 	/**
 	 * Returns the list of parsed widget classes.
 	 * @return
@@ -879,16 +971,38 @@ public class FluidWikiModel extends WikiModel
 	 */
 	public String resolveIncludedTemplate(String templ, String templateName,
 			Map<String, String> templateParameters) {
+		return resolveIncludedTemplate(TemplateCache.tokenize(templ), templateName, templateParameters);
+	}
+	
+	/**
+	 * Resolves the included template given in tokenized form (see {@link TemplateCache}), 
+	 * i.e. substitutes the named template parameters in a single pass over the template
+	 * 
+	 * @param templ
+	 * @param templateName
+	 * @param templateParameters
+	 * @return
+	 */
+	public String resolveIncludedTemplate(TemplateCache.Template templ, String templateName,
+			Map<String, String> templateParameters) {
 		// Check for infinite loops is done in fluidwikimodel
 
-		// First replace all template arguments with their parsed value(s)
-		String res = templ;
-		for (Map.Entry<String, String> entry : templateParameters.entrySet()) {
-			String argName = "{{{" + entry.getKey() + "}}}";
-			String value = parseTrim(entry.getValue(), this);
-			res = res.replace(argName, value);
+		// First compute the parsed value(s) of all template arguments
+		Map<String, String> values = new HashMap<String, String>();
+		for (Map.Entry<String, String> entry : templateParameters.entrySet())
+			values.put(entry.getKey(), parseTrim(entry.getValue(), this));
+		
+		StringBuilder res = new StringBuilder();
+		for (int i=0; i<templ.getParameterCount(); i++) {
+			res.append(templ.getLiteral(i));
+			String value = values.get(templ.getParameter(i));
+			if (value!=null)
+				res.append(value);
+			else
+				res.append("{{{").append(templ.getParameter(i)).append("}}}");
 		}
-		return res;
+		res.append(templ.getLiteral(templ.getParameterCount()));
+		return res.toString();
 	}
 	
 	/**
@@ -907,6 +1021,22 @@ public class FluidWikiModel extends WikiModel
 	 * @throws IllegalArgumentException if the templateName cannot be resolved to a valid URI
 	 */
     public String getIncludedTemplate(String templateName, String namespace, Date versionFinal) throws IllegalArgumentException
+	{
+        return getCachedTemplate(templateName, namespace, versionFinal).getText();
+	}
+    
+    /**
+     * Looks up the template for the given arguments using the {@link TemplateCache}, 
+     * access rights are checked as in {@link #getIncludedTemplate(String, String, Date)}.
+     * 
+     * @param templateName
+     * @param namespace
+     * @param versionFinal
+     * @return the tokenized template, with text null if the template page does not exist
+     * 
+     * @throws IllegalArgumentException if the templateName cannot be resolved to a valid URI
+     */
+    public TemplateCache.Template getCachedTemplate(String templateName, String namespace, Date versionFinal) throws IllegalArgumentException
 	{
         URI templateURI = resolveTemplateURI(templateName, namespace);
         
@@ -914,13 +1044,14 @@ public class FluidWikiModel extends WikiModel
         if (templateURI==null)
         	throw new IllegalArgumentException( "Cannot resolve template '" + templateName.replaceAll(" ", "_") + "' as include (invalid URI)");
         
+        if (recorder!=null)
+        	recorder.addTemplate(templateURI);
+        
         // forbid include of templates to which user has no access
         if (!EndpointImpl.api().getUserManager().hasValueAccess(templateURI, ValueAccessLevel.READ))
-        	return ""; // do not render anything in case the user does not have access rights to the include
-        
-        String templ = Wikimedia.getWikiContent(templateURI, versionFinal);
+        	return TemplateCache.tokenize(""); // do not render anything in case the user does not have access rights to the include
         
-		return templ;
+		return TemplateCache.getInstance().getTemplate(templateURI, versionFinal);
 	}
     
     
@@ -24,7 +24,6 @@ import org.openrdf.model.URI;
 
 import com.fluidops.ajax.components.FComponent;
 import com.fluidops.iwb.wiki.FluidWikiModel.TemplateResolver;
-import com.fluidops.iwb.wiki.parserfunction.ParserFunctionUtil;
 import com.fluidops.iwb.wiki.parserfunction.WidgetParserFunction;
 
 /**
@@ -59,9 +58,7 @@ public class LegacyWidgetTemplateResolver implements TemplateResolver {
     	if ( templateName.startsWith("#widget"))
     	{
     		String widgetName = templateName.substring(templateName.lastIndexOf(":")+1).trim();
-    		FComponent comp = widgetParser.createWidgetComponent(widgetName, templateParameters);
-			FluidWikiModel.addRenderedComponent( comp );
-			return ParserFunctionUtil.getAnchor( comp, parent );          		
+    		return widgetParser.renderWidget(widgetName, templateParameters);
     	}
     	
     	return null;
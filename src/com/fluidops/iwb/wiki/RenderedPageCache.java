@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.wiki;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.URI;
+
+import com.fluidops.iwb.api.EndpointImpl;
+import com.fluidops.iwb.cache.BoundedCacheMap;
+import com.fluidops.iwb.cache.CacheStatistics;
+import com.fluidops.iwb.util.Config;
+import com.fluidops.iwb.wiki.parserfunction.WidgetParserFunction;
+
+/**
+ * Cache for the HTML rendered by {@link Wikimedia#getHTML(String, URI, com.fluidops.ajax.components.FComponent, Date)}.
+ *
+ * Entries are keyed on the page URI, the requested revision, the roles of the
+ * current user and the wiki text. Widgets embedded via #widget remain live: the
+ * cache stores the static HTML fragments around the widget anchors together with
+ * the widget definitions, and fresh widget components are created on every cache hit.
+ *
+ * Pages using dynamic constructs (e.g. #sparql, #show, #urlget, user or time
+ * dependent magic words) are not cached, see {@link Recorder#setUncacheable(String)}.
+ *
+ * An entry depends on the page itself, on all templates included while rendering
+ * it and on the resources whose labels and values are resolved for its semantic
+ * links. Storing or deleting any of these wiki pages as well as updating any of
+ * these resources invalidates the entry (see {@link #invalidate(URI)} and
+ * {@link com.fluidops.iwb.api.CacheManager#updateAllCaches}), invalidating
+ * all caches of the repository clears the cache.
+ *
+ * The size of the cache is configured by {@link Config#getRenderedPageCacheSize()}.
+ */
+public class RenderedPageCache
+{
+	private static final Logger logger = Logger.getLogger(RenderedPageCache.class);
+
+	private static final RenderedPageCache instance = new RenderedPageCache();
+
+	/**
+	 * Cache key of a rendered page
+	 */
+	public static class Key
+	{
+		private final URI page;
+		private final Date version;
+		private final String roles;
+		private final String wikiText;
+
+		private Key(URI page, Date version, String roles, String wikiText)
+		{
+			this.page = page;
+			this.version = version;
+			this.roles = roles;
+			this.wikiText = wikiText;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int res = page.hashCode();
+			res = 31 * res + (version==null ? 0 : version.hashCode());
+			res = 31 * res + roles.hashCode();
+			return 31 * res + wikiText.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this==obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key)obj;
+			return page.equals(other.page) && roles.equals(other.roles)
+					&& (version==null ? other.version==null : version.equals(other.version))
+					&& wikiText.equals(other.wikiText);
+		}
+	}
+
+	/**
+	 * A widget embedded into a rendered page
+	 */
+	static class WidgetSlot
+	{
+		private final String anchorId;
+		private final String widgetName;
+		private final Map<String, String> parameters;
+
+		private WidgetSlot(String anchorId, String widgetName, Map<String, String> parameters)
+		{
+			this.anchorId = anchorId;
+			this.widgetName = widgetName;
+			this.parameters = parameters;
+		}
+	}
+
+	/**
+	 * Collects the information required for caching while a page is rendered,
+	 * i.e. the included templates, the resources read from the repository and
+	 * the embedded widgets.
+	 */
+	public static class Recorder
+	{
+		private final Set<URI> templates = new HashSet<URI>();
+		private final Set<URI> resources = new HashSet<URI>();
+		private final List<WidgetSlot> widgets = new ArrayList<WidgetSlot>();
+		private String uncacheableReason = null;
+
+		public void addTemplate(URI template)
+		{
+			templates.add(template);
+		}
+
+		/**
+		 * Records a resource whose data is used for rendering the page,
+		 * e.g. the label of the target of a semantic link.
+		 *
+		 * @param resource
+		 */
+		public void addResource(URI resource)
+		{
+			resources.add(resource);
+		}
+
+		public void addWidget(String anchorId, String widgetName, Map<String, String> parameters)
+		{
+			widgets.add(new WidgetSlot(anchorId, widgetName, new LinkedHashMap<String, String>(parameters)));
+		}
+
+		/**
+		 * Marks the page as not cacheable, e.g. because it contains a
+		 * construct whose output depends on the request or on time.
+		 *
+		 * @param reason
+		 */
+		public void setUncacheable(String reason)
+		{
+			if (uncacheableReason==null)
+				uncacheableReason = reason;
+		}
+
+		public boolean isCacheable()
+		{
+			return uncacheableReason==null;
+		}
+	}
+
+	/**
+	 * A cached page: the static fragments of the HTML, interleaved with the
+	 * widgets, i.e. fragments[0] widgets[0] fragments[1] ... fragments[n]
+	 */
+	private static class Entry
+	{
+		private final String[] fragments;
+		private final WidgetSlot[] widgets;
+
+		private Entry(String[] fragments, WidgetSlot[] widgets)
+		{
+			this.fragments = fragments;
+			this.widgets = widgets;
+		}
+	}
+
+	private final BoundedCacheMap<Key, Entry> pages;
+
+	/**
+	 * The keys of the cached pages depending on a wiki page (the page
+	 * itself or an included template) or on a resource of the repository
+	 */
+	private final ConcurrentMap<URI, Set<Key>> dependents = new ConcurrentHashMap<URI, Set<Key>>();
+
+	private final AtomicLong dependencyCount = new AtomicLong();
+
+	private final int maxEntries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public static RenderedPageCache getInstance()
+	{
+		return instance;
+	}
+
+	private RenderedPageCache()
+	{
+		maxEntries = Config.getConfig().getRenderedPageCacheSize();
+		pages = new BoundedCacheMap<Key, Entry>(maxEntries, 0, evictions);
+	}
+
+	/**
+	 * Creates the cache key for rendering the given wiki text for the current
+	 * user. Returns null if the cache is disabled.
+	 *
+	 * @param page
+	 * @param version the requested revision or null for the latest
+	 * @param wikiText
+	 * @return the key or null
+	 */
+	public Key createKey(URI page, Date version, String wikiText)
+	{
+		if (maxEntries<=0 || page==null || wikiText==null)
+			return null;
+		try
+		{
+			List<String> roles = new ArrayList<String>(EndpointImpl.api().getUserManager().getRoles(null));
+			Collections.sort(roles);
+			return new Key(page, version, roles.toString(), wikiText);
+		}
+		catch (Exception e)
+		{
+			logger.debug("Rendered page is not cached, user roles unavailable: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the cached HTML for the given key, or null. On a hit, the
+	 * widgets of the page are created using the given parser function,
+	 * i.e. they are registered as rendered components.
+	 *
+	 * @param key
+	 * @param widgetParser
+	 * @return
+	 */
+	public String getHTML(Key key, WidgetParserFunction widgetParser)
+	{
+		Entry entry = pages.get(key);
+		if (entry==null)
+		{
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+
+		StringBuilder res = new StringBuilder();
+		for (int i=0; i<entry.widgets.length; i++)
+		{
+			res.append(entry.fragments[i]);
+			res.append(widgetParser.renderWidget(entry.widgets[i].widgetName, entry.widgets[i].parameters));
+		}
+		res.append(entry.fragments[entry.widgets.length]);
+		return res.toString();
+	}
+
+	/**
+	 * Caches the rendered HTML if the recorder indicates that the page
+	 * is cacheable.
+	 *
+	 * @param key
+	 * @param html the rendered HTML
+	 * @param recorder
+	 * @param renderedComponents the number of components registered while rendering
+	 */
+	public void put(Key key, String html, Recorder recorder, int renderedComponents)
+	{
+		if (!recorder.isCacheable())
+		{
+			if (logger.isTraceEnabled())
+				logger.trace("Page " + key.page + " is not cached: " + recorder.uncacheableReason);
+			return;
+		}
+		// components not created by #widget cannot be restored
+		if (renderedComponents!=recorder.widgets.size())
+			return;
+
+		Entry entry = createEntry(html, recorder.widgets);
+		if (entry==null)
+			return;
+
+		pages.put(key, entry);
+		addDependency(key.page, key);
+		for (URI template : recorder.templates)
+			addDependency(template, key);
+		for (URI resource : recorder.resources)
+			addDependency(resource, key);
+	}
+
+	/**
+	 * Invalidates all cached pages depending on the given wiki page or
+	 * resource, i.e. the page itself, all pages including it as template
+	 * and all pages using its data.
+	 *
+	 * @param page
+	 */
+	public void invalidate(URI page)
+	{
+		Set<Key> keys = dependents.remove(page);
+		if (keys==null)
+			return;
+		synchronized (keys)
+		{
+			dependencyCount.addAndGet(-keys.size());
+			for (Key key : keys)
+				pages.remove(key);
+		}
+	}
+
+	public void clear()
+	{
+		pages.clear();
+		dependents.clear();
+		dependencyCount.set(0);
+	}
+
+	public int size()
+	{
+		return pages.size();
+	}
+
+	public CacheStatistics getStatistics()
+	{
+		return new CacheStatistics(getClass().getSimpleName(), size(), hits.get(), misses.get(), evictions.get());
+	}
+
+	public void resetStatistics()
+	{
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	private void addDependency(URI page, Key key)
+	{
+		Set<Key> keys = dependents.get(page);
+		if (keys==null)
+		{
+			Set<Key> newKeys = new HashSet<Key>();
+			keys = dependents.putIfAbsent(page, newKeys);
+			if (keys==null)
+				keys = newKeys;
+		}
+		synchronized (keys)
+		{
+			if (keys.add(key) && dependencyCount.incrementAndGet()>4L*maxEntries)
+				purgeDependencies();
+		}
+	}
+
+	/**
+	 * Removes dependencies of entries which have been evicted from the cache
+	 */
+	private void purgeDependencies()
+	{
+		for (Set<Key> keys : dependents.values())
+		{
+			synchronized (keys)
+			{
+				for (Iterator<Key> it = keys.iterator(); it.hasNext();)
+				{
+					if (!pages.containsKey(it.next()))
+					{
+						it.remove();
+						dependencyCount.decrementAndGet();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Splits the HTML at the anchors of the widgets. Returns null if
+	 * an anchor cannot be located unambiguously.
+	 */
+	private static Entry createEntry(String html, List<WidgetSlot> widgets)
+	{
+		final Map<WidgetSlot, int[]> bounds = new LinkedHashMap<WidgetSlot, int[]>();
+		for (WidgetSlot w : widgets)
+		{
+			int[] b = findAnchor(html, w.anchorId);
+			if (b==null)
+				return null;
+			bounds.put(w, b);
+		}
+
+		List<WidgetSlot> sorted = new ArrayList<WidgetSlot>(widgets);
+		Collections.sort(sorted, new Comparator<WidgetSlot>() {
+			@Override
+			public int compare(WidgetSlot o1, WidgetSlot o2) {
+				return bounds.get(o1)[0] - bounds.get(o2)[0];
+			}
+		});
+
+		String[] fragments = new String[sorted.size()+1];
+		int pos = 0;
+		for (int i=0; i<sorted.size(); i++)
+		{
+			int[] b = bounds.get(sorted.get(i));
+			if (b[0]<pos)
+				return null;
+			fragments[i] = html.substring(pos, b[0]);
+			pos = b[1];
+		}
+		fragments[sorted.size()] = html.substring(pos);
+		return new Entry(fragments, sorted.toArray(new WidgetSlot[sorted.size()]));
+	}
+
+	/**
+	 * Returns the start and end offset of the anchor element with the given id,
+	 * see {@link com.fluidops.iwb.wiki.parserfunction.ParserFunctionUtil#getAnchor}
+	 */
+	private static int[] findAnchor(String html, String anchorId)
+	{
+		String idAttribute = "id=\"" + anchorId + "\"";
+		int idx = html.indexOf(idAttribute);
+		if (idx<0 || html.indexOf(idAttribute, idx+1)>=0)
+			return null;
+		int start = html.lastIndexOf("<div", idx);
+		if (start<0 || html.lastIndexOf('>', idx)>start)
+			return null;
+		int end = html.indexOf("</div>", idx);
+		if (end<0)
+			return null;
+		return new int[] { start, end+"</div>".length() };
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.wiki;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openrdf.model.URI;
+
+import com.fluidops.iwb.cache.BoundedCacheMap;
+import com.fluidops.iwb.cache.CacheStatistics;
+import com.fluidops.iwb.util.Config;
+
+/**
+ * Cache for the content of wiki templates included by {@link FluidWikiModel},
+ * keyed on the template URI and the requested revision. Templates are kept in
+ * tokenized form, i.e. split at the named parameter references {{{name}}},
+ * such that parameters can be substituted without scanning the template text
+ * once per parameter.
+ *
+ * Non-existing templates are cached as well. Storing or deleting a wiki page
+ * invalidates all cached revisions of the page, see {@link #invalidate(URI)}.
+ * The size of the cache is configured by {@link Config#getTemplateCacheSize()}.
+ */
+public class TemplateCache
+{
+	private static final TemplateCache instance = new TemplateCache();
+
+	/**
+	 * The content of a template, split at the parameter references:
+	 * literals[0] params[0] literals[1] ... literals[n]
+	 */
+	public static class Template
+	{
+		private final String text;
+		private final String[] literals;
+		private final String[] params;
+
+		private Template(String text, String[] literals, String[] params)
+		{
+			this.text = text;
+			this.literals = literals;
+			this.params = params;
+		}
+
+		/**
+		 * @return the raw template text, null if the template does not exist
+		 */
+		public String getText()
+		{
+			return text;
+		}
+
+		int getParameterCount()
+		{
+			return params.length;
+		}
+
+		String getParameter(int i)
+		{
+			return params[i];
+		}
+
+		String getLiteral(int i)
+		{
+			return literals[i];
+		}
+	}
+
+	private static class Key
+	{
+		private final URI template;
+		private final Date version;
+
+		private Key(URI template, Date version)
+		{
+			this.template = template;
+			this.version = version;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * template.hashCode() + (version==null ? 0 : version.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this==obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key)obj;
+			return template.equals(other.template)
+					&& (version==null ? other.version==null : version.equals(other.version));
+		}
+	}
+
+	private static class Entry
+	{
+		private final Template template;
+		private final long generation;
+
+		private Entry(Template template, long generation)
+		{
+			this.template = template;
+			this.generation = generation;
+		}
+	}
+
+	private final BoundedCacheMap<Key, Entry> templates;
+
+	/**
+	 * Per template counter incremented on every change, cached entries
+	 * of older generations are stale
+	 */
+	private final ConcurrentMap<URI, AtomicLong> generations = new ConcurrentHashMap<URI, AtomicLong>();
+
+	private final int maxEntries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public static TemplateCache getInstance()
+	{
+		return instance;
+	}
+
+	private TemplateCache()
+	{
+		maxEntries = Config.getConfig().getTemplateCacheSize();
+		templates = new BoundedCacheMap<Key, Entry>(maxEntries, 0, evictions);
+	}
+
+	/**
+	 * Returns the given revision of the template, loading it from the
+	 * wiki storage on cache miss.
+	 *
+	 * @param templateURI
+	 * @param version the revision, null for the latest
+	 * @return the template, never null
+	 */
+	public Template getTemplate(URI templateURI, Date version)
+	{
+		if (maxEntries<=0)
+			return tokenize(Wikimedia.getWikiContent(templateURI, version));
+
+		Key key = new Key(templateURI, version);
+		long generation = generationOf(templateURI);
+		Entry entry = templates.get(key);
+		if (entry!=null && entry.generation==generation)
+		{
+			hits.incrementAndGet();
+			return entry.template;
+		}
+		misses.incrementAndGet();
+
+		Template res = tokenize(Wikimedia.getWikiContent(templateURI, version));
+		templates.put(key, new Entry(res, generation));
+		return res;
+	}
+
+	/**
+	 * Invalidates all cached revisions of the given wiki page
+	 *
+	 * @param page
+	 */
+	public void invalidate(URI page)
+	{
+		AtomicLong generation = generations.get(page);
+		if (generation==null)
+		{
+			AtomicLong newGeneration = new AtomicLong();
+			generation = generations.putIfAbsent(page, newGeneration);
+			if (generation==null)
+				generation = newGeneration;
+		}
+		generation.incrementAndGet();
+	}
+
+	public void clear()
+	{
+		templates.clear();
+	}
+
+	public int size()
+	{
+		return templates.size();
+	}
+
+	public CacheStatistics getStatistics()
+	{
+		return new CacheStatistics(getClass().getSimpleName(), size(), hits.get(), misses.get(), evictions.get());
+	}
+
+	public void resetStatistics()
+	{
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	/**
+	 * Returns the generation of the given wiki page, which changes
+	 * whenever the page is invalidated
+	 *
+	 * @param page
+	 * @return
+	 */
+	long generationOf(URI page)
+	{
+		AtomicLong generation = generations.get(page);
+		return generation==null ? 0 : generation.get();
+	}
+
+	/**
+	 * Splits the template text at the named parameter references {{{name}}}.
+	 * References with a default value, i.e. {{{name|default}}}, are kept as
+	 * literal text and are handled by the wiki engine.
+	 *
+	 * @param text the template text, may be null
+	 * @return
+	 */
+	static Template tokenize(String text)
+	{
+		if (text==null)
+			return new Template(null, new String[] { "" }, new String[0]);
+
+		List<String> literals = new ArrayList<String>();
+		List<String> params = new ArrayList<String>();
+		int literalStart = 0;
+		int idx = text.indexOf("{{{");
+		while (idx>=0)
+		{
+			int end = text.indexOf("}}}", idx+3);
+			if (end<0)
+				break;
+			String name = text.substring(idx+3, end);
+			if (name.indexOf('|')<0 && name.indexOf('{')<0 && name.indexOf('}')<0)
+			{
+				literals.add(text.substring(literalStart, idx));
+				params.add(name);
+				literalStart = end+3;
+				idx = text.indexOf("{{{", literalStart);
+			}
+			else
+				idx = text.indexOf("{{{", idx+1);
+		}
+		literals.add(text.substring(literalStart));
+		return new Template(text, literals.toArray(new String[literals.size()]), params.toArray(new String[params.size()]));
+	}
+}
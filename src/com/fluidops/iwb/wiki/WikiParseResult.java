@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.wiki;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.openrdf.model.URI;
+
+import com.fluidops.iwb.widget.AbstractWidget;
+
+/**
+ * The structure of a wiki page as computed by {@link Wikimedia#parse(String, URI)}
+ * in a single template expansion pass: the classes of the embedded widgets
+ * (including widgets of included templates) and the templates included
+ * directly by the page.
+ *
+ * Instances are immutable and are shared between requests.
+ */
+public class WikiParseResult {
+
+	private final List<Class<? extends AbstractWidget<?>>> widgetClasses;
+
+	private final List<URI> includedTemplates;
+
+	WikiParseResult(List<Class<? extends AbstractWidget<?>>> widgetClasses, List<URI> includedTemplates) {
+		this.widgetClasses = Collections.unmodifiableList(widgetClasses);
+		this.includedTemplates = Collections.unmodifiableList(includedTemplates);
+	}
+
+	/**
+	 * @return the classes of the widgets embedded into the page or its templates
+	 */
+	public List<Class<? extends AbstractWidget<?>>> getWidgetClasses() {
+		return widgetClasses;
+	}
+
+	/**
+	 * @return the URIs of the templates included directly by the page
+	 */
+	public List<URI> getIncludedTemplates() {
+		return includedTemplates;
+	}
+}
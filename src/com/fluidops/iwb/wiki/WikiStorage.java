@@ -161,6 +161,7 @@ public abstract class WikiStorage
 			logger.error("Could not delete the content of the wiki page " + resource.stringValue() + " from index: " + e.getMessage());
 			logger.debug("Details: ", e);
 		}
+		pageChanged(resource);
 		return deleteFromStorage(resource);
 	}
 	
@@ -197,6 +198,7 @@ public abstract class WikiStorage
 			needUpdate = true;
 		}
 		boolean result = deleteRevisionFromStorage(resource, rev);
+		pageChanged(resource);
 		if(needUpdate && result) {
 			try {
 				KeywordIndexAPI.replaceWikiIndexEntry(resource, this.getRawWikiContent(resource, null));
@@ -313,10 +315,25 @@ public abstract class WikiStorage
 
         storeWikiContent(name, content, wr);
         
+        // invalidate the rendered page and all pages including it as template
+        pageChanged(name);
+        
         // Update wiki page in keyword index
         KeywordIndexAPI.replaceWikiIndexEntry(name, content);
     }
 
+    /**
+     * Invalidates the cached rendering and parse results depending on the given page
+     * 
+     * @param name
+     */
+    private static void pageChanged(URI name)
+    {
+    	RenderedPageCache.getInstance().invalidate(name);
+    	// also invalidates the cached parse results including the page as template
+    	TemplateCache.getInstance().invalidate(name);
+    }
+
     private Date previousBootstrapVersion(Date date)
     {
         return new Date(date.getTime() - 1);
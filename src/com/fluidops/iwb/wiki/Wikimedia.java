@@ -24,10 +24,12 @@ import info.bliki.wiki.model.SemanticRelation;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -51,6 +53,8 @@ import com.fluidops.iwb.api.ReadWriteDataManager;
 import com.fluidops.iwb.api.ReadWriteDataManagerImpl;
 import com.fluidops.iwb.api.RequestMapper;
 import com.fluidops.iwb.api.valueresolver.ValueResolver;
+import com.fluidops.iwb.cache.BoundedCacheMap;
+import com.fluidops.iwb.layout.ParallelWidgetRenderer;
 import com.fluidops.iwb.page.PageContext;
 import com.fluidops.iwb.util.Config;
 import com.fluidops.iwb.widget.AbstractWidget;
@@ -93,20 +97,82 @@ public class Wikimedia
     // html header
     static String htmlHeader;
     
+    /**
+     * A cached {@link WikiParseResult} with the generations of all templates
+     * it was computed from, see {@link TemplateCache#generationOf(URI)}
+     */
+    private static class ParseCacheEntry
+    {
+    	private final WikiParseResult result;
+    	private final Map<URI, Long> templateGenerations;
+    	
+    	private ParseCacheEntry(WikiParseResult result, Map<URI, Long> templateGenerations)
+    	{
+    		this.result = result;
+    		this.templateGenerations = templateGenerations;
+    	}
+    	
+    	private boolean isValid()
+    	{
+    		TemplateCache templates = TemplateCache.getInstance();
+    		for (Map.Entry<URI, Long> e : templateGenerations.entrySet())
+    			if (templates.generationOf(e.getKey())!=e.getValue())
+    				return false;
+    		return true;
+    	}
+    }
+    
+    // results of parse(), keyed on page URI and wiki text (null if disabled)
+    private static final BoundedCacheMap<String, ParseCacheEntry> parseResults = Config.getConfig().getWikiParseCacheSize()>0 
+    		? new BoundedCacheMap<String, ParseCacheEntry>(Config.getConfig().getWikiParseCacheSize(), 0, new AtomicLong()) 
+    		: null;
+    
     /**
      * Gets the HTML.
      * 
      * @return the HTML
      */
     public static String getHTML( String wikitext, final URI id, FComponent parent, Date version)
+    {
+    	return getHTML(wikitext, id, parent, version, null);
+    }
+    
+    /**
+     * Gets the HTML, the embedded widgets are submitted to the given renderer while
+     * the wiki text is rendered. The renderer is awaited before returning, i.e. the
+     * widget components are registered (see {@link #getRenderedComponents()}), see
+     * {@link WidgetParserFunction#awaitWidgets(String)}.
+     * 
+     * @param renderer the renderer or null for rendering the widgets immediately
+     * @return the HTML
+     */
+    public static String getHTML( String wikitext, final URI id, FComponent parent, Date version, 
+    		ParallelWidgetRenderer renderer)
     {
         if (wikitext==null || wikitext.length()==0)
             return "(No text defined for this topic)";
 
-        final FluidWikiModel wikiModel = new FluidWikiModel(id, parent);
         PageContext pc = pageContextFor(id, parent);
-        ParserFunctionsFactory.registerPageContextAwareParserFunctions(wikiModel, pc);
         final WidgetParserFunction widgetParser = new WidgetParserFunction(parent);
+        widgetParser.setPageContext(pc);
+        widgetParser.setRenderer(renderer);
+        
+        // serve the static parts from the cache, widgets are created anew
+        RenderedPageCache cache = RenderedPageCache.getInstance();
+        RenderedPageCache.Key cacheKey = cache.createKey(id, version, wikitext);
+        if (cacheKey!=null) {
+        	String html = cache.getHTML(cacheKey, widgetParser);
+        	if (html!=null)
+        		return widgetParser.awaitWidgets(html);
+        }
+        RenderedPageCache.Recorder recorder = cacheKey!=null ? new RenderedPageCache.Recorder() : null;
+        List<FComponent> renderedComponents = getRenderedComponents();
+        int componentsBefore = renderedComponents!=null ? renderedComponents.size() : 0;
+        
+        final FluidWikiModel wikiModel = new FluidWikiModel(id, parent);
+        wikiModel.setRecorder(recorder);
+        widgetParser.setRecorder(recorder);
+        ParserFunctionsFactory.registerPageContextAwareParserFunctions(wikiModel, pc);
         ParserFunctionsFactory.registerParserFunction(wikiModel, pc, widgetParser);
         ParserFunctionsFactory.registerParserFunction(wikiModel, pc, new SparqlParserFunction());
         ParserFunctionsFactory.registerParserFunction(wikiModel, pc, new ShowParserFunction());
@@ -140,7 +206,13 @@ public class Wikimedia
         // try to resolve template variables like $this.Host/cpuUsage
         html = replaceTemplateVariables(html,id);
         
-        return html;
+        // the cache entry is created from the provisional anchors of the widgets
+        String res = widgetParser.awaitWidgets(html);
+        
+        if (recorder!=null && renderedComponents!=null)
+        	cache.put(cacheKey, html, recorder, renderedComponents.size()-componentsBefore);
+        
+        return res;
     }
     
     private static PageContext pageContextFor(URI page, FComponent parent) {
@@ -160,20 +232,61 @@ public class Wikimedia
 	 * 
 	 * @param wikitext
 	 * @param id
-	 * @param included
 	 * @return list of widget classes
+	 * @see #parse(String, URI)
 	 */
 	public static List<Class<? extends AbstractWidget<?>>> parseWidgets( String wikitext, final URI id)
     {    	
-		
-		// TODO think if we can avoid the additional parsing step as this is only
-		// used for jsUrls mechanism in SemWiki. In Bug 10060
-		
         if (wikitext==null || wikitext.length()==0)
             return FluidWikiModel.getParsedWidgets();
 
-        final FluidWikiModel wikiModel = new FluidWikiModel(id);
-        wikiModel.addTemplateResolver(new TemplateResolver() {
+        for (Class<? extends AbstractWidget<?>> c : parse(wikitext, id).getWidgetClasses())
+        	FluidWikiModel.addParsedWidget(c);
+        
+        return FluidWikiModel.getParsedWidgets();
+    }
+	
+	/**
+	 * Parses the given wikiText for the occurrences of included page templates and resolves them as URIs. 
+	 * Filters out all widget definitions and magic words. Templates included by
+	 * other templates are not reported, i.e. the result is the same as without
+	 * expanding the templates.
+	 * 
+	 * @param wikiText
+	 * @param id
+	 * @return List of URIs corresponding to included page templates.
+	 * @see #parse(String, URI)
+	 */
+	public static List<URI> parseIncludedTemplates(String wikiText, final URI id) {
+		if (wikiText==null || wikiText.length()==0) 
+			return Collections.emptyList();
+	    
+	    return parse(wikiText, id).getIncludedTemplates();
+	}
+	
+	/**
+	 * Computes the structure of the given wiki text, i.e. the embedded widgets and the 
+	 * included templates, in a single template expansion pass. Results are cached per 
+	 * page and wiki text until one of the templates included at any depth is changed.
+	 * 
+	 * @param wikiText
+	 * @param id
+	 * @return
+	 */
+	public static WikiParseResult parse(String wikiText, final URI id) {
+		
+		String key = id.stringValue() + "\n" + wikiText;
+		ParseCacheEntry cached = parseResults!=null ? parseResults.get(key) : null;
+		if (cached!=null && cached.isValid())
+			return cached.result;
+		
+		final List<Class<? extends AbstractWidget<?>>> widgetClasses = Lists.newArrayList();
+		final List<URI> includedTemplates = Lists.newArrayList();
+		// generations of the templates at any depth, taken before they are loaded
+		final Map<URI, Long> templateGenerations = new HashMap<URI, Long>();
+		
+		final FluidWikiModel wikiModel = new FluidWikiModel(id);
+		wikiModel.addTemplateResolver(new TemplateResolver() {
 			
 			@SuppressWarnings("unchecked")
 			@Override
@@ -185,16 +298,27 @@ public class Wikimedia
 						String widgetName = templateName.substring(templateName.lastIndexOf(":")+1).trim();
 	        			String widgetClassName = EndpointImpl.api().getWidgetService().getWidgetClass( widgetName );
 	        			
-	                    if (widgetClassName==null)
-	                    	return null;	
-									
-						FluidWikiModel.addParsedWidget( (Class<? extends AbstractWidget<?>>) Class.forName( widgetClassName ) );
+	                    if (widgetClassName!=null)
+	                    	widgetClasses.add( (Class<? extends AbstractWidget<?>>) Class.forName( widgetClassName ) );
 						
 					} catch (Exception e) {
 						logger.warn("Error while parsing widgets: " + e.getMessage());
 						logger.debug("Details: ", e);
 					}
+					return null;
 	        	}
+				
+				// nested includes are expanded by the template resolver, only the templates
+				// included by the page itself are reported
+				if (!templateName.startsWith("#") && !IWBMagicWords.isMagicWord(templateName)) {
+					URI templateURI = FluidWikiModel.resolveTemplateURI(templateName, namespace);
+					if (templateURI!=null) {
+						if (!templateGenerations.containsKey(templateURI))
+							templateGenerations.put(templateURI, TemplateCache.getInstance().generationOf(templateURI));
+						if (wikiModel.getTemplateDepth()<=1)
+							includedTemplates.add(templateURI);
+					}
+				}
 				return null;
 			}
 		});
@@ -202,51 +326,12 @@ public class Wikimedia
         tplResolver.setIgnoreErrors(true);
         wikiModel.addTemplateResolver(tplResolver);
         wikiModel.setUp();
-        wikiModel.parseTemplates(wikitext);
+        wikiModel.parseTemplates(wikiText);
         
-        return FluidWikiModel.getParsedWidgets();
-    }
-	
-	/**
-	 * Parses the given wikiText for the occurrences of included page templates and resolves them as URIs. 
-	 * Filters out all widget definitions and magic words. 
-	 * 
-	 * @param wikiText
-	 * @param id
-	 * @return List of URIs corresponding to included page templates.
-	 */
-	public static List<URI> parseIncludedTemplates(String wikiText, final URI id) {
-        // Take the templates included in the Wiki text in '{{}}' brackets.
-		if (wikiText==null || wikiText.length()==0) 
-			return Collections.emptyList();
-	    
-		final List<URI> res = Lists.newArrayList();
-		
-		FluidWikiModel wikiModel = new FluidWikiModel(id);
-		
-		wikiModel.addTemplateResolver(new TemplateResolver() {
-
-			@Override
-			public String resolveTemplate(String namespace,
-					String templateName,
-					Map<String, String> templateParameters, URI page,
-					FComponent parent) {
-				
-				if(templateName.startsWith("#"))
-					return null;
-				if(IWBMagicWords.isMagicWord(templateName))
-					return null;
-				URI templateURI = FluidWikiModel.resolveTemplateURI(templateName, namespace);
-				if(templateURI!=null)
-					res.add(templateURI);
-				return null;
-			}
-			
-		});
-		wikiModel.setUp();
-	    wikiModel.parseTemplates(wikiText);
-	    
-	    return res;
+        WikiParseResult res = new WikiParseResult(widgetClasses, includedTemplates);
+        if (parseResults!=null)
+        	parseResults.put(key, new ParseCacheEntry(res, templateGenerations));
+        return res;
 	}
     
     /**
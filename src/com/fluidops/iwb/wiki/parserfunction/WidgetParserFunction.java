@@ -23,6 +23,7 @@ import info.bliki.wiki.model.IWikiModel;
 import info.bliki.wiki.template.AbstractTemplateFunction;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -31,12 +32,14 @@ import org.apache.log4j.Logger;
 import com.fluidops.ajax.components.FComponent;
 import com.fluidops.iwb.api.EndpointImpl;
 import com.fluidops.iwb.api.operator.Operator;
+import com.fluidops.iwb.layout.ParallelWidgetRenderer;
 import com.fluidops.iwb.page.PageContext;
 import com.fluidops.iwb.ui.AnnotateLinkComponent;
 import com.fluidops.iwb.widget.Widget;
 import com.fluidops.iwb.widget.WidgetEmbeddingError;
 import com.fluidops.iwb.widget.WidgetEmbeddingError.ErrorType;
 import com.fluidops.iwb.wiki.FluidWikiModel;
+import com.fluidops.iwb.wiki.RenderedPageCache;
 
 /**
  * A parser function which creates a widget component and renders the html anchor at
@@ -54,6 +57,34 @@ public class WidgetParserFunction extends AbstractTemplateFunction implements Pa
 	
 	private PageContext pc;	
 	
+	private RenderedPageCache.Recorder recorder;
+	
+	private ParallelWidgetRenderer renderer;
+	
+	// the widgets submitted to the renderer, in the order of submission
+	private final List<WidgetSlot> slots = new ArrayList<WidgetSlot>();
+	
+	/**
+	 * A widget submitted to the renderer. The wiki text contains a provisional
+	 * anchor, which is replaced by the anchor of the widget component in
+	 * {@link WidgetParserFunction#awaitWidgets(String)}.
+	 */
+	private static class WidgetSlot implements ParallelWidgetRenderer.Target {
+		
+		private final String anchor;
+		
+		private FComponent component;
+		
+		private WidgetSlot(String id) {
+			this.anchor = "<div id=\"" + id + "\">&nbsp;</div>";
+		}
+		
+		@Override
+		public void add(FComponent component) {
+			this.component = component;
+		}
+	}
+	
 	
 	/**
 	 * @param parent
@@ -71,9 +102,30 @@ public class WidgetParserFunction extends AbstractTemplateFunction implements Pa
 			return null;
 		
 		String widgetName = parts.get(0).trim(); // the short name or fully qualified class
-		FComponent cmp = createWidgetComponent(widgetName, ParserFunctionUtil.getTemplateParameters(parts));
+		return renderWidget(widgetName, ParserFunctionUtil.getTemplateParameters(parts));
+	}
+	
+	/**
+	 * Creates the widget component, registers it to the {@link FluidWikiModel}
+	 * and returns its HTML anchor. If a recorder is set, the widget is recorded
+	 * such that it can be recreated from the {@link RenderedPageCache}.
+	 * 
+	 * @param widgetName
+	 * @param templateParameters
+	 * @return
+	 */
+	public String renderWidget(String widgetName, Map<String, String> templateParameters) {
+		if (renderer!=null)
+			return submitWidget(widgetName, templateParameters);
+		return registerComponent(createWidgetComponent(widgetName, templateParameters), widgetName, templateParameters);
+	}
+	
+	private String registerComponent(FComponent cmp, String widgetName, Map<String, String> templateParameters) {
 		FluidWikiModel.addRenderedComponent( cmp );
-		return ParserFunctionUtil.getAnchor(cmp, parent);
+		String anchor = ParserFunctionUtil.getAnchor(cmp, parent);
+		if (recorder!=null)
+			recorder.addWidget(cmp.getId(), widgetName, templateParameters);
+		return anchor;
 	}
 
 	/**
@@ -89,37 +141,9 @@ public class WidgetParserFunction extends AbstractTemplateFunction implements Pa
 		
 		try
 		{
-			String widgetClassName = EndpointImpl.api().getWidgetService().getWidgetClass( widgetName );
-			
-            if (widgetClassName==null)
-            	return WidgetEmbeddingError.getErrorLabel("w"+AnnotateLinkComponent.getNextId(), ErrorType.GENERIC, 
-            			"Error: Illegal widget or widget improperly registered in the configuration: " + widgetName);
-
-			Class<?> widgetClass = Class.forName( widgetClassName );
-			Widget<?> widget = (Widget<?>) widgetClass.newInstance();
-			
-			// build page context from parent's page context
-			PageContext childPageContext = PageContext.createChildPageContext(pc);
-            
-			widget.setPageContext(childPageContext);
-			
-			//************ WORKAROUND ***************\\
-			// in this case, unnamed parameters are used, such as {{#widget: Address | 'Bruchsal'}}
-			// Actually we ask here, whether the field "1" is set (this would correspond to 1 = 'Bruchsal')
-			// This is a workaround, since the previous if statement was broken, since bliki 3.0.16
-			if(templateParameters.size()==0) {
-                widget.setMapping(Operator.createNoop());
-			}
-			else if(!isNullOrEmpty(templateParameters.get("1")) 
-					&& !isNullOrEmpty(templateParameters.get("1").trim()))
-			{
-			    String mappingString = templateParameters.get( "1" );
-			    widget.setMapping( Operator.parse(mappingString, pc.value) );
-			}
-			else // named parameters are used
-			{						    
-			    widget.setMapping( Operator.parseStruct(templateParameters, pc.value) );
-			}
+			Widget<?> widget = createWidget(widgetName, templateParameters);
+            if (widget==null)
+            	return illegalWidgetLabel(widgetName);
 			
 			String id = "w"+AnnotateLinkComponent.getNextId();
 			FComponent comp = widget.getComponentUAE( id );
@@ -144,10 +168,133 @@ public class WidgetParserFunction extends AbstractTemplateFunction implements Pa
 		}
 	}
 	
+	/**
+	 * Submits the widget to the parallel renderer and returns its provisional
+	 * HTML anchor. The widget component is registered to the {@link FluidWikiModel}
+	 * in {@link #awaitWidgets(String)}. Errors are registered and rendered
+	 * immediately as {@link WidgetEmbeddingError} label.
+	 * 
+	 * @param widgetName
+	 * @param templateParameters
+	 * @return
+	 */
+	@edu.umd.cs.findbugs.annotations.SuppressWarnings(value="REC_CATCH_EXCEPTION", justification="Used for error handling")
+	private String submitWidget(String widgetName, Map<String, String> templateParameters) {
+		
+		Widget<?> widget;
+		try
+		{
+			widget = createWidget(widgetName, templateParameters);
+		} catch (Exception e)  {			
+			logger.error("Error during widget parsing: " + e.getMessage());
+			logger.debug("Details:", e);			
+			return registerComponent(WidgetEmbeddingError.getErrorLabel(
+					"w"+AnnotateLinkComponent.getNextId(),
+					ErrorType.EXCEPTION, e.toString()), widgetName, templateParameters);
+		}
+		if (widget==null)
+			return registerComponent(illegalWidgetLabel(widgetName), widgetName, templateParameters);
+		
+		String id = "w"+AnnotateLinkComponent.getNextId();
+		WidgetSlot slot = new WidgetSlot(id);
+		slots.add(slot);
+		renderer.render(widget, id, slot);
+		if (recorder!=null)
+			recorder.addWidget(id, widgetName, templateParameters);
+		return slot.anchor;
+	}
+	
+	/**
+	 * Waits for the widgets submitted to the renderer (see {@link ParallelWidgetRenderer#awaitAll()}),
+	 * registers their components to the {@link FluidWikiModel} and replaces their provisional
+	 * anchors in the given HTML by the anchors of the components.
+	 * 
+	 * @param html the HTML rendered with this parser function
+	 * @return the HTML with the anchors of the widget components
+	 */
+	public String awaitWidgets(String html) {
+		if (renderer==null)
+			return html;
+		renderer.awaitAll();
+		for (WidgetSlot slot : slots) {
+			FluidWikiModel.addRenderedComponent( slot.component );
+			html = html.replace(slot.anchor, ParserFunctionUtil.getAnchor(slot.component, parent));
+		}
+		slots.clear();
+		return html;
+	}
+	
+	/**
+	 * Creates the widget and sets its page context and mapping.
+	 * 
+	 * @param widgetName
+	 * @param templateParameters
+	 * @return the widget or null if there is no widget registered for the name
+	 * @throws Exception
+	 */
+	private Widget<?> createWidget(String widgetName, Map<String, String> templateParameters) throws Exception {
+		
+		String widgetClassName = EndpointImpl.api().getWidgetService().getWidgetClass( widgetName );
+		
+        if (widgetClassName==null)
+        	return null;
+
+		Class<?> widgetClass = Class.forName( widgetClassName );
+		Widget<?> widget = (Widget<?>) widgetClass.newInstance();
+		
+		// build page context from parent's page context
+		PageContext childPageContext = PageContext.createChildPageContext(pc);
+        
+		widget.setPageContext(childPageContext);
+		
+		//************ WORKAROUND ***************\\
+		// in this case, unnamed parameters are used, such as {{#widget: Address | 'Bruchsal'}}
+		// Actually we ask here, whether the field "1" is set (this would correspond to 1 = 'Bruchsal')
+		// This is a workaround, since the previous if statement was broken, since bliki 3.0.16
+		if(templateParameters.size()==0) {
+            widget.setMapping(Operator.createNoop());
+		}
+		else if(!isNullOrEmpty(templateParameters.get("1")) 
+				&& !isNullOrEmpty(templateParameters.get("1").trim()))
+		{
+		    String mappingString = templateParameters.get( "1" );
+		    widget.setMapping( Operator.parse(mappingString, pc.value) );
+		}
+		else // named parameters are used
+		{						    
+		    widget.setMapping( Operator.parseStruct(templateParameters, pc.value) );
+		}
+		return widget;
+	}
+	
+	private static FComponent illegalWidgetLabel(String widgetName) {
+		return WidgetEmbeddingError.getErrorLabel("w"+AnnotateLinkComponent.getNextId(), ErrorType.GENERIC, 
+    			"Error: Illegal widget or widget improperly registered in the configuration: " + widgetName);
+	}
+	
 	@Override
 	public void setPageContext(PageContext pc) {
 		this.pc = pc;		
 	}
+	
+	/**
+	 * Set the recorder to be notified about rendered widgets, may be null
+	 * 
+	 * @param recorder
+	 */
+	public void setRecorder(RenderedPageCache.Recorder recorder) {
+		this.recorder = recorder;
+	}
+	
+	/**
+	 * Set the renderer on which widgets are rendered in parallel, may be null
+	 * for rendering the widgets immediately
+	 * 
+	 * @param renderer
+	 */
+	public void setRenderer(ParallelWidgetRenderer renderer) {
+		this.renderer = renderer;
+	}
 
 	@Override
 	public String getFunctionName() {
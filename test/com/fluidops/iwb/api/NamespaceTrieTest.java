@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the {@link NamespaceTrie} with the previous resolution of
+ * namespaces by a scan over the namespaces ordered by descending length.
+ */
+public class NamespaceTrieTest
+{
+	/**
+	 * The SPARQL local name pattern previously used by NamespaceServiceImpl
+	 */
+	private static final Pattern LOCAL_NAME;
+
+	static
+	{
+		String pnCharsBase = String.format("[A-Za-z\u00C0-\u00D6\u00D8-\u00F6"
+				+ "\u00F8-\u02FF\u0370-\u037D"
+				+ "\u037F-\u1FFF\u200C-\u200D"
+				+ "\u2070-\u218F\u2C00-\u2FEF"
+				+ "\u3001-\uD7FF\uF900-\uFDCF"
+				+ "\uFDF0-\uFFFD%s-%s]",
+				new String(Character.toChars(0x10000)), new String(Character.toChars(0xEFFFF)));
+		String pnCharsU = "[" + pnCharsBase + "[_]]";
+		String pnChars = "[" + pnCharsU + "[\\-0-9\u00B7\u0300-\u036F\u203F-\u2040]]";
+		LOCAL_NAME = Pattern.compile(String.format("%s(%s*%s)?", pnCharsU, "[" + pnChars + "[.]]", pnChars));
+	}
+
+	private Map<Object, Object> store;
+
+	private SortedSet<Entry<Object, Object>> namespacesByDescSize;
+
+	private NamespaceTrie trie;
+
+	private List<String> uris;
+
+	@Before
+	public void setUp()
+	{
+		store = new HashMap<Object, Object>();
+		for (int i=0; i<300; i++)
+		{
+			store.put("ns" + i, "http://example.org/ns" + i + "/");
+			// nested namespaces
+			store.put("help" + i, "http://example.org/ns" + i + "/help/");
+		}
+		// several prefixes for the same namespace
+		store.put("a", "http://example.org/same#");
+		store.put("b", "http://example.org/same#");
+		store.put("rdf", "http://www.w3.org/1999/02/22-rdf-syntax-ns#");
+
+		namespacesByDescSize = new TreeSet<Entry<Object, Object>>(new Comparator<Entry<Object, Object>>()
+		{
+			@Override
+			public int compare(Entry<Object, Object> o1, Entry<Object, Object> o2)
+			{
+				int o1l = ((String)o1.getValue()).length();
+				int o2l = ((String)o2.getValue()).length();
+				if (o1l!=o2l)
+					return o2l-o1l;
+				return o1.toString().compareTo(o2.toString());
+			}
+		});
+		namespacesByDescSize.addAll(store.entrySet());
+		trie = new NamespaceTrie(store);
+
+		String[] localNames = { "name", "help", "help/x", "x.y", "x.", "1abc", "_a-b", "\u00E4\u00F6", "a b", "" };
+		Random random = new Random(42);
+		uris = new ArrayList<String>();
+		for (int i=0; i<2000; i++)
+		{
+			String local = localNames[random.nextInt(localNames.length)];
+			switch (random.nextInt(4))
+			{
+			case 0:
+				uris.add("http://example.org/same#" + local);
+				break;
+			case 1:
+				uris.add("http://unknown.org/" + local);
+				break;
+			default:
+				uris.add("http://example.org/ns" + random.nextInt(300) + "/" + local);
+			}
+		}
+	}
+
+	@Test
+	public void testSameAsLinearScan()
+	{
+		for (String uri : uris)
+		{
+			assertEquals(uri, getNamespaceByScan(uri), trie.getNamespace(uri));
+			assertEquals(uri, abbreviateByScan(uri), abbreviateByTrie(uri));
+		}
+		assertEquals("http://example.org/ns7/help/", trie.getNamespace("http://example.org/ns7/help/x"));
+		assertEquals("a:x", abbreviateByTrie("http://example.org/same#x"));
+		assertNull(abbreviateByTrie("http://example.org/ns7/x."));
+	}
+
+	@Test
+	public void testValidLocalName()
+	{
+		Random random = new Random(7);
+		char[] chars = { 'a', 'Z', '_', '-', '.', '0', '\u00B7', '\u0300', '\u203F', '\u00E4', ' ', '/', '#' };
+		for (int i=0; i<10000; i++)
+		{
+			StringBuilder sb = new StringBuilder();
+			int len = random.nextInt(6);
+			for (int j=0; j<len; j++)
+				sb.append(chars[random.nextInt(chars.length)]);
+			String s = sb.toString();
+			assertEquals(s, LOCAL_NAME.matcher(s).matches(), NamespaceTrie.isValidLocalName(s, 0));
+		}
+		assertTrue(NamespaceTrie.isValidLocalName("x:abc", 2));
+		assertFalse(NamespaceTrie.isValidLocalName("abc", 3));
+	}
+
+	/**
+	 * Micro benchmark of abbreviating URIs by the linear scan and by the trie
+	 */
+	@Test
+	public void testTiming()
+	{
+		int runs = 20;
+		// warm up
+		for (int i=0; i<runs; i++)
+		{
+			for (String uri : uris)
+			{
+				abbreviateByScan(uri);
+				abbreviateByTrie(uri);
+			}
+		}
+
+		long start = System.nanoTime();
+		for (int i=0; i<runs; i++)
+			for (String uri : uris)
+				abbreviateByScan(uri);
+		long scan = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i=0; i<runs; i++)
+			for (String uri : uris)
+				abbreviateByTrie(uri);
+		long lookup = System.nanoTime() - start;
+
+		System.out.println(String.format("NamespaceTrie: %d lookups over %d namespaces by scan: %d ms, by trie: %d ms",
+				runs*uris.size(), store.size(), scan/1000000, lookup/1000000));
+		assertTrue(lookup<scan);
+	}
+
+	/**
+	 * The previous implementation of NamespaceServiceImpl.getNamespace
+	 */
+	private String getNamespaceByScan(String uri)
+	{
+		for (Entry<Object, Object> s : namespacesByDescSize)
+		{
+			String namespace = (String)s.getValue();
+			if (uri.startsWith(namespace))
+				return namespace;
+		}
+		return null;
+	}
+
+	/**
+	 * The previous implementation of NamespaceServiceImpl.getAbbreviatedURI,
+	 * without the default namespace
+	 */
+	private String abbreviateByScan(String uri)
+	{
+		for (Entry<Object, Object> s : namespacesByDescSize)
+		{
+			String namespace = (String)s.getValue();
+			if (uri.startsWith(namespace))
+			{
+				String localname = uri.substring(namespace.length());
+				if (!LOCAL_NAME.matcher(localname).matches())
+					return null;
+				return s.getKey() + ":" + localname;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The lookup of NamespaceServiceImpl.getAbbreviatedURI, without the
+	 * default namespace
+	 */
+	private String abbreviateByTrie(String uri)
+	{
+		NamespaceTrie.Node match = trie.longestMatch(uri);
+		if (match==null)
+			return null;
+		if (!NamespaceTrie.isValidLocalName(uri, match.getNamespace().length()))
+			return null;
+		return match.getPrefix() + ":" + uri.substring(match.getNamespace().length());
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Test;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.parser.QueryParserUtil;
+
+import com.fluidops.iwb.api.ReadDataManagerImpl.PrefixAdder;
+
+/**
+ * Compares the declaration of the used prefixes only with the declaration
+ * of all registered namespaces, see {@link PrefixAdder}.
+ */
+public class PrefixAdderTest
+{
+	/**
+	 * The query declares the default namespace itself, such that the
+	 * namespace service is not needed
+	 */
+	private static final String QUERY = "PREFIX : <http://example.org/default/>\n"
+			+ "SELECT ?s ?l WHERE {\n"
+			+ "  ?s rdf:type foaf:Person ; rdfs:label ?l .\n"
+			+ "  ?s :p \"ns1:inLiteral\" .\n"
+			+ "  ?s <http://example.org/ns2:inIRI> ?x .\n"
+			+ "  ?s ?p _:b .\n"
+			+ "  FILTER(?x < 3)\n"
+			+ "} # ns3:inComment";
+
+	private static Map<String, String> namespaces()
+	{
+		Map<String, String> map = new HashMap<String, String>();
+		for (int i=0; i<200; i++)
+			map.put("ns" + i, "http://example.org/ns" + i + "/");
+		map.put("rdf", "http://www.w3.org/1999/02/22-rdf-syntax-ns#");
+		map.put("rdfs", "http://www.w3.org/2000/01/rdf-schema#");
+		map.put("foaf", "http://xmlns.com/foaf/0.1/");
+		return map;
+	}
+
+	@Test
+	public void testFindUsedPrefixes()
+	{
+		assertEquals(new HashSet<String>(Arrays.asList("", "rdf", "rdfs", "foaf")),
+				PrefixAdder.findUsedPrefixes(QUERY));
+	}
+
+	@Test
+	public void testUsedPrefixesParseLikeAllPrefixes() throws Exception
+	{
+		Map<String, String> map = namespaces();
+		String used = PrefixAdder.getUsedPrefixDeclarations(QUERY, map);
+		String all = PrefixAdder.getCheckedPrefixDeclarations(QUERY, map);
+
+		// rdf, rdfs and foaf, the default namespace is declared by the query
+		assertEquals(3, used.split("\r\n").length);
+		assertTrue(all.length()>10*used.length());
+		assertEquals(parse(all + QUERY), parse(used + QUERY));
+	}
+
+	/**
+	 * Micro benchmark of preparing and parsing a query with the used and
+	 * with all registered prefixes declared.
+	 */
+	@Test
+	public void testTiming() throws Exception
+	{
+		Map<String, String> map = namespaces();
+		int runs = 200;
+		// warm up
+		for (int i=0; i<runs; i++)
+		{
+			parse(PrefixAdder.getCheckedPrefixDeclarations(QUERY, map) + QUERY);
+			parse(PrefixAdder.getUsedPrefixDeclarations(QUERY, map) + QUERY);
+		}
+
+		long start = System.nanoTime();
+		for (int i=0; i<runs; i++)
+			parse(PrefixAdder.getCheckedPrefixDeclarations(QUERY, map) + QUERY);
+		long all = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i=0; i<runs; i++)
+			parse(PrefixAdder.getUsedPrefixDeclarations(QUERY, map) + QUERY);
+		long used = System.nanoTime() - start;
+
+		System.out.println(String.format("PrefixAdder: %d queries with all prefixes: %d ms, with used prefixes: %d ms",
+				runs, all/1000000, used/1000000));
+		assertTrue(used<all);
+	}
+
+	private static String parse(String query) throws Exception
+	{
+		return QueryParserUtil.parseQuery(QueryLanguage.SPARQL, query, null).getTupleExpr().toString();
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.GraphQuery;
+import org.openrdf.query.Query;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.QueryResultUtil;
+import org.openrdf.query.TupleQuery;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.resultio.QueryResultIO;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.repository.sparql.SPARQLRepository;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.Rio;
+import org.openrdf.sail.memory.MemoryStore;
+
+/**
+ * Reads an in-memory repository served as SPARQL endpoint over HTTP through
+ * the connection pool, and checks that every connection is returned.
+ */
+public class RepositoryConnectionPoolTest
+{
+	private static final String NS = "http://example.org/";
+
+	private static final String QUERY = "SELECT ?s WHERE { ?s a <" + NS + "A> }";
+
+	private Repository data;
+
+	private Server server;
+
+	private Repository endpoint;
+
+	private RepositoryConnectionPool pool;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		data = new SailRepository(new MemoryStore());
+		data.initialize();
+		ValueFactory vf = data.getValueFactory();
+		RepositoryConnection conn = data.getConnection();
+		try
+		{
+			for (int i=0; i<20; i++)
+			{
+				URI s = vf.createURI(NS, "s" + i);
+				conn.add(s, RDF.TYPE, vf.createURI(NS, i%2==0 ? "A" : "B"));
+				conn.add(s, RDFS.LABEL, vf.createLiteral("s" + i));
+			}
+		}
+		finally
+		{
+			conn.close();
+		}
+
+		server = new Server();
+		SelectChannelConnector connector = new SelectChannelConnector();
+		connector.setPort(0);
+		server.addConnector(connector);
+		ServletContextHandler context = new ServletContextHandler();
+		context.addServlet(new ServletHolder(new EndpointServlet()), "/sparql");
+		server.setHandler(context);
+		server.start();
+
+		endpoint = new SPARQLRepository("http://localhost:" + connector.getLocalPort() + "/sparql");
+		endpoint.initialize();
+		pool = RepositoryConnectionPool.getPool(endpoint);
+		assertNotNull(pool);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		pool.shutdown();
+		endpoint.shutDown();
+		server.stop();
+		data.shutDown();
+	}
+
+	@Test
+	public void testOperationConnection() throws Exception
+	{
+		RepositoryConnection conn = pool.operationConnection();
+		TupleQuery query = conn.prepareTupleQuery(QueryLanguage.SPARQL, QUERY);
+		// preparing a query does not borrow a connection
+		assertEquals(0, pool.getBorrowedCount());
+		assertEquals(10, count(query.evaluate()));
+		assertEquals(0, pool.getActiveCount());
+
+		GraphQuery graphQuery = conn.prepareGraphQuery(QueryLanguage.SPARQL,
+				"CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o }");
+		assertEquals(40, QueryResultUtil.asModel(graphQuery.evaluate()).size());
+
+		// bindings are applied to the query evaluated on the borrowed connection
+		query.setBinding("s", data.getValueFactory().createURI(NS, "s4"));
+		assertEquals(1, count(query.evaluate()));
+		assertEquals(0, pool.getActiveCount());
+		assertEquals(3, pool.getBorrowedCount());
+
+		// closing the shared connection is a no-op
+		conn.close();
+		assertTrue(conn.isOpen());
+		assertFalse(conn.isActive());
+	}
+
+	@Test
+	public void testConcurrentOperations() throws Exception
+	{
+		final RepositoryConnection conn = pool.operationConnection();
+		final AtomicInteger results = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int t=0; t<threads.length; t++)
+		{
+			threads[t] = new Thread() {
+				@Override
+				public void run()
+				{
+					try
+					{
+						for (int i=0; i<5; i++)
+							results.addAndGet(count(conn.prepareTupleQuery(QueryLanguage.SPARQL, QUERY).evaluate()));
+					}
+					catch (Exception e)
+					{
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		assertEquals(8*5*10, results.get());
+		assertEquals(0, pool.getActiveCount());
+		assertTrue(pool.getCreatedCount()<=pool.getMaxSize());
+	}
+
+	@Test
+	public void testLease() throws Exception
+	{
+		RepositoryConnection lease = pool.lease();
+		try
+		{
+			assertEquals(10, count(lease.prepareTupleQuery(QueryLanguage.SPARQL, QUERY).evaluate()));
+			assertEquals(1, pool.getActiveCount());
+		}
+		finally
+		{
+			lease.close();
+		}
+		assertEquals(0, pool.getActiveCount());
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	private static int count(TupleQueryResult res) throws Exception
+	{
+		try
+		{
+			List<BindingSet> list = QueryResultUtil.asList(res);
+			return list.size();
+		}
+		finally
+		{
+			res.close();
+		}
+	}
+
+	private class EndpointServlet extends HttpServlet
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+		{
+			try
+			{
+				RepositoryConnection conn = data.getConnection();
+				try
+				{
+					Query query = conn.prepareQuery(QueryLanguage.SPARQL, req.getParameter("query"));
+					if (query instanceof GraphQuery)
+					{
+						resp.setContentType(RDFFormat.NTRIPLES.getDefaultMIMEType());
+						((GraphQuery)query).evaluate(Rio.createWriter(RDFFormat.NTRIPLES, resp.getOutputStream()));
+					}
+					else
+					{
+						resp.setContentType(TupleQueryResultFormat.SPARQL.getDefaultMIMEType());
+						QueryResultIO.write(((TupleQuery)query).evaluate(), TupleQueryResultFormat.SPARQL, resp.getOutputStream());
+					}
+				}
+				finally
+				{
+					conn.close();
+				}
+			}
+			catch (Exception e)
+			{
+				throw new ServletException(e);
+			}
+		}
+
+		@Override
+		protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+		{
+			doGet(req, resp);
+		}
+	}
+}
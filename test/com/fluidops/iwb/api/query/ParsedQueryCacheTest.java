@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.GraphQueryResult;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.parser.QueryParserUtil;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+import com.fluidops.iwb.api.ReadDataManagerImpl;
+
+/**
+ * Compares queries whose "??" placeholder is resolved by the parsed query
+ * template with the textual substitution of the value.
+ */
+public class ParsedQueryCacheTest
+{
+	private static final String NS = "http://example.org/";
+
+	private static final String[] SELECT_QUERIES = {
+		"SELECT ?p ?o WHERE { ?? ?p ?o }",
+		"SELECT * WHERE { ?? ?p ?o }",
+		"SELECT ?s WHERE { ?s <" + NS + "knows> ?? }",
+		"SELECT ?o WHERE { GRAPH ?? { ?s ?p ?o } }",
+		"SELECT ?s WHERE { ?s ?p ?o FILTER(?o = ??) }",
+		"SELECT ?s ?x WHERE { ?s ?p ?o BIND(?? AS ?x) }",
+		"SELECT ?o WHERE { { SELECT ?o WHERE { ?? ?p ?o } } }",
+		"SELECT ?s WHERE { ?s <" + NS + "label> \"??\" } # ??",
+		"SELECT ?s WHERE { ?s <" + NS + "label> ?l FILTER(?l != '??') }",
+	};
+
+	private static final String CONSTRUCT_QUERY = "CONSTRUCT { ?? <" + NS + "p> ?o } WHERE { ?? ?p ?o }";
+
+	private Repository r;
+
+	private ReadDataManagerImpl dm;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		r = new SailRepository(new MemoryStore());
+		r.initialize();
+		ValueFactory vf = r.getValueFactory();
+		RepositoryConnection conn = r.getConnection();
+		try
+		{
+			for (int i=0; i<10; i++)
+			{
+				URI s = vf.createURI(NS, "s" + i);
+				conn.add(s, vf.createURI(NS, "knows"), vf.createURI(NS, "s" + ((i+1)%10)), vf.createURI(NS, "c" + i%2));
+				conn.add(s, vf.createURI(NS, "label"), vf.createLiteral("s" + i), vf.createURI(NS, "c" + i%2));
+			}
+			conn.add(vf.createURI(NS, "s0"), vf.createURI(NS, "label"), vf.createLiteral("??"));
+		}
+		finally
+		{
+			conn.close();
+		}
+		dm = ReadDataManagerImpl.getDataManager(r);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		r.shutDown();
+	}
+
+	@Test
+	public void testSameAsTextualSubstitution() throws Exception
+	{
+		ValueFactory vf = r.getValueFactory();
+		Value[] values = { vf.createURI(NS, "s1"), vf.createURI(NS, "c0"), vf.createLiteral("s2"),
+				vf.createLiteral("s3", vf.createURI("http://www.w3.org/2001/XMLSchema#string")) };
+		for (String query : SELECT_QUERIES)
+		{
+			for (Value value : values)
+			{
+				// e.g. literals in subject position
+				if (!isValid(query, value))
+					continue;
+				assertEquals(query + " " + value, selectByText(query, value), rows(dm.sparqlSelect(query, false, value, false)));
+			}
+		}
+		for (Value value : values)
+			assertEquals(CONSTRUCT_QUERY + " " + value, constructByText(CONSTRUCT_QUERY, value),
+					statements(dm.sparqlConstruct(CONSTRUCT_QUERY, false, value, false)));
+	}
+
+	@Test
+	public void testParsedPerTemplate() throws Exception
+	{
+		ParsedQueryCache cache = ParsedQueryCache.getInstance();
+		cache.clear();
+		ValueFactory vf = r.getValueFactory();
+		for (int i=0; i<10; i++)
+			rows(dm.sparqlSelect(SELECT_QUERIES[0], false, vf.createURI(NS, "s" + i), false));
+		assertEquals(1, cache.size());
+
+		// placeholders inside literals are resolved textually
+		cache.clear();
+		for (int i=0; i<10; i++)
+			rows(dm.sparqlSelect(SELECT_QUERIES[7], false, vf.createURI(NS, "s" + i), false));
+		assertEquals(10, cache.size());
+	}
+
+	@Test
+	public void testToVariableTemplate()
+	{
+		assertEquals("SELECT * WHERE { ?_resolveValue ?p ?o }", ParsedQueryCache.toVariableTemplate("SELECT * WHERE { ?? ?p ?o }"));
+		assertEquals("SELECT * WHERE { ?s ?p ?o FILTER(?o<?_resolveValue) }", ParsedQueryCache.toVariableTemplate("SELECT * WHERE { ?s ?p ?o FILTER(?o<??) }"));
+		assertNull(ParsedQueryCache.toVariableTemplate("SELECT * WHERE { ?s ?p ?o }"));
+		assertNull(ParsedQueryCache.toVariableTemplate("SELECT * WHERE { ?? ?p \"??\" }"));
+		assertNull(ParsedQueryCache.toVariableTemplate("SELECT * WHERE { ?? ?p <http://example.org/??> }"));
+		assertNull(ParsedQueryCache.toVariableTemplate("SELECT * WHERE { ?? ?p ?o } # ??"));
+		assertNull(ParsedQueryCache.toVariableTemplate("SELECT * WHERE { ?? ?p ?_resolveValue }"));
+	}
+
+	private static boolean isValid(String query, Value value)
+	{
+		try
+		{
+			QueryParserUtil.parseQuery(QueryLanguage.SPARQL, ReadDataManagerImpl.replaceSpecialVariablesInQuery(query, value, false), null);
+			return true;
+		}
+		catch (MalformedQueryException e)
+		{
+			return false;
+		}
+	}
+
+	private Set<String> selectByText(String query, Value value) throws Exception
+	{
+		RepositoryConnection conn = r.getConnection();
+		try
+		{
+			String resolved = ReadDataManagerImpl.replaceSpecialVariablesInQuery(query, value, false);
+			return rows(conn.prepareTupleQuery(QueryLanguage.SPARQL, resolved).evaluate());
+		}
+		finally
+		{
+			conn.close();
+		}
+	}
+
+	private Set<String> constructByText(String query, Value value) throws Exception
+	{
+		RepositoryConnection conn = r.getConnection();
+		try
+		{
+			String resolved = ReadDataManagerImpl.replaceSpecialVariablesInQuery(query, value, false);
+			return statements(conn.prepareGraphQuery(QueryLanguage.SPARQL, resolved).evaluate());
+		}
+		finally
+		{
+			conn.close();
+		}
+	}
+
+	/**
+	 * @return the rows with all their bindings, including the binding names of the result
+	 */
+	private static Set<String> rows(TupleQueryResult res) throws Exception
+	{
+		Set<String> rows = new HashSet<String>();
+		rows.add(res.getBindingNames().toString());
+		try
+		{
+			while (res.hasNext())
+			{
+				BindingSet row = res.next();
+				rows.add(row.toString() + row.size());
+			}
+		}
+		finally
+		{
+			res.close();
+		}
+		return rows;
+	}
+
+	private static Set<String> statements(GraphQueryResult res) throws Exception
+	{
+		Set<String> statements = new HashSet<String>();
+		try
+		{
+			while (res.hasNext())
+			{
+				Statement st = res.next();
+				statements.add(st.toString());
+			}
+		}
+		finally
+		{
+			res.close();
+		}
+		return statements;
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.fluidops.iwb.cache.BoundedCacheMap.ValueUpdate;
+
+public class BoundedCacheMapTest
+{
+	@Test
+	public void testLeastRecentlyUsedEviction()
+	{
+		AtomicLong evictions = new AtomicLong();
+		BoundedCacheMap<String, Integer> map = new BoundedCacheMap<String, Integer>(2, 0, evictions, 1);
+		map.put("a", 1);
+		map.put("b", 2);
+		// access "a", such that "b" is the least recently used entry
+		assertEquals(Integer.valueOf(1), map.get("a"));
+		map.put("c", 3);
+
+		assertEquals(2, map.size());
+		assertEquals(1, evictions.get());
+		assertTrue(map.containsKey("a"));
+		assertFalse(map.containsKey("b"));
+		assertTrue(map.containsKey("c"));
+	}
+
+	@Test
+	public void testBound()
+	{
+		AtomicLong evictions = new AtomicLong();
+		BoundedCacheMap<Integer, Integer> map = new BoundedCacheMap<Integer, Integer>(100, 0, evictions);
+		for (int i=0; i<1000; i++)
+			map.put(i, i);
+		// the bound is rounded up to a multiple of the number of segments
+		int size = map.size();
+		assertTrue(size<=100+BoundedCacheMap.DEFAULT_CONCURRENCY_LEVEL);
+		assertEquals(1000-size, evictions.get());
+	}
+
+	@Test
+	public void testUnbounded()
+	{
+		BoundedCacheMap<Integer, Integer> map = new BoundedCacheMap<Integer, Integer>(0, 0, new AtomicLong());
+		for (int i=0; i<1000; i++)
+			map.put(i, i);
+		assertEquals(1000, map.size());
+
+		map.remove(5);
+		assertNull(map.get(5));
+		assertEquals(999, map.size());
+
+		map.clear();
+		assertEquals(0, map.size());
+	}
+
+	@Test
+	public void testExpiry() throws InterruptedException
+	{
+		AtomicLong evictions = new AtomicLong();
+		BoundedCacheMap<String, Integer> map = new BoundedCacheMap<String, Integer>(10, 20, evictions);
+		map.put("a", 1);
+		map.put("b", 2);
+		assertEquals(Integer.valueOf(1), map.get("a"));
+
+		Thread.sleep(50);
+		assertFalse(map.containsKey("a"));
+		assertNull(map.get("a"));
+		assertEquals(0, map.size());
+		assertEquals(2, evictions.get());
+	}
+
+	@Test
+	public void testConcurrentUpdate() throws InterruptedException
+	{
+		final BoundedCacheMap<String, Integer> map = new BoundedCacheMap<String, Integer>(10, 0, new AtomicLong());
+		final ValueUpdate<Integer> increment = new ValueUpdate<Integer>() {
+			@Override
+			public Integer update(Integer current)
+			{
+				return current==null ? 1 : current+1;
+			}
+		};
+
+		Thread[] threads = new Thread[8];
+		for (int t=0; t<threads.length; t++)
+		{
+			threads[t] = new Thread() {
+				@Override
+				public void run()
+				{
+					for (int i=0; i<1000; i++)
+						map.update("counter", increment);
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(Integer.valueOf(8000), map.get("counter"));
+
+		// returning null removes the entry
+		map.update("counter", new ValueUpdate<Integer>() {
+			@Override
+			public Integer update(Integer current)
+			{
+				return null;
+			}
+		});
+		assertFalse(map.containsKey("counter"));
+	}
+
+	/**
+	 * Micro benchmark of concurrent lookups on a single locked map, i.e. the
+	 * previous storage of the repository caches, and on the striped map.
+	 * Prints the times, as the speedup depends on the available cores.
+	 */
+	@Test
+	public void testTiming() throws InterruptedException
+	{
+		// warm up
+		timeLookups(1);
+		timeLookups(BoundedCacheMap.DEFAULT_CONCURRENCY_LEVEL);
+
+		long single = timeLookups(1);
+		long striped = timeLookups(BoundedCacheMap.DEFAULT_CONCURRENCY_LEVEL);
+		System.out.println(String.format("BoundedCacheMap: %d threads on %d cores, single lock: %d ms, %d segments: %d ms",
+				8, Runtime.getRuntime().availableProcessors(), single, BoundedCacheMap.DEFAULT_CONCURRENCY_LEVEL, striped));
+	}
+
+	/**
+	 * @return the time in ms for 8 threads doing 200000 lookups each, one in
+	 * 			ten being an update
+	 */
+	private long timeLookups(int concurrencyLevel) throws InterruptedException
+	{
+		final BoundedCacheMap<Integer, Integer> map = new BoundedCacheMap<Integer, Integer>(10000, 0, new AtomicLong(), concurrencyLevel);
+		for (int i=0; i<10000; i++)
+			map.put(i, i);
+
+		Thread[] threads = new Thread[8];
+		for (int t=0; t<threads.length; t++)
+		{
+			final int seed = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run()
+				{
+					int key = seed;
+					for (int i=0; i<200000; i++)
+					{
+						key = (key * 31 + 7) % 10000;
+						if (i%10==0)
+							map.put(key, i);
+						else
+							map.get(key);
+					}
+				}
+			};
+		}
+		long start = System.nanoTime();
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+		long time = (System.nanoTime() - start) / 1000000;
+
+		assertEquals(10000, map.size());
+		return time;
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+import com.fluidops.iwb.Global;
+import com.fluidops.iwb.api.ReadDataManagerImpl;
+import com.fluidops.iwb.api.ReadWriteDataManagerImpl;
+
+public class QueryResultCacheTest
+{
+	private static final String NS = "http://example.org/";
+
+	private Repository previous;
+
+	private Repository r;
+
+	private QueryResultCache cache = QueryResultCache.getInstance();
+
+	@Before
+	public void setUp() throws Exception
+	{
+		previous = Global.repository;
+		r = new SailRepository(new MemoryStore());
+		r.initialize();
+		Global.repository = r;
+
+		ValueFactory vf = r.getValueFactory();
+		RepositoryConnection conn = r.getConnection();
+		try
+		{
+			for (int i=0; i<10; i++)
+			{
+				conn.add(vf.createURI(NS, "s" + i), vf.createURI(NS, "p"), vf.createLiteral(i), vf.createURI(NS, "c1"));
+				conn.add(vf.createURI(NS, "s" + i), vf.createURI(NS, "q"), vf.createLiteral(i), vf.createURI(NS, "c2"));
+			}
+		}
+		finally
+		{
+			conn.close();
+		}
+		cache.invalidate();
+		cache.resetStatistics();
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		cache.invalidate();
+		Global.repository = previous;
+		r.shutDown();
+	}
+
+	@Test
+	public void testNoCacheHint()
+	{
+		assertTrue(QueryResultCache.hasNoCacheHint("SELECT * WHERE { ?s ?p ?o } # nocache"));
+		assertTrue(QueryResultCache.hasNoCacheHint("# NOCACHE\nSELECT * WHERE { ?s ?p ?o }"));
+		assertTrue(QueryResultCache.hasNoCacheHint("SELECT * WHERE { ?s ?p ?o FILTER(?o < 5) } #nocache"));
+		assertFalse(QueryResultCache.hasNoCacheHint("SELECT * WHERE { <http://example.org/#nocache> ?p ?o }"));
+		assertFalse(QueryResultCache.hasNoCacheHint("SELECT * WHERE { ?s ?p \"# nocache\" }"));
+		assertFalse(QueryResultCache.hasNoCacheHint("SELECT * WHERE { ?s ?p '''a\n# nocache''' }"));
+		assertFalse(QueryResultCache.hasNoCacheHint("SELECT * WHERE { ?s ?p ?o } # nocaches"));
+	}
+
+	@Test
+	public void testCachedAfterCompleteRead() throws Exception
+	{
+		String query = "SELECT ?s WHERE { ?s <" + NS + "p> ?o }";
+		QueryResultCache.Key key = cache.createKey(r, query, false);
+		assertNotNull(key);
+		assertNull(cache.getTupleResult(key));
+
+		TupleQueryResult res = cache.cacheTupleResult(key, evaluate(query));
+		// not stored before the result has been read completely
+		assertNull(cache.getTupleResult(cache.createKey(r, query, false)));
+		assertEquals(10, count(res));
+
+		TupleQueryResult cached = cache.getTupleResult(cache.createKey(r, query, false));
+		assertNotNull(cached);
+		assertEquals(10, count(cached));
+	}
+
+	@Test
+	public void testNotCachedIfClosedEarly() throws Exception
+	{
+		String query = "SELECT ?s WHERE { ?s <" + NS + "p> ?o }";
+		TupleQueryResult res = cache.cacheTupleResult(cache.createKey(r, query, false), evaluate(query));
+		res.next();
+		res.close();
+		assertNull(cache.getTupleResult(cache.createKey(r, query, false)));
+	}
+
+	@Test
+	public void testInvalidateByContext() throws Exception
+	{
+		String inC1 = "SELECT ?s WHERE { GRAPH <" + NS + "c1> { ?s ?p ?o } }";
+		String inC2 = "SELECT ?s FROM <" + NS + "c2> WHERE { ?s ?p ?o }";
+		String any = "SELECT ?s WHERE { ?s ?p ?o }";
+		for (String query : new String[] { inC1, inC2, any })
+			count(cache.cacheTupleResult(cache.createKey(r, query, false), evaluate(query)));
+		assertEquals(3, cache.size());
+
+		URI c1 = r.getValueFactory().createURI(NS, "c1");
+		cache.invalidate(r, Collections.<Resource>singleton(c1));
+		assertNull(cache.getTupleResult(cache.createKey(r, inC1, false)));
+		assertNotNull(cache.getTupleResult(cache.createKey(r, inC2, false)));
+		assertNull(cache.getTupleResult(cache.createKey(r, any, false)));
+
+		// writes to the default context only affect unrestricted queries
+		cache.invalidate(r, Collections.<Resource>singleton(null));
+		assertNotNull(cache.getTupleResult(cache.createKey(r, inC2, false)));
+
+		// unknown contexts
+		cache.invalidate(r, (Set<Resource>)null);
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testNotStoredAfterConcurrentWrite() throws Exception
+	{
+		String query = "SELECT ?s WHERE { ?s ?p ?o }";
+		TupleQueryResult res = cache.cacheTupleResult(cache.createKey(r, query, false), evaluate(query));
+		cache.invalidate(r);
+		count(res);
+		assertNull(cache.getTupleResult(cache.createKey(r, query, false)));
+	}
+
+	@Test
+	public void testInvalidatedByUpdate() throws Exception
+	{
+		String query = "SELECT ?s WHERE { GRAPH <" + NS + "c1> { ?s ?p ?o } }";
+		ReadDataManagerImpl dm = ReadDataManagerImpl.getDataManager(r);
+		assertEquals(10, count(dm.sparqlSelect(query)));
+		assertEquals(10, count(dm.sparqlSelect(query)));
+		assertEquals(1, cache.getStatistics().getHits());
+
+		// the update is executed in autocommit mode
+		ReadWriteDataManagerImpl wdm = ReadWriteDataManagerImpl.openDataManager(r);
+		try
+		{
+			wdm.sparqlUpdate("INSERT DATA { GRAPH <" + NS + "c1> { <" + NS + "s10> <" + NS + "p> 10 } }", null, false, null);
+		}
+		finally
+		{
+			wdm.close();
+		}
+		assertEquals(11, count(dm.sparqlSelect(query)));
+	}
+
+	private TupleQueryResult evaluate(String query) throws Exception
+	{
+		// the connection is not closed, the memory store is discarded after the test
+		return r.getConnection().prepareTupleQuery(QueryLanguage.SPARQL, query).evaluate();
+	}
+
+	private static int count(TupleQueryResult res) throws Exception
+	{
+		int count = 0;
+		while (res.hasNext())
+		{
+			res.next();
+			count++;
+		}
+		res.close();
+		return count;
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.facets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+public class FacetIndexTest
+{
+	private static final String NS = "http://example.org/";
+
+	private final ValueFactory vf = ValueFactoryImpl.getInstance();
+
+	private final URI type = vf.createURI(NS, "type");
+
+	private final URI color = vf.createURI(NS, "color");
+
+	@Test
+	public void testUnionAndIntersect()
+	{
+		assertArrayEquals(new int[] { 1, 2, 3, 5, 8 }, FacetIndex.union(new int[] { 1, 3, 5 }, new int[] { 2, 3, 8 }));
+		assertArrayEquals(new int[] { 3 }, FacetIndex.intersect(new int[] { 1, 3, 5 }, new int[] { 2, 3, 8 }));
+		assertArrayEquals(new int[] { 4 }, FacetIndex.union(new int[0], new int[] { 4 }));
+		assertArrayEquals(new int[0], FacetIndex.intersect(new int[] { 1 }, new int[0]));
+	}
+
+	@Test
+	public void testRefineAndCount()
+	{
+		FacetIndex index = createIndex();
+		assertEquals(4, index.size());
+
+		// no selection: all resources
+		assertArrayEquals(new int[] { 0, 1, 2, 3 }, index.refine(new HashMap<URI, Set<Value>>()));
+		Map<String, Integer> counts = count(index, index.all());
+		assertEquals(Integer.valueOf(3), counts.get("type=car"));
+		assertEquals(Integer.valueOf(2), counts.get("color=red"));
+
+		// values of the same facet are combined by union, facets by intersection
+		Map<URI, Set<Value>> selection = new HashMap<URI, Set<Value>>();
+		selection.put(color, new HashSet<Value>(Arrays.<Value>asList(vf.createLiteral("red"), vf.createLiteral("blue"))));
+		assertEquals(Arrays.asList(r(0), r(1), r(3)), index.getResources(index.refine(selection)));
+		selection.put(type, Collections.<Value>singleton(vf.createURI(NS, "car")));
+		int[] refined = index.refine(selection);
+		assertEquals(Arrays.asList(r(0), r(1)), index.getResources(refined));
+
+		counts = count(index, refined);
+		assertEquals(Integer.valueOf(2), counts.get("type=car"));
+		assertEquals(Integer.valueOf(1), counts.get("color=blue"));
+		assertNull(counts.get("type=bike"));
+
+		// unknown values match nothing
+		selection.put(type, Collections.<Value>singleton(vf.createURI(NS, "plane")));
+		assertEquals(0, index.refine(selection).length);
+	}
+
+	@Test
+	public void testDuplicatesAndForeignResources()
+	{
+		FacetIndex.Builder builder = new FacetIndex.Builder(Arrays.asList(r(0), r(1), r(0)), Long.MAX_VALUE);
+		builder.add(r(1), type, vf.createURI(NS, "car"));
+		builder.add(r(0), type, vf.createURI(NS, "car"));
+		// the same statement in another context
+		builder.add(r(1), type, vf.createURI(NS, "car"));
+		builder.add(r(9), type, vf.createURI(NS, "car"));
+		FacetIndex index = builder.build();
+
+		assertEquals(2, index.size());
+		Map<URI, Set<Value>> selection = new HashMap<URI, Set<Value>>();
+		selection.put(type, Collections.<Value>singleton(vf.createURI(NS, "car")));
+		assertArrayEquals(new int[] { 0, 1 }, index.refine(selection));
+		assertEquals(Integer.valueOf(2), count(index, index.all()).get("type=car"));
+	}
+
+	@Test
+	public void testMemoryBudget()
+	{
+		FacetIndex.Builder builder = new FacetIndex.Builder(Arrays.asList(r(0), r(1)), 400);
+		assertEquals(true, builder.add(r(0), type, vf.createURI(NS, "car")));
+		assertEquals(false, builder.add(r(1), color, vf.createLiteral("a rather long literal value exceeding the budget")));
+	}
+
+	/**
+	 * r0: car, red; r1: car, blue; r2: car; r3: bike, red
+	 */
+	private FacetIndex createIndex()
+	{
+		FacetIndex.Builder builder = new FacetIndex.Builder(Arrays.asList(r(0), r(1), r(2), r(3)), Long.MAX_VALUE);
+		builder.add(r(3), type, vf.createURI(NS, "bike"));
+		builder.add(r(3), color, vf.createLiteral("red"));
+		builder.add(r(0), type, vf.createURI(NS, "car"));
+		builder.add(r(0), color, vf.createLiteral("red"));
+		builder.add(r(1), type, vf.createURI(NS, "car"));
+		builder.add(r(1), color, vf.createLiteral("blue"));
+		builder.add(r(2), type, vf.createURI(NS, "car"));
+		return builder.build();
+	}
+
+	private URI r(int i)
+	{
+		return vf.createURI(NS, "r" + i);
+	}
+
+	private static Map<String, Integer> count(FacetIndex index, int[] current)
+	{
+		final Map<String, Integer> res = new HashMap<String, Integer>();
+		index.count(current, new FacetIndex.CountHandler()
+		{
+			@Override
+			public void add(URI predicate, Value value, int count)
+			{
+				String name = value instanceof URI ? ((URI)value).getLocalName() : value.stringValue();
+				res.put(predicate.getLocalName() + "=" + name, count);
+			}
+		});
+		return res;
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.impl.MapBindingSet;
+import org.openrdf.query.impl.TupleQueryResultImpl;
+
+/**
+ * Tests the lazy reading and the truncation of streamed query results.
+ */
+public class StreamingTupleQueryResultImplTest
+{
+	/**
+	 * Source of 100 rows which counts the rows read
+	 */
+	private static class Source extends TupleQueryResultImpl
+	{
+		private int read = 0;
+
+		private Source(final Iterator<BindingSet> rows)
+		{
+			super(Arrays.asList("x"), new Iterator<BindingSet>() {
+				@Override
+				public boolean hasNext()
+				{
+					return rows.hasNext();
+				}
+
+				@Override
+				public BindingSet next()
+				{
+					return rows.next();
+				}
+
+				@Override
+				public void remove()
+				{
+					throw new UnsupportedOperationException();
+				}
+			});
+		}
+
+		@Override
+		public BindingSet next() throws QueryEvaluationException
+		{
+			read++;
+			return super.next();
+		}
+	}
+
+	private static Source source()
+	{
+		List<BindingSet> rows = new ArrayList<BindingSet>();
+		for (int i=0; i<100; i++)
+		{
+			MapBindingSet bs = new MapBindingSet();
+			bs.addBinding("x", new LiteralImpl("value" + i));
+			rows.add(bs);
+		}
+		return new Source(rows.iterator());
+	}
+
+	@Test
+	public void testLazyRead() throws Exception
+	{
+		Source source = source();
+		StreamingTupleQueryResultImpl res = new StreamingTupleQueryResultImpl(source, 0, 0);
+		assertEquals(10, res.getReducedResultSet(10).size());
+		assertEquals(10, source.read);
+
+		// replay from the start
+		assertEquals("\"value0\"", res.next().getValue("x").toString());
+		assertEquals(100, res.size());
+		assertTrue(res.isExhausted());
+		assertFalse(res.isTruncated());
+	}
+
+	@Test
+	public void testTruncatedByRows() throws Exception
+	{
+		StreamingTupleQueryResultImpl res = new StreamingTupleQueryResultImpl(source(), 30, 0);
+		int count = 0;
+		while (res.hasNext())
+		{
+			res.next();
+			count++;
+		}
+		assertEquals(30, count);
+		assertEquals(30, res.size());
+		assertTrue(res.isTruncated());
+	}
+
+	@Test
+	public void testTruncatedByBytes() throws Exception
+	{
+		// each row is estimated at 48 + 2*(1+7) bytes
+		StreamingTupleQueryResultImpl res = new StreamingTupleQueryResultImpl(source(), 0, 20*64+10);
+		assertEquals(20, res.size());
+		assertTrue(res.isTruncated());
+	}
+
+	@Test
+	public void testClose() throws Exception
+	{
+		StreamingTupleQueryResultImpl res = new StreamingTupleQueryResultImpl(source(), 0, 0);
+		res.prefetch(5);
+		res.close();
+		assertEquals(5, res.size());
+		assertTrue(res.isTruncated());
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CSVTokenizerTest
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		file = File.createTempFile("tokenizer", ".csv");
+	}
+
+	@After
+	public void tearDown()
+	{
+		file.delete();
+	}
+
+	@Test
+	public void testQuotedFields() throws IOException
+	{
+		write("a,\"b,c\",\"d\"\"e\",\"f\r\ng\",\"\"\n".getBytes(UTF8));
+		List<List<String>> records = read(0, Long.MAX_VALUE);
+		assertEquals(1, records.size());
+		assertEquals(Arrays.asList("a", "b,c", "d\"e", "f\r\ng", ""), records.get(0));
+	}
+
+	@Test
+	public void testLineBreaks() throws IOException
+	{
+		// CRLF, CR and LF line breaks, blank lines are skipped
+		write("a,b\r\nc,d\re,f\n\n\r\ng,h".getBytes(UTF8));
+		List<List<String>> expected = new ArrayList<List<String>>();
+		expected.add(Arrays.asList("a", "b"));
+		expected.add(Arrays.asList("c", "d"));
+		expected.add(Arrays.asList("e", "f"));
+		expected.add(Arrays.asList("g", "h"));
+		assertEquals(expected, read(0, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testByteOrderMark() throws IOException
+	{
+		byte[] content = "ä,b\n".getBytes(UTF8);
+		byte[] bytes = new byte[content.length+3];
+		bytes[0] = (byte)0xEF;
+		bytes[1] = (byte)0xBB;
+		bytes[2] = (byte)0xBF;
+		System.arraycopy(content, 0, bytes, 3, content.length);
+		write(bytes);
+		assertEquals(Arrays.asList(Arrays.asList("ä", "b")), read(0, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testRangesWithLineFeed() throws IOException
+	{
+		testRanges("\n");
+	}
+
+	@Test
+	public void testRangesWithCarriageReturn() throws IOException
+	{
+		testRanges("\r");
+	}
+
+	@Test
+	public void testRangesWithCarriageReturnLineFeed() throws IOException
+	{
+		testRanges("\r\n");
+	}
+
+	@Test
+	public void testSplit() throws IOException
+	{
+		// at most one chunk per MB
+		write(new byte[5*1024*1024]);
+		long[] chunks = CSVTokenizer.split(file, 10, 4);
+		assertEquals(5, chunks.length);
+		assertEquals(10, chunks[0]);
+		assertEquals(file.length(), chunks[4]);
+		for (int i=1; i<chunks.length; i++)
+			if (chunks[i]<=chunks[i-1])
+				fail("Chunks not increasing: " + Arrays.toString(chunks));
+
+		// small files are not split
+		write(new byte[100]);
+		assertEquals(2, CSVTokenizer.split(file, 0, 4).length);
+	}
+
+	@Test
+	public void testIllegalSeparator() throws IOException
+	{
+		write(new byte[0]);
+		try
+		{
+			new CSVTokenizer(file, '"', UTF8).close();
+			fail("Expected IllegalArgumentException");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+	/**
+	 * Splits a file with the given line break at every position and checks
+	 * that the two ranges together contain each record exactly once.
+	 */
+	private void testRanges(String lineBreak) throws IOException
+	{
+		StringBuilder content = new StringBuilder();
+		List<List<String>> expected = new ArrayList<List<String>>();
+		for (int i=0; i<10; i++)
+		{
+			content.append("k").append(i).append(",v").append(i).append(lineBreak);
+			expected.add(Arrays.asList("k" + i, "v" + i));
+		}
+		write(content.toString().getBytes(UTF8));
+
+		for (long split=0; split<=file.length(); split++)
+		{
+			List<List<String>> records = read(0, split);
+			records.addAll(read(split, Long.MAX_VALUE));
+			assertEquals(expected, records);
+		}
+	}
+
+	private List<List<String>> read(long start, long end) throws IOException
+	{
+		List<List<String>> res = new ArrayList<List<String>>();
+		CSVTokenizer tokenizer = new CSVTokenizer(file, ',', UTF8, start, end);
+		try
+		{
+			List<String> record = new ArrayList<String>();
+			while (tokenizer.next(record))
+			{
+				res.add(record);
+				record = new ArrayList<String>();
+			}
+		}
+		finally
+		{
+			tokenizer.close();
+		}
+		return res;
+	}
+
+	private void write(byte[] bytes) throws IOException
+	{
+		OutputStream out = new FileOutputStream(file);
+		try
+		{
+			out.write(bytes);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.BNode;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.query.GraphQuery;
+import org.openrdf.query.Query;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQuery;
+import org.openrdf.query.resultio.QueryResultIO;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.repository.sparql.SPARQLRepository;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.StatementCollector;
+import org.openrdf.sail.memory.MemoryStore;
+
+import com.fluidops.iwb.provider.SPARQLEndpointProvider.PagingMode;
+import com.fluidops.iwb.provider.SPARQLEndpointProvider.PartitioningMode;
+
+/**
+ * Harvests an in-memory repository served as SPARQL endpoint over HTTP.
+ */
+public class SPARQLHarvesterTest
+{
+	private static final String NS = "http://example.org/";
+
+	private static final String QUERY = "CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o }";
+
+	private Repository data;
+
+	private Server server;
+
+	private Repository endpoint;
+
+	/**
+	 * Number of requests to fail before answering, for testing retries
+	 */
+	private final AtomicInteger failures = new AtomicInteger();
+
+	@Before
+	public void setUp() throws Exception
+	{
+		data = new SailRepository(new MemoryStore());
+		data.initialize();
+		ValueFactory vf = data.getValueFactory();
+		RepositoryConnection conn = data.getConnection();
+		try
+		{
+			for (int i=0; i<40; i++)
+			{
+				URI s = vf.createURI(NS, "s" + i);
+				conn.add(s, RDF.TYPE, vf.createURI(NS, i%3==0 ? "A" : "B"));
+				// several statements per subject, i.e. ties of the key
+				conn.add(s, vf.createURI(NS, "p"), vf.createLiteral(i));
+				conn.add(s, vf.createURI(NS, "p"), vf.createLiteral("x" + i));
+				if (i%5==0)
+					conn.add(vf.createBNode("b" + i), vf.createURI(NS, "q"), s);
+			}
+		}
+		finally
+		{
+			conn.close();
+		}
+
+		server = new Server();
+		SelectChannelConnector connector = new SelectChannelConnector();
+		connector.setPort(0);
+		server.addConnector(connector);
+		ServletContextHandler context = new ServletContextHandler();
+		context.addServlet(new ServletHolder(new EndpointServlet()), "/sparql");
+		server.setHandler(context);
+		server.start();
+
+		endpoint = new SPARQLRepository("http://localhost:" + connector.getLocalPort() + "/sparql");
+		endpoint.initialize();
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		endpoint.shutDown();
+		server.stop();
+		data.shutDown();
+	}
+
+	@Test
+	public void testOrderBy()
+	{
+		assertEquals(" ORDER BY ?s ?p ?o", SPARQLHarvester.ConstructQuery.parse(QUERY).orderBy("?s"));
+		assertEquals(" ORDER BY ?o ?s ?p", SPARQLHarvester.ConstructQuery.parse(QUERY).orderBy("?o"));
+		assertEquals(" ORDER BY ?s ?label", SPARQLHarvester.ConstructQuery.parse(
+				"CONSTRUCT { ?s <" + NS + "label> ?label } WHERE { ?s ?p ?label }").orderBy("?s"));
+	}
+
+	@Test
+	public void testModifiersRejected()
+	{
+		try
+		{
+			SPARQLHarvester.ConstructQuery.parse(QUERY + " LIMIT 10");
+			fail("Expected IllegalArgumentException");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testOffsetPaging() throws Exception
+	{
+		// small pages with many ties of the key, fetched concurrently
+		assertEquals(allStatements(), harvest(PagingMode.OFFSET, PartitioningMode.NONE, 7, 3));
+	}
+
+	@Test
+	public void testOffsetPagingPartitioned() throws Exception
+	{
+		assertEquals(allStatements(), harvest(PagingMode.OFFSET, PartitioningMode.SUBJECT_HASH, 5, 2));
+	}
+
+	@Test
+	public void testKeysetPagingSkipsBlankNodes() throws Exception
+	{
+		Set<String> expected = new HashSet<String>();
+		for (String st : allStatements())
+			if (!st.startsWith("_:"))
+				expected.add(st);
+		assertEquals(expected, harvest(PagingMode.KEYSET, PartitioningMode.CLASS, 4, 2));
+	}
+
+	@Test
+	public void testRetry() throws Exception
+	{
+		failures.set(1);
+		assertEquals(allStatements(), harvest(PagingMode.NONE, PartitioningMode.SUBJECT_HASH, 0, 1));
+		assertEquals(0, failures.get());
+	}
+
+	@Test
+	public void testCheckpointRemovedOnChange() throws Exception
+	{
+		String id = "test " + System.nanoTime();
+		List<Statement> stmts = new ArrayList<Statement>();
+		stmts.add(data.getValueFactory().createStatement(data.getValueFactory().createURI(NS, "s"), RDF.TYPE, data.getValueFactory().createURI(NS, "A")));
+
+		SPARQLHarvester.Checkpoint checkpoint = new SPARQLHarvester.Checkpoint(id, "query 1");
+		checkpoint.store("page", stmts);
+		assertEquals(stmts, new SPARQLHarvester.Checkpoint(id, "query 1").load("page"));
+		assertNull(new SPARQLHarvester.Checkpoint(id, "query 2").load("page"));
+		assertNull(new SPARQLHarvester.Checkpoint(id, "query 1").load("page"));
+		checkpoint.clear();
+	}
+
+	private Set<String> harvest(PagingMode paging, PartitioningMode partitioning, int pageSize, int concurrency) throws Exception
+	{
+		SPARQLEndpointProvider.Config config = new SPARQLEndpointProvider.Config();
+		config.query = QUERY;
+		config.paging = paging;
+		config.partitioning = partitioning;
+		config.pageSize = pageSize;
+		config.partitionCount = 4;
+		config.concurrency = concurrency;
+		List<Statement> res = new ArrayList<Statement>();
+		new SPARQLHarvester(endpoint, config, null).harvest(new StatementCollector(res));
+		return toStrings(res);
+	}
+
+	private Set<String> allStatements() throws Exception
+	{
+		RepositoryConnection conn = data.getConnection();
+		try
+		{
+			return toStrings(conn.getStatements(null, null, null, false).asList());
+		}
+		finally
+		{
+			conn.close();
+		}
+	}
+
+	private static Set<String> toStrings(List<Statement> stmts)
+	{
+		Set<String> res = new HashSet<String>();
+		for (Statement st : stmts)
+		{
+			// blank node labels are not preserved by the endpoint
+			String subject = st.getSubject() instanceof BNode ? "_:" : st.getSubject().toString();
+			res.add(subject + " " + st.getPredicate() + " " + st.getObject());
+		}
+		// no duplicates across pages
+		assertEquals(stmts.size(), res.size());
+		return res;
+	}
+
+	/**
+	 * Minimal SPARQL protocol endpoint over the in-memory repository
+	 */
+	private class EndpointServlet extends HttpServlet
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+		{
+			if (failures.getAndDecrement()>0)
+			{
+				resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				return;
+			}
+			failures.set(Math.max(failures.get(), 0));
+			try
+			{
+				RepositoryConnection conn = data.getConnection();
+				try
+				{
+					Query query = conn.prepareQuery(QueryLanguage.SPARQL, req.getParameter("query"));
+					if (query instanceof GraphQuery)
+					{
+						resp.setContentType(RDFFormat.NTRIPLES.getDefaultMIMEType());
+						((GraphQuery)query).evaluate(Rio.createWriter(RDFFormat.NTRIPLES, resp.getOutputStream()));
+					}
+					else
+					{
+						resp.setContentType(TupleQueryResultFormat.SPARQL.getDefaultMIMEType());
+						QueryResultIO.write(((TupleQuery)query).evaluate(), TupleQueryResultFormat.SPARQL, resp.getOutputStream());
+					}
+				}
+				finally
+				{
+					conn.close();
+				}
+			}
+			catch (Exception e)
+			{
+				throw new ServletException(e);
+			}
+		}
+
+		@Override
+		protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+		{
+			doGet(req, resp);
+		}
+	}
+}
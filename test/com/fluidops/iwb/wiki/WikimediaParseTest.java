@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2008-2013, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.wiki;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+import com.fluidops.ajax.components.FComponent;
+import com.fluidops.iwb.wiki.FluidWikiModel.TemplateResolver;
+import com.fluidops.iwb.wiki.parserfunction.IWBMagicWords;
+
+/**
+ * Compares the included templates computed by the single template expansion
+ * pass of {@link Wikimedia#parse(String, URI)} with the previous pass which
+ * did not expand the templates.
+ */
+public class WikimediaParseTest
+{
+	private static final URI PAGE = ValueFactoryImpl.getInstance().createURI("http://www.fluidops.com/resource/Page");
+
+	private WikiStorage storage;
+
+	private File wikiRoot;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		storage = Wikimedia.wikiStorage;
+		wikiRoot = File.createTempFile("wiki", "");
+		wikiRoot.delete();
+		wikiRoot.mkdirs();
+		Wikimedia.wikiStorage = new WikiFileStorage(wikiRoot);
+
+		store("A", "a {{B}} {{{1}}}");
+		store("B", "b {{C}} {{#if: x|{{D}}}}");
+		store("C", "c {{A}}");
+		store("D", "d");
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		Wikimedia.wikiStorage = storage;
+		FileUtils.deleteDirectory(wikiRoot);
+	}
+
+	@Test
+	public void testNestedIncludes()
+	{
+		String[] wikiTexts = {
+				"{{A}}",
+				"{{A}} {{B}} {{A}}",
+				"{{C}} text {{D}}",
+				"{{A|{{D}}}}",
+				"{{A|x={{B|{{C}}}}}}",
+				"{{#if: x|{{B}}|{{C}}}}",
+				"{{Missing}} {{A}}",
+				"{{PAGENAME}} {{#widget: Unknown}} {{D}}",
+				"no templates" };
+		for (String wikiText : wikiTexts)
+			assertEquals(wikiText, parseWithoutExpansion(wikiText), Wikimedia.parseIncludedTemplates(wikiText, PAGE));
+
+		assertEquals(Arrays.asList(template("A"), template("B"), template("A")),
+				Wikimedia.parseIncludedTemplates("{{A}} {{B}} {{A}}", PAGE));
+	}
+
+	@Test
+	public void testChangedTemplate() throws Exception
+	{
+		String wikiText = "{{A}}";
+		assertEquals(Arrays.asList(template("A")), Wikimedia.parseIncludedTemplates(wikiText, PAGE));
+		store("A", "a {{D}}");
+		assertEquals(Arrays.asList(template("A")), Wikimedia.parseIncludedTemplates(wikiText, PAGE));
+		assertEquals(parseWithoutExpansion("{{A}} {{D}}"), Wikimedia.parseIncludedTemplates("{{A}} {{D}}", PAGE));
+	}
+
+	private void store(String name, String content) throws Exception
+	{
+		Wikimedia.wikiStorage.storeWikiContent(template(name), content, null, null);
+	}
+
+	private static URI template(String name)
+	{
+		return FluidWikiModel.resolveTemplateURI(name, "Template");
+	}
+
+	/**
+	 * The previous implementation of Wikimedia.parseIncludedTemplates
+	 */
+	private static List<URI> parseWithoutExpansion(String wikiText)
+	{
+		final List<URI> res = new ArrayList<URI>();
+		FluidWikiModel wikiModel = new FluidWikiModel(PAGE);
+		wikiModel.addTemplateResolver(new TemplateResolver() {
+			@Override
+			public String resolveTemplate(String namespace, String templateName,
+					Map<String, String> templateParameters, URI page, FComponent parent)
+			{
+				if (!templateName.startsWith("#") && !IWBMagicWords.isMagicWord(templateName))
+				{
+					URI templateURI = FluidWikiModel.resolveTemplateURI(templateName, namespace);
+					if (templateURI!=null)
+						res.add(templateURI);
+				}
+				return null;
+			}
+		});
+		wikiModel.setUp();
+		wikiModel.parseTemplates(wikiText);
+		return res;
+	}
+}